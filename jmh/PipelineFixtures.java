@@ -0,0 +1,325 @@
+import utils.LongHashMap;
+import utils.iniSettings.INISettings;
+import utils.iniSettings.INISettingsRecord;
+import utils.iniSettings.INISettingsSection;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Подготовленные операции основного пути обработки нажатий для замеров JMH (см. пакет <code>benchmarks</code>).
+ * Классы приложения находятся в пакете по умолчанию, а JMH не допускает замеров в нём, поэтому сами замеры лежат в
+ * пакете <code>benchmarks</code> и получают отсюда операции в виде <code>LongSupplier</code>.
+ * Каждая операция возвращает значение, зависящее от её результата, чтобы JMH мог передать его в Blackhole.
+ */
+public final class PipelineFixtures {
+
+    private PipelineFixtures() {
+    }
+
+    /**
+     * Операция вместе с действиями, которые необходимо выполнить после замера.
+     */
+    private static final class Operation implements LongSupplier, Closeable {
+        private final LongSupplier body;
+        private final Closeable cleanup;
+
+        Operation(LongSupplier body, Closeable cleanup) {
+            this.body = body;
+            this.cleanup = cleanup;
+        }
+
+        @Override
+        public long getAsLong() {
+            return body.getAsLong();
+        }
+
+        @Override
+        public void close() throws IOException {
+            cleanup.close();
+        }
+    }
+
+    /**
+     * Канал передачи данных, который ничего не передаёт. Нужен, чтобы создать подключение без модуля.
+     */
+    private static final class NullTransport implements SerialTransport {
+        @Override
+        public void open(DataListener listener) {
+        }
+
+        @Override
+        public void write(byte[] data) {
+        }
+
+        @Override
+        public String getPortName() {
+            return "NULL";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Создаёт операцию для замера. Если операция реализует <code>Closeable</code>, её нужно закрыть после замера.
+     *
+     * @param operation Название операции: decode, lookup, interpreted, compiled, melody, loadProfile
+     * @param argument  Параметр операции (см. соответствующий метод)
+     * @return Измеряемая операция
+     * @throws Exception В случае ошибки подготовки операции.
+     */
+    public static LongSupplier create(String operation, String argument) throws Exception {
+        switch (operation) {
+            case "decode":
+                return decode(argument);
+            case "lookup":
+                return lookup(Integer.parseInt(argument));
+            case "interpreted":
+                return interpreted(argument);
+            case "compiled":
+                return compiled(argument);
+            case "melody":
+                return melody(argument);
+            case "loadProfile":
+                return loadProfile(Integer.parseInt(argument));
+            default:
+                throw new IllegalArgumentException("Неизвестная операция: " + operation);
+        }
+    }
+
+    /**
+     * Приём и декодирование данных с модуля с последующей передачей кода обработчику.
+     *
+     * @param frames oneFrame - один кадр за событие, mergedFrames - четыре кадра за событие
+     */
+    private static LongSupplier decode(String frames) {
+        IR_moduleConnection connection = new IR_moduleConnection(new NullTransport());
+        long[] received = {0};
+        connection.attachButtonEventListener((buttonCode, ir_module) -> received[0] += buttonCode);
+        byte[] data;
+        switch (frames) {
+            case "oneFrame":
+                data = "4FBB24D\r\n".getBytes(StandardCharsets.US_ASCII);
+                break;
+            case "mergedFrames":
+                data = "4FBB24D\r\n4FBD22D\r\n4FB926D\r\n4FBCA35\r\n".getBytes(StandardCharsets.US_ASCII);
+                break;
+            default:
+                throw new IllegalArgumentException(frames);
+        }
+        return new Operation(() -> {
+            connection.dataReceived(data, 0, data.length);
+            return received[0];
+        }, connection);
+    }
+
+    /**
+     * Поиск действия по коду клавиши так, как это делает <code>Main.buttonPressed</code>.
+     *
+     * @param tableSize Количество привязок в таблице
+     */
+    private static LongSupplier lookup(int tableSize) throws Exception {
+        LongHashMap<KeyPressedAction> table = new LongHashMap<>();
+        long[] codes = new long[tableSize];
+        Random random = new Random(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            codes[i] = 0x4FB0000L + random.nextInt(0xFFFF);
+            table.put(codes[i], createAction(codes[i], 1, 0, 38));
+        }
+        int[] index = {0};
+        return () -> {
+            index[0] = (index[0] + 1) % codes.length;
+            KeyPressedAction action = table.get(codes[index[0]]);
+            return action == null ? 0 : action.getKeyCode();
+        };
+    }
+
+    /**
+     * Создаёт действия всех замеряемых типов в том порядке, в котором они чередуются в замере "mixed".
+     */
+    private static KeyPressedAction[] createActions() throws Exception {
+        return new KeyPressedAction[]{
+                createAction(0x4FB08F7L, 1, 0, 38),
+                createAction(0x4FB32CDL, 5, 300, 2, 524, 9),
+                createAction(0x4FBB24DL, 3, 0, 0, 20),
+                createAction(0x4FB40BFL, 2, 300, 3)};
+    }
+
+    /**
+     * Выбирает из действий <code>createActions()</code> те, которые соответствуют типу замера.
+     *
+     * @param actionType key, combo, mouseMove, mouseClick, либо mixed - все четыре вперемешку
+     */
+    private static KeyPressedAction[] selectActions(String actionType) throws Exception {
+        KeyPressedAction[] actions = createActions();
+        switch (actionType) {
+            case "key":
+                return new KeyPressedAction[]{actions[0]};
+            case "combo":
+                return new KeyPressedAction[]{actions[1]};
+            case "mouseMove":
+                return new KeyPressedAction[]{actions[2]};
+            case "mouseClick":
+                return new KeyPressedAction[]{actions[3]};
+            case "mixed":
+                return actions;
+            default:
+                throw new IllegalArgumentException(actionType);
+        }
+    }
+
+    /**
+     * Исполнение действия с разбором его кода и параметров при каждом вызове (см. <code>interpret()</code>).
+     *
+     * @param actionType Тип действия (см. <code>selectActions()</code>)
+     */
+    private static LongSupplier interpreted(String actionType) throws Exception {
+        KeyPressedAction[] actions = selectActions(actionType);
+        HeadlessInputInjector injector = new HeadlessInputInjector();
+        int mask = actions.length - 1;
+        int[] index = {0};
+        return () -> {
+            interpret(actions[index[0]++ & mask], injector);
+            return injector.getInjectedEventsCount();
+        };
+    }
+
+    /**
+     * Исполняет действие так, как это делалось до компиляции привязок (см. <code>CompiledAction</code>): разбор кода
+     * действия при каждом вызове, чтение параметров из списка с распаковкой и вычисление маски клавиш мыши.
+     * Нужно для сравнения в замерах, а также в тесте, проверяющем, что скомпилированное действие делает то же самое.
+     */
+    static void interpret(KeyPressedAction action, InputInjector injector) {
+        if (action.getParamsCount() == 0) {
+            return;
+        }
+        switch (action.getActionId()) {
+            case 1:
+                injector.keyPress(action.getParam(0));
+                injector.keyRelease(action.getParam(0));
+                break;
+            case 2:
+                int mouseKeyMask = KeyPressedAction.getMouseKeyMask(action.getParam(0));
+                injector.mousePress(mouseKeyMask);
+                injector.mouseRelease(mouseKeyMask);
+                break;
+            case 3:
+                if (action.getParamsCount() >= 2) {
+                    injector.mouseMoveBy(action.getParam(0), action.getParam(1));
+                }
+                break;
+            case 4:
+                injector.mouseWheel(action.getParam(0));
+                break;
+            case 5:
+                for (int i = 1; i <= action.getParam(0); i++) {
+                    injector.keyPress(action.getParam(i));
+                }
+                for (int i = 1; i <= action.getParam(0); i++) {
+                    injector.keyRelease(action.getParam(i));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Исполнение скомпилированного действия (см. <code>CompiledAction</code>) без реального ввода.
+     *
+     * @param actionType Тип действия (см. <code>selectActions()</code>)
+     */
+    private static LongSupplier compiled(String actionType) throws Exception {
+        KeyPressedAction[] actions = selectActions(actionType);
+        CompiledAction[] compiled = new CompiledAction[actions.length];
+        for (int i = 0; i < actions.length; i++) {
+            compiled[i] = actions[i].getCompiledAction();
+        }
+        HeadlessInputInjector injector = new HeadlessInputInjector();
+        int mask = compiled.length - 1;
+        int[] index = {0};
+        return () -> {
+            compiled[index[0]++ & mask].execute(injector);
+            return injector.getInjectedEventsCount();
+        };
+    }
+
+    /**
+     * Кодирование мелодии для отправки модулю.
+     *
+     * @param encoding toString, text или binary
+     */
+    private static LongSupplier melody(String encoding) {
+        MonophonicComposition composition = new MonophonicComposition();
+        composition.addNote(659, 82);
+        composition.addNote(784, 82);
+        composition.addNote(1046, 82);
+        composition.addNote(1318, 82);
+        switch (encoding) {
+            case "toString":
+                return () -> composition.toString().length();
+            case "text":
+                return () -> composition.getTextCommand().length;
+            case "binary":
+                return () -> composition.getBinaryCommand().length;
+            default:
+                throw new IllegalArgumentException(encoding);
+        }
+    }
+
+    /**
+     * Загрузка файла настроек.
+     *
+     * @param sectionsCount Количество привязок в файле
+     */
+    private static LongSupplier loadProfile(int sectionsCount) throws IOException {
+        File profile = createProfile(sectionsCount);
+        return new Operation(() -> {
+            INISettings settings = new INISettings();
+            try {
+                settings.loadFromFile(profile.getPath());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return settings.getSections().size();
+        }, () -> {
+            if (!profile.delete()) {
+                profile.deleteOnExit();
+            }
+        });
+    }
+
+    /**
+     * Создаёт действие так же, как оно загружается из файла настроек.
+     */
+    private static KeyPressedAction createAction(long keyCode, int actionId, int minPressInterval, int... params) throws Exception {
+        INISettingsSection section = new INISettingsSection(IR_frameDecoder.codeToHex(keyCode));
+        section.addField(new INISettingsRecord("actionId", "" + actionId));
+        section.addField(new INISettingsRecord("minPressInterval", "" + minPressInterval));
+        section.addField(new INISettingsRecord("paramsCount", "" + params.length));
+        for (int i = 0; i < params.length; i++) {
+            section.addField(new INISettingsRecord("param_" + i, "" + params[i]));
+        }
+        return new KeyPressedAction(section);
+    }
+
+    /**
+     * Создаёт временный файл настроек с заданным количеством привязок.
+     */
+    private static File createProfile(int sectionsCount) throws IOException {
+        File profile = File.createTempFile("actions-benchmark", ".ini");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(profile))) {
+            for (int i = 0; i < sectionsCount; i++) {
+                writer.write("[" + IR_frameDecoder.codeToHex(0x4FB0000L + i) + "]\n" +
+                        "actionId=1\nminPressInterval=0\nparamsCount=1\nparam_0=38\n");
+            }
+        }
+        return profile;
+    }
+}
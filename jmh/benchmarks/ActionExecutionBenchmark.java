@@ -0,0 +1,60 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Исполнение действий без реального ввода: скомпилированных (<code>compiled</code>, см. <code>CompiledAction</code>)
+ * и с разбором кода и параметров действия при каждом вызове, как до компиляции привязок (<code>interpreted</code>).
+ * Типы действий: нажатие клавиши, комбинация клавиш, сдвиг курсора, нажатие клавиши мыши и все четыре вперемешку.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ActionExecutionBenchmark {
+
+    @Param({"key", "combo", "mouseMove", "mouseClick", "mixed"})
+    public String actionType;
+
+    private LongSupplier interpretedOperation;
+    private LongSupplier compiledOperation;
+
+    @Setup
+    public void setUp() throws Exception {
+        interpretedOperation = Fixtures.create("interpreted", actionType);
+        compiledOperation = Fixtures.create("compiled", actionType);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.close(interpretedOperation);
+        Fixtures.close(compiledOperation);
+    }
+
+    @Benchmark
+    public long interpreted() {
+        return interpretedOperation.getAsLong();
+    }
+
+    @Benchmark
+    public long compiled() {
+        return compiledOperation.getAsLong();
+    }
+}
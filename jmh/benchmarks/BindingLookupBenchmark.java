@@ -0,0 +1,50 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Поиск действия по коду клавиши при разном количестве привязок.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BindingLookupBenchmark {
+
+    @Param({"5", "100", "1000", "10000"})
+    public String tableSize;
+
+    private LongSupplier operation;
+
+    @Setup
+    public void setUp() throws Exception {
+        operation = Fixtures.create("lookup", tableSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.close(operation);
+    }
+
+    @Benchmark
+    public long lookup() {
+        return operation.getAsLong();
+    }
+}
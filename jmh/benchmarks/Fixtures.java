@@ -0,0 +1,38 @@
+package benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.function.LongSupplier;
+
+/**
+ * Доступ к операциям из <code>PipelineFixtures</code>. Классы из пакета по умолчанию нельзя импортировать,
+ * поэтому метод подготовки операции вызывается через отражение - один раз, до начала замера.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * @see <code>PipelineFixtures.create()</code>
+     */
+    static LongSupplier create(String operation, String argument) throws Exception {
+        try {
+            return (LongSupplier) Class.forName("PipelineFixtures")
+                    .getMethod("create", String.class, String.class)
+                    .invoke(null, operation, argument);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Освобождает ресурсы операции, если они у неё есть.
+     */
+    static void close(LongSupplier operation) throws IOException {
+        if (operation instanceof Closeable) {
+            ((Closeable) operation).close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Загрузка файла настроек с заданным количеством привязок.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ProfileLoadingBenchmark {
+
+    @Param({"1000", "10000"})
+    public String sectionsCount;
+
+    private LongSupplier operation;
+
+    @Setup
+    public void setUp() throws Exception {
+        operation = Fixtures.create("loadProfile", sectionsCount);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.close(operation);
+    }
+
+    @Benchmark
+    public long load() {
+        return operation.getAsLong();
+    }
+}
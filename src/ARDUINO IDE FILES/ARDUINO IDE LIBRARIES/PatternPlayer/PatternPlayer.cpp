@@ -186,6 +186,32 @@ void PatternPlayer::play(String inputMelody, int repeatationCount, unsigned int
 	newStep = true;
 }
 
+void PatternPlayer::playPacked(const byte *packedNotes, int notesCount, int repeatationCount, unsigned int duration) {
+	dev_notInitialized = true;
+	freeArrays();
+	dev_arrayLength = notesCount;
+	if (dev_arrayLength <= 0) {
+		dev_currentState = STOPPED;
+		return;
+	}
+	dev_freqArray = (int*) malloc(sizeof(int) * dev_arrayLength);
+	dev_durationArray = (int*) malloc(sizeof(int) * dev_arrayLength);
+	for (int i = 0; i < dev_arrayLength; i++) {
+		const byte *note = packedNotes + i * 4;
+		dev_freqArray[i] = note[0] | (note[1] << 8);
+		dev_durationArray[i] = note[2] | (note[3] << 8);
+	}
+	dev_repeatationCount = repeatationCount;
+	dev_stepCounter = 0;
+	dev_repeatCounter = 0;
+	dev_currentStepIndex = 0;
+	max_duration_timer = 0;
+	max_duration = duration;
+	dev_currentState = PLAYING;
+	dev_notInitialized = false;
+	newStep = true;
+}
+
 void PatternPlayer::freeArrays() {
 	free(dev_durationArray);
 	dev_durationArray = NULL;
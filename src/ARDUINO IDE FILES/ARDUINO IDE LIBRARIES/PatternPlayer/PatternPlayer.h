@@ -16,6 +16,8 @@
 			   = 0,   ,      .
 		*   play c        . Ÿ,   ,      convertInpMelodyToStr, 
 			            .
+		*   playPacked,          :    -   ,
+			  ,   .       PLAY     .
 		   = 0,    .
 	  ,   stop().       play().      .
 	    pause().  ,        ,   play().
@@ -40,6 +42,7 @@ class PatternPlayer {
 		PatternPlayer(void (*toneFunc) (int frequency, int duration), void (*noToneFunc) (), unsigned int timerInterval);
 		void play(int freqArray[], int durationArray[], int arrayLength, int repeatationCount = 1, unsigned int duration = 0);
 		void play(String inputMelody, int repeatationCount = 1, unsigned int duration = 0);
+		void playPacked(const byte *packedNotes, int notesCount, int repeatationCount = 1, unsigned int duration = 0);
 		void play();
 		void pause();
 		void stop();
@@ -12,6 +12,14 @@
 
 word SERVICE_DELAY_BEFORE_RECEIVE_NEXT = 2; //Задержка перед следующим приёмом сигнала, миллисекунд, по умолчанию
 
+//Двоичная команда PLAY: BINARY_PLAY_START, длина данных, данные, контрольная сумма (XOR всех байтов данных).
+//Данные: количество повторов, максимальная длительность (2 байта), количество нот, ноты (частота и длительность, по 2 байта).
+//Двухбайтовые числа передаются младшим байтом вперёд. Текстовые команды никогда не начинаются с этого байта.
+#define BINARY_PLAY_START 0x01
+#define BINARY_IDLE 0
+#define BINARY_WAIT_LENGTH 1
+#define BINARY_WAIT_DATA 2
+
 
 IRrecv irrecv(IR_PIN);
 PatternPlayer player(beep, stopBeep, 1);
@@ -20,6 +28,10 @@ decode_results results;
 long lastCode = 0;
 
 String serialReceiveBuf = "";
+byte binaryState = BINARY_IDLE;
+byte binaryFrame[256]; //Данные двоичной команды и контрольная сумма
+int binaryFrameLength = 0;
+int binaryFrameReceived = 0;
 
 void setup()
 {
@@ -31,17 +43,29 @@ void setup()
   OCR0A = 0xAF;
   TIMSK0 |= _BV(OCIE0A);
   irrecv.enableIRIn(); // Start the receiver
-  Serial.print(F("DEVICE_ACTIVE"));
+  Serial.println(F("DEVICE_ACTIVE")); //Каждый кадр завершается переносом строки, чтобы приёмник мог отделить его от соседних
 }
 
 void loop() {
   while (Serial.available()) {
-    char readedByte = (char) Serial.read();
-    if (readedByte == '\n') {
+    byte readedByte = (byte) Serial.read();
+    if (binaryState == BINARY_WAIT_LENGTH) {
+      binaryFrameLength = readedByte;
+      binaryFrameReceived = 0;
+      binaryState = BINARY_WAIT_DATA;
+    } else if (binaryState == BINARY_WAIT_DATA) {
+      binaryFrame[binaryFrameReceived++] = readedByte;
+      if (binaryFrameReceived > binaryFrameLength) { //Приняты данные и контрольная сумма
+        processBinaryPlay(binaryFrame, binaryFrameLength);
+        binaryState = BINARY_IDLE;
+      }
+    } else if (readedByte == BINARY_PLAY_START && serialReceiveBuf.length() == 0) {
+      binaryState = BINARY_WAIT_LENGTH;
+    } else if (readedByte == '\n') {
       processCommand(serialReceiveBuf);
       serialReceiveBuf = "";
     } else {
-      serialReceiveBuf += readedByte;
+      serialReceiveBuf += (char) readedByte;
     }
   }
   if (irrecv.decode(&results)) {
@@ -49,7 +73,7 @@ void loop() {
     if (currentCode == 0xFFFFFFFF) {
       currentCode = lastCode;
     }
-    Serial.print(currentCode, HEX);
+    Serial.println(currentCode, HEX);
     lastCode = currentCode;
     digitalWrite(OUT_INDICATION_PIN, HIGH);
     delay(10);
@@ -65,11 +89,24 @@ SIGNAL(TIMER0_COMPA_vect) {
 }
 
 void processCommand(String inputCommand) {
-  if (inputCommand.substring(0,4) == "PLAY") {
+  if (inputCommand == "PING") {
+    Serial.println(F("PONG")); //Ответ на проверку связи. Программа по нему узнаёт, что модуль жив
+  } else if (inputCommand.substring(0,4) == "PLAY") {
     player.play(inputCommand.substring(inputCommand.indexOf(')')+1, inputCommand.length()), inputCommand.substring(inputCommand.indexOf('(')+1, inputCommand.indexOf(',')).toInt(), inputCommand.substring(inputCommand.indexOf(',')+1, inputCommand.indexOf(')')).toInt());
   }
 }
 
+void processBinaryPlay(byte *frame, int length) {
+  byte checksum = 0;
+  for (int i = 0; i < length; i++) {
+    checksum ^= frame[i];
+  }
+  if (length < 4 || checksum != frame[length] || 4 + frame[3] * 4 != length) {
+    return; //Повреждённая команда игнорируется
+  }
+  player.playPacked(frame + 4, frame[3], frame[0], frame[1] | (frame[2] << 8));
+}
+
 void beep(int frequency, int duration) {
   toneAC(frequency, SPEAKER_BEEP_VOLUME, duration, true);
 }
@@ -0,0 +1,334 @@
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Исполнитель действий, привязанных к кнопкам ДУ.
+ * Действия исполняются в отдельном потоке, которому единолично принадлежит объект <code>InputInjector</code>
+ * (как правило - один долгоживущий <code>java.awt.Robot</code>). Между потоком приёма данных с модуля и
+ * потоком исполнения находится ограниченная очередь, поэтому медленное действие не задерживает приём данных.
+ * Поведение при переполнении очереди задаётся политикой <code>OverflowPolicy</code>.
+ * Класс ведёт статистику: глубину очереди, количество отброшенных задач и задержку исполнения.
+ */
+class ActionExecutor implements Closeable {
+
+    /**
+     * Политика поведения при переполнении очереди.
+     */
+    enum OverflowPolicy {
+        /**
+         * Самая старая задача в очереди отбрасывается, новая добавляется в конец.
+         */
+        DROP_OLDEST,
+        /**
+         * Если последняя задача в очереди совпадает с новой, новая не добавляется.
+         * При переполнении отбрасывается самая старая задача.
+         */
+        COALESCE_REPEATS,
+        /**
+         * Поток, добавляющий задачу, ждёт, пока в очереди не освободится место.
+         */
+        BLOCK
+    }
+
+    private final InjectionTask[] queue;
+    private final long[] enqueueTimes;
+    private final long[] receiveTimes;
+    private final OverflowPolicy overflowPolicy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Thread executorThread;
+    private int head = 0;
+    private int count = 0;
+    private volatile boolean running = true;
+
+    private long submittedCount = 0;
+    private long droppedCount = 0;
+    private long coalescedCount = 0;
+    private int maxQueueDepth = 0;
+    private volatile long executedCount = 0;
+    private volatile long totalLatencyNanos = 0;
+    private volatile long maxLatencyNanos = 0;
+    private volatile long totalExecutionNanos = 0;
+
+    /**
+     * Конструктор. Запускает поток исполнителя.
+     *
+     * @param capacity        Ёмкость очереди задач
+     * @param overflowPolicy  Политика поведения при переполнении очереди
+     * @param injectorFactory Фабрика объекта <code>InputInjector</code>. Вызывается один раз, в потоке исполнителя.
+     *                        Если создать объект не удалось, используется <code>HeadlessInputInjector</code>.
+     */
+    ActionExecutor(int capacity, OverflowPolicy overflowPolicy, Callable<? extends InputInjector> injectorFactory) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity");
+        }
+        this.queue = new InjectionTask[capacity];
+        this.enqueueTimes = new long[capacity];
+        this.receiveTimes = new long[capacity];
+        this.overflowPolicy = overflowPolicy;
+        executorThread = new Thread(() -> runLoop(injectorFactory), "IR action executor");
+        executorThread.setDaemon(true);
+        executorThread.start();
+    }
+
+    /**
+     * Создаёт исполнитель с настройками из системных свойств <code>ir.executor.queueCapacity</code> (по умолчанию 64)
+     * и <code>ir.executor.overflowPolicy</code> (по умолчанию COALESCE_REPEATS), работающий через <code>java.awt.Robot</code>.
+     *
+     * @return Запущенный исполнитель
+     */
+    static ActionExecutor createDefault() {
+        int capacity = Integer.getInteger("ir.executor.queueCapacity", 64);
+        OverflowPolicy policy;
+        try {
+            policy = OverflowPolicy.valueOf(System.getProperty("ir.executor.overflowPolicy", OverflowPolicy.COALESCE_REPEATS.name()).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Неизвестная политика переполнения очереди, используется COALESCE_REPEATS");
+            policy = OverflowPolicy.COALESCE_REPEATS;
+        }
+        return new ActionExecutor(capacity, policy, RobotInputInjector::new);
+    }
+
+    /**
+     * Добавляет задачу в очередь исполнения.
+     *
+     * @param task Задача
+     * @return true, если задача добавлена в очередь, false - если она была объединена с предыдущей или исполнитель остановлен.
+     */
+    boolean submit(InjectionTask task) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            submittedCount++;
+            if (overflowPolicy == OverflowPolicy.COALESCE_REPEATS && count > 0 && queue[(head + count - 1) % queue.length] == task) {
+                coalescedCount++;
+                return false;
+            }
+            if (count == queue.length) {
+                if (overflowPolicy == OverflowPolicy.BLOCK) {
+                    while (count == queue.length && running) {
+                        notFull.awaitUninterruptibly();
+                    }
+                    if (!running) {
+                        return false;
+                    }
+                } else {
+                    InjectionTask dropped = queue[head];
+                    queue[head] = null;
+                    head = (head + 1) % queue.length;
+                    count--;
+                    droppedCount++;
+                    PipelineMetrics.increment(PipelineMetrics.Counter.EXECUTOR_DROPPED);
+                    EventRecorder.dropped(null, dropped instanceof CompiledAction ? ((CompiledAction) dropped).keyCode : 0,
+                            EventRecorder.DROP_EXECUTOR_QUEUE);
+                }
+            }
+            int tail = (head + count) % queue.length;
+            queue[tail] = task;
+            enqueueTimes[tail] = now;
+            receiveTimes[tail] = PipelineMetrics.getEventStart();
+            count++;
+            if (count > maxQueueDepth) {
+                maxQueueDepth = count;
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Основной цикл потока исполнителя.
+     *
+     * @param injectorFactory Фабрика объекта <code>InputInjector</code>
+     */
+    private void runLoop(Callable<? extends InputInjector> injectorFactory) {
+        InputInjector injector;
+        try {
+            injector = injectorFactory.call();
+        } catch (Exception e) {
+            System.err.println("Управление вводом недоступно, действия не будут влиять на систему: " + e);
+            injector = new HeadlessInputInjector();
+        }
+        while (running) {
+            InjectionTask task;
+            long enqueueTime;
+            long receiveTime;
+            lock.lock();
+            try {
+                while (count == 0 && running) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (!running) {
+                    break;
+                }
+                task = queue[head];
+                enqueueTime = enqueueTimes[head];
+                receiveTime = receiveTimes[head];
+                queue[head] = null;
+                head = (head + 1) % queue.length;
+                count--;
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+            long startTime = System.nanoTime();
+            try {
+                task.execute(injector);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            long endTime = System.nanoTime();
+            recordExecution(endTime - enqueueTime, endTime - startTime);
+            if (PipelineMetrics.ENABLED) {
+                PipelineMetrics.recordDuration(PipelineMetrics.Stage.EXECUTOR_WAIT, startTime - enqueueTime);
+                PipelineMetrics.recordDuration(PipelineMetrics.Stage.INJECTION, endTime - startTime);
+                if (receiveTime != 0) {
+                    PipelineMetrics.recordDuration(PipelineMetrics.Stage.END_TO_END, endTime - receiveTime);
+                }
+            }
+            EventRecorder.action(enqueueTime, startTime, endTime, receiveTime,
+                    task instanceof CompiledAction ? ((CompiledAction) task).actionId : 0);
+        }
+    }
+
+    /**
+     * Учитывает в статистике очередную исполненную задачу. Вызывается только из потока исполнителя.
+     *
+     * @param latencyNanos   Время от постановки задачи в очередь до окончания её исполнения
+     * @param executionNanos Время исполнения задачи
+     */
+    private void recordExecution(long latencyNanos, long executionNanos) {
+        executedCount++;
+        totalLatencyNanos += latencyNanos;
+        totalExecutionNanos += executionNanos;
+        if (latencyNanos > maxLatencyNanos) {
+            maxLatencyNanos = latencyNanos;
+        }
+    }
+
+    /**
+     * @return Текущее количество задач в очереди.
+     */
+    int getQueueDepth() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Наибольшее количество задач, находившихся в очереди одновременно.
+     */
+    int getMaxQueueDepth() {
+        lock.lock();
+        try {
+            return maxQueueDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Количество задач, отброшенных из-за переполнения очереди.
+     */
+    long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Количество задач, объединённых с уже стоящими в очереди повторами.
+     */
+    long getCoalescedCount() {
+        lock.lock();
+        try {
+            return coalescedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Количество задач, переданных исполнителю.
+     */
+    long getSubmittedCount() {
+        lock.lock();
+        try {
+            return submittedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Количество исполненных задач.
+     */
+    long getExecutedCount() {
+        return executedCount;
+    }
+
+    /**
+     * @return Средняя задержка от постановки задачи в очередь до окончания её исполнения, в микросекундах.
+     */
+    long getAverageLatencyMicros() {
+        long executed = executedCount;
+        return executed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos / executed);
+    }
+
+    /**
+     * @return Наибольшая задержка от постановки задачи в очередь до окончания её исполнения, в микросекундах.
+     */
+    long getMaxLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos);
+    }
+
+    /**
+     * @return Среднее время исполнения одной задачи, в микросекундах.
+     */
+    long getAverageExecutionMicros() {
+        long executed = executedCount;
+        return executed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalExecutionNanos / executed);
+    }
+
+    /**
+     * @return Политика поведения при переполнении очереди.
+     */
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Останавливает поток исполнителя. Задачи, оставшиеся в очереди, не исполняются.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            executorThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
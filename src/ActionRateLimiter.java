@@ -0,0 +1,100 @@
+import utils.TokenBucket;
+
+/**
+ * Ограничение частоты срабатывания действий. Нажатие проходит, только если маркер нашёлся и в корзине привязки
+ * (см. <code>KeyPressedAction.getRateLimiter()</code>), и в общей корзине типа действия. Корзины типов действий
+ * настраиваются системными свойствами <code>ir.rate.action&lt;id&gt;.intervalMs</code> и
+ * <code>ir.rate.action&lt;id&gt;.burst</code>, например <code>-Dir.rate.action1.intervalMs=20</code> ограничивает
+ * все нажатия клавиш пятьюдесятью в секунду. Отброшенные нажатия учитываются в счётчике привязки.
+ * Класс не использует блокировок и может вызываться из любого потока.
+ */
+class ActionRateLimiter {
+
+    private static final int MAX_ACTION_ID = 16;
+
+    private final TokenBucket[] typeLimiters = new TokenBucket[MAX_ACTION_ID];
+
+    /**
+     * Создаёт ограничитель с корзинами типов действий из системных свойств.
+     *
+     * @return Ограничитель частоты
+     */
+    static ActionRateLimiter createDefault() {
+        ActionRateLimiter limiter = new ActionRateLimiter();
+        for (int actionId = 1; actionId < MAX_ACTION_ID; actionId++) {
+            Long interval = Long.getLong("ir.rate.action" + actionId + ".intervalMs");
+            if (interval != null && interval > 0) {
+                limiter.setTypeLimit(actionId, interval, Integer.getInteger("ir.rate.action" + actionId + ".burst", 1));
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Ограничивает частоту срабатывания всех действий одного типа.
+     *
+     * @param actionId       Код действия
+     * @param intervalMillis Время пополнения корзины на один маркер в миллисекундах
+     * @param burst          Ёмкость корзины
+     */
+    void setTypeLimit(int actionId, long intervalMillis, int burst) {
+        typeLimiters[actionId] = new TokenBucket(intervalMillis, burst);
+    }
+
+    /**
+     * Проверяет, может ли действие сработать сейчас, и если да - забирает маркеры из корзин.
+     *
+     * @param action Действие
+     * @return true, если действие может сработать, false - если нажатие следует отбросить.
+     */
+    boolean tryAcquire(KeyPressedAction action) {
+        long now = System.nanoTime();
+        TokenBucket bindingLimiter = action.getRateLimiter();
+        if (bindingLimiter != null && !bindingLimiter.tryAcquire(now)) {
+            action.recordDropped();
+            PipelineMetrics.increment(PipelineMetrics.Counter.RATE_LIMITED);
+            EventRecorder.dropped(null, action.getKeyCode(), EventRecorder.DROP_RATE_LIMIT);
+            return false;
+        }
+        int actionId = action.getActionId();
+        TokenBucket typeLimiter = actionId > 0 && actionId < MAX_ACTION_ID ? typeLimiters[actionId] : null;
+        if (typeLimiter != null && !typeLimiter.tryAcquire(now)) {
+            if (bindingLimiter != null) {
+                bindingLimiter.refund();
+            }
+            action.recordDropped();
+            PipelineMetrics.increment(PipelineMetrics.Counter.RATE_LIMITED);
+            EventRecorder.dropped(null, action.getKeyCode(), EventRecorder.DROP_RATE_LIMIT);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Коды действий, для которых задана общая корзина типа, в порядке возрастания.
+     */
+    int[] getLimitedActionIds() {
+        int count = 0;
+        for (TokenBucket typeLimiter : typeLimiters) {
+            if (typeLimiter != null) {
+                count++;
+            }
+        }
+        int[] actionIds = new int[count];
+        for (int actionId = 0, i = 0; actionId < MAX_ACTION_ID; actionId++) {
+            if (typeLimiters[actionId] != null) {
+                actionIds[i++] = actionId;
+            }
+        }
+        return actionIds;
+    }
+
+    /**
+     * @param actionId Код действия
+     * @return Количество нажатий, отброшенных общей корзиной типа действия.
+     */
+    long getTypeDroppedCount(int actionId) {
+        TokenBucket typeLimiter = actionId > 0 && actionId < MAX_ACTION_ID ? typeLimiters[actionId] : null;
+        return typeLimiter == null ? 0 : typeLimiter.getDroppedCount();
+    }
+}
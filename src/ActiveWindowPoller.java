@@ -0,0 +1,353 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Определяет активное окно в фоновом потоке и запоминает его класс и заголовок.
+ * Java не позволяет узнать активное окно другого приложения, поэтому с периодом <code>ir.layers.pollInterval</code>
+ * (по умолчанию 250 мс) выполняется внешняя команда, которая выводит класс окна первой строкой, а заголовок - второй.
+ * Команда задаётся системным свойством <code>ir.layers.windowCommand</code> и выполняется оболочкой системы.
+ * В Windows перед командой кодовая страница консоли переключается на UTF-8 (<code>chcp 65001</code>),
+ * потому что вывод команды читается в этой кодировке.
+ * <p>
+ * Вместо команды, запускаемой на каждый опрос, можно использовать вспомогательный процесс, который запускается один раз
+ * (системное свойство <code>ir.layers.windowHelper</code>): на каждую пустую строку, полученную через стандартный ввод,
+ * он отвечает двумя строками в UTF-8 - классом и заголовком активного окна. Если процесс завершился или не ответил,
+ * он перезапускается при следующем опросе.
+ * <p>
+ * По умолчанию в Windows используется вспомогательный процесс PowerShell, который определяет окно функциями
+ * <code>GetForegroundWindow</code>, <code>GetClassName</code> и <code>GetWindowText</code> (запуск PowerShell на каждый
+ * опрос занимал бы больше периода опроса). В Linux используется команда <code>xdotool</code>,
+ * в macOS - <code>osascript</code> (только название приложения).
+ * <p>
+ * Получатель уведомляется только о смене окна, поэтому обработка нажатий никогда не обращается ни к внешней команде,
+ * ни к этому классу. Пока опрос выключен (см. <code>setEnabled()</code>), команда не выполняется.
+ */
+class ActiveWindowPoller implements Closeable {
+
+    /**
+     * Получатель уведомлений о смене активного окна.
+     */
+    interface Listener {
+        /**
+         * Вызывается в потоке опроса при смене активного окна.
+         *
+         * @param windowClass Класс (или название приложения) активного окна, либо пустая строка
+         * @param windowTitle Заголовок активного окна, либо пустая строка
+         */
+        void activeWindowChanged(String windowClass, String windowTitle);
+    }
+
+    private static final long HELPER_START_TIMEOUT_MILLIS = 10000;
+    private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+    private static final String WINDOWS_HELPER_SCRIPT = "[Console]::OutputEncoding = New-Object Text.UTF8Encoding $false\n" +
+            "Add-Type -TypeDefinition @'\n" +
+            "using System;\n" +
+            "using System.Runtime.InteropServices;\n" +
+            "using System.Text;\n" +
+            "public static class IrForegroundWindow {\n" +
+            "    [DllImport(\"user32.dll\")] public static extern IntPtr GetForegroundWindow();\n" +
+            "    [DllImport(\"user32.dll\", CharSet = CharSet.Unicode)] public static extern int GetClassName(IntPtr window, StringBuilder name, int size);\n" +
+            "    [DllImport(\"user32.dll\", CharSet = CharSet.Unicode)] public static extern int GetWindowText(IntPtr window, StringBuilder text, int size);\n" +
+            "}\n" +
+            "'@\n" +
+            "while ($null -ne [Console]::In.ReadLine()) {\n" +
+            "    $window = [IrForegroundWindow]::GetForegroundWindow()\n" +
+            "    $name = New-Object Text.StringBuilder 256\n" +
+            "    $text = New-Object Text.StringBuilder 1024\n" +
+            "    [void][IrForegroundWindow]::GetClassName($window, $name, $name.Capacity)\n" +
+            "    [void][IrForegroundWindow]::GetWindowText($window, $text, $text.Capacity)\n" +
+            "    [Console]::Out.Write($name.ToString() + \"`n\" + ($text.ToString() -replace \"[`r`n]\", ' ') + \"`n\")\n" +
+            "    [Console]::Out.Flush()\n" +
+            "}\n";
+
+    private final String[] command;
+    private final boolean persistent;
+    private final long timeoutMillis;
+    private final Listener listener;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean enabled = false;
+    private volatile String windowClass = "";
+    private volatile String windowTitle = "";
+    private volatile long pollsCount = 0;
+    private volatile long failedPollsCount = 0;
+    private volatile long changesCount = 0;
+    private volatile String lastError = null;
+    private volatile Process helper = null;
+    private BufferedReader helperOutput;
+    private OutputStream helperInput;
+
+    /**
+     * Конструктор. Запускает поток опроса, который выполняет команду оболочки на каждый опрос.
+     *
+     * @param command      Команда оболочки, выводящая класс и заголовок активного окна
+     * @param periodMillis Период опроса. Выполнение команды, которое длится дольше периода, прерывается.
+     * @param listener     Получатель уведомлений о смене активного окна
+     */
+    ActiveWindowPoller(String command, long periodMillis, Listener listener) {
+        this(WINDOWS ? new String[]{"cmd", "/c", "chcp 65001 >nul & " + command} : new String[]{"sh", "-c", command},
+                false, periodMillis, listener);
+    }
+
+    /**
+     * Конструктор. Запускает поток опроса, который обращается к вспомогательному процессу.
+     *
+     * @param helperCommand Команда запуска вспомогательного процесса и её аргументы
+     * @param periodMillis  Период опроса. Если процесс не ответил за это время, он перезапускается.
+     * @param listener      Получатель уведомлений о смене активного окна
+     */
+    ActiveWindowPoller(String[] helperCommand, long periodMillis, Listener listener) {
+        this(helperCommand, true, periodMillis, listener);
+    }
+
+    private ActiveWindowPoller(String[] command, boolean persistent, long periodMillis, Listener listener) {
+        this.command = command;
+        this.persistent = persistent;
+        this.timeoutMillis = periodMillis;
+        this.listener = listener;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "IR window poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::poll, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Создаёт опрос с командой из системного свойства <code>ir.layers.windowCommand</code>, вспомогательным процессом
+     * из свойства <code>ir.layers.windowHelper</code>, либо способом по умолчанию для текущей системы.
+     * Период опроса задаётся свойством <code>ir.layers.pollInterval</code>.
+     *
+     * @param listener Получатель уведомлений о смене активного окна
+     * @return Опрос активного окна, либо null, если способ определения активного окна для текущей системы неизвестен.
+     */
+    static ActiveWindowPoller createDefault(Listener listener) {
+        long periodMillis = Long.getLong("ir.layers.pollInterval", 250);
+        String command = System.getProperty("ir.layers.windowCommand");
+        if (command != null) {
+            return new ActiveWindowPoller(command, periodMillis, listener);
+        }
+        String helperCommand = System.getProperty("ir.layers.windowHelper");
+        if (helperCommand != null) {
+            return new ActiveWindowPoller(WINDOWS ? new String[]{"cmd", "/c", helperCommand} : new String[]{"sh", "-c", helperCommand},
+                    periodMillis, listener);
+        }
+        String osName = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        if (WINDOWS) {
+            return new ActiveWindowPoller(new String[]{"powershell", "-NoProfile", "-NonInteractive", "-ExecutionPolicy", "Bypass",
+                    "-EncodedCommand", Base64.getEncoder().encodeToString(WINDOWS_HELPER_SCRIPT.getBytes(StandardCharsets.UTF_16LE))},
+                    periodMillis, listener);
+        } else if (osName.startsWith("linux")) {
+            command = "xdotool getactivewindow getwindowclassname getwindowname";
+        } else if (osName.startsWith("mac")) {
+            command = "osascript -e 'tell application \"System Events\" to get name of first application process whose frontmost is true'";
+        } else {
+            return null;
+        }
+        return new ActiveWindowPoller(command, periodMillis, listener);
+    }
+
+    /**
+     * Включает или выключает опрос. Опрос нужен, только если описан хотя бы один контекстный слой.
+     *
+     * @param enabled true, чтобы опрашивать активное окно
+     */
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Определяет активное окно и уведомляет получателя, если оно сменилось.
+     */
+    private void poll() {
+        if (!enabled) {
+            return;
+        }
+        String[] window;
+        try {
+            window = persistent ? queryHelper() : runCommand();
+        } catch (IOException e) {
+            fail(e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        pollsCount++;
+        String newWindowClass = window[0].trim();
+        String newWindowTitle = window[1] != null ? window[1].trim() : "";
+        if (!newWindowClass.equals(windowClass) || !newWindowTitle.equals(windowTitle)) {
+            windowClass = newWindowClass;
+            windowTitle = newWindowTitle;
+            changesCount++;
+            try {
+                listener.activeWindowChanged(newWindowClass, newWindowTitle);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Выполняет команду оболочки и читает её вывод.
+     *
+     * @return Класс и заголовок активного окна. Заголовок может быть null, если команда его не вывела.
+     */
+    private String[] runCommand() throws IOException, InterruptedException {
+        String newWindowClass;
+        String newWindowTitle;
+        Process process = null;
+        try {
+            process = new ProcessBuilder(command).start();
+            process.getOutputStream().close();
+            // Команда выводит две короткие строки, которые помещаются в буфер канала, поэтому вывод читается после её завершения
+            if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("команда выполняется дольше " + timeoutMillis + " мс");
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("команда завершилась с кодом " + process.exitValue());
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                newWindowClass = reader.readLine();
+                newWindowTitle = reader.readLine();
+            }
+            if (newWindowClass == null) {
+                throw new IOException("команда ничего не вывела");
+            }
+        } finally {
+            if (process != null) {
+                process.destroyForcibly();
+            }
+        }
+        return new String[]{newWindowClass, newWindowTitle};
+    }
+
+    /**
+     * Запрашивает активное окно у вспомогательного процесса, при необходимости запустив его.
+     * Если процесс не ответил, он останавливается и будет перезапущен при следующем опросе.
+     *
+     * @return Класс и заголовок активного окна.
+     */
+    private String[] queryHelper() throws IOException, InterruptedException {
+        long responseTimeoutMillis = timeoutMillis;
+        Process process = helper;
+        if (process == null || !process.isAlive()) {
+            stopHelper();
+            process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.appendTo(new File(WINDOWS ? "NUL" : "/dev/null")))
+                    .start();
+            helperInput = process.getOutputStream();
+            helperOutput = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            helper = process;
+            responseTimeoutMillis = Math.max(timeoutMillis, HELPER_START_TIMEOUT_MILLIS);
+        }
+        boolean answered = false;
+        try {
+            helperInput.write('\n');
+            helperInput.flush();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(responseTimeoutMillis);
+            String[] window = {readHelperLine(process, deadline, responseTimeoutMillis), readHelperLine(process, deadline, responseTimeoutMillis)};
+            answered = true;
+            return window;
+        } finally {
+            if (!answered) {
+                stopHelper();
+            }
+        }
+    }
+
+    /**
+     * Читает строку ответа вспомогательного процесса, ожидая её не дольше, чем до <code>deadline</code>.
+     */
+    private String readHelperLine(Process process, long deadline, long responseTimeoutMillis) throws IOException, InterruptedException {
+        while (!helperOutput.ready()) {
+            if (!process.isAlive()) {
+                throw new IOException("вспомогательный процесс завершился с кодом " + process.exitValue());
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new IOException("вспомогательный процесс не ответил за " + responseTimeoutMillis + " мс");
+            }
+            Thread.sleep(5);
+        }
+        String line = helperOutput.readLine();
+        if (line == null) {
+            throw new IOException("вспомогательный процесс закрыл вывод");
+        }
+        return line;
+    }
+
+    private void stopHelper() {
+        Process process = helper;
+        helper = null;
+        if (process != null) {
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Учитывает неудачный опрос. Ошибка выводится в консоль только при первом появлении, чтобы не засорять её
+     * на каждом опросе, если команда недоступна.
+     *
+     * @param error Описание ошибки
+     */
+    private void fail(String error) {
+        failedPollsCount++;
+        if (!String.valueOf(error).equals(lastError)) {
+            System.err.println("Не удалось определить активное окно: " + error);
+        }
+        lastError = String.valueOf(error);
+    }
+
+    /**
+     * @return Класс активного окна на момент последнего успешного опроса
+     */
+    String getWindowClass() {
+        return windowClass;
+    }
+
+    /**
+     * @return Заголовок активного окна на момент последнего успешного опроса
+     */
+    String getWindowTitle() {
+        return windowTitle;
+    }
+
+    /**
+     * @return Количество успешных опросов
+     */
+    long getPollsCount() {
+        return pollsCount;
+    }
+
+    /**
+     * @return Количество неудачных опросов
+     */
+    long getFailedPollsCount() {
+        return failedPollsCount;
+    }
+
+    /**
+     * @return Количество смен активного окна
+     */
+    long getChangesCount() {
+        return changesCount;
+    }
+
+    /**
+     * Останавливает опрос и вспомогательный процесс.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        stopHelper();
+    }
+}
@@ -0,0 +1,171 @@
+import utils.iniSettings.INISettingsRecord;
+import utils.iniSettings.INISettingsSection;
+import utils.iniSettings.exceptions.AlreadyExistsException;
+import utils.iniSettings.exceptions.IniSettingsException;
+import utils.iniSettings.exceptions.NotFoundException;
+import utils.iniSettings.exceptions.RecordParsingException;
+
+import java.util.Locale;
+
+/**
+ * Описание слоя привязок. Привязки слоя записываются в actions.ini с названием слоя перед именем привязки,
+ * например <code>[vlc|4FBB24D]</code>, и, пока слой активен, перекрывают привязки основного слоя к тем же кнопкам.
+ * Кнопки, к которым в слое ничего не привязано, выполняют действия нижележащих слоёв.
+ * <p>
+ * Слой описывается отдельной секцией, например:
+ * <pre>
+ * [layer:vlc]
+ * windowClass=vlc
+ * windowTitle=VLC
+ * priority=1
+ * </pre>
+ * Слой с записью <code>windowClass</code> и (или) <code>windowTitle</code> - контекстный: он активен, пока активно окно,
+ * класс и заголовок которого содержат указанные строки (без учёта регистра). Если подходят несколько слоёв,
+ * выбирается слой с наибольшим приоритетом. Слои без условий на окно, а также слои, которые используются
+ * в привязках, но не описаны - режимы: они включаются и выключаются пользователем вручную.
+ */
+final class BindingLayer {
+
+    /**
+     * Разделитель названия слоя и имени привязки в имени секции INI - файла.
+     */
+    static final char BINDING_SEPARATOR = '|';
+    /**
+     * Начало имени секции, описывающей слой.
+     */
+    static final String SECTION_PREFIX = "layer:";
+
+    private final String name;
+    private final String windowClass;
+    private final String windowTitle;
+    private final int priority;
+
+    /**
+     * Конструктор.
+     *
+     * @param name        Название слоя
+     * @param windowClass Строка, которую должен содержать класс активного окна, либо null
+     * @param windowTitle Строка, которую должен содержать заголовок активного окна, либо null
+     * @param priority    Приоритет слоя среди контекстных слоёв
+     */
+    BindingLayer(String name, String windowClass, String windowTitle, int priority) {
+        this.name = name;
+        this.windowClass = windowClass != null && !windowClass.isEmpty() ? windowClass.toLowerCase(Locale.ROOT) : null;
+        this.windowTitle = windowTitle != null && !windowTitle.isEmpty() ? windowTitle.toLowerCase(Locale.ROOT) : null;
+        this.priority = priority;
+    }
+
+    /**
+     * Конструктор, принимающий в качестве параметра секцию INI - файла. Обратный метод - <code>getSettingsSection()</code>.
+     *
+     * @param settingsSection Секция, описывающая слой
+     * @throws IniSettingsException В случае, если секция не описывает слой.
+     */
+    BindingLayer(INISettingsSection settingsSection) throws IniSettingsException {
+        this(nameOf(settingsSection), findValue(settingsSection, "windowClass"), findValue(settingsSection, "windowTitle"),
+                parsePriority(findValue(settingsSection, "priority")));
+    }
+
+    private static String nameOf(INISettingsSection settingsSection) throws RecordParsingException {
+        if (!isLayerSection(settingsSection)) {
+            throw new RecordParsingException();
+        }
+        String name = settingsSection.getSectionName().substring(SECTION_PREFIX.length()).trim();
+        if (name.isEmpty() || name.indexOf(BINDING_SEPARATOR) >= 0) {
+            throw new RecordParsingException();
+        }
+        return name;
+    }
+
+    private static String findValue(INISettingsSection settingsSection, String key) {
+        try {
+            return settingsSection.getFieldByKey(key).getValue();
+        } catch (NotFoundException ignored) {
+            return null;
+        }
+    }
+
+    private static int parsePriority(String value) throws RecordParsingException {
+        try {
+            return value != null ? Integer.parseInt(value.trim()) : 0;
+        } catch (NumberFormatException e) {
+            throw new RecordParsingException();
+        }
+    }
+
+    /**
+     * @param settingsSection Секция INI - файла
+     * @return true, если секция описывает слой, а не привязку.
+     */
+    static boolean isLayerSection(INISettingsSection settingsSection) {
+        return settingsSection.getSectionName().startsWith(SECTION_PREFIX);
+    }
+
+    /**
+     * @return Секция INI - файла, описывающая слой.
+     */
+    INISettingsSection getSettingsSection() {
+        INISettingsSection newSection = new INISettingsSection(SECTION_PREFIX + name);
+        try {
+            if (windowClass != null) {
+                newSection.addField(new INISettingsRecord("windowClass", windowClass));
+            }
+            if (windowTitle != null) {
+                newSection.addField(new INISettingsRecord("windowTitle", windowTitle));
+            }
+            if (priority != 0) {
+                newSection.addField(new INISettingsRecord("priority", "" + priority));
+            }
+        } catch (AlreadyExistsException ignored) {
+        }
+        return newSection;
+    }
+
+    /**
+     * @return true, если слой активируется по активному окну, false - если это режим, включаемый вручную.
+     */
+    boolean isContextLayer() {
+        return windowClass != null || windowTitle != null;
+    }
+
+    /**
+     * Проверяет, подходит ли активное окно под условия слоя.
+     *
+     * @param lowerCaseWindowClass Класс активного окна в нижнем регистре
+     * @param lowerCaseWindowTitle Заголовок активного окна в нижнем регистре
+     * @return true, если слой контекстный и окно подходит под все его условия.
+     */
+    boolean matches(String lowerCaseWindowClass, String lowerCaseWindowTitle) {
+        return isContextLayer()
+                && (windowClass == null || lowerCaseWindowClass.contains(windowClass))
+                && (windowTitle == null || lowerCaseWindowTitle.contains(windowTitle));
+    }
+
+    /**
+     * @return Название слоя
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return Строка, которую должен содержать класс активного окна (в нижнем регистре), либо null.
+     */
+    String getWindowClass() {
+        return windowClass;
+    }
+
+    /**
+     * @return Строка, которую должен содержать заголовок активного окна (в нижнем регистре), либо null.
+     */
+    String getWindowTitle() {
+        return windowTitle;
+    }
+
+    /**
+     * @return Приоритет слоя среди контекстных слоёв
+     */
+    int getPriority() {
+        return priority;
+    }
+}
@@ -0,0 +1,483 @@
+import utils.iniSettings.INISettings;
+import utils.iniSettings.INISettingsSection;
+import utils.iniSettings.exceptions.IniSettingsException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Скомпилированный профиль привязок - двоичное представление файла actions.ini.
+ * В INI - файле каждый параметр действия хранится отдельной текстовой записью и при каждом запуске разбирается заново.
+ * Скомпилированный профиль хранит те же данные в готовом виде и загружается одним чтением файла,
+ * поэтому запуск с большими профилями происходит практически мгновенно.
+ * Файлы не отображаются в память: в Windows файл с действующим отображением нельзя заменить, а освободить
+ * отображение до сборки мусора Java не позволяет. Это помешало бы заменять профиль и actions.ini
+ * (сжатие журнала, сохранение файла редактором).
+ * <p>
+ * Формат файла (порядок байтов - big-endian):
+ * <ul>
+ * <li>Заголовок, 44 байта: сигнатура, версия формата, количество привязок, общее количество параметров,
+ * контрольная сумма CRC32 и длина INI - файла, из которого был получен профиль, количество строк, размер таблицы строк
+ * и количество описаний слоёв.</li>
+ * <li>Отсортированная по возрастанию таблица кодов клавиш, по 8 байт на привязку.</li>
+ * <li>Таблица действий, по 56 байт на привязку: код действия, минимальный интервал между нажатиями,
+ * ускорение, максимальное ускорение, номер первого параметра, количество параметров, номер жеста,
+ * код первой клавиши сочетания, флаги (бит 0 - режим удержания), интервал и ёмкость ограничителя частоты,
+ * номер строки с названием приёмника (-1, если привязка относится ко всем приёмникам),
+ * номер строки с названием слоя (-1, если привязка относится к основному слою).</li>
+ * <li>Общий массив параметров всех действий, по 4 байта на параметр.</li>
+ * <li>Таблица описаний слоёв (см. <code>BindingLayer</code>), по 16 байт на слой: номера строк с названием слоя,
+ * классом и заголовком окна (-1, если условие не задано) и приоритет.</li>
+ * <li>Таблица строк: для каждой строки - её длина в байтах и сама строка в кодировке UTF-8.</li>
+ * </ul>
+ * Если контрольная сумма не совпадает с контрольной суммой текущего INI - файла, профиль считается устаревшим,
+ * и привязки загружаются из INI - файла. Так же поступают и с повреждённым профилем: при открытии проверяются все
+ * смещения и количества, записанные в нём.
+ * <p>
+ * Класс также можно запустить как отдельную программу для преобразования форматов:
+ * <code>java BindingProfile compile actions.ini actions.ini.bin</code> или
+ * <code>java BindingProfile decompile actions.ini.bin actions.ini</code>
+ */
+class BindingProfile {
+
+    private static final int MAGIC = 0x49524250; // "IRBP"
+    private static final int VERSION = 6;
+    private static final int HEADER_SIZE = 44;
+    private static final int KEY_SIZE = 8;
+    private static final int RECORD_SIZE = 56;
+    private static final int LAYER_SIZE = 16;
+    private static final int FLAG_HOLD_MODE = 1;
+    private static final int CHECKSUM_CHUNK_SIZE = 64 * 1024;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int recordsOffset;
+    private final int paramsOffset;
+    private final int layersOffset;
+    private final int layersCount;
+    private final String[] strings;
+
+    /**
+     * Конструктор. Проверяет заголовок, размер профиля и все смещения и количества, записанные в нём.
+     *
+     * @param buffer Содержимое профиля
+     * @throws IOException В случае, если содержимое не является профилем привязок поддерживаемой версии.
+     */
+    private BindingProfile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Файл не является профилем привязок");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Неподдерживаемая версия профиля привязок: " + buffer.getInt(4));
+        }
+        count = buffer.getInt(8);
+        int paramsTotal = buffer.getInt(12);
+        int stringsCount = buffer.getInt(32);
+        int stringsSize = buffer.getInt(36);
+        layersCount = buffer.getInt(40);
+        if (count < 0 || paramsTotal < 0 || stringsCount < 0 || stringsSize < 0 || layersCount < 0
+                || (long) HEADER_SIZE + (long) count * (KEY_SIZE + RECORD_SIZE) + paramsTotal * 4L
+                + (long) layersCount * LAYER_SIZE + stringsSize != buffer.capacity()) {
+            throw new IOException("Профиль привязок повреждён");
+        }
+        recordsOffset = HEADER_SIZE + count * KEY_SIZE;
+        paramsOffset = recordsOffset + count * RECORD_SIZE;
+        layersOffset = paramsOffset + paramsTotal * 4;
+        strings = new String[stringsCount];
+        int position = layersOffset + layersCount * LAYER_SIZE;
+        for (int i = 0; i < stringsCount; i++) {
+            int length = position + 4 <= buffer.capacity() ? buffer.getInt(position) : -1;
+            if (length < 0 || position + 4L + length > buffer.capacity()) {
+                throw new IOException("Профиль привязок повреждён");
+            }
+            byte[] bytes = new byte[length];
+            ByteBuffer stringData = buffer.duplicate();
+            stringData.position(position + 4);
+            stringData.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += 4 + length;
+        }
+        if (position != buffer.capacity()) {
+            throw new IOException("Профиль привязок повреждён");
+        }
+        checkRecords(paramsTotal);
+    }
+
+    /**
+     * Проверяет, что коды клавиш отсортированы, параметры каждой привязки лежат внутри общего массива параметров,
+     * а номера строк существуют. После проверки чтение привязок и слоёв не может выйти за пределы профиля.
+     *
+     * @param paramsTotal Размер общего массива параметров
+     * @throws IOException В случае, если профиль повреждён.
+     */
+    private void checkRecords(int paramsTotal) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int record = recordsOffset + i * RECORD_SIZE;
+            int paramIndex = buffer.getInt(record + 16);
+            int paramsCount = buffer.getInt(record + 20);
+            if (i > 0 && getKeyCode(i) < getKeyCode(i - 1)
+                    || paramIndex < 0 || paramsCount < 0 || (long) paramIndex + paramsCount > paramsTotal
+                    || !isStringIndex(buffer.getInt(record + 48)) || !isStringIndex(buffer.getInt(record + 52))) {
+                throw new IOException("Профиль привязок повреждён: привязка " + i);
+            }
+        }
+        for (int i = 0; i < layersCount; i++) {
+            int layer = layersOffset + i * LAYER_SIZE;
+            if (buffer.getInt(layer) < 0 || !isStringIndex(buffer.getInt(layer)) || !isStringIndex(buffer.getInt(layer + 4))
+                    || !isStringIndex(buffer.getInt(layer + 8))) {
+                throw new IOException("Профиль привязок повреждён: слой " + i);
+            }
+        }
+    }
+
+    /**
+     * @param stringIndex Номер строки из профиля
+     * @return true, если строка с таким номером есть, либо номер равен -1 (строка не задана).
+     */
+    private boolean isStringIndex(int stringIndex) {
+        return stringIndex >= -1 && stringIndex < strings.length;
+    }
+
+    /**
+     * Загружает профиль, целиком читая файл в память. После загрузки файл не занят и может быть заменён.
+     *
+     * @param file Файл профиля
+     * @return Профиль привязок
+     * @throws IOException В случае ошибок ввода - вывода или неверного формата файла.
+     */
+    static BindingProfile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Файл не является профилем привязок");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Профиль привязок повреждён");
+                }
+            }
+            return new BindingProfile(buffer);
+        }
+    }
+
+    /**
+     * Компилирует профиль из списка действий и описаний слоёв.
+     *
+     * @param actions        Действия, привязанные к клавишам
+     * @param layers         Описания слоёв привязок
+     * @param sourceChecksum Контрольная сумма INI - файла, из которого получены действия (см. <code>checksumOf()</code>)
+     * @param sourceLength   Длина этого INI - файла в байтах
+     * @return Профиль привязок, хранящийся в памяти
+     */
+    static BindingProfile compile(Collection<KeyPressedAction> actions, Collection<BindingLayer> layers, long sourceChecksum, long sourceLength) {
+        KeyPressedAction[] sorted = actions.toArray(new KeyPressedAction[0]);
+        Arrays.sort(sorted, (first, second) -> first.getKeyCode() != second.getKeyCode()
+                ? Long.compare(first.getKeyCode(), second.getKeyCode())
+                : first.getGesture() != second.getGesture()
+                ? first.getGesture().compareTo(second.getGesture())
+                : first.getChordPrefixCode() != second.getChordPrefixCode()
+                ? Long.compare(first.getChordPrefixCode(), second.getChordPrefixCode())
+                : !String.valueOf(first.getReceiverScope()).equals(String.valueOf(second.getReceiverScope()))
+                ? String.valueOf(first.getReceiverScope()).compareTo(String.valueOf(second.getReceiverScope()))
+                : String.valueOf(first.getLayer()).compareTo(String.valueOf(second.getLayer())));
+        int paramsTotal = 0;
+        ArrayList<String> strings = new ArrayList<>();
+        HashMap<String, Integer> stringIndexes = new HashMap<>();
+        for (KeyPressedAction action : sorted) {
+            paramsTotal += action.getParamsCount();
+            addString(action.getReceiverScope(), strings, stringIndexes);
+            addString(action.getLayer(), strings, stringIndexes);
+        }
+        for (BindingLayer layer : layers) {
+            addString(layer.getName(), strings, stringIndexes);
+            addString(layer.getWindowClass(), strings, stringIndexes);
+            addString(layer.getWindowTitle(), strings, stringIndexes);
+        }
+        int stringsSize = 0;
+        for (String string : strings) {
+            stringsSize += 4 + string.getBytes(StandardCharsets.UTF_8).length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + sorted.length * (KEY_SIZE + RECORD_SIZE) + paramsTotal * 4
+                + layers.size() * LAYER_SIZE + stringsSize);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(sorted.length).putInt(paramsTotal)
+                .putLong(sourceChecksum).putLong(sourceLength).putInt(strings.size()).putInt(stringsSize).putInt(layers.size());
+        for (KeyPressedAction action : sorted) {
+            buffer.putLong(action.getKeyCode());
+        }
+        int paramIndex = 0;
+        for (KeyPressedAction action : sorted) {
+            buffer.putInt(action.getActionId())
+                    .putInt((int) action.getMinimalIntervalBetweenNextPress())
+                    .putInt(action.getAccelerationPercentPerSecond())
+                    .putInt(action.getMaxAccelerationPercent())
+                    .putInt(paramIndex)
+                    .putInt(action.getParamsCount())
+                    .putInt(action.getGesture().ordinal())
+                    .putLong(action.getChordPrefixCode())
+                    .putInt(action.isHoldMode() ? FLAG_HOLD_MODE : 0)
+                    .putInt(action.getRateIntervalMillis())
+                    .putInt(action.getRateBurst())
+                    .putInt(stringIndexOf(action.getReceiverScope(), stringIndexes))
+                    .putInt(stringIndexOf(action.getLayer(), stringIndexes));
+            paramIndex += action.getParamsCount();
+        }
+        for (KeyPressedAction action : sorted) {
+            for (int i = 0; i < action.getParamsCount(); i++) {
+                buffer.putInt(action.getParam(i));
+            }
+        }
+        for (BindingLayer layer : layers) {
+            buffer.putInt(stringIndexOf(layer.getName(), stringIndexes))
+                    .putInt(stringIndexOf(layer.getWindowClass(), stringIndexes))
+                    .putInt(stringIndexOf(layer.getWindowTitle(), stringIndexes))
+                    .putInt(layer.getPriority());
+        }
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        try {
+            return new BindingProfile(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void addString(String string, ArrayList<String> strings, HashMap<String, Integer> stringIndexes) {
+        if (string != null && !stringIndexes.containsKey(string)) {
+            stringIndexes.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    private static int stringIndexOf(String string, HashMap<String, Integer> stringIndexes) {
+        return string != null ? stringIndexes.get(string) : -1;
+    }
+
+    /**
+     * Компилирует профиль из секций INI - файла.
+     *
+     * @param settings       Содержимое INI - файла
+     * @param sourceChecksum Контрольная сумма этого INI - файла (см. <code>checksumOf()</code>)
+     * @param sourceLength   Длина этого INI - файла в байтах
+     * @return Профиль привязок, хранящийся в памяти
+     * @throws IniSettingsException В случае, если какая - либо секция не описывает ни действие, ни слой.
+     */
+    static BindingProfile compile(INISettings settings, long sourceChecksum, long sourceLength) throws IniSettingsException {
+        ArrayList<KeyPressedAction> actions = new ArrayList<>(settings.getSections().size());
+        ArrayList<BindingLayer> layers = new ArrayList<>();
+        for (INISettingsSection section : settings.getSections()) {
+            if (BindingLayer.isLayerSection(section)) {
+                layers.add(new BindingLayer(section));
+            } else {
+                actions.add(new KeyPressedAction(section));
+            }
+        }
+        return compile(actions, layers, sourceChecksum, sourceLength);
+    }
+
+    /**
+     * Вычисляет контрольную сумму CRC32 файла, читая его по частям через один и тот же буфер.
+     *
+     * @param file Файл
+     * @return Контрольная сумма файла
+     * @throws IOException В случае ошибок ввода - вывода.
+     */
+    static long checksumOf(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer chunk = ByteBuffer.allocate(CHECKSUM_CHUNK_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(chunk) >= 0) {
+                crc.update(chunk.array(), 0, chunk.position());
+                chunk.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Проверяет, соответствует ли профиль INI - файлу.
+     *
+     * @param sourceFile INI - файл
+     * @return true, если профиль был получен именно из текущего содержимого файла.
+     * @throws IOException В случае ошибок ввода - вывода.
+     */
+    boolean isCompiledFrom(Path sourceFile) throws IOException {
+        return Files.size(sourceFile) == getSourceLength() && checksumOf(sourceFile) == getSourceChecksum();
+    }
+
+    /**
+     * Сохраняет профиль в файл. Профиль сначала записывается во временный файл, который затем атомарно замещает прежний.
+     *
+     * @param file Файл профиля
+     * @throws IOException В случае ошибок ввода - вывода.
+     */
+    void writeTo(Path file) throws IOException {
+        Path temporaryFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer data = buffer.duplicate();
+                data.clear();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(true);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * @return Количество привязок в профиле.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return Контрольная сумма INI - файла, из которого был получен профиль.
+     */
+    long getSourceChecksum() {
+        return buffer.getLong(16);
+    }
+
+    /**
+     * @return Длина INI - файла, из которого был получен профиль.
+     */
+    long getSourceLength() {
+        return buffer.getLong(24);
+    }
+
+    /**
+     * @param index Номер привязки
+     * @return Код клавиши привязки с номером <code>index</code>
+     */
+    long getKeyCode(int index) {
+        return buffer.getLong(HEADER_SIZE + index * KEY_SIZE);
+    }
+
+    /**
+     * Ищет первую привязку клавиши двоичным поиском. Привязки одной клавиши к разным жестам следуют друг за другом,
+     * и привязка к каждому кадру (без жеста) - первая из них.
+     *
+     * @param keyCode Код клавиши
+     * @return Номер привязки, либо -1, если такой клавиши в профиле нет.
+     */
+    int indexOf(long keyCode) {
+        int low = 0, high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getKeyCode(middle) < keyCode) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < count && getKeyCode(low) == keyCode ? low : -1;
+    }
+
+    /**
+     * Создаёт действие по привязке с номером <code>index</code>.
+     *
+     * @param index Номер привязки
+     * @return Действие
+     */
+    KeyPressedAction getAction(int index) {
+        int record = recordsOffset + index * RECORD_SIZE;
+        int[] params = new int[buffer.getInt(record + 20)];
+        int paramPosition = paramsOffset + buffer.getInt(record + 16) * 4;
+        for (int i = 0; i < params.length; i++) {
+            params[i] = buffer.getInt(paramPosition + i * 4);
+        }
+        int gestureIndex = buffer.getInt(record + 24);
+        Gesture gesture = gestureIndex >= 0 && gestureIndex < Gesture.values().length ? Gesture.values()[gestureIndex] : Gesture.RAW;
+        return new KeyPressedAction(getKeyCode(index), gesture, buffer.getLong(record + 28), getString(record + 48), getString(record + 52), buffer.getInt(record),
+                buffer.getInt(record + 4), buffer.getInt(record + 8), buffer.getInt(record + 12),
+                (buffer.getInt(record + 36) & FLAG_HOLD_MODE) != 0, buffer.getInt(record + 40), buffer.getInt(record + 44), params);
+    }
+
+    /**
+     * @param position Смещение номера строки в профиле
+     * @return Строка с этим номером, либо null, если номер равен -1.
+     */
+    private String getString(int position) {
+        int stringIndex = buffer.getInt(position);
+        return stringIndex >= 0 ? strings[stringIndex] : null;
+    }
+
+    /**
+     * @return Описания слоёв привязок в порядке их следования в INI - файле.
+     */
+    ArrayList<BindingLayer> toLayers() {
+        ArrayList<BindingLayer> layers = new ArrayList<>(layersCount);
+        for (int i = 0; i < layersCount; i++) {
+            int layer = layersOffset + i * LAYER_SIZE;
+            layers.add(new BindingLayer(getString(layer), getString(layer + 4), getString(layer + 8), buffer.getInt(layer + 12)));
+        }
+        return layers;
+    }
+
+    /**
+     * @return Список всех действий профиля в порядке возрастания кодов клавиш.
+     */
+    ArrayList<KeyPressedAction> toActions() {
+        ArrayList<KeyPressedAction> actions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            actions.add(getAction(i));
+        }
+        return actions;
+    }
+
+    /**
+     * Преобразует профиль обратно в INI - файл.
+     *
+     * @return Содержимое INI - файла
+     */
+    INISettings toSettings() {
+        INISettings settings = new INISettings();
+        for (BindingLayer layer : toLayers()) {
+            settings.updateSection(layer.getSettingsSection());
+        }
+        for (int i = 0; i < count; i++) {
+            settings.updateSection(getAction(i).getSettingsSection());
+        }
+        return settings;
+    }
+
+    public static void main(String[] args) throws IOException, IniSettingsException {
+        if (args.length != 3 || !(args[0].equals("compile") || args[0].equals("decompile"))) {
+            System.out.println("Использование:\n" +
+                    "compile <INI - файл> <файл профиля> - скомпилировать профиль из INI - файла\n" +
+                    "decompile <файл профиля> <INI - файл> - восстановить INI - файл из профиля");
+            return;
+        }
+        Path source = Paths.get(args[1]);
+        if (args[0].equals("compile")) {
+            INISettings settings = new INISettings();
+            settings.loadFromFile(source);
+            BindingProfile profile = compile(settings, checksumOf(source), Files.size(source));
+            profile.writeTo(Paths.get(args[2]));
+            System.out.println("Скомпилировано привязок: " + profile.size());
+        } else {
+            BindingProfile profile = open(source);
+            profile.toSettings().saveToFile(args[2]);
+            System.out.println("Восстановлено привязок: " + profile.size());
+        }
+    }
+}
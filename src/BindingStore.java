@@ -0,0 +1,280 @@
+import utils.iniSettings.INISettings;
+import utils.iniSettings.INISettingsJournal;
+import utils.iniSettings.INISettingsSection;
+import utils.iniSettings.exceptions.IniSettingsException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Хранилище привязок действий к кнопкам ДУ.
+ * Привязки хранятся в INI - файле (снимке) и журнале изменений рядом с ним. При изучении новой кнопки
+ * в журнал дописывается только изменённая секция, а сворачивание журнала в снимок производится в фоновом потоке
+ * периодически, а также при закрытии хранилища. При загрузке читается снимок, а поверх него воспроизводится журнал.
+ * После каждого сворачивания снимок также компилируется в двоичный профиль <code>BindingProfile</code>.
+ * Если журнал пуст, а профиль соответствует снимку, привязки загружаются из профиля, а INI - файл читается
+ * только при первом изменении привязок.
+ * <p>
+ * Хранилище запоминает контрольную сумму и длину снимка, который оно последний раз прочитало или записало.
+ * По ним отличается изменение файла извне (см. <code>isSnapshotChanged()</code>) от записи самим хранилищем,
+ * а сворачивание журнала не затирает снимок, изменённый извне после загрузки.
+ */
+class BindingStore implements Closeable {
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String PROFILE_SUFFIX = ".bin";
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Path profileFile;
+    private final INISettingsJournal journal;
+    private final ScheduledExecutorService compactionScheduler;
+    private final int compactionThreshold;
+    private INISettings settings = null;
+    private long snapshotChecksum = -1;
+    private long snapshotLength = -1;
+
+    /**
+     * Конструктор. Запускает периодическое сворачивание журнала.
+     *
+     * @param snapshotFileName      Основной INI - файл с привязками
+     * @param compactionPeriodMillis Период проверки необходимости сворачивания журнала
+     * @param compactionThreshold   Количество записей в журнале, при котором он сворачивается
+     */
+    BindingStore(String snapshotFileName, long compactionPeriodMillis, int compactionThreshold) {
+        this.snapshotFile = Paths.get(snapshotFileName);
+        this.journalFile = Paths.get(snapshotFileName + JOURNAL_SUFFIX);
+        this.profileFile = Paths.get(snapshotFileName + PROFILE_SUFFIX);
+        this.journal = new INISettingsJournal(journalFile);
+        this.compactionThreshold = compactionThreshold;
+        compactionScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Binding store compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactionScheduler.scheduleWithFixedDelay(this::compactIfNeeded, compactionPeriodMillis, compactionPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Конструктор. Журнал проверяется раз в минуту и сворачивается, если в нём накопилась хотя бы одна запись.
+     *
+     * @param snapshotFileName Основной INI - файл с привязками
+     */
+    BindingStore(String snapshotFileName) {
+        this(snapshotFileName, TimeUnit.MINUTES.toMillis(1), 1);
+    }
+
+    /**
+     * Загружает действия, привязанные к кнопкам, и описания слоёв привязок. Если журнал пуст, а скомпилированный
+     * профиль не повреждён и соответствует снимку, они загружаются из профиля. Иначе читается снимок, поверх него воспроизводится журнал,
+     * и, если журнал был пуст, профиль компилируется заново, чтобы следующий запуск был быстрым.
+     *
+     * @return Таблица загруженных привязок
+     * @throws IOException          В случае ошибок чтения файлов.
+     * @throws IniSettingsException В случае ошибок в содержимом файлов.
+     */
+    synchronized BindingTable load() throws IOException, IniSettingsException {
+        boolean journalIsEmpty = !Files.exists(journalFile) || Files.size(journalFile) == 0;
+        if (journalIsEmpty && Files.exists(snapshotFile) && Files.exists(profileFile)) {
+            try {
+                BindingProfile profile = BindingProfile.open(profileFile);
+                if (profile.isCompiledFrom(snapshotFile)) {
+                    settings = null;
+                    snapshotChecksum = profile.getSourceChecksum();
+                    snapshotLength = profile.getSourceLength();
+                    return BindingTable.of(profile.toActions(), profile.toLayers());
+                }
+            } catch (IOException | IniSettingsException e) {
+                // Повреждённый профиль считается устаревшим: привязки загружаются из снимка, а профиль компилируется заново
+                System.err.println("Профиль привязок не будет использован: " + e.getMessage());
+            }
+        }
+        INISettings loadedSettings = loadSettings();
+        ArrayList<KeyPressedAction> actions = toActions(loadedSettings);
+        ArrayList<BindingLayer> layers = toLayers(loadedSettings);
+        if (journalIsEmpty && Files.exists(snapshotFile)) {
+            writeProfile(actions, layers);
+        }
+        return BindingTable.of(actions, layers);
+    }
+
+    /**
+     * Читает снимок и воспроизводит поверх него журнал изменений.
+     *
+     * @return Загруженные настройки
+     * @throws IOException          В случае ошибок чтения файлов.
+     * @throws IniSettingsException В случае ошибок в содержимом файлов.
+     */
+    private INISettings loadSettings() throws IOException, IniSettingsException {
+        INISettings loadedSettings = new INISettings();
+        rememberSnapshot(); // До чтения: если файл изменят во время чтения, изменение не останется незамеченным
+        if (Files.exists(snapshotFile)) {
+            loadedSettings.loadFromFile(snapshotFile);
+        }
+        journal.replayInto(loadedSettings);
+        settings = loadedSettings;
+        return settings;
+    }
+
+    /**
+     * Запоминает контрольную сумму и длину текущего снимка.
+     *
+     * @throws IOException В случае ошибок чтения файла.
+     */
+    private void rememberSnapshot() throws IOException {
+        if (Files.exists(snapshotFile)) {
+            snapshotLength = Files.size(snapshotFile);
+            snapshotChecksum = BindingProfile.checksumOf(snapshotFile);
+        } else {
+            snapshotLength = -1;
+            snapshotChecksum = -1;
+        }
+    }
+
+    /**
+     * Проверяет, изменился ли снимок с тех пор, как хранилище последний раз его прочитало или записало.
+     *
+     * @return true, если файл был изменён извне, и привязки нужно загрузить заново.
+     * @throws IOException В случае ошибок чтения файла.
+     */
+    synchronized boolean isSnapshotChanged() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return snapshotLength >= 0;
+        }
+        return Files.size(snapshotFile) != snapshotLength || BindingProfile.checksumOf(snapshotFile) != snapshotChecksum;
+    }
+
+    /**
+     * Создаёт действия по секциям настроек. Секции, описывающие слои, пропускаются.
+     *
+     * @param source Настройки
+     * @return Список действий
+     * @throws IniSettingsException В случае, если какая - либо секция не описывает действие.
+     */
+    private static ArrayList<KeyPressedAction> toActions(INISettings source) throws IniSettingsException {
+        ArrayList<KeyPressedAction> actions = new ArrayList<>(source.getSections().size());
+        for (INISettingsSection section : source.getSections()) {
+            if (!BindingLayer.isLayerSection(section)) {
+                actions.add(new KeyPressedAction(section));
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * Создаёт описания слоёв по секциям настроек.
+     *
+     * @param source Настройки
+     * @return Список описаний слоёв в порядке следования секций
+     * @throws IniSettingsException В случае, если какая - либо секция слоя некорректна.
+     */
+    private static ArrayList<BindingLayer> toLayers(INISettings source) throws IniSettingsException {
+        ArrayList<BindingLayer> layers = new ArrayList<>();
+        for (INISettingsSection section : source.getSections()) {
+            if (BindingLayer.isLayerSection(section)) {
+                layers.add(new BindingLayer(section));
+            }
+        }
+        return layers;
+    }
+
+    /**
+     * Компилирует профиль привязок из текущего снимка. Профиль необязателен, поэтому ошибки лишь выводятся в консоль.
+     *
+     * @param actions Действия, загруженные из снимка
+     * @param layers  Описания слоёв, загруженные из снимка
+     */
+    private void writeProfile(Collection<KeyPressedAction> actions, Collection<BindingLayer> layers) {
+        try {
+            BindingProfile.compile(actions, layers, BindingProfile.checksumOf(snapshotFile), Files.size(snapshotFile)).writeTo(profileFile);
+        } catch (IOException e) {
+            System.err.println("Ошибка сохранения профиля привязок: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Сохраняет изменённую секцию: обновляет её в памяти и дописывает в журнал.
+     *
+     * @param section Изменённая секция
+     * @throws IOException В случае ошибок записи журнала.
+     */
+    synchronized void save(INISettingsSection section) throws IOException {
+        getSettings().updateSection(section);
+        journal.append(section);
+    }
+
+    /**
+     * Сворачивает журнал в снимок, если в нём накопилось достаточно записей.
+     */
+    private synchronized void compactIfNeeded() {
+        if (journal.getEntriesCount() >= compactionThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Сворачивает журнал в снимок немедленно. Если снимок был изменён извне после загрузки, он не перезаписывается:
+     * журнал сохраняется и будет воспроизведён поверх нового снимка при следующей загрузке.
+     */
+    synchronized void compact() {
+        if (settings == null) {
+            return; // Привязки не изменялись с момента загрузки из профиля
+        }
+        try {
+            if (isSnapshotChanged()) {
+                System.err.println("Файл настроек изменён извне, сворачивание журнала отложено до его перезагрузки");
+                return;
+            }
+            journal.compact(settings, snapshotFile);
+            rememberSnapshot();
+        } catch (IOException e) {
+            System.err.println("Ошибка сохранения файла настроек: " + e.getMessage());
+            return;
+        }
+        try {
+            writeProfile(toActions(settings), toLayers(settings));
+        } catch (IniSettingsException e) {
+            System.err.println("Ошибка компиляции профиля привязок: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Возвращает текущие настройки, включая изменения из журнала. Если привязки были загружены из профиля,
+     * INI - файл читается при первом обращении.
+     *
+     * @return Текущие настройки
+     * @throws IOException В случае ошибок чтения или содержимого файлов.
+     */
+    synchronized INISettings getSettings() throws IOException {
+        if (settings == null) {
+            try {
+                loadSettings();
+            } catch (IniSettingsException e) {
+                throw new IOException("Ошибка интерпретации файла настроек", e);
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Останавливает фоновое сворачивание и сворачивает журнал, если в нём есть записи.
+     */
+    @Override
+    public synchronized void close() {
+        compactionScheduler.shutdownNow();
+        if (journal.getEntriesCount() > 0) {
+            compact();
+        }
+        try {
+            journal.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,355 @@
+import utils.LongHashMap;
+import utils.iniSettings.exceptions.IniSettingsException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Неизменяемая таблица привязок действий к кодам кнопок ДУ.
+ * После создания таблица не изменяется, поэтому поток приёма данных может читать её без блокировок,
+ * а новая версия таблицы (после перезагрузки профиля или изучения новой кнопки) публикуется одной записью
+ * в volatile - поле. Изменение таблицы создаёт её копию.
+ * Привязки к отдельным кадрам, к жестам и к сочетаниям кнопок хранятся в отдельных хэш - таблицах,
+ * поэтому поиск любой из них выполняется за постоянное время.
+ * <p>
+ * Привязки с названием приёмника (например <code>COM3/4FBB24D</code>) действуют только для этого приёмника
+ * и перекрывают одноимённые общие привязки. Для каждого такого приёмника при создании таблицы строится
+ * отдельная таблица, объединяющая общие привязки с привязками приёмника (см. <code>forReceiver()</code>).
+ * <p>
+ * Привязки слоёв (см. <code>BindingLayer</code>) в основную таблицу не входят. Для каждого набора активных слоёв
+ * строится отдельная таблица, в которой привязки слоёв наложены на основные привязки в порядке активации слоёв
+ * (см. <code>forLayers()</code>). Такие таблицы строятся при смене активных слоёв и запоминаются, поэтому
+ * поиск привязки при нажатии остаётся одним обращением к хэш - таблице независимо от количества слоёв.
+ */
+final class BindingTable {
+
+    /**
+     * Пустая таблица.
+     */
+    static final BindingTable EMPTY = new BindingTable();
+
+    private final ArrayList<KeyPressedAction> allActions = new ArrayList<>();
+    private final ArrayList<BindingLayer> layers = new ArrayList<>();
+    private final HashSet<String> boundLayers = new HashSet<>();
+    private List<String> activeLayers = Collections.emptyList();
+    private final ConcurrentHashMap<List<String>, BindingTable> layerTables = new ConcurrentHashMap<>();
+    private final LongHashMap<KeyPressedAction> rawActions = new LongHashMap<>();
+    private final LongHashMap<KeyPressedAction[]> gestureActions = new LongHashMap<>();
+    private final LongHashMap<LongHashMap<KeyPressedAction>> chordActions = new LongHashMap<>();
+    private final HashMap<String, BindingTable> receiverTables = new HashMap<>();
+    private final LongHashMap<KeyPressedAction> boundCodes = new LongHashMap<>();
+
+    private BindingTable() {
+    }
+
+    /**
+     * Создаёт таблицу из списка действий, предварительно проверив каждое из них.
+     *
+     * @param actions Действия, привязанные к кнопкам
+     * @return Таблица привязок
+     * @throws IniSettingsException В случае, если какое - либо действие некорректно.
+     */
+    static BindingTable of(Collection<KeyPressedAction> actions) throws IniSettingsException {
+        return of(actions, Collections.<BindingLayer>emptyList());
+    }
+
+    /**
+     * Создаёт таблицу из списка действий и описаний слоёв, предварительно проверив каждое действие.
+     *
+     * @param actions Действия, привязанные к кнопкам
+     * @param layers  Описания слоёв привязок
+     * @return Таблица привязок
+     * @throws IniSettingsException В случае, если какое - либо действие некорректно, или слой описан дважды.
+     */
+    static BindingTable of(Collection<KeyPressedAction> actions, Collection<BindingLayer> layers) throws IniSettingsException {
+        for (KeyPressedAction action : actions) {
+            if (!action.isValid()) {
+                throw new IniSettingsException("Некорректное действие для кнопки " + action.getBindingName());
+            }
+        }
+        HashSet<String> layerNames = new HashSet<>();
+        for (BindingLayer layer : layers) {
+            if (!layerNames.add(layer.getName())) {
+                throw new IniSettingsException("Слой " + layer.getName() + " описан несколько раз");
+            }
+        }
+        return build(actions, layers, Collections.<String>emptyList());
+    }
+
+    /**
+     * Создаёт копию таблицы, в которой к кнопке (или жесту) привязано действие <code>action</code>.
+     *
+     * @param action Новое действие
+     * @return Новая таблица привязок
+     */
+    BindingTable withAction(KeyPressedAction action) {
+        ArrayList<KeyPressedAction> actions = new ArrayList<>(allActions.size() + 1);
+        String bindingName = action.getBindingName();
+        for (KeyPressedAction currentAction : allActions) {
+            if (!currentAction.getBindingName().equals(bindingName)) {
+                actions.add(currentAction);
+            }
+        }
+        actions.add(action);
+        return build(actions, layers, Collections.<String>emptyList());
+    }
+
+    /**
+     * Строит таблицу общих привязок и таблицы отдельных приёмников. Сначала индексируются привязки основного слоя,
+     * затем - привязки активных слоёв по порядку, так что привязка более позднего слоя перекрывает привязку
+     * к той же кнопке в нижележащих слоях. Внутри каждого слоя привязки приёмника перекрывают общие привязки.
+     *
+     * @param actions      Проверенные действия
+     * @param layers       Описания слоёв
+     * @param activeLayers Названия активных слоёв в порядке наложения
+     * @return Таблица привязок
+     */
+    private static BindingTable build(Collection<KeyPressedAction> actions, Collection<BindingLayer> layers, List<String> activeLayers) {
+        BindingTable table = new BindingTable();
+        table.allActions.addAll(actions);
+        table.layers.addAll(layers);
+        table.activeLayers = activeLayers;
+        for (KeyPressedAction action : actions) {
+            if (action.getLayer() != null) {
+                table.boundLayers.add(action.getLayer());
+            }
+        }
+        table.indexLayers(actions, activeLayers, null);
+        for (KeyPressedAction action : actions) {
+            String receiverScope = action.getReceiverScope();
+            if (receiverScope != null && isActive(action.getLayer(), activeLayers) && !table.receiverTables.containsKey(receiverScope)) {
+                BindingTable receiverTable = new BindingTable();
+                receiverTable.allActions.addAll(actions);
+                receiverTable.layers.addAll(layers);
+                receiverTable.activeLayers = activeLayers;
+                receiverTable.indexLayers(actions, activeLayers, receiverScope);
+                table.receiverTables.put(receiverScope, receiverTable);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Индексирует привязки основного слоя и активных слоёв.
+     *
+     * @param actions       Все действия
+     * @param activeLayers  Названия активных слоёв в порядке наложения
+     * @param receiverScope Название порта приёмника, привязки которого нужно наложить на общие привязки, либо null
+     */
+    private void indexLayers(Collection<KeyPressedAction> actions, List<String> activeLayers, String receiverScope) {
+        for (int i = -1; i < activeLayers.size(); i++) {
+            String layer = i < 0 ? null : activeLayers.get(i);
+            for (KeyPressedAction action : actions) {
+                if (action.getReceiverScope() == null && Objects.equals(action.getLayer(), layer)) {
+                    index(action);
+                }
+            }
+            if (receiverScope != null) {
+                for (KeyPressedAction action : actions) {
+                    if (receiverScope.equals(action.getReceiverScope()) && Objects.equals(action.getLayer(), layer)) {
+                        index(action); // Перекрывает общую привязку к той же кнопке
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isActive(String layer, List<String> activeLayers) {
+        return layer == null || activeLayers.contains(layer);
+    }
+
+    private void index(KeyPressedAction action) {
+        boundCodes.put(action.getKeyCode(), action);
+        switch (action.getGesture()) {
+            case RAW:
+                rawActions.put(action.getKeyCode(), action);
+                break;
+            case CHORD:
+                LongHashMap<KeyPressedAction> chords = chordActions.get(action.getChordPrefixCode());
+                if (chords == null) {
+                    chords = new LongHashMap<>();
+                    chordActions.put(action.getChordPrefixCode(), chords);
+                }
+                chords.put(action.getKeyCode(), action);
+                boundCodes.put(action.getChordPrefixCode(), action);
+                break;
+            default:
+                KeyPressedAction[] gestures = gestureActions.get(action.getKeyCode());
+                if (gestures == null) {
+                    gestures = new KeyPressedAction[Gesture.values().length];
+                    gestureActions.put(action.getKeyCode(), gestures);
+                }
+                gestures[action.getGesture().ordinal()] = action;
+                break;
+        }
+    }
+
+    /**
+     * Возвращает таблицу, в которой на основные привязки наложены привязки активных слоёв. Слои, к которым
+     * не привязано ни одно действие, пропускаются. Таблица для каждого набора слоёв строится один раз,
+     * поэтому метод следует вызывать при смене активных слоёв, а не при каждом нажатии.
+     *
+     * @param activeLayers Названия активных слоёв в порядке наложения: каждый следующий слой перекрывает предыдущие
+     * @return Таблица привязок с наложенными слоями, либо эта же таблица, если ни один из слоёв не содержит привязок.
+     */
+    BindingTable forLayers(List<String> activeLayers) {
+        ArrayList<String> boundActiveLayers = new ArrayList<>(activeLayers.size());
+        for (String layer : activeLayers) {
+            if (boundLayers.contains(layer) && !boundActiveLayers.contains(layer)) {
+                boundActiveLayers.add(layer);
+            }
+        }
+        if (boundActiveLayers.equals(this.activeLayers)) {
+            return this;
+        }
+        return layerTables.computeIfAbsent(Collections.unmodifiableList(boundActiveLayers),
+                key -> build(allActions, layers, key));
+    }
+
+    /**
+     * Ищет контекстный слой, соответствующий активному окну.
+     *
+     * @param windowClass Класс активного окна
+     * @param windowTitle Заголовок активного окна
+     * @return Название подходящего слоя с наибольшим приоритетом (при равных приоритетах - описанного раньше), либо null.
+     */
+    String findContextLayer(String windowClass, String windowTitle) {
+        String lowerCaseWindowClass = windowClass.toLowerCase(Locale.ROOT);
+        String lowerCaseWindowTitle = windowTitle.toLowerCase(Locale.ROOT);
+        BindingLayer found = null;
+        for (BindingLayer layer : layers) {
+            if (layer.matches(lowerCaseWindowClass, lowerCaseWindowTitle) && (found == null || layer.getPriority() > found.getPriority())) {
+                found = layer;
+            }
+        }
+        return found != null ? found.getName() : null;
+    }
+
+    /**
+     * @return true, если описан хотя бы один контекстный слой.
+     */
+    boolean hasContextLayers() {
+        for (BindingLayer layer : layers) {
+            if (layer.isContextLayer()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param name Название слоя
+     * @return true, если слой - контекстный, то есть включается по активному окну, а не вручную.
+     */
+    boolean isContextLayer(String name) {
+        for (BindingLayer layer : layers) {
+            if (layer.getName().equals(name)) {
+                return layer.isContextLayer();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Описания слоёв в порядке их следования в файле настроек.
+     */
+    ArrayList<BindingLayer> getLayers() {
+        return new ArrayList<>(layers);
+    }
+
+    /**
+     * @return Названия слоёв, к которым привязано хотя бы одно действие.
+     */
+    HashSet<String> getBoundLayers() {
+        return new HashSet<>(boundLayers);
+    }
+
+    /**
+     * @return Названия слоёв, наложенных в этой таблице, в порядке наложения.
+     */
+    List<String> getActiveLayers() {
+        return activeLayers;
+    }
+
+    /**
+     * @param portName Название порта приёмника
+     * @return Таблица, в которой общие привязки дополнены привязками этого приёмника, либо эта же таблица,
+     * если у приёмника нет собственных привязок.
+     */
+    BindingTable forReceiver(String portName) {
+        BindingTable table = receiverTables.get(portName);
+        return table != null ? table : this;
+    }
+
+    /**
+     * @param keyCode Код кнопки
+     * @return Действие, привязанное к каждому кадру кнопки, либо null.
+     */
+    KeyPressedAction get(long keyCode) {
+        return rawActions.get(keyCode);
+    }
+
+    /**
+     * @param keyCode Код кнопки
+     * @param gesture Жест
+     * @return Действие, привязанное к жесту кнопки, либо null.
+     */
+    KeyPressedAction getGesture(long keyCode, Gesture gesture) {
+        KeyPressedAction[] gestures = gestureActions.get(keyCode);
+        return gestures == null ? null : gestures[gesture.ordinal()];
+    }
+
+    /**
+     * @param prefixCode Код первой кнопки сочетания
+     * @param keyCode    Код второй кнопки сочетания
+     * @return Действие, привязанное к сочетанию кнопок, либо null.
+     */
+    KeyPressedAction getChord(long prefixCode, long keyCode) {
+        LongHashMap<KeyPressedAction> chords = chordActions.get(prefixCode);
+        return chords == null ? null : chords.get(keyCode);
+    }
+
+    /**
+     * @param keyCode Код кнопки
+     * @return true, если с кнопки начинается хотя бы одно сочетание.
+     */
+    boolean isChordPrefix(long keyCode) {
+        return chordActions.containsKey(keyCode);
+    }
+
+    /**
+     * @param keyCode Код кнопки
+     * @return true, если к кнопке привязано хотя бы одно действие - к кадру, к жесту или к сочетанию.
+     */
+    boolean isBound(long keyCode) {
+        return boundCodes.containsKey(keyCode);
+    }
+
+    /**
+     * @return true, если в таблице есть привязки к жестам или сочетаниям кнопок.
+     */
+    boolean hasGestureBindings() {
+        return gestureActions.size() > 0 || chordActions.size() > 0;
+    }
+
+    /**
+     * @return Количество привязок в таблице.
+     */
+    int size() {
+        return allActions.size();
+    }
+
+    /**
+     * @return Список всех действий таблицы.
+     */
+    ArrayList<KeyPressedAction> values() {
+        return new ArrayList<>(allActions);
+    }
+}
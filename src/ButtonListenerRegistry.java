@@ -0,0 +1,311 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Список обработчиков нажатий на кнопки ДУ одного модуля.
+ * Обработчики хранятся в неизменяемом массиве, упорядоченном по убыванию приоритета (при равном приоритете - в порядке
+ * добавления). Добавление и удаление обработчика создают новый массив и публикуют его операцией compare-and-set,
+ * поэтому поток приёма данных перебирает обработчики без блокировок, а изменение списка из другого потока
+ * не мешает рассылке события, которая уже идёт.
+ * <p>
+ * Обработчик может поглотить событие (см. <code>ButtonPressedEventListener.handleButtonPressed()</code>), и тогда
+ * обработчикам с меньшим приоритетом оно не передаётся. Время работы каждого обработчика измеряется отдельно.
+ * Обработчик, который <code>SLOW_STRIKES_LIMIT</code> раз подряд работал дольше <code>slowThresholdMillis</code>,
+ * переводится в отдельный поток с собственной ограниченной очередью событий и больше не задерживает поток приёма данных.
+ * Такой обработчик получает события с задержкой и уже не может их поглотить.
+ */
+class ButtonListenerRegistry implements Closeable {
+
+    private static final int SLOW_STRIKES_LIMIT = 3;
+    private static final int ASYNC_QUEUE_CAPACITY = 64;
+    private static final Registration[] NO_REGISTRATIONS = new Registration[0];
+
+    /**
+     * Зарегистрированный обработчик и статистика его вызовов.
+     */
+    static final class Registration {
+        private final ButtonPressedEventListener listener;
+        private final int priority;
+        private final long sequence;
+        private volatile long invocationsCount = 0;
+        private volatile long totalNanos = 0;
+        private volatile long maxNanos = 0;
+        private int slowStrikes = 0;
+        private volatile AsyncDelivery asyncDelivery = null;
+
+        private Registration(ButtonPressedEventListener listener, int priority, long sequence) {
+            this.listener = listener;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Учитывает в статистике очередной вызов обработчика.
+         *
+         * @param nanos Время работы обработчика
+         * @return true, если обработчик работал дольше порога уже <code>SLOW_STRIKES_LIMIT</code> раз подряд.
+         */
+        private boolean record(long nanos, long slowThresholdNanos) {
+            invocationsCount++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+            slowStrikes = nanos > slowThresholdNanos ? slowStrikes + 1 : 0;
+            return slowStrikes >= SLOW_STRIKES_LIMIT;
+        }
+
+        /**
+         * @return Обработчик
+         */
+        ButtonPressedEventListener getListener() {
+            return listener;
+        }
+
+        /**
+         * @return Приоритет обработчика. Обработчики с большим приоритетом вызываются раньше.
+         */
+        int getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return true, если обработчик был переведён в отдельный поток.
+         */
+        boolean isAsync() {
+            return asyncDelivery != null;
+        }
+
+        /**
+         * @return Количество вызовов обработчика.
+         */
+        long getInvocationsCount() {
+            return invocationsCount;
+        }
+
+        /**
+         * @return Среднее время работы обработчика в микросекундах.
+         */
+        long getAverageMicros() {
+            long invocations = invocationsCount;
+            return invocations == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos / invocations);
+        }
+
+        /**
+         * @return Наибольшее время работы обработчика в микросекундах.
+         */
+        long getMaxMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxNanos);
+        }
+
+        /**
+         * @return Количество событий, отброшенных из-за переполнения очереди отдельного потока.
+         */
+        long getDroppedCount() {
+            AsyncDelivery delivery = asyncDelivery;
+            return delivery == null ? 0 : delivery.droppedCount.get();
+        }
+
+        @Override
+        public String toString() {
+            return listener.getClass().getSimpleName() + " (приоритет " + priority + (isAsync() ? ", в отдельном потоке" : "") +
+                    "): вызовов " + invocationsCount + ", в среднем " + getAverageMicros() + " мкс, максимум " + getMaxMicros() +
+                    " мкс" + (isAsync() ? ", отброшено " + getDroppedCount() : "");
+        }
+    }
+
+    /**
+     * Отдельный поток с очередью событий для медленного обработчика.
+     */
+    private static final class AsyncDelivery {
+        private final ArrayBlockingQueue<Object[]> queue = new ArrayBlockingQueue<>(ASYNC_QUEUE_CAPACITY);
+        private final AtomicLong droppedCount = new AtomicLong();
+        private final Thread thread;
+
+        AsyncDelivery(Registration registration) {
+            thread = new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        Object[] event = queue.take();
+                        long startTime = System.nanoTime();
+                        try {
+                            registration.listener.buttonPressed((Long) event[0], (IR_moduleConnection) event[1]);
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                        registration.record(System.nanoTime() - startTime, Long.MAX_VALUE);
+                    }
+                } catch (InterruptedException ignored) {
+                    // Обработчик удалён из списка
+                }
+            }, "IR slow listener " + registration.listener.getClass().getSimpleName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void offer(long buttonCode, IR_moduleConnection ir_module) {
+            if (!queue.offer(new Object[]{buttonCode, ir_module})) {
+                droppedCount.incrementAndGet();
+            }
+        }
+
+        void stop() {
+            thread.interrupt();
+        }
+    }
+
+    private final AtomicReference<Registration[]> registrations = new AtomicReference<>(NO_REGISTRATIONS);
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final long slowThresholdNanos;
+
+    /**
+     * Конструктор.
+     *
+     * @param slowThresholdMillis Время работы обработчика, после которого вызов считается медленным
+     */
+    ButtonListenerRegistry(long slowThresholdMillis) {
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+    }
+
+    /**
+     * Конструктор. Порог медленного вызова берётся из системного свойства <code>ir.listener.slowMs</code> (по умолчанию 5).
+     */
+    ButtonListenerRegistry() {
+        this(Long.getLong("ir.listener.slowMs", 5));
+    }
+
+    /**
+     * Добавляет обработчик. Если обработчик уже был добавлен, он заменяется (вместе с приоритетом и статистикой).
+     *
+     * @param listener Обработчик
+     * @param priority Приоритет обработчика. Обработчики с большим приоритетом вызываются раньше.
+     */
+    void attach(ButtonPressedEventListener listener, int priority) {
+        Registration registration = new Registration(listener, priority, nextSequence.getAndIncrement());
+        Registration[] current, updated;
+        Registration removed;
+        do {
+            current = registrations.get();
+            removed = null;
+            ArrayList<Registration> list = new ArrayList<>(current.length + 1);
+            for (Registration existing : current) {
+                if (existing.listener == listener) {
+                    removed = existing;
+                } else {
+                    list.add(existing);
+                }
+            }
+            list.add(registration);
+            updated = list.toArray(NO_REGISTRATIONS);
+            Arrays.sort(updated, (first, second) -> first.priority != second.priority
+                    ? Integer.compare(second.priority, first.priority)
+                    : Long.compare(first.sequence, second.sequence));
+        } while (!registrations.compareAndSet(current, updated));
+        stopAsync(removed);
+    }
+
+    /**
+     * Удаляет обработчик.
+     *
+     * @param listener Обработчик
+     * @return true, если обработчик был в списке.
+     */
+    boolean detach(ButtonPressedEventListener listener) {
+        Registration[] current, updated;
+        Registration removed;
+        do {
+            current = registrations.get();
+            removed = null;
+            updated = new Registration[Math.max(current.length - 1, 0)];
+            int count = 0;
+            for (Registration existing : current) {
+                if (existing.listener == listener) {
+                    removed = existing;
+                } else if (count < updated.length) {
+                    updated[count++] = existing;
+                }
+            }
+            if (removed == null) {
+                return false;
+            }
+        } while (!registrations.compareAndSet(current, updated));
+        stopAsync(removed);
+        return true;
+    }
+
+    /**
+     * Рассылает событие обработчикам в порядке убывания приоритета, пока один из них не поглотит его.
+     * Вызывается в потоке приёма данных.
+     *
+     * @param buttonCode Код клавиши, на которую нажал пользователь.
+     * @param ir_module  Модуль инфракрасного приёмника, на который поступил сигнал.
+     */
+    void dispatch(long buttonCode, IR_moduleConnection ir_module) {
+        for (Registration registration : registrations.get()) {
+            AsyncDelivery delivery = registration.asyncDelivery;
+            if (delivery != null) {
+                delivery.offer(buttonCode, ir_module);
+                continue;
+            }
+            boolean consumed = false;
+            long startTime = System.nanoTime();
+            try {
+                consumed = registration.listener.handleButtonPressed(buttonCode, ir_module);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            if (registration.record(System.nanoTime() - startTime, slowThresholdNanos)) {
+                moveToAsync(registration);
+            }
+            if (consumed) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Переводит медленный обработчик в отдельный поток.
+     *
+     * @param registration Регистрация обработчика
+     */
+    private void moveToAsync(Registration registration) {
+        registration.asyncDelivery = new AsyncDelivery(registration);
+        System.err.println("Обработчик нажатий " + registration.listener.getClass().getSimpleName() +
+                " работает слишком долго (в среднем " + registration.getAverageMicros() + " мкс) и переведён в отдельный поток");
+        for (Registration current : registrations.get()) {
+            if (current == registration) {
+                return;
+            }
+        }
+        stopAsync(registration); // Обработчик был удалён, пока шёл его вызов
+    }
+
+    private static void stopAsync(Registration registration) {
+        AsyncDelivery delivery = registration != null ? registration.asyncDelivery : null;
+        if (delivery != null) {
+            delivery.stop();
+        }
+    }
+
+    /**
+     * @return Зарегистрированные обработчики в порядке вызова.
+     */
+    Registration[] getRegistrations() {
+        return registrations.get().clone();
+    }
+
+    /**
+     * Удаляет все обработчики и останавливает их отдельные потоки.
+     */
+    @Override
+    public void close() {
+        for (Registration registration : registrations.getAndSet(NO_REGISTRATIONS)) {
+            stopAsync(registration);
+        }
+    }
+}
@@ -7,8 +7,22 @@ interface ButtonPressedEventListener {
     /**
      * Обработчик нажатия на кнопку ДУ.
      *
-     * @param buttonCode Шестнадцатиричный код клавиши, на которую нажал пользователь.
+     * @param buttonCode Код клавиши, на которую нажал пользователь.
      * @param ir_module  Модуль инфракрасного приёмника, на который поступил сигнал.
      */
-    void buttonPressed(String buttonCode, IR_moduleConnection ir_module);
+    void buttonPressed(long buttonCode, IR_moduleConnection ir_module);
+
+    /**
+     * Обработчик нажатия на кнопку ДУ, который может поглотить событие. Поглощённое событие не передаётся
+     * обработчикам с меньшим приоритетом (см. <code>ButtonListenerRegistry</code>).
+     * По умолчанию вызывает <code>buttonPressed()</code> и не поглощает событие.
+     *
+     * @param buttonCode Код клавиши, на которую нажал пользователь.
+     * @param ir_module  Модуль инфракрасного приёмника, на который поступил сигнал.
+     * @return true, если событие поглощено.
+     */
+    default boolean handleButtonPressed(long buttonCode, IR_moduleConnection ir_module) {
+        buttonPressed(buttonCode, ir_module);
+        return false;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Воспроизводит записанные сеансы работы модуля через имитацию <code>SimulatedIR_module</code>.
+ * Формат файла записи - текстовый, по одному кадру на строку: <code>время_мс данные</code>, где время отсчитывается
+ * от начала записи, а данные - это то, что прислал модуль (например, <code>4FBB24D</code> или <code>DEVICE_ACTIVE</code>).
+ * Пустые строки и строки, начинающиеся с символа #, пропускаются.
+ * Запись можно воспроизвести в реальном времени, ускоренно, или настолько быстро, насколько это возможно.
+ */
+class CaptureReplayDriver {
+    private final SimulatedIR_module module;
+
+    /**
+     * Конструктор.
+     *
+     * @param module Имитация модуля, через которую будут отправлены записанные кадры
+     */
+    CaptureReplayDriver(SimulatedIR_module module) {
+        this.module = module;
+    }
+
+    /**
+     * Воспроизводит файл записи. Метод возвращает управление после отправки последнего кадра.
+     *
+     * @param captureFile Файл записи
+     * @param speed       Скорость воспроизведения: 1 - реальное время, 10 - в десять раз быстрее,
+     *                    0 - без пауз между кадрами.
+     * @return Количество воспроизведённых кадров
+     * @throws IOException          В случае ошибки чтения файла или его некорректного формата.
+     * @throws InterruptedException В случае, если воспроизведение было прервано.
+     */
+    long replay(Path captureFile, double speed) throws IOException, InterruptedException {
+        long framesCount = 0;
+        long startTime = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(captureFile, StandardCharsets.US_ASCII)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.indexOf(' ');
+                if (separator < 0) {
+                    throw new IOException("Некорректная строка " + lineNumber + " в файле " + captureFile);
+                }
+                long frameTimeMillis;
+                try {
+                    frameTimeMillis = Long.parseLong(line.substring(0, separator));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Некорректное время в строке " + lineNumber + " файла " + captureFile);
+                }
+                if (speed > 0) {
+                    long dueTime = startTime + (long) (TimeUnit.MILLISECONDS.toNanos(frameTimeMillis) / speed);
+                    long waitNanos = dueTime - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                }
+                module.emitRaw((line.substring(separator + 1).trim() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                framesCount++;
+            }
+        }
+        return framesCount;
+    }
+}
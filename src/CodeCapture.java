@@ -0,0 +1,84 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Ожидание заданного количества кодов клавиш, поступающих с модуля.
+ * Поток приёма данных передаёт коды методом <code>offer()</code>, а ожидающий поток пробуждается сразу же,
+ * как только получено нужное количество кодов. Ожидание можно отменить или ограничить по времени.
+ */
+class CodeCapture {
+    private final long[] codes;
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private int receivedCount = 0;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Конструктор.
+     *
+     * @param count Количество кодов, которое необходимо получить
+     */
+    CodeCapture(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count");
+        }
+        codes = new long[count];
+    }
+
+    /**
+     * Передаёт очередной принятый код. Вызывается только из потока приёма данных.
+     *
+     * @param code Код клавиши
+     * @return true, если получено нужное количество кодов и ожидание завершено.
+     */
+    boolean offer(long code) {
+        if (isDone()) {
+            return true;
+        }
+        codes[receivedCount++] = code;
+        if (receivedCount == codes.length) {
+            completed.countDown();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Отменяет ожидание. Ожидающий поток получит исключение <code>CancellationException</code>.
+     */
+    void cancel() {
+        cancelled = true;
+        completed.countDown();
+    }
+
+    /**
+     * @return true, если ожидание завершено или отменено.
+     */
+    boolean isDone() {
+        return completed.getCount() == 0;
+    }
+
+    /**
+     * Ожидает получения всех кодов.
+     *
+     * @param timeoutMillis Максимальное время ожидания в миллисекундах. 0 - ждать без ограничения.
+     * @return Массив полученных кодов в порядке их поступления.
+     * @throws InterruptedException  В случае, если ожидающий поток был прерван.
+     * @throws TimeoutException      В случае, если время ожидания истекло.
+     * @throws CancellationException В случае, если ожидание было отменено.
+     */
+    long[] await(long timeoutMillis) throws InterruptedException, TimeoutException, CancellationException {
+        if (timeoutMillis > 0) {
+            if (!completed.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException();
+            }
+        } else {
+            completed.await();
+        }
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        return codes;
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Скомпилированное действие - готовая к исполнению форма привязки <code>KeyPressedAction</code>.
+ * Действие компилируется один раз при создании привязки: для каждого типа действия есть свой неизменяемый класс,
+ * который хранит параметры в примитивных полях, а маски клавиш мыши и массивы кодов клавиш вычисляет заранее.
+ * Поэтому исполнение действия - это один виртуальный вызов без разбора кода действия, распаковки параметров
+ * и проверки их количества.
+ */
+abstract class CompiledAction implements InjectionTask {
+
+    /**
+     * Действие, которое ничего не делает: сброс привязки, макрос (его выполняет <code>MacroEngine</code>)
+     * и действие с некорректными параметрами.
+     */
+    private static final class NoAction extends CompiledAction {
+        NoAction(long keyCode, int actionId) {
+            super(keyCode, actionId);
+        }
+
+        @Override
+        public void execute(InputInjector injector) {
+        }
+    }
+
+    /**
+     * Нажатие клавиши клавиатуры.
+     */
+    private static final class KeyTap extends CompiledAction {
+        private final int key;
+
+        KeyTap(long keyCode, int actionId, int key) {
+            super(keyCode, actionId);
+            this.key = key;
+        }
+
+        @Override
+        public void execute(InputInjector injector) {
+            injector.keyPress(key);
+            injector.keyRelease(key);
+        }
+
+        @Override
+        void press(InputInjector injector) {
+            injector.keyPress(key);
+        }
+
+        @Override
+        void release(InputInjector injector) {
+            injector.keyRelease(key);
+        }
+    }
+
+    /**
+     * Нажатие клавиш мыши.
+     */
+    private static final class MouseClick extends CompiledAction {
+        private final int mouseKeyMask;
+
+        MouseClick(long keyCode, int actionId, int mouseKeyMask) {
+            super(keyCode, actionId);
+            this.mouseKeyMask = mouseKeyMask;
+        }
+
+        @Override
+        public void execute(InputInjector injector) {
+            injector.mousePress(mouseKeyMask);
+            injector.mouseRelease(mouseKeyMask);
+        }
+
+        @Override
+        void press(InputInjector injector) {
+            injector.mousePress(mouseKeyMask);
+        }
+
+        @Override
+        void release(InputInjector injector) {
+            injector.mouseRelease(mouseKeyMask);
+        }
+    }
+
+    /**
+     * Сдвиг курсора.
+     */
+    private static final class MouseMove extends CompiledAction {
+        private final int dx;
+        private final int dy;
+
+        MouseMove(long keyCode, int actionId, int dx, int dy) {
+            super(keyCode, actionId);
+            this.dx = dx;
+            this.dy = dy;
+        }
+
+        @Override
+        public void execute(InputInjector injector) {
+            injector.mouseMoveBy(dx, dy);
+        }
+    }
+
+    /**
+     * Прокрутка колеса мыши.
+     */
+    private static final class WheelTurn extends CompiledAction {
+        private final int steps;
+
+        WheelTurn(long keyCode, int actionId, int steps) {
+            super(keyCode, actionId);
+            this.steps = steps;
+        }
+
+        @Override
+        public void execute(InputInjector injector) {
+            injector.mouseWheel(steps);
+        }
+    }
+
+    /**
+     * Нажатие комбинации клавиш.
+     */
+    private static final class KeyCombo extends CompiledAction {
+        private final int[] keys;
+
+        KeyCombo(long keyCode, int actionId, int[] keys) {
+            super(keyCode, actionId);
+            this.keys = keys;
+        }
+
+        @Override
+        public void execute(InputInjector injector) {
+            for (int key : keys) {
+                injector.keyPress(key);
+            }
+            for (int key : keys) {
+                injector.keyRelease(key);
+            }
+        }
+
+        @Override
+        void press(InputInjector injector) {
+            for (int key : keys) {
+                injector.keyPress(key);
+            }
+        }
+
+        /**
+         * Отпускает клавиши комбинации в обратном порядке.
+         */
+        @Override
+        void release(InputInjector injector) {
+            for (int i = keys.length - 1; i >= 0; i--) {
+                injector.keyRelease(keys[i]);
+            }
+        }
+    }
+
+    /**
+     * Код кнопки ДУ, к которой привязано действие.
+     */
+    final long keyCode;
+    /**
+     * Код действия.
+     */
+    final int actionId;
+
+    private CompiledAction(long keyCode, int actionId) {
+        this.keyCode = keyCode;
+        this.actionId = actionId;
+    }
+
+    /**
+     * Компилирует привязку.
+     *
+     * @param action Привязка
+     * @return Скомпилированное действие. Если параметров привязки недостаточно, возвращается действие, которое ничего не делает.
+     */
+    static CompiledAction compile(KeyPressedAction action) {
+        long keyCode = action.getKeyCode();
+        int actionId = action.getActionId();
+        int paramsCount = action.getParamsCount();
+        switch (actionId) {
+            case 1:
+                if (paramsCount >= 1) {
+                    return new KeyTap(keyCode, actionId, action.getParam(0));
+                }
+                break;
+            case 2:
+                if (paramsCount >= 1) {
+                    return new MouseClick(keyCode, actionId, KeyPressedAction.getMouseKeyMask(action.getParam(0)));
+                }
+                break;
+            case 3:
+                if (paramsCount >= 2) {
+                    return new MouseMove(keyCode, actionId, action.getParam(0), action.getParam(1));
+                }
+                break;
+            case 4:
+                if (paramsCount >= 1) {
+                    return new WheelTurn(keyCode, actionId, action.getParam(0));
+                }
+                break;
+            case 5:
+                if (paramsCount >= 1 && action.getParam(0) >= 0 && paramsCount > action.getParam(0)) {
+                    int[] keys = new int[action.getParam(0)];
+                    for (int i = 0; i < keys.length; i++) {
+                        keys[i] = action.getParam(i + 1);
+                    }
+                    return new KeyCombo(keyCode, actionId, keys);
+                }
+                break;
+        }
+        return new NoAction(keyCode, actionId);
+    }
+
+    /**
+     * Виртуально нажимает клавишу (клавишу мыши, комбинацию клавиш) действия, не отпуская её.
+     * Для остальных действий ничего не делает.
+     *
+     * @param injector Объект, с помощью которого будет осуществляться действие в системе.
+     */
+    void press(InputInjector injector) {
+    }
+
+    /**
+     * Виртуально отпускает клавишу (клавишу мыши, комбинацию клавиш), нажатую методом <code>press()</code>.
+     *
+     * @param injector Объект, с помощью которого будет осуществляться действие в системе.
+     */
+    void release(InputInjector injector) {
+    }
+}
@@ -0,0 +1,332 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Одновременная работа с несколькими модулями инфракрасного приёмника.
+ * Менеджер подписывается на события всех подключённых модулей и складывает коды кнопок в ограниченные очереди -
+ * по одной на каждый порт. Единственный поток диспетчера забирает события из очередей и передаёт их получателю
+ * вместе с подключением, с которого они пришли, поэтому получатель обрабатывает события всех приёмников
+ * последовательно, в одном потоке.
+ * <p>
+ * Каждое событие получает сквозной порядковый номер. Диспетчер работает кругами: за один круг из каждой непустой
+ * очереди берётся не более одного события, а внутри круга события упорядочиваются по номеру. Пока очереди не
+ * переполнены, события передаются в порядке поступления; если же один приёмник "шумит", он получает не больше
+ * своей доли, и события остальных приёмников не задерживаются за его очередью. При переполнении очереди порта
+ * отбрасывается самое старое событие этого порта. По каждому порту ведётся статистика (см. <code>PortStats</code>).
+ */
+class ConnectionManager implements ButtonPressedEventListener, Closeable {
+
+    /**
+     * Статистика одного порта на момент запроса.
+     */
+    static final class PortStats {
+        final String portName;
+        final long receivedCount;
+        final long dispatchedCount;
+        final long droppedCount;
+        final int queueDepth;
+        final int maxQueueDepth;
+        final long averageQueueLatencyMicros;
+
+        private PortStats(PortQueue port) {
+            this.portName = port.connection.getPortName();
+            this.receivedCount = port.receivedCount;
+            this.dispatchedCount = port.dispatchedCount;
+            this.droppedCount = port.droppedCount;
+            this.queueDepth = port.count;
+            this.maxQueueDepth = port.maxQueueDepth;
+            this.averageQueueLatencyMicros = port.dispatchedCount == 0 ? 0
+                    : TimeUnit.NANOSECONDS.toMicros(port.totalQueueLatencyNanos / port.dispatchedCount);
+        }
+
+        @Override
+        public String toString() {
+            return portName + ": принято " + receivedCount + ", передано " + dispatchedCount + ", отброшено " + droppedCount +
+                    ", в очереди " + queueDepth + " (максимум " + maxQueueDepth + "), ожидание в очереди " +
+                    averageQueueLatencyMicros + " мкс";
+        }
+    }
+
+    /**
+     * Очередь событий одного порта. Все поля защищены общей блокировкой менеджера.
+     */
+    private static final class PortQueue {
+        final IR_moduleConnection connection;
+        final long[] codes;
+        final long[] sequences;
+        final long[] enqueueTimes;
+        int head = 0;
+        int count = 0;
+        boolean served;
+        long receivedCount = 0;
+        long dispatchedCount = 0;
+        long droppedCount = 0;
+        int maxQueueDepth = 0;
+        long totalQueueLatencyNanos = 0;
+
+        PortQueue(IR_moduleConnection connection, int capacity) {
+            this.connection = connection;
+            this.codes = new long[capacity];
+            this.sequences = new long[capacity];
+            this.enqueueTimes = new long[capacity];
+        }
+    }
+
+    private final ButtonPressedEventListener listener;
+    private final int queueCapacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayList<PortQueue> ports = new ArrayList<>();
+    private final Thread dispatcherThread;
+    private long nextSequence = 0;
+    private int pendingCount = 0;
+    private volatile boolean running = true;
+
+    /**
+     * Конструктор. Запускает поток диспетчера.
+     *
+     * @param listener      Получатель событий всех приёмников. Вызывается только из потока диспетчера.
+     * @param queueCapacity Ёмкость очереди каждого порта
+     */
+    ConnectionManager(ButtonPressedEventListener listener, int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity");
+        }
+        this.listener = listener;
+        this.queueCapacity = queueCapacity;
+        dispatcherThread = new Thread(this::runLoop, "IR dispatcher");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    /**
+     * Создаёт менеджер с ёмкостью очереди порта из системного свойства <code>ir.receiver.queueCapacity</code> (по умолчанию 64).
+     *
+     * @param listener Получатель событий всех приёмников
+     * @return Запущенный менеджер подключений
+     */
+    static ConnectionManager createDefault(ButtonPressedEventListener listener) {
+        return new ConnectionManager(listener, Integer.getInteger("ir.receiver.queueCapacity", 64));
+    }
+
+    /**
+     * Добавляет подключение к модулю и подписывается на его события.
+     *
+     * @param connection Подключение к модулю
+     */
+    void add(IR_moduleConnection connection) {
+        lock.lock();
+        try {
+            ports.add(new PortQueue(connection, queueCapacity));
+        } finally {
+            lock.unlock();
+        }
+        connection.attachButtonEventListener(this);
+    }
+
+    /**
+     * @return Подключения ко всем модулям в порядке добавления.
+     */
+    ArrayList<IR_moduleConnection> getConnections() {
+        lock.lock();
+        try {
+            ArrayList<IR_moduleConnection> connections = new ArrayList<>(ports.size());
+            for (PortQueue port : ports) {
+                connections.add(port.connection);
+            }
+            return connections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Закрывает все подключения и отбрасывает их необработанные события. Менеджер продолжает работать,
+     * и к нему можно добавить новые подключения.
+     */
+    void closeConnections() {
+        ArrayList<IR_moduleConnection> connections = getConnections();
+        lock.lock();
+        try {
+            ports.clear();
+            pendingCount = 0;
+        } finally {
+            lock.unlock();
+        }
+        for (IR_moduleConnection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Ставит событие модуля в очередь его порта. Вызывается в потоке приёма данных модуля и никогда не блокирует
+     * его дольше, чем на время добавления в очередь.
+     *
+     * @param buttonCode Код клавиши, на которую нажал пользователь.
+     * @param ir_module  Модуль инфракрасного приёмника, на который поступил сигнал.
+     */
+    @Override
+    public void buttonPressed(long buttonCode, IR_moduleConnection ir_module) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            PortQueue port = findPort(ir_module);
+            if (port == null || !running) {
+                return;
+            }
+            port.receivedCount++;
+            if (port.count == port.codes.length) {
+                port.head = (port.head + 1) % port.codes.length;
+                port.count--;
+                pendingCount--;
+                port.droppedCount++;
+                PipelineMetrics.increment(PipelineMetrics.Counter.DISPATCH_DROPPED);
+                EventRecorder.dropped(ir_module.getPortName(), port.codes[(port.head + port.codes.length - 1) % port.codes.length],
+                        EventRecorder.DROP_RECEIVER_QUEUE);
+            }
+            int tail = (port.head + port.count) % port.codes.length;
+            port.codes[tail] = buttonCode;
+            port.sequences[tail] = nextSequence++;
+            port.enqueueTimes[tail] = now;
+            port.count++;
+            pendingCount++;
+            if (port.count > port.maxQueueDepth) {
+                port.maxQueueDepth = port.count;
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private PortQueue findPort(IR_moduleConnection connection) {
+        for (int i = 0; i < ports.size(); i++) {
+            if (ports.get(i).connection == connection) {
+                return ports.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Основной цикл потока диспетчера. Под блокировкой забирает один круг событий, а передаёт их получателю уже без неё.
+     */
+    private void runLoop() {
+        long[] codes = new long[0];
+        long[] receiveTimes = new long[0];
+        IR_moduleConnection[] connections = new IR_moduleConnection[0];
+        while (running) {
+            int roundSize = 0;
+            lock.lock();
+            try {
+                while (pendingCount == 0 && running) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (!running) {
+                    break;
+                }
+                if (codes.length < ports.size()) {
+                    codes = new long[ports.size()];
+                    receiveTimes = new long[ports.size()];
+                    connections = new IR_moduleConnection[ports.size()];
+                }
+                for (PortQueue port : ports) {
+                    port.served = false;
+                }
+                long now = System.nanoTime();
+                PortQueue next;
+                while ((next = nextInRound()) != null) {
+                    next.served = true;
+                    codes[roundSize] = next.codes[next.head];
+                    receiveTimes[roundSize] = next.enqueueTimes[next.head];
+                    connections[roundSize] = next.connection;
+                    roundSize++;
+                    next.totalQueueLatencyNanos += now - next.enqueueTimes[next.head];
+                    next.dispatchedCount++;
+                    next.head = (next.head + 1) % next.codes.length;
+                    next.count--;
+                    pendingCount--;
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (int i = 0; i < roundSize; i++) {
+                if (PipelineMetrics.ENABLED) {
+                    PipelineMetrics.recordDuration(PipelineMetrics.Stage.DISPATCH_WAIT, System.nanoTime() - receiveTimes[i]);
+                }
+                PipelineMetrics.setEventStart(receiveTimes[i]);
+                try {
+                    listener.buttonPressed(codes[i], connections[i]);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                connections[i] = null;
+            }
+            PipelineMetrics.setEventStart(0);
+        }
+    }
+
+    /**
+     * @return Непустая очередь, ещё не обслуженная в текущем круге, с самым ранним событием в начале, либо null.
+     */
+    private PortQueue nextInRound() {
+        PortQueue next = null;
+        for (PortQueue port : ports) {
+            if (!port.served && port.count > 0 && (next == null || port.sequences[port.head] < next.sequences[next.head])) {
+                next = port;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @return Статистика всех портов в порядке добавления подключений.
+     */
+    ArrayList<PortStats> getPortStats() {
+        lock.lock();
+        try {
+            ArrayList<PortStats> stats = new ArrayList<>(ports.size());
+            for (PortQueue port : ports) {
+                stats.add(new PortStats(port));
+            }
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Количество подключённых модулей.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return ports.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Закрывает все подключения и останавливает поток диспетчера. Необработанные события отбрасываются.
+     */
+    @Override
+    public void close() {
+        closeConnections();
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            dispatcherThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
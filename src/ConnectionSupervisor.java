@@ -0,0 +1,364 @@
+import jssc.SerialPortList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Наблюдение за подключениями к модулям и их автоматическое восстановление.
+ * Раз в <code>checkIntervalMillis</code> супервизор проверяет каждое подключение менеджера подключений.
+ * Подключение считается потерянным, если его канал сообщил об ошибке чтения или записи, либо если модуль,
+ * умеющий отвечать на проверку связи (PING - PONG), молчит дольше <code>heartbeatTimeoutMillis</code>.
+ * Модулю, от которого давно не было кадров, посылается PING; старая прошивка на него не отвечает,
+ * и для неё отказ определяется только по ошибкам канала.
+ * <p>
+ * Потерянное подключение восстанавливается с экспоненциально растущей паузой между попытками (от <code>initialBackoffMillis</code>
+ * до <code>maxBackoffMillis</code>, со случайным разбросом). Сначала опрашивается прежний порт, затем - остальные порты
+ * системы, не занятые другими подключениями: после повторного подключения к USB модуль может получить другое имя порта.
+ * Поток супервизора не ждёт ответа модуля: открыв очередной порт, он переходит к остальным подключениям, а ответ
+ * модуля проверяет при следующих проверках. Поэтому долгая попытка восстановления одного подключения не задерживает
+ * проверку остальных.
+ * Канал заменяется внутри того же объекта <code>IR_moduleConnection</code>, поэтому обработчики событий, очередь событий
+ * в менеджере подключений и таблица привязок сохраняются, а события, уже принятые до отказа, не теряются.
+ * По каждому подключению ведётся статистика отказов (см. <code>Health</code>).
+ */
+class ConnectionSupervisor implements Closeable {
+
+    /**
+     * Способ открытия канала к порту.
+     */
+    interface TransportFactory {
+        /**
+         * @param portName Название порта
+         * @return Ещё не открытый канал передачи данных
+         */
+        SerialTransport create(String portName);
+    }
+
+    /**
+     * Состояние и статистика одного подключения. Все поля изменяются только потоком супервизора.
+     */
+    static final class Health {
+        private final IR_moduleConnection connection;
+        private volatile String portName;
+        private volatile boolean outage = false;
+        private volatile long outageStartTime;
+        private volatile String lastFailure;
+        private long backoffMillis;
+        private long nextAttemptTime;
+        private final ArrayDeque<String> candidates = new ArrayDeque<>();
+        private boolean attemptActive = false;
+        private boolean transportReplaced = false;
+        private long probeDeadline;
+        private volatile long outagesCount = 0;
+        private volatile long reconnectsCount = 0;
+        private volatile long failedAttemptsCount = 0;
+        private volatile long lastOutageMillis = 0;
+        private volatile long totalOutageMillis = 0;
+
+        private Health(IR_moduleConnection connection) {
+            this.connection = connection;
+            this.portName = connection.getPortName();
+        }
+
+        /**
+         * @return true, если подключение сейчас потеряно и восстанавливается.
+         */
+        boolean isOutage() {
+            return outage;
+        }
+
+        /**
+         * @return Количество отказов подключения.
+         */
+        long getOutagesCount() {
+            return outagesCount;
+        }
+
+        /**
+         * @return Количество успешных восстановлений подключения.
+         */
+        long getReconnectsCount() {
+            return reconnectsCount;
+        }
+
+        /**
+         * @return Количество неудачных попыток восстановления.
+         */
+        long getFailedAttemptsCount() {
+            return failedAttemptsCount;
+        }
+
+        /**
+         * @return Длительность последнего завершённого отказа в миллисекундах.
+         */
+        long getLastOutageMillis() {
+            return lastOutageMillis;
+        }
+
+        /**
+         * @return Суммарная длительность всех отказов в миллисекундах, включая текущий.
+         */
+        long getTotalOutageMillis() {
+            return totalOutageMillis + (outage ? System.currentTimeMillis() - outageStartTime : 0);
+        }
+
+        @Override
+        public String toString() {
+            return portName + ": " + (outage ? "нет связи (" + lastFailure + ")" : "на связи") +
+                    ", отказов " + outagesCount + ", переподключений " + reconnectsCount +
+                    ", неудачных попыток " + failedAttemptsCount + ", последний отказ " + lastOutageMillis +
+                    " мс, всего без связи " + getTotalOutageMillis() + " мс";
+        }
+    }
+
+    private final ConnectionManager connectionManager;
+    private final ModuleDiscovery.PortLister portLister;
+    private final TransportFactory transportFactory;
+    private final long heartbeatTimeoutMillis;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long connectTimeoutMillis;
+    private final ScheduledExecutorService scheduler;
+    private final IdentityHashMap<IR_moduleConnection, Health> states = new IdentityHashMap<>();
+
+    /**
+     * Конструктор. Запускает поток супервизора.
+     *
+     * @param connectionManager      Менеджер, подключения которого восстанавливаются
+     * @param portLister             Источник списка портов системы
+     * @param transportFactory       Способ открытия канала к порту
+     * @param checkIntervalMillis    Период проверки подключений
+     * @param heartbeatTimeoutMillis Время молчания модуля, после которого подключение считается потерянным
+     * @param initialBackoffMillis   Пауза перед первой попыткой восстановления
+     * @param maxBackoffMillis       Наибольшая пауза между попытками восстановления
+     * @param connectTimeoutMillis   Время ожидания ответа модуля на каждом опрашиваемом порту
+     */
+    ConnectionSupervisor(ConnectionManager connectionManager, ModuleDiscovery.PortLister portLister, TransportFactory transportFactory,
+                         long checkIntervalMillis, long heartbeatTimeoutMillis, long initialBackoffMillis,
+                         long maxBackoffMillis, long connectTimeoutMillis) {
+        this.connectionManager = connectionManager;
+        this.portLister = portLister;
+        this.transportFactory = transportFactory;
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+        this.initialBackoffMillis = Math.max(initialBackoffMillis, 1);
+        this.maxBackoffMillis = Math.max(maxBackoffMillis, this.initialBackoffMillis);
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "IR connection supervisor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkConnections, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Создаёт супервизор с настройками из системных свойств <code>ir.supervisor.checkMs</code> (по умолчанию 500),
+     * <code>ir.supervisor.heartbeatTimeoutMs</code> (3000), <code>ir.supervisor.backoffMs</code> (250),
+     * <code>ir.supervisor.maxBackoffMs</code> (10000) и <code>ir.supervisor.connectTimeoutMs</code> (1500),
+     * работающий с реальными COM - портами системы.
+     *
+     * @param connectionManager Менеджер, подключения которого восстанавливаются
+     * @return Запущенный супервизор
+     */
+    static ConnectionSupervisor createDefault(ConnectionManager connectionManager) {
+        return createDefault(connectionManager, SerialPortList::getPortNames, JsscSerialTransport::new);
+    }
+
+    /**
+     * Создаёт супервизор с настройками из системных свойств (см. <code>createDefault(ConnectionManager)</code>).
+     *
+     * @param connectionManager Менеджер, подключения которого восстанавливаются
+     * @param portLister        Источник списка портов
+     * @param transportFactory  Способ открытия канала к порту
+     * @return Запущенный супервизор
+     */
+    static ConnectionSupervisor createDefault(ConnectionManager connectionManager, ModuleDiscovery.PortLister portLister,
+                                              TransportFactory transportFactory) {
+        return new ConnectionSupervisor(connectionManager, portLister, transportFactory,
+                Long.getLong("ir.supervisor.checkMs", 500),
+                Long.getLong("ir.supervisor.heartbeatTimeoutMs", 3000),
+                Long.getLong("ir.supervisor.backoffMs", 250),
+                Long.getLong("ir.supervisor.maxBackoffMs", 10000),
+                Long.getLong("ir.supervisor.connectTimeoutMs", 1500));
+    }
+
+    /**
+     * Проверяет все подключения и восстанавливает потерянные, если подошло время очередной попытки.
+     * Выполняется в потоке супервизора.
+     */
+    private void checkConnections() {
+        try {
+            ArrayList<IR_moduleConnection> connections = connectionManager.getConnections();
+            synchronized (states) {
+                states.keySet().retainAll(new ArrayList<>(connections)); // Подключения, закрытые вручную, больше не отслеживаются
+                for (IR_moduleConnection connection : connections) {
+                    if (!states.containsKey(connection)) {
+                        states.put(connection, new Health(connection));
+                    }
+                }
+            }
+            long now = System.currentTimeMillis();
+            for (IR_moduleConnection connection : connections) {
+                Health health;
+                synchronized (states) {
+                    health = states.get(connection);
+                }
+                if (health == null) {
+                    continue;
+                }
+                if (!health.outage) {
+                    checkHealthy(health, now);
+                }
+                if (health.outage) {
+                    continueReconnect(health, connections);
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // Исключение не должно останавливать периодическую проверку
+        }
+    }
+
+    /**
+     * Проверяет исправное подключение и при необходимости посылает модулю PING.
+     *
+     * @param health Состояние подключения
+     * @param now    Текущее время
+     */
+    private void checkHealthy(Health health, long now) {
+        IR_moduleConnection connection = health.connection;
+        IOException failure = connection.getFailure();
+        long silence = now - connection.getLastFrameTime();
+        if (failure != null) {
+            startOutage(health, now, failure.getMessage() != null ? failure.getMessage() : failure.toString());
+        } else if (connection.isHeartbeatSupported() && silence > heartbeatTimeoutMillis) {
+            startOutage(health, now, "модуль не отвечает " + silence + " мс");
+        } else if (silence > heartbeatTimeoutMillis / 3 && !connection.sendHeartbeat()) {
+            startOutage(health, now, "порт не принимает данные");
+        }
+    }
+
+    private void startOutage(Health health, long now, String reason) {
+        health.outage = true;
+        health.outageStartTime = now;
+        health.lastFailure = reason;
+        health.outagesCount++;
+        health.backoffMillis = initialBackoffMillis;
+        health.nextAttemptTime = now + initialBackoffMillis;
+        health.candidates.clear();
+        health.attemptActive = false;
+        health.transportReplaced = false;
+        System.err.println("Потеряна связь с модулем на порту " + health.portName + ": " + reason);
+    }
+
+    /**
+     * Продвигает восстановление подключения на один шаг, не дожидаясь ответа модуля. Если модуль ответил
+     * на опрашиваемом порту, подключение восстановлено. Если порт не ответил за <code>connectTimeoutMillis</code>
+     * или отказал, открывается следующий порт-кандидат, а предыдущий при этом закрывается. Если подошло время
+     * очередной попытки, составляется список кандидатов: прежний порт, затем свободные порты системы.
+     * Когда кандидаты закончились, попытка считается неудачной и пауза до следующей увеличивается. Последний
+     * опрошенный порт остаётся открытым до следующей попытки: если модуль на нём всё же ответит (например, он
+     * долго загружался), подключение будет восстановлено при ближайшей проверке.
+     *
+     * @param health      Состояние подключения
+     * @param connections Все подключения менеджера
+     */
+    private void continueReconnect(Health health, ArrayList<IR_moduleConnection> connections) {
+        IR_moduleConnection connection = health.connection;
+        long now = System.currentTimeMillis();
+        if (health.transportReplaced && connection.isConnected()) {
+            restored(health, now);
+            return;
+        }
+        if (!health.attemptActive) {
+            if (now < health.nextAttemptTime) {
+                return;
+            }
+            health.attemptActive = true;
+            health.candidates.addAll(findCandidates(health, connections));
+        } else if (now < health.probeDeadline && connection.getFailure() == null) {
+            return; // Модуль на опрашиваемом порту ещё может ответить
+        }
+        while (!health.candidates.isEmpty()) {
+            String portName = health.candidates.poll();
+            health.transportReplaced = true;
+            try {
+                connection.replaceTransport(transportFactory.create(portName));
+                health.probeDeadline = System.currentTimeMillis() + connectTimeoutMillis;
+                return;
+            } catch (IOException ignored) {
+                // Порт не открылся - пробуем следующий
+            }
+        }
+        health.attemptActive = false;
+        health.failedAttemptsCount++;
+        long jitter = ThreadLocalRandom.current().nextLong(health.backoffMillis / 4 + 1);
+        health.nextAttemptTime = System.currentTimeMillis() + health.backoffMillis + jitter;
+        health.backoffMillis = Math.min(health.backoffMillis * 2, maxBackoffMillis);
+    }
+
+    /**
+     * @param health      Состояние подключения
+     * @param connections Все подключения менеджера
+     * @return Порты, на которых следует искать модуль: прежний порт, затем порты системы, не занятые другими подключениями.
+     */
+    private LinkedHashSet<String> findCandidates(Health health, ArrayList<IR_moduleConnection> connections) {
+        LinkedHashSet<String> candidates = new LinkedHashSet<>();
+        candidates.add(health.portName);
+        String[] portNames = portLister.getPortNames();
+        if (portNames != null) {
+            for (String portName : portNames) {
+                candidates.add(portName);
+            }
+        }
+        for (IR_moduleConnection other : connections) {
+            if (other != health.connection) {
+                candidates.remove(other.getPortName());
+            }
+        }
+        return candidates;
+    }
+
+    private void restored(Health health, long now) {
+        String portName = health.connection.getPortName();
+        health.outage = false;
+        health.portName = portName;
+        health.candidates.clear();
+        health.attemptActive = false;
+        health.transportReplaced = false;
+        health.lastOutageMillis = now - health.outageStartTime;
+        health.totalOutageMillis += health.lastOutageMillis;
+        health.reconnectsCount++;
+        System.out.println("Связь с модулем восстановлена, порт: " + portName +
+                ", без связи " + health.lastOutageMillis + " мс");
+    }
+
+    /**
+     * @return Состояние и статистика всех отслеживаемых подключений.
+     */
+    ArrayList<Health> getHealth() {
+        synchronized (states) {
+            return new ArrayList<>(states.values());
+        }
+    }
+
+    /**
+     * Останавливает поток супервизора. Подключения не закрываются.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
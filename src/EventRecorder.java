@@ -0,0 +1,397 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Запись сеанса работы в двоичные файлы для последующего разбора (см. <code>RecordingAnalyzer</code>).
+ * Записываются все порции данных, принятые из COM - портов, разобранные коды, решения диспетчера, исполненные
+ * и отброшенные действия - с временем по <code>System.nanoTime()</code>.
+ * <p>
+ * Запись включается системным свойством <code>ir.recorder.file</code> - начало имён файлов записи. Файлы
+ * <code>&lt;имя&gt;.0</code>, <code>&lt;имя&gt;.1</code> и т.д. (всего <code>ir.recorder.files</code>, по умолчанию 4)
+ * размером <code>ir.recorder.fileSize</code> байт (по умолчанию 4 Мб) отображаются в память и заполняются по кругу:
+ * когда заканчивается последний файл, перезаписывается первый. Все записи имеют одинаковый размер
+ * (<code>RECORD_SIZE</code>), место под запись выделяется одной атомарной операцией, а данные пишутся прямо
+ * в отображённую память, поэтому запись события не создаёт объектов и не блокирует другие потоки.
+ * Файловые операции выполняются только при переходе к следующему файлу.
+ * <p>
+ * Формат файла. Первые 32 байта - заголовок: <code>MAGIC</code>, версия, размер записи, <code>System.nanoTime()</code>
+ * и <code>System.currentTimeMillis()</code> в момент создания файла. Далее - записи:
+ * <pre>
+ * 0  long  время события, нс
+ * 8  long  значение (зависит от типа)
+ * 16 long  время приёма кода, к которому относится событие, либо 0
+ * 24 int   дополнительное значение
+ * 28 short номер порта (0 - неизвестен)
+ * 30 byte  подробность (решение диспетчера, причина отбрасывания и т.п.)
+ * 31 byte  тип записи; 0 - место не занято или запись ещё не дописана
+ * </pre>
+ * Все числа записываются младшим байтом вперёд.
+ */
+final class EventRecorder implements Closeable {
+
+    static final long MAGIC = 0x3130434552524921L; // "!IRREC01"
+    static final int VERSION = 1;
+    static final int RECORD_SIZE = 32;
+    static final int HEADER_SIZE = 32;
+
+    /**
+     * Название порта: номер - в поле порта, до 16 байт названия в UTF-8 - в полях значения и времени приёма,
+     * длина названия - в дополнительном значении. Пишется в начало каждого файла для всех известных портов.
+     */
+    static final byte TYPE_PORT = 1;
+    /**
+     * Часть порции данных, принятой из порта: до 8 байт - в значении, их количество - в подробности,
+     * смещение части в порции - в поле времени приёма, длина всей порции - в дополнительном значении.
+     */
+    static final byte TYPE_SERIAL_DATA = 2;
+    /**
+     * Разобранный код кнопки - в значении.
+     */
+    static final byte TYPE_CODE = 3;
+    /**
+     * Повреждённый кадр.
+     */
+    static final byte TYPE_CORRUPTED = 4;
+    /**
+     * Решение диспетчера по коду кнопки: код - в значении, решение (<code>DECISION_*</code>) - в подробности.
+     */
+    static final byte TYPE_DISPATCH = 5;
+    /**
+     * Исполненное действие: время окончания исполнения - время события, время начала - в значении,
+     * ожидание в очереди исполнителя (мкс) - в дополнительном значении, номер типа действия - в подробности.
+     */
+    static final byte TYPE_ACTION = 6;
+    /**
+     * Отброшенное событие: код кнопки (если известен) - в значении, причина (<code>DROP_*</code>) - в подробности.
+     */
+    static final byte TYPE_DROP = 7;
+
+    static final byte DECISION_UNBOUND = 0;
+    static final byte DECISION_SUBMITTED = 1;
+    static final byte DECISION_HOLD = 2;
+    static final byte DECISION_RATE_LIMITED = 3;
+    static final byte DECISION_GESTURE_ONLY = 4;
+
+    static final byte DROP_RECEIVER_QUEUE = 1;
+    static final byte DROP_EXECUTOR_QUEUE = 2;
+    static final byte DROP_RATE_LIMIT = 3;
+
+    private static final int MAX_PORT_NAME_BYTES = 16;
+
+    private static final EventRecorder INSTANCE = openDefault();
+
+    /**
+     * Включена ли запись.
+     */
+    static final boolean ENABLED = INSTANCE != null;
+
+    /**
+     * Отображённый в память файл записи.
+     */
+    private static final class Segment {
+        final MappedByteBuffer buffer;
+        final AtomicInteger position = new AtomicInteger(HEADER_SIZE);
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private final String filePrefix;
+    private final int filesCount;
+    private final int fileSize;
+    private final ConcurrentHashMap<String, Short> portIds = new ConcurrentHashMap<>();
+    private volatile Segment current;
+    private int currentFileIndex = -1;
+    private boolean closed = false;
+
+    /**
+     * Конструктор. Удаляет файлы прежней записи с тем же началом имени и открывает первый файл.
+     *
+     * @param filePrefix Начало имён файлов записи
+     * @param filesCount Количество файлов
+     * @param fileSize   Размер каждого файла в байтах
+     * @throws IOException В случае ошибок ввода - вывода.
+     */
+    EventRecorder(String filePrefix, int filesCount, int fileSize) throws IOException {
+        if (filesCount <= 0 || fileSize < HEADER_SIZE + RECORD_SIZE) {
+            throw new IllegalArgumentException("filesCount, fileSize");
+        }
+        this.filePrefix = filePrefix;
+        this.filesCount = filesCount;
+        this.fileSize = fileSize - (fileSize - HEADER_SIZE) % RECORD_SIZE;
+        for (int i = 0; i < filesCount; i++) {
+            Files.deleteIfExists(fileOf(filePrefix, i));
+        }
+        current = nextSegment();
+    }
+
+    /**
+     * @return Запись с параметрами из системных свойств, либо null, если запись не включена или файл не удалось открыть.
+     */
+    private static EventRecorder openDefault() {
+        String filePrefix = System.getProperty("ir.recorder.file");
+        if (filePrefix == null || filePrefix.isEmpty()) {
+            return null;
+        }
+        try {
+            EventRecorder recorder = new EventRecorder(filePrefix, Integer.getInteger("ir.recorder.files", 4),
+                    Integer.getInteger("ir.recorder.fileSize", 4 << 20));
+            Runtime.getRuntime().addShutdownHook(new Thread(recorder::close, "IR recorder shutdown"));
+            return recorder;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Запись сеанса недоступна: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param filePrefix Начало имён файлов записи
+     * @param index      Номер файла
+     * @return Путь к файлу записи.
+     */
+    static Path fileOf(String filePrefix, int index) {
+        return Paths.get(filePrefix + "." + index);
+    }
+
+    /**
+     * Открывает следующий по кругу файл, записывает в него заголовок и названия всех известных портов.
+     *
+     * @return Новый отображённый файл
+     * @throws IOException В случае ошибок ввода - вывода.
+     */
+    private Segment nextSegment() throws IOException {
+        currentFileIndex = (currentFileIndex + 1) % filesCount;
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(fileOf(filePrefix, currentFileIndex), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        }
+        // Файл не усекается: его прежнее отображение ещё может использоваться потоком, не успевшим дописать запись.
+        // Вместо этого старые записи затираются нулями.
+        ByteBuffer clear = buffer.duplicate();
+        byte[] zeros = new byte[64 * 1024];
+        while (clear.hasRemaining()) {
+            clear.put(zeros, 0, Math.min(zeros.length, clear.remaining()));
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(8, VERSION);
+        buffer.putInt(12, RECORD_SIZE);
+        buffer.putLong(16, System.nanoTime());
+        buffer.putLong(24, System.currentTimeMillis());
+        Segment segment = new Segment(buffer);
+        for (Map.Entry<String, Short> port : portIds.entrySet()) {
+            writePortName(segment, port.getKey(), port.getValue());
+        }
+        return segment;
+    }
+
+    /**
+     * Выделяет место под запись и заполняет его. При заполнении текущего файла переходит к следующему.
+     */
+    private void write(long time, long value, long receiveTime, int extra, short portId, byte detail, byte type) {
+        while (true) {
+            Segment segment = current;
+            int position = segment.position.getAndAdd(RECORD_SIZE);
+            if (position + RECORD_SIZE <= fileSize) {
+                write(segment, position, time, value, receiveTime, extra, portId, detail, type);
+                return;
+            }
+            if (!roll(segment)) {
+                return;
+            }
+        }
+    }
+
+    private static void write(Segment segment, int position, long time, long value, long receiveTime, int extra, short portId,
+                              byte detail, byte type) {
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putLong(position, time);
+        buffer.putLong(position + 8, value);
+        buffer.putLong(position + 16, receiveTime);
+        buffer.putInt(position + 24, extra);
+        buffer.putShort(position + 28, portId);
+        buffer.put(position + 30, detail);
+        buffer.put(position + 31, type); // Тип пишется последним: запись без типа считается недописанной и пропускается
+    }
+
+    /**
+     * Переходит к следующему файлу, если этого ещё не сделал другой поток.
+     *
+     * @param full Заполненный файл
+     * @return false, если запись закрыта или следующий файл не удалось открыть.
+     */
+    private synchronized boolean roll(Segment full) {
+        if (closed) {
+            return false;
+        }
+        if (current == full) {
+            try {
+                current = nextSegment();
+            } catch (IOException e) {
+                System.err.println("Запись сеанса остановлена: " + e.getMessage());
+                closed = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param portName Название порта
+     * @return Номер порта в записи. Название нового порта записывается в файл.
+     */
+    private short portId(String portName) {
+        if (portName == null) {
+            return 0;
+        }
+        Short id = portIds.get(portName);
+        if (id == null) {
+            synchronized (this) {
+                id = portIds.get(portName);
+                if (id == null) {
+                    id = (short) (portIds.size() + 1);
+                    portIds.put(portName, id);
+                    Segment segment = current;
+                    int position = segment.position.getAndAdd(RECORD_SIZE);
+                    if (position + RECORD_SIZE <= fileSize) {
+                        writePortName(segment, portName, id, position);
+                    } // Иначе название будет записано в начало следующего файла
+                }
+            }
+        }
+        return id;
+    }
+
+    private void writePortName(Segment segment, String portName, short id) {
+        writePortName(segment, portName, id, segment.position.getAndAdd(RECORD_SIZE));
+    }
+
+    private static void writePortName(Segment segment, String portName, short id, int position) {
+        byte[] name = portName.getBytes(StandardCharsets.UTF_8);
+        byte[] padded = new byte[MAX_PORT_NAME_BYTES];
+        System.arraycopy(name, 0, padded, 0, Math.min(name.length, padded.length));
+        long low = 0;
+        long high = 0;
+        for (int i = 0; i < 8; i++) {
+            low |= (padded[i] & 0xFFL) << (8 * i);
+            high |= (padded[i + 8] & 0xFFL) << (8 * i);
+        }
+        write(segment, position, System.nanoTime(), low, high, Math.min(name.length, padded.length), id, (byte) 0, TYPE_PORT);
+    }
+
+    /**
+     * Записывает порцию данных, принятую из порта.
+     *
+     * @param portName Название порта
+     * @param data     Буфер с данными
+     * @param offset   Смещение данных в буфере
+     * @param length   Длина данных
+     */
+    static void serialData(String portName, byte[] data, int offset, int length) {
+        if (!ENABLED) {
+            return;
+        }
+        long now = System.nanoTime();
+        short portId = INSTANCE.portId(portName);
+        for (int partOffset = 0; partOffset < length; partOffset += 8) {
+            int partLength = Math.min(8, length - partOffset);
+            long packed = 0;
+            for (int i = 0; i < partLength; i++) {
+                packed |= (data[offset + partOffset + i] & 0xFFL) << (8 * i);
+            }
+            INSTANCE.write(now, packed, partOffset, length, portId, (byte) partLength, TYPE_SERIAL_DATA);
+        }
+    }
+
+    /**
+     * Записывает разобранный код кнопки.
+     *
+     * @param portName Название порта
+     * @param code     Код кнопки
+     */
+    static void code(String portName, long code) {
+        if (ENABLED) {
+            INSTANCE.write(System.nanoTime(), code, 0, 0, INSTANCE.portId(portName), (byte) 0, TYPE_CODE);
+        }
+    }
+
+    /**
+     * Записывает повреждённый кадр.
+     *
+     * @param portName Название порта
+     */
+    static void corrupted(String portName) {
+        if (ENABLED) {
+            INSTANCE.write(System.nanoTime(), 0, 0, 0, INSTANCE.portId(portName), (byte) 0, TYPE_CORRUPTED);
+        }
+    }
+
+    /**
+     * Записывает решение диспетчера по коду кнопки.
+     *
+     * @param portName    Название порта
+     * @param code        Код кнопки
+     * @param receiveTime Время приёма кода, либо 0
+     * @param decision    Решение, одна из констант <code>DECISION_*</code>
+     */
+    static void dispatch(String portName, long code, long receiveTime, byte decision) {
+        if (ENABLED) {
+            INSTANCE.write(System.nanoTime(), code, receiveTime, 0, INSTANCE.portId(portName), decision, TYPE_DISPATCH);
+        }
+    }
+
+    /**
+     * Записывает исполненное действие.
+     *
+     * @param enqueueTime Время постановки в очередь исполнителя
+     * @param startTime   Время начала исполнения
+     * @param endTime     Время окончания исполнения
+     * @param receiveTime Время приёма кода, вызвавшего действие, либо 0
+     * @param actionId    Номер типа действия, либо 0
+     */
+    static void action(long enqueueTime, long startTime, long endTime, long receiveTime, int actionId) {
+        if (ENABLED) {
+            int waitMicros = (int) Math.min(Integer.MAX_VALUE, (startTime - enqueueTime) / 1000);
+            INSTANCE.write(endTime, startTime, receiveTime, waitMicros, (short) 0, (byte) actionId, TYPE_ACTION);
+        }
+    }
+
+    /**
+     * Записывает отброшенное событие.
+     *
+     * @param portName Название порта, либо null
+     * @param code     Код кнопки, либо 0
+     * @param reason   Причина, одна из констант <code>DROP_*</code>
+     */
+    static void dropped(String portName, long code, byte reason) {
+        if (ENABLED) {
+            INSTANCE.write(System.nanoTime(), code, 0, 0, INSTANCE.portId(portName), reason, TYPE_DROP);
+        }
+    }
+
+    /**
+     * Сбрасывает записанные данные на диск и прекращает запись.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        current.buffer.force();
+    }
+}
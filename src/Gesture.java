@@ -0,0 +1,81 @@
+/**
+ * Жест, которым может быть выполнено действие, привязанное к кнопке ДУ.
+ * Жест записывается в имени секции INI - файла после двоеточия, например <code>[4FBB24D:double_tap]</code>.
+ * Сочетание двух кнопок записывается через знак "+", например <code>[4FBB24D+4FBD22D]</code>.
+ * Секция без жеста описывает прежнее поведение - действие на каждый принятый кадр.
+ */
+enum Gesture {
+    /**
+     * Каждый принятый кадр, включая повторы при удержании.
+     */
+    RAW("raw", "каждый принятый кадр, включая повторы при удержании (как раньше)"),
+    /**
+     * Короткое нажатие.
+     */
+    TAP("tap", "короткое нажатие"),
+    /**
+     * Два коротких нажатия подряд.
+     */
+    DOUBLE_TAP("double_tap", "двойное нажатие"),
+    /**
+     * Кнопку отпустили после долгого удержания.
+     */
+    LONG_PRESS("long_press", "долгое нажатие (срабатывает при отпускании)"),
+    /**
+     * Начало удержания кнопки.
+     */
+    HOLD_START("hold_start", "начало удержания"),
+    /**
+     * Каждый повтор во время удержания кнопки.
+     */
+    HOLD_REPEAT("hold_repeat", "каждый повтор во время удержания"),
+    /**
+     * Окончание удержания кнопки.
+     */
+    HOLD_END("hold_end", "окончание удержания"),
+    /**
+     * Короткое нажатие одной кнопки, за которым быстро следует нажатие другой.
+     */
+    CHORD("chord", "сочетание: нажатие одной кнопки, и сразу за ним - другой");
+
+    private final String sectionSuffix;
+    private final String description;
+
+    Gesture(String sectionSuffix, String description) {
+        this.sectionSuffix = sectionSuffix;
+        this.description = description;
+    }
+
+    /**
+     * @return Обозначение жеста в имени секции INI - файла.
+     */
+    String getSectionSuffix() {
+        return sectionSuffix;
+    }
+
+    /**
+     * Находит жест по его обозначению в имени секции.
+     *
+     * @param sectionSuffix Обозначение жеста
+     * @return Жест, либо null, если такого обозначения нет.
+     */
+    static Gesture fromSectionSuffix(String sectionSuffix) {
+        for (Gesture gesture : values()) {
+            if (gesture.sectionSuffix.equalsIgnoreCase(sectionSuffix)) {
+                return gesture;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Список жестов для вывода пользователю, по одному на строку, с порядковыми номерами.
+     */
+    static String getHelp() {
+        StringBuilder builder = new StringBuilder();
+        for (Gesture gesture : values()) {
+            builder.append(gesture.ordinal() == 0 ? "enter" : "" + gesture.ordinal()).append(" - ").append(gesture.description).append('\n');
+        }
+        return builder.toString();
+    }
+}
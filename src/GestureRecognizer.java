@@ -0,0 +1,319 @@
+import utils.LongHashMap;
+import utils.TimerWheel;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * Распознаватель жестов кнопок ДУ по времени прихода кадров.
+ * При удержании кнопки прошивка повторяет её код с каждым кадром повтора NEC, а отпускание кнопки никак не сообщается.
+ * Поэтому кнопка считается отпущенной, если её кадры не приходили в течение <code>releaseMillis</code>.
+ * По длительности нажатия и паузам между нажатиями распознаются жесты (см. <code>Gesture</code>):
+ * <ul>
+ * <li>короткое нажатие (TAP), двойное нажатие (DOUBLE_TAP) и долгое нажатие (LONG_PRESS);</li>
+ * <li>начало удержания (HOLD_START), повторы во время удержания (HOLD_REPEAT) и его окончание (HOLD_END);</li>
+ * <li>сочетание (CHORD) - короткое нажатие одной кнопки, за которым в пределах <code>tapWindowMillis</code> следует нажатие другой.</li>
+ * </ul>
+ * Если к кнопке привязано двойное нажатие, или с неё начинается сочетание, короткое нажатие сообщается только после того,
+ * как истечёт время ожидания второго нажатия. Иначе - сразу при отпускании, без задержки.
+ * Все таймеры распознавателя обслуживаются общим колесом таймеров, а не отдельными потоками.
+ * Распознанные жесты копятся в очереди под блокировкой распознавателя, а получателю передаются уже после её снятия,
+ * по одному и в порядке распознавания. Поэтому медленный получатель не задерживает ни приём кадров, ни проверки
+ * отпускания других кнопок в потоке колеса таймеров.
+ */
+class GestureRecognizer {
+
+    /**
+     * Получатель распознанных жестов.
+     */
+    interface GestureListener {
+        /**
+         * Вызывается при распознавании жеста. Вызывается в потоке приёма данных или в потоке колеса таймеров
+         * вне блокировки распознавателя, поэтому не должен выполнять длительных операций.
+         *
+         * @param keyCode         Код кнопки
+         * @param gesture         Распознанный жест
+         * @param chordPrefixCode Код первой кнопки сочетания для жеста <code>CHORD</code>, иначе 0
+         */
+        void gestureRecognized(long keyCode, Gesture gesture, long chordPrefixCode);
+    }
+
+    private static final int PHASE_IDLE = 0;
+    private static final int PHASE_PRESSED = 1;
+    private static final int PHASE_HOLDING = 2;
+    private static final int PHASE_TAP_PENDING = 3;
+
+    /**
+     * Распознанный, но ещё не переданный получателю жест.
+     */
+    private static final class RecognizedGesture {
+        final long keyCode;
+        final Gesture gesture;
+        final long chordPrefixCode;
+
+        RecognizedGesture(long keyCode, Gesture gesture, long chordPrefixCode) {
+            this.keyCode = keyCode;
+            this.gesture = gesture;
+            this.chordPrefixCode = chordPrefixCode;
+        }
+    }
+
+    /**
+     * Состояние одной кнопки.
+     */
+    private static final class KeyState {
+        final long keyCode;
+        int phase = PHASE_IDLE;
+        long pressStartTime, lastFrameTime, releaseTime;
+        boolean suppressed;
+        int generation;
+        TimerWheel.Timeout timeout;
+
+        KeyState(long keyCode) {
+            this.keyCode = keyCode;
+        }
+    }
+
+    private final TimerWheel timerWheel;
+    private final Supplier<BindingTable> bindings;
+    private final GestureListener listener;
+    private final long releaseMillis;
+    private final long holdMillis;
+    private final long longPressMillis;
+    private final long tapWindowMillis;
+    private final LongHashMap<KeyState> states = new LongHashMap<>();
+    private KeyState pendingTap = null;
+    private final ArrayDeque<RecognizedGesture> recognizedGestures = new ArrayDeque<>();
+    private boolean delivering = false;
+
+    /**
+     * Конструктор.
+     *
+     * @param timerWheel      Колесо таймеров
+     * @param bindings        Источник текущей таблицы привязок
+     * @param listener        Получатель распознанных жестов
+     * @param releaseMillis   Время без кадров, после которого кнопка считается отпущенной
+     * @param holdMillis      Длительность нажатия, после которой начинается удержание
+     * @param longPressMillis Длительность нажатия, начиная с которой оно считается долгим
+     * @param tapWindowMillis Время ожидания второго нажатия для двойного нажатия и сочетания
+     */
+    GestureRecognizer(TimerWheel timerWheel, Supplier<BindingTable> bindings, GestureListener listener,
+                      long releaseMillis, long holdMillis, long longPressMillis, long tapWindowMillis) {
+        this.timerWheel = timerWheel;
+        this.bindings = bindings;
+        this.listener = listener;
+        this.releaseMillis = releaseMillis;
+        this.holdMillis = holdMillis;
+        this.longPressMillis = longPressMillis;
+        this.tapWindowMillis = tapWindowMillis;
+    }
+
+    /**
+     * Создаёт распознаватель с настройками из системных свойств <code>ir.gesture.releaseMs</code> (по умолчанию 200),
+     * <code>ir.gesture.holdMs</code> (500), <code>ir.gesture.longPressMs</code> (800) и <code>ir.gesture.tapWindowMs</code> (300).
+     *
+     * @param timerWheel Колесо таймеров
+     * @param bindings   Источник текущей таблицы привязок
+     * @param listener   Получатель распознанных жестов
+     * @return Распознаватель жестов
+     */
+    static GestureRecognizer createDefault(TimerWheel timerWheel, Supplier<BindingTable> bindings, GestureListener listener) {
+        return new GestureRecognizer(timerWheel, bindings, listener,
+                Long.getLong("ir.gesture.releaseMs", 200),
+                Long.getLong("ir.gesture.holdMs", 500),
+                Long.getLong("ir.gesture.longPressMs", 800),
+                Long.getLong("ir.gesture.tapWindowMs", 300));
+    }
+
+    /**
+     * Обрабатывает очередной кадр с кодом кнопки - первое нажатие или повтор при удержании.
+     *
+     * @param keyCode Код кнопки
+     */
+    void onFrame(long keyCode) {
+        processFrame(keyCode);
+        deliverRecognized();
+    }
+
+    private synchronized void processFrame(long keyCode) {
+        long now = System.currentTimeMillis();
+        KeyState state = states.get(keyCode);
+        if (state == null) {
+            state = new KeyState(keyCode);
+            states.put(keyCode, state);
+        }
+        if (state.phase == PHASE_PRESSED || state.phase == PHASE_HOLDING) {
+            state.lastFrameTime = now;
+            if (state.phase == PHASE_PRESSED && now - state.pressStartTime >= holdMillis) {
+                state.phase = PHASE_HOLDING;
+                emit(state, Gesture.HOLD_START, 0);
+            } else if (state.phase == PHASE_HOLDING) {
+                emit(state, Gesture.HOLD_REPEAT, 0);
+            }
+            return;
+        }
+        startPress(state, now);
+    }
+
+    /**
+     * Начинает новое нажатие кнопки, предварительно разобравшись с ожидающим коротким нажатием.
+     *
+     * @param state Состояние кнопки
+     * @param now   Текущее время
+     */
+    private void startPress(KeyState state, long now) {
+        BindingTable table = bindings.get();
+        boolean suppressed = false;
+        KeyState tapState = pendingTap;
+        if (tapState != null) {
+            pendingTap = null;
+            cancelTimeout(tapState);
+            tapState.phase = PHASE_IDLE;
+            boolean inWindow = now - tapState.releaseTime <= tapWindowMillis;
+            if (inWindow && tapState == state && table.getGesture(state.keyCode, Gesture.DOUBLE_TAP) != null) {
+                recognized(state.keyCode, Gesture.DOUBLE_TAP, 0);
+                suppressed = true;
+            } else if (inWindow && tapState != state && table.getChord(tapState.keyCode, state.keyCode) != null) {
+                recognized(state.keyCode, Gesture.CHORD, tapState.keyCode);
+                suppressed = true;
+            } else {
+                recognized(tapState.keyCode, Gesture.TAP, 0);
+            }
+        }
+        state.phase = PHASE_PRESSED;
+        state.suppressed = suppressed;
+        state.pressStartTime = now;
+        state.lastFrameTime = now;
+        scheduleReleaseCheck(state, releaseMillis);
+    }
+
+    /**
+     * Проверяет, отпущена ли кнопка. Если кадры продолжали приходить, проверка откладывается.
+     *
+     * @param state      Состояние кнопки
+     * @param generation Поколение таймера, по которому была запланирована проверка
+     */
+    private void checkRelease(KeyState state, int generation) {
+        releaseIfSilent(state, generation);
+        deliverRecognized();
+    }
+
+    private synchronized void releaseIfSilent(KeyState state, int generation) {
+        if (generation != state.generation || (state.phase != PHASE_PRESSED && state.phase != PHASE_HOLDING)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long silence = now - state.lastFrameTime;
+        if (silence < releaseMillis) {
+            scheduleReleaseCheck(state, releaseMillis - silence);
+            return;
+        }
+        long duration = state.lastFrameTime - state.pressStartTime;
+        boolean wasHolding = state.phase == PHASE_HOLDING;
+        state.phase = PHASE_IDLE;
+        state.releaseTime = state.lastFrameTime;
+        if (state.suppressed) {
+            return;
+        }
+        if (wasHolding) {
+            emit(state, Gesture.HOLD_END, 0);
+        }
+        if (duration >= longPressMillis) {
+            emit(state, Gesture.LONG_PRESS, 0);
+        } else if (!wasHolding) {
+            BindingTable table = bindings.get();
+            if (table.getGesture(state.keyCode, Gesture.DOUBLE_TAP) != null || table.isChordPrefix(state.keyCode)) {
+                state.phase = PHASE_TAP_PENDING;
+                pendingTap = state;
+                int tapGeneration = ++state.generation;
+                state.timeout = timerWheel.schedule(() -> expirePendingTap(state, tapGeneration),
+                        Math.max(0, state.releaseTime + tapWindowMillis - now));
+            } else {
+                emit(state, Gesture.TAP, 0);
+            }
+        }
+    }
+
+    /**
+     * Сообщает об отложенном коротком нажатии, если за время ожидания второе нажатие так и не последовало.
+     *
+     * @param state      Состояние кнопки
+     * @param generation Поколение таймера, по которому было запланировано ожидание
+     */
+    private void expirePendingTap(KeyState state, int generation) {
+        completePendingTap(state, generation);
+        deliverRecognized();
+    }
+
+    private synchronized void completePendingTap(KeyState state, int generation) {
+        if (generation != state.generation || state.phase != PHASE_TAP_PENDING) {
+            return;
+        }
+        state.phase = PHASE_IDLE;
+        if (pendingTap == state) {
+            pendingTap = null;
+        }
+        emit(state, Gesture.TAP, 0);
+    }
+
+    private void scheduleReleaseCheck(KeyState state, long delayMillis) {
+        cancelTimeout(state);
+        int generation = ++state.generation;
+        state.timeout = timerWheel.schedule(() -> checkRelease(state, generation), delayMillis);
+    }
+
+    private void cancelTimeout(KeyState state) {
+        if (state.timeout != null) {
+            state.timeout.cancel();
+            state.timeout = null;
+        }
+        state.generation++;
+    }
+
+    private void emit(KeyState state, Gesture gesture, long chordPrefixCode) {
+        if (!state.suppressed) {
+            recognized(state.keyCode, gesture, chordPrefixCode);
+        }
+    }
+
+    /**
+     * Ставит распознанный жест в очередь на передачу получателю. Вызывается под блокировкой распознавателя.
+     */
+    private void recognized(long keyCode, Gesture gesture, long chordPrefixCode) {
+        recognizedGestures.add(new RecognizedGesture(keyCode, gesture, chordPrefixCode));
+    }
+
+    /**
+     * Передаёт получателю накопленные жесты вне блокировки распознавателя. Если жесты уже передаёт другой поток,
+     * он передаст и новые, поэтому порядок жестов сохраняется, а текущий поток сразу возвращается.
+     */
+    private void deliverRecognized() {
+        synchronized (this) {
+            if (delivering || recognizedGestures.isEmpty()) {
+                return;
+            }
+            delivering = true;
+        }
+        boolean drained = false;
+        try {
+            while (true) {
+                RecognizedGesture gesture;
+                synchronized (this) {
+                    gesture = recognizedGestures.poll();
+                    if (gesture == null) {
+                        delivering = false;
+                        drained = true;
+                        return;
+                    }
+                }
+                listener.gestureRecognized(gesture.keyCode, gesture.gesture, gesture.chordPrefixCode);
+            }
+        } finally {
+            if (!drained) {
+                synchronized (this) {
+                    delivering = false;
+                }
+            }
+        }
+    }
+}
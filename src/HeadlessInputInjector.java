@@ -0,0 +1,60 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Реализация интерфейса <code>InputInjector</code>, которая не воздействует на систему, а лишь подсчитывает
+ * количество виртуальных событий ввода. Используется при отсутствии дисплея, а также для проверки и замеров
+ * производительности без реального воздействия на систему.
+ */
+class HeadlessInputInjector implements InputInjector {
+    private final AtomicLong injectedEventsCount = new AtomicLong();
+    private volatile long lastInjectedValue = 0;
+
+    private void inject(long value) {
+        lastInjectedValue = value;
+        injectedEventsCount.incrementAndGet();
+    }
+
+    @Override
+    public void keyPress(int keyCode) {
+        inject(keyCode);
+    }
+
+    @Override
+    public void keyRelease(int keyCode) {
+        inject(keyCode);
+    }
+
+    @Override
+    public void mousePress(int buttonsMask) {
+        inject(buttonsMask);
+    }
+
+    @Override
+    public void mouseRelease(int buttonsMask) {
+        inject(buttonsMask);
+    }
+
+    @Override
+    public void mouseWheel(int wheelAmt) {
+        inject(wheelAmt);
+    }
+
+    @Override
+    public void mouseMoveBy(int dx, int dy) {
+        inject(((long) dx << 32) | (dy & 0xFFFFFFFFL));
+    }
+
+    /**
+     * @return Количество "внедрённых" событий ввода с момента создания объекта.
+     */
+    long getInjectedEventsCount() {
+        return injectedEventsCount.get();
+    }
+
+    /**
+     * @return Параметр последнего "внедрённого" события ввода.
+     */
+    long getLastInjectedValue() {
+        return lastInjectedValue;
+    }
+}
@@ -0,0 +1,223 @@
+import utils.LongHashMap;
+import utils.TimerWheel;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+
+/**
+ * Режим удержания клавиш. Пока удерживается кнопка ДУ, модуль повторяет её код с каждым кадром повтора,
+ * а отпускание кнопки никак не сообщается. Для действий в режиме удержания первый кадр нажимает клавишу,
+ * повторы лишь продлевают удержание, а отпускание происходит один раз - когда повторы перестают приходить
+ * дольше <code>ir.hold.releaseMs</code> (по умолчанию 200 мс). Таким образом на всё удержание приходится
+ * два события ввода вместо пары "нажать - отпустить" на каждый кадр.
+ * <p>
+ * Задача исполнителя для удерживаемой клавиши приводит фактическое состояние клавиши к требуемому, поэтому
+ * её повторная постановка в очередь безвредна. Если задача отпускания была вытеснена из переполненной очереди,
+ * проверка по таймеру ставит её снова - клавиша не может "залипнуть".
+ */
+class HoldController implements Closeable {
+
+    /**
+     * Состояние удерживаемой клавиши одной кнопки ДУ.
+     */
+    private static final class HoldState implements InjectionTask {
+        final KeyPressedAction action;
+        volatile boolean desiredPressed;
+        volatile boolean injectedPressed;
+        long lastFrameTime;
+        int generation;
+
+        HoldState(KeyPressedAction action) {
+            this.action = action;
+        }
+
+        /**
+         * Нажимает или отпускает клавишу, если её фактическое состояние отличается от требуемого.
+         *
+         * @param injector Объект, с помощью которого будет осуществляться действие в системе.
+         */
+        @Override
+        public void execute(InputInjector injector) {
+            boolean desired = desiredPressed;
+            if (desired && !injectedPressed) {
+                action.runPress(injector);
+                injectedPressed = true;
+            } else if (!desired && injectedPressed) {
+                action.runRelease(injector);
+                injectedPressed = false;
+            }
+        }
+    }
+
+    private final ActionExecutor executor;
+    private final TimerWheel timerWheel;
+    private final long releaseMillis;
+    private final LongHashMap<HoldState> states = new LongHashMap<>();
+    private long holdsCount = 0;
+    private long refreshedFramesCount = 0;
+    private long resubmittedReleasesCount = 0;
+
+    /**
+     * Конструктор.
+     *
+     * @param executor      Исполнитель, в потоке которого нажимаются и отпускаются клавиши
+     * @param timerWheel    Колесо таймеров для отслеживания отпускания кнопок
+     * @param releaseMillis Время без повторов, после которого кнопка считается отпущенной
+     */
+    HoldController(ActionExecutor executor, TimerWheel timerWheel, long releaseMillis) {
+        this.executor = executor;
+        this.timerWheel = timerWheel;
+        this.releaseMillis = releaseMillis;
+    }
+
+    /**
+     * Создаёт контроллер со временем отпускания из системного свойства <code>ir.hold.releaseMs</code> (по умолчанию 200).
+     *
+     * @param executor   Исполнитель, в потоке которого нажимаются и отпускаются клавиши
+     * @param timerWheel Колесо таймеров для отслеживания отпускания кнопок
+     * @return Контроллер режима удержания
+     */
+    static HoldController createDefault(ActionExecutor executor, TimerWheel timerWheel) {
+        return new HoldController(executor, timerWheel, Long.getLong("ir.hold.releaseMs", 200));
+    }
+
+    /**
+     * Обрабатывает очередной кадр кнопки, действие которой работает в режиме удержания.
+     * Первый кадр нажимает клавишу, последующие только продлевают удержание.
+     * Задача ставится в очередь исполнителя вне блокировки контроллера: при политике BLOCK постановка может ждать,
+     * и это не должно задерживать остальные кнопки и проверки по таймеру.
+     *
+     * @param action Действие в режиме удержания
+     */
+    void onFrame(KeyPressedAction action) {
+        HoldState pressed = press(action);
+        if (pressed != null) {
+            executor.submit(pressed);
+        }
+    }
+
+    /**
+     * Продлевает удержание клавиши либо начинает новое.
+     *
+     * @param action Действие в режиме удержания
+     * @return Состояние клавиши, задачу которой нужно поставить в очередь исполнителя, либо null.
+     */
+    private synchronized HoldState press(KeyPressedAction action) {
+        long now = System.currentTimeMillis();
+        HoldState state = states.get(action.getKeyCode());
+        if (state != null && state.desiredPressed) {
+            state.lastFrameTime = now;
+            refreshedFramesCount++;
+            return null;
+        }
+        if (state == null || state.action != action) {
+            if (state != null && state.injectedPressed) {
+                return null; // Прежнее действие кнопки ещё не отпущено, новое будет нажато при следующем удержании
+            }
+            state = new HoldState(action);
+            states.put(action.getKeyCode(), state);
+        }
+        state.desiredPressed = true;
+        state.lastFrameTime = now;
+        holdsCount++;
+        scheduleCheck(state, releaseMillis);
+        return state;
+    }
+
+    /**
+     * Проверяет, перестали ли приходить повторы, и при необходимости отпускает клавишу.
+     * После отпускания проверка повторяется, пока клавиша не будет фактически отпущена.
+     *
+     * @param state      Состояние удерживаемой клавиши
+     * @param generation Поколение таймера, по которому была запланирована проверка
+     */
+    private void check(HoldState state, int generation) {
+        if (releaseIfSilent(state, generation)) {
+            executor.submit(state);
+        }
+    }
+
+    /**
+     * @param state      Состояние удерживаемой клавиши
+     * @param generation Поколение таймера, по которому была запланирована проверка
+     * @return true, если задачу клавиши нужно поставить в очередь исполнителя.
+     */
+    private synchronized boolean releaseIfSilent(HoldState state, int generation) {
+        if (generation != state.generation) {
+            return false;
+        }
+        if (state.desiredPressed) {
+            long silence = System.currentTimeMillis() - state.lastFrameTime;
+            if (silence < releaseMillis) {
+                scheduleCheck(state, releaseMillis - silence);
+                return false;
+            }
+            state.desiredPressed = false;
+            scheduleCheck(state, releaseMillis);
+            return true;
+        } else if (state.injectedPressed) {
+            resubmittedReleasesCount++;
+            scheduleCheck(state, releaseMillis);
+            return true;
+        } else if (states.get(state.action.getKeyCode()) == state) {
+            states.remove(state.action.getKeyCode());
+        }
+        return false;
+    }
+
+    private void scheduleCheck(HoldState state, long delayMillis) {
+        int generation = ++state.generation;
+        timerWheel.schedule(() -> check(state, generation), delayMillis);
+    }
+
+    /**
+     * @return Количество начатых удержаний.
+     */
+    synchronized long getHoldsCount() {
+        return holdsCount;
+    }
+
+    /**
+     * @return Количество кадров повтора, которые лишь продлили удержание.
+     */
+    synchronized long getRefreshedFramesCount() {
+        return refreshedFramesCount;
+    }
+
+    /**
+     * @return Количество повторных постановок задачи отпускания, которая не была исполнена вовремя.
+     */
+    synchronized long getResubmittedReleasesCount() {
+        return resubmittedReleasesCount;
+    }
+
+    /**
+     * Отпускает все удерживаемые клавиши и ждёт (не более полсекунды), пока исполнитель их отпустит.
+     * Должен вызываться до остановки исполнителя.
+     */
+    @Override
+    public void close() {
+        ArrayList<HoldState> heldStates;
+        synchronized (this) {
+            heldStates = states.values();
+            for (HoldState state : heldStates) {
+                state.desiredPressed = false;
+                state.generation++;
+            }
+        }
+        for (HoldState state : heldStates) {
+            executor.submit(state);
+        }
+        long deadline = System.currentTimeMillis() + 500;
+        for (HoldState state : heldStates) {
+            while (state.injectedPressed && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * Приёмный буфер и декодер потока данных, поступающих с модуля инфракрасного приёмника.
+ * Данные из COM - порта приходят кусками произвольной длины: несколько кодов могут прийти одним событием,
+ * а один код - разделиться на несколько событий. Поэтому принятые байты сначала складываются в кольцевой буфер,
+ * а затем из него по мере поступления выделяются кадры.
+ * Кадр - это последовательность байтов, ограниченная символами переноса строки ('\r' или '\n').
+ * Кадр может быть либо сообщением о готовности устройства (DEVICE_ACTIVE), либо ответом на проверку связи (PONG),
+ * либо шестнадцатиричным кодом клавиши,
+ * который сразу же переводится в число типа long, без создания промежуточных строк.
+ * Старые версии прошивки не отделяют кадры переносом строки. Пока разделитель ни разу не был получен,
+ * концом кадра считается конец очередной порции данных (см. <code>endOfChunk()</code>).
+ * Экземпляр класса не потокобезопасен и должен использоваться только одним потоком - потоком приёма данных.
+ */
+class IR_frameDecoder {
+
+    /**
+     * В буфере нет ни одного полного кадра.
+     */
+    static final int FRAME_NONE = 0;
+    /**
+     * Получен код клавиши. Его значение можно получить методом <code>getCode()</code>
+     */
+    static final int FRAME_CODE = 1;
+    /**
+     * Получено сообщение о готовности устройства.
+     */
+    static final int FRAME_DEVICE_ACTIVE = 2;
+    /**
+     * Получен повреждённый кадр, который не удалось интерпретировать. Он отбрасывается.
+     */
+    static final int FRAME_CORRUPTED = 3;
+    /**
+     * Получен ответ на команду проверки связи PING.
+     */
+    static final int FRAME_PONG = 4;
+
+    private static final byte[] DEVICE_ACTIVE_KEYWORD = {'D', 'E', 'V', 'I', 'C', 'E', '_', 'A', 'C', 'T', 'I', 'V', 'E'};
+    private static final byte[] PONG_KEYWORD = {'P', 'O', 'N', 'G'};
+    private static final int MAX_HEX_DIGITS = 16;
+    private static final int MAX_FRAME_LENGTH = 32;
+
+    private final byte[] ring;
+    private final int ringMask;
+    private long writePosition = 0;
+    private long readPosition = 0;
+
+    private long frameValue = 0;
+    private int frameLength = 0;
+    private int keywordMatched = 0;
+    private int pongMatched = 0;
+    private boolean frameIsHex = true;
+    private boolean frameIsKeyword = true;
+    private boolean frameIsPong = true;
+    private boolean delimitedProtocol = false;
+    private boolean chunkEnded = false;
+
+    private long code = 0;
+    private long corruptedFramesCount = 0;
+    private long overflowedBytesCount = 0;
+
+    /**
+     * Конструктор.
+     *
+     * @param capacity Ёмкость кольцевого буфера в байтах. Округляется до ближайшей большей степени двойки.
+     */
+    IR_frameDecoder(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        ring = new byte[size];
+        ringMask = size - 1;
+    }
+
+    /**
+     * Конструктор. Создаёт буфер ёмкостью в 4 килобайта.
+     */
+    IR_frameDecoder() {
+        this(4096);
+    }
+
+    /**
+     * Переводит шестнадцатиричную цифру в её числовое значение.
+     *
+     * @param symbol Символ, представляющий цифру
+     * @return Значение цифры, либо -1, если символ не является шестнадцатиричной цифрой.
+     */
+    private static int hexDigitValue(int symbol) {
+        if (symbol >= '0' && symbol <= '9') {
+            return symbol - '0';
+        }
+        if (symbol >= 'A' && symbol <= 'F') {
+            return symbol - 'A' + 10;
+        }
+        if (symbol >= 'a' && symbol <= 'f') {
+            return symbol - 'a' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Помещает принятые байты в кольцевой буфер. Если места в буфере не хватает, самые старые необработанные байты
+     * отбрасываются, а их количество учитывается в счётчике <code>getOverflowedBytesCount()</code>.
+     *
+     * @param data   Массив с принятыми данными
+     * @param offset Смещение от начала массива
+     * @param length Количество байтов, которые необходимо поместить в буфер
+     */
+    void write(byte[] data, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            ring[(int) (writePosition++ & ringMask)] = data[offset + i];
+        }
+        long unread = writePosition - readPosition;
+        if (unread > ring.length) {
+            overflowedBytesCount += unread - ring.length;
+            readPosition = writePosition - ring.length;
+            resetFrame();
+            frameLength = 1; // Начало текущего кадра потеряно, поэтому он будет отброшен как повреждённый
+            frameIsHex = false;
+            frameIsKeyword = false;
+            frameIsPong = false;
+        }
+        chunkEnded = false;
+    }
+
+    /**
+     * Сообщает декодеру, что очередная порция данных из порта закончилась.
+     * Используется для совместимости со старыми версиями прошивки, которые не разделяют кадры переносом строки.
+     */
+    void endOfChunk() {
+        chunkEnded = true;
+    }
+
+    /**
+     * Извлекает из буфера следующий кадр. Просматривает только новые байты - уже разобранная часть кадра повторно не сканируется.
+     *
+     * @return Тип извлечённого кадра: <code>FRAME_CODE</code>, <code>FRAME_DEVICE_ACTIVE</code>, <code>FRAME_PONG</code>, <code>FRAME_CORRUPTED</code>,
+     * либо <code>FRAME_NONE</code>, если полного кадра в буфере пока нет.
+     */
+    int nextFrame() {
+        while (readPosition < writePosition) {
+            byte currentByte = ring[(int) (readPosition++ & ringMask)];
+            if (currentByte == '\r' || currentByte == '\n') {
+                delimitedProtocol = true;
+                if (frameLength > 0) {
+                    return completeFrame();
+                }
+                continue;
+            }
+            if (frameLength++ >= MAX_FRAME_LENGTH) {
+                frameIsHex = false;
+                frameIsKeyword = false;
+                frameIsPong = false;
+                frameLength = MAX_FRAME_LENGTH;
+                continue;
+            }
+            int digit = hexDigitValue(currentByte);
+            if (digit < 0 || frameLength > MAX_HEX_DIGITS) {
+                frameIsHex = false;
+            } else {
+                frameValue = (frameValue << 4) | digit;
+            }
+            if (frameIsKeyword) {
+                if (keywordMatched < DEVICE_ACTIVE_KEYWORD.length && DEVICE_ACTIVE_KEYWORD[keywordMatched] == currentByte) {
+                    keywordMatched++;
+                } else {
+                    frameIsKeyword = false;
+                }
+            }
+            if (frameIsPong) {
+                if (pongMatched < PONG_KEYWORD.length && PONG_KEYWORD[pongMatched] == currentByte) {
+                    pongMatched++;
+                } else {
+                    frameIsPong = false;
+                }
+            }
+            if (!delimitedProtocol && frameIsKeyword && keywordMatched == DEVICE_ACTIVE_KEYWORD.length) {
+                return completeFrame(); // Старая прошивка присылает приветствие без переноса строки
+            }
+        }
+        if (chunkEnded && !delimitedProtocol && frameLength > 0) {
+            chunkEnded = false;
+            return completeFrame();
+        }
+        return FRAME_NONE;
+    }
+
+    /**
+     * Завершает текущий кадр, определяет его тип и подготавливает декодер к приёму следующего.
+     *
+     * @return Тип завершённого кадра
+     */
+    private int completeFrame() {
+        int result;
+        if (frameIsKeyword && keywordMatched == DEVICE_ACTIVE_KEYWORD.length) {
+            result = FRAME_DEVICE_ACTIVE;
+        } else if (frameIsPong && pongMatched == PONG_KEYWORD.length) {
+            result = FRAME_PONG;
+        } else if (frameIsHex) {
+            code = frameValue;
+            result = FRAME_CODE;
+        } else {
+            corruptedFramesCount++;
+            result = FRAME_CORRUPTED;
+        }
+        resetFrame();
+        return result;
+    }
+
+    private void resetFrame() {
+        frameValue = 0;
+        frameLength = 0;
+        keywordMatched = 0;
+        pongMatched = 0;
+        frameIsHex = true;
+        frameIsKeyword = true;
+        frameIsPong = true;
+    }
+
+    /**
+     * Сбрасывает состояние декодера и очищает буфер. Используется, например, при переподключении к устройству.
+     */
+    void reset() {
+        readPosition = writePosition;
+        delimitedProtocol = false;
+        chunkEnded = false;
+        resetFrame();
+    }
+
+    /**
+     * @return Код клавиши из последнего кадра типа <code>FRAME_CODE</code>.
+     */
+    long getCode() {
+        return code;
+    }
+
+    /**
+     * @return true, если устройство разделяет кадры переносом строки.
+     */
+    boolean isDelimitedProtocol() {
+        return delimitedProtocol;
+    }
+
+    /**
+     * @return Количество отброшенных повреждённых кадров.
+     */
+    long getCorruptedFramesCount() {
+        return corruptedFramesCount;
+    }
+
+    /**
+     * @return Количество байтов, потерянных из-за переполнения буфера.
+     */
+    long getOverflowedBytesCount() {
+        return overflowedBytesCount;
+    }
+
+    /**
+     * Переводит код клавиши в шестнадцатиричную строку в том же виде, в котором его присылает модуль.
+     *
+     * @param code Код клавиши
+     * @return Шестнадцатиричное представление кода в верхнем регистре.
+     */
+    static String codeToHex(long code) {
+        return Long.toHexString(code).toUpperCase();
+    }
+
+    /**
+     * Переводит шестнадцатиричную строку в код клавиши.
+     *
+     * @param hex Шестнадцатиричное представление кода
+     * @return Код клавиши
+     * @throws NumberFormatException В случае, если строка не является шестнадцатиричным числом.
+     */
+    static long hexToCode(String hex) throws NumberFormatException {
+        if (hex.isEmpty() || hex.length() > MAX_HEX_DIGITS) {
+            throw new NumberFormatException(hex);
+        }
+        long result = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            int digit = hexDigitValue(hex.charAt(i));
+            if (digit < 0) {
+                throw new NumberFormatException(hex);
+            }
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+}
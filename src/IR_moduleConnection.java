@@ -1,10 +1,11 @@
-import jssc.SerialPort;
-import jssc.SerialPortEvent;
-import jssc.SerialPortEventListener;
-import jssc.SerialPortException;
-
 import java.io.Closeable;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Данный класс представляет собой обработчик модуля инфракрасного приёмника для ИК - пультов.
@@ -12,17 +13,31 @@ import java.util.ArrayList;
  * Микроконтроллер передаёт данные через UART (последовательный порт TTL - уровня), а они, в свою очередь, принимаются
  * установленной на плате микросхемой - конвертором, которая подключается к компьютеру с помощью USB.
  * В конечном итоге, в системе данные можно принять из виртуального эмулированного COM - порта.
- * Данный класс использует библиотеку JSSC для работы с последовательным портом. Это библиотека с открытым исходным кодом,
- * позволяющая организовать многопоточную асинхронную работу с COM - портами.
+ * Сам обмен данными с модулем ведётся через канал <code>SerialTransport</code>. По умолчанию это COM - порт,
+ * с которым класс работает через библиотеку JSSC. Это библиотека с открытым исходным кодом,
+ * позволяющая организовать многопоточную асинхронную работу с COM - портами. Вместо порта можно подключить
+ * имитацию модуля <code>SimulatedIR_module</code>.
  * Класс принимает данные с модуля, позволяет подключить обработчики событий нажатия на кнопки, принимать одиночные нажатия,
  * чтобы организовать, например, ввод определённх ожидаемых клавиш.
  * Содержит методы, позволяющие полноценно работать с модулем, а также реализует интерфейс Closeable, поэтому его можно
  * использовать в конструкциях try с ресурсами.
+ * Ошибки канала не скрываются: подключение запоминает отказ (см. <code>getFailure()</code>), а время последнего
+ * принятого кадра и ответы на проверку связи позволяют заметить "молчащий" модуль. Канал можно заменить
+ * новым (<code>replaceTransport()</code>), сохранив обработчики событий - этим пользуется <code>ConnectionSupervisor</code>.
+ * Команды модулю (звуковые сигналы, проверка связи) записываются в порт отдельным потоком (см. <code>SerialWriter</code>),
+ * поэтому звуковой сигнал не задерживает обработку нажатий. Если задано системное свойство <code>ir.binaryPlay</code>,
+ * мелодии отправляются двоичной командой PLAY, которую прошивке не нужно разбирать как строку.
  */
-class IR_moduleConnection implements SerialPortEventListener, Closeable {
+class IR_moduleConnection implements SerialTransport.DataListener, Closeable {
+
+    private static final boolean BINARY_PLAY = Boolean.getBoolean("ir.binaryPlay");
+    private static final byte[] PING_COMMAND = "PING\n".getBytes(StandardCharsets.US_ASCII);
 
-    private final SerialPort serialPort;
-    private final ArrayList<ButtonPressedEventListener> buttonPressedEventListeners;
+    private final Object receiveLock = new Object();
+    private volatile SerialTransport transport;
+    private final ButtonListenerRegistry buttonPressedEventListeners;
+    private final IR_frameDecoder frameDecoder = new IR_frameDecoder();
+    private final SerialWriter writer;
     MonophonicComposition melody_standartSignal;
     MonophonicComposition melody_doubleSignal;
     MonophonicComposition melody_confirmationSignal;
@@ -30,31 +45,44 @@ class IR_moduleConnection implements SerialPortEventListener, Closeable {
     ********Стандартные мелодии********
      */
     private MonophonicComposition melody_connected;
-    private boolean isConnected = false;
-    private boolean waitForClickMode = false;
-    private String clickResult = "";
+    private volatile CountDownLatch connectedLatch = new CountDownLatch(1);
+    private volatile boolean isConnected = false;
+    private volatile boolean closed = false;
+    private volatile IOException failure = null;
+    private volatile boolean heartbeatSupported = false;
+    private volatile long lastFrameTime = System.currentTimeMillis();
+    private final AtomicReference<CodeCapture> activeCapture = new AtomicReference<>();
     private volatile long disableReceivingEndTime = 0;
 
     /**
-     * Конструктор. Открывает COM - порт на скорости 115200 бод, подключается и ждёт ответа от устройства.
+     * Конструктор. Открывает канал передачи данных, подключается и ждёт ответа от устройства.
      *
-     * @param portName                    Название COM - порта, через который будет осуществлено подключение
+     * @param transport                   Канал передачи данных, через который будет осуществлено подключение
      * @param buttonPressedEventListeners Список объектов, реализующих интерфейс с обработчиками нажатий на кнопки.
      */
-    private IR_moduleConnection(String portName, ArrayList<ButtonPressedEventListener> buttonPressedEventListeners) {
+    private IR_moduleConnection(SerialTransport transport, ButtonListenerRegistry buttonPressedEventListeners) {
         fillStantartMelodies();
-        serialPort = new SerialPort(portName);
+        this.transport = transport;
         this.buttonPressedEventListeners = buttonPressedEventListeners;
+        this.writer = new SerialWriter("IR writer " + transport.getPortName(), Integer.getInteger("ir.writer.queueCapacity", 16),
+                data -> this.transport.write(data), cause -> failure = cause);
         try {
-            serialPort.openPort();
-            serialPort.setParams(SerialPort.BAUDRATE_115200, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
-            serialPort.setEventsMask(SerialPort.MASK_RXCHAR);
-            serialPort.addEventListener(this);
-        } catch (SerialPortException ignored) {
-
+            transport.open(this);
+        } catch (IOException e) {
+            failure = e;
         }
     }
 
+    /**
+     * Конструктор. Просто открывает канал передачи данных, подключается и ждёт ответа от устройства.
+     * Создаёт пустой список обработчиков событий.
+     *
+     * @param transport Канал передачи данных, через который будет осуществлено подключение
+     */
+    IR_moduleConnection(SerialTransport transport) {
+        this(transport, new ButtonListenerRegistry());
+    }
+
     /**
      * Конструктор. Просто открывает COM - порт на скорости 115200 бод, подключается и ждёт ответа от устройства.
      * Создаёт пустой список обработчиков событий.
@@ -62,50 +90,74 @@ class IR_moduleConnection implements SerialPortEventListener, Closeable {
      * @param portName Название COM - порта, через который будет осуществлено подключение
      */
     IR_moduleConnection(String portName) {
-        this(portName, new ArrayList<>());
+        this(new JsscSerialTransport(portName));
     }
 
     /**
-     * Метод конвертирует массив байтов в строку, представляя каждый байт, как символ.
-     *
-     * @param buf входной массив байтов, который необходимо конвертировать
-     * @return Строка, состоящая из символов, которые представляют каждый отдельный элемент.
+     * Это метод, который вызывается каналом передачи данных при поступлении очередной порции данных.
+     * Принятые байты складываются в приёмный буфер, из которого затем извлекаются все полностью принятые кадры.
      */
-    private static String convertByteArrayToANSIStr(byte[] buf) {
-        StringBuilder builder = new StringBuilder();
-        for (byte readedByte : buf) {
-            builder.append((char) readedByte);
+    @Override
+    public void dataReceived(byte[] data, int offset, int length) {
+        synchronized (receiveLock) {
+            EventRecorder.serialData(getPortName(), data, offset, length);
+            frameDecoder.write(data, offset, length);
+            frameDecoder.endOfChunk();
+            processReceivedFrames();
         }
-        return builder.toString();
     }
 
     /**
-     * Это метод, который вызывается обработчиком соединения com - порта.
+     * Это метод, который вызывается каналом передачи данных при его отказе.
+     * Отказ уже заменённого канала не учитывается.
      */
     @Override
-    public void serialEvent(SerialPortEvent event) {
-        if (event.isRXCHAR() && event.getEventValue() > 1) {
-            try {
-                String receivedStr = convertByteArrayToANSIStr(serialPort.readBytes(event.getEventValue()));
-                if (System.currentTimeMillis() > disableReceivingEndTime) {
-                    switch (receivedStr) {
-                        case "DEVICE_ACTIVE":
-                            playSignal(melody_connected);
-                            isConnected = true;
-                            break;
-                        default:
-                            if (waitForClickMode) {
-                                clickResult = receivedStr;
-                                waitForClickMode = false;
-                                playSignal(melody_standartSignal);
-                            } else {
-                                for (ButtonPressedEventListener selectedListener : buttonPressedEventListeners) {
-                                    selectedListener.buttonPressed(receivedStr, this);
-                                }
-                            }
+    public void transportFailed(SerialTransport source, IOException cause) {
+        if (source == transport) {
+            failure = cause;
+        }
+    }
+
+    /**
+     * Извлекает из приёмного буфера все полностью принятые кадры и обрабатывает их.
+     */
+    private void processReceivedFrames() {
+        int frameType;
+        for (long decodeStart = PipelineMetrics.start(); (frameType = frameDecoder.nextFrame()) != IR_frameDecoder.FRAME_NONE;
+             decodeStart = PipelineMetrics.start()) {
+            PipelineMetrics.record(PipelineMetrics.Stage.DECODE, decodeStart);
+            lastFrameTime = System.currentTimeMillis();
+            if (frameType == IR_frameDecoder.FRAME_PONG) {
+                heartbeatSupported = true;
+                continue;
+            }
+            if (lastFrameTime <= disableReceivingEndTime) {
+                continue;
+            }
+            switch (frameType) {
+                case IR_frameDecoder.FRAME_DEVICE_ACTIVE:
+                    playSignal(melody_connected);
+                    isConnected = true;
+                    connectedLatch.countDown();
+                    break;
+                case IR_frameDecoder.FRAME_CODE:
+                    long receivedCode = frameDecoder.getCode();
+                    EventRecorder.code(getPortName(), receivedCode);
+                    CodeCapture capture = activeCapture.get();
+                    if (capture != null) {
+                        if (capture.offer(receivedCode)) {
+                            activeCapture.compareAndSet(capture, null);
+                        }
+                        playSignal(melody_standartSignal);
+                    } else {
+                        buttonPressedEventListeners.dispatch(receivedCode, this);
                     }
-                }
-            } catch (SerialPortException ignored) {
+                    PipelineMetrics.increment(PipelineMetrics.Counter.CODES_RECEIVED);
+                    break;
+                case IR_frameDecoder.FRAME_CORRUPTED:
+                    PipelineMetrics.increment(PipelineMetrics.Counter.CORRUPTED_FRAMES);
+                    EventRecorder.corrupted(getPortName());
+                    break;
             }
         }
     }
@@ -121,13 +173,23 @@ class IR_moduleConnection implements SerialPortEventListener, Closeable {
 
     /**
      * Метод добавляет объект, реализующий интерфейс <code>ButtonPressedEventListener</code>, представляющий собой обработчик событий
-     * связанных с нажатием на кнопки, в список.
+     * связанных с нажатием на кнопки, в список с нулевым приоритетом.
      *
      * @param listener объект, реализующий интерфейс <code>ButtonPressedEventListener</code>
      */
     void attachButtonEventListener(ButtonPressedEventListener listener) {
-        detachButtonEventListener(listener); // Знаю, скорости не добавит. Но это избавит от клонирования записей
-        buttonPressedEventListeners.add(listener);
+        attachButtonEventListener(listener, 0);
+    }
+
+    /**
+     * Метод добавляет обработчик событий нажатия на кнопки в список. Список можно изменять из любого потока,
+     * в том числе во время рассылки события (см. <code>ButtonListenerRegistry</code>).
+     *
+     * @param listener объект, реализующий интерфейс <code>ButtonPressedEventListener</code>
+     * @param priority Приоритет обработчика. Обработчики с большим приоритетом вызываются раньше и могут поглотить событие.
+     */
+    void attachButtonEventListener(ButtonPressedEventListener listener, int priority) {
+        buttonPressedEventListeners.attach(listener, priority);
     }
 
     /**
@@ -136,34 +198,62 @@ class IR_moduleConnection implements SerialPortEventListener, Closeable {
      *
      * @param listener объект, реализующий интерфейс <code>ButtonPressedEventListener</code>
      */
-    private void detachButtonEventListener(ButtonPressedEventListener listener) {
-        for (ButtonPressedEventListener selectedListener : buttonPressedEventListeners) {
-            if (selectedListener == listener) {
-                buttonPressedEventListeners.remove(selectedListener);
-                break;
-            }
-        }
+    void detachButtonEventListener(ButtonPressedEventListener listener) {
+        buttonPressedEventListeners.detach(listener);
     }
 
     /**
-     * @return true, если обработчик находитсся в режиме ожидания одиночного нажатия клавиши и false в обратном случае.
+     * @return Обработчики событий нажатия в порядке вызова вместе со статистикой их работы.
      */
-    boolean isWaitingForClick() {
-        return waitForClickMode;
+    ButtonListenerRegistry.Registration[] getButtonEventListeners() {
+        return buttonPressedEventListeners.getRegistrations();
     }
 
     /**
-     * Метод переводит обработчик в режим ожидания одиночного нажатия на клавишу.
+     * Ожидает нажатия на клавишу ДУ и возвращает её код. Пока идёт ожидание, нажатия не передаются обработчикам событий.
+     *
+     * @param timeoutMillis Максимальное время ожидания в миллисекундах. 0 - ждать без ограничения.
+     * @return Код нажатой клавиши
+     * @throws InterruptedException  В случае, если ожидающий поток был прерван.
+     * @throws TimeoutException      В случае, если время ожидания истекло.
+     * @throws CancellationException В случае, если ожидание было отменено методом <code>cancelCapture()</code>.
      */
-    void turnToWaitToClickMode() {
-        this.waitForClickMode = true;
+    long awaitNextCode(long timeoutMillis) throws InterruptedException, TimeoutException, CancellationException {
+        return awaitCodes(1, timeoutMillis)[0];
     }
 
     /**
-     * @return результат нажатия на клавишу, проошедшего в режиме ожидания одиночного нажатия.
+     * Ожидает <code>count</code> нажатий на клавиши ДУ и возвращает их коды.
+     * Пока идёт ожидание, нажатия не передаются обработчикам событий.
+     *
+     * @param count         Количество нажатий, которое необходимо считать
+     * @param timeoutMillis Максимальное время ожидания всех нажатий в миллисекундах. 0 - ждать без ограничения.
+     * @return Массив с кодами нажатых клавиш в порядке нажатия
+     * @throws InterruptedException  В случае, если ожидающий поток был прерван.
+     * @throws TimeoutException      В случае, если время ожидания истекло.
+     * @throws CancellationException В случае, если ожидание было отменено методом <code>cancelCapture()</code>.
      */
-    String getClickResult() {
-        return clickResult;
+    long[] awaitCodes(int count, long timeoutMillis) throws InterruptedException, TimeoutException, CancellationException {
+        CodeCapture capture = new CodeCapture(count);
+        CodeCapture previous = activeCapture.getAndSet(capture);
+        if (previous != null) {
+            previous.cancel();
+        }
+        try {
+            return capture.await(timeoutMillis);
+        } finally {
+            activeCapture.compareAndSet(capture, null);
+        }
+    }
+
+    /**
+     * Отменяет текущее ожидание нажатий, если оно есть.
+     */
+    void cancelCapture() {
+        CodeCapture capture = activeCapture.getAndSet(null);
+        if (capture != null) {
+            capture.cancel();
+        }
     }
 
     /**
@@ -173,22 +263,101 @@ class IR_moduleConnection implements SerialPortEventListener, Closeable {
         return isConnected;
     }
 
+    /**
+     * Ожидает, пока модуль не пришлёт сообщение о готовности к работе, но не дольше <code>timeoutMillis</code> миллисекунд.
+     * Возвращает управление сразу же после получения сообщения.
+     *
+     * @param timeoutMillis Максимальное время ожидания в миллисекундах
+     * @return true, если модуль идентифицирован и подключён, false - если время ожидания истекло.
+     * @throws InterruptedException В случае, если ожидающий поток был прерван.
+     */
+    boolean awaitConnected(long timeoutMillis) throws InterruptedException {
+        return connectedLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ставит в очередь записи команду проверки связи PING. Прошивка, поддерживающая проверку связи, отвечает кадром PONG.
+     * Ошибка записи становится известна позже, через <code>getFailure()</code>.
+     *
+     * @return true, если команда поставлена в очередь, false - если очередь записи переполнена (порт не успевает принимать данные).
+     */
+    boolean sendHeartbeat() {
+        return writer.offer(PING_COMMAND);
+    }
+
+    /**
+     * @return Очередь записи команд модулю.
+     */
+    SerialWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * @return Ошибка, из-за которой канал перестал работать, либо null, если канал исправен.
+     */
+    IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return true, если модуль хотя бы раз ответил на проверку связи, и его молчание можно считать признаком отказа.
+     */
+    boolean isHeartbeatSupported() {
+        return heartbeatSupported;
+    }
+
+    /**
+     * @return Время получения последнего кадра (любого типа) по <code>System.currentTimeMillis()</code>.
+     */
+    long getLastFrameTime() {
+        return lastFrameTime;
+    }
+
+    /**
+     * Закрывает текущий канал и открывает вместо него новый. Обработчики событий, мелодии и статистика подключения
+     * сохраняются, а модуль заново проходит проверку готовности (см. <code>awaitConnected()</code>).
+     *
+     * @param newTransport Новый канал передачи данных
+     * @throws IOException В случае, если новый канал не удалось открыть, или подключение уже закрыто.
+     */
+    synchronized void replaceTransport(SerialTransport newTransport) throws IOException {
+        if (closed) {
+            newTransport.close();
+            throw new IOException("Подключение закрыто");
+        }
+        transport.close();
+        synchronized (receiveLock) {
+            frameDecoder.reset();
+        }
+        isConnected = false;
+        heartbeatSupported = false;
+        connectedLatch = new CountDownLatch(1);
+        lastFrameTime = System.currentTimeMillis();
+        transport = newTransport;
+        failure = null;
+        try {
+            newTransport.open(this);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
     /**
      * @return название COM - порта, через который работает подключение.
      */
-    SerialPort getSerialPort() {
-        return serialPort;
+    String getPortName() {
+        return transport.getPortName();
     }
 
     /**
      * Посылает на модуль мелодию для воспроизведения на PC SPEAKER. Используется для уведомительных целей.
+     * Не блокирует вызывающий поток: закодированная заранее команда ставится в очередь записи.
      * @param composition Мелодия, которую необходимо воспроизвести
      */
     void playSignal(MonophonicComposition composition) {
-        try {
-            serialPort.writeString("PLAY:" + composition + "\n");
-        } catch (SerialPortException ignored) {
-        }
+        byte[] command = BINARY_PLAY ? composition.getBinaryCommand() : null;
+        writer.offer(command != null ? command : composition.getTextCommand());
     }
 
     /**
@@ -200,24 +369,25 @@ class IR_moduleConnection implements SerialPortEventListener, Closeable {
         melody_doubleSignal = new MonophonicComposition();
         melody_confirmationSignal = new MonophonicComposition();
 
-        melody_connected.getCompositionSheet().add(new MonophonicNote(659, 82));
-        melody_connected.getCompositionSheet().add(new MonophonicNote(784, 82));
-        melody_connected.getCompositionSheet().add(new MonophonicNote(1046, 82));
-        melody_connected.getCompositionSheet().add(new MonophonicNote(1318, 82));
+        melody_connected.addNote(659, 82);
+        melody_connected.addNote(784, 82);
+        melody_connected.addNote(1046, 82);
+        melody_connected.addNote(1318, 82);
 
-        melody_doubleSignal.getCompositionSheet().add(new MonophonicNote(1200, 100));
-        melody_doubleSignal.getCompositionSheet().add(new MonophonicNote(0, 60));
+        melody_doubleSignal.addNote(1200, 100);
+        melody_doubleSignal.addNote(0, 60);
         melody_doubleSignal.setRepeatationCount(2);
 
-        melody_confirmationSignal.getCompositionSheet().add(new MonophonicNote(784, 82));
-        melody_confirmationSignal.getCompositionSheet().add(new MonophonicNote(987, 82));
+        melody_confirmationSignal.addNote(784, 82);
+        melody_confirmationSignal.addNote(987, 82);
     }
 
     @Override
-    public void close() {
-        try {
-            serialPort.closePort();
-        } catch (SerialPortException ignored) {
-        }
+    public synchronized void close() {
+        closed = true;
+        cancelCapture();
+        transport.close();
+        writer.close();
+        buttonPressedEventListeners.close();
     }
 }
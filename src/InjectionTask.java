@@ -0,0 +1,12 @@
+/**
+ * Задача, которую исполняет поток <code>ActionExecutor</code>. Обычно это действие, привязанное к кнопке ДУ.
+ */
+interface InjectionTask {
+
+    /**
+     * Исполняет задачу. Вызывается только из потока исполнителя.
+     *
+     * @param injector Объект, через который задача воздействует на систему.
+     */
+    void execute(InputInjector injector);
+}
@@ -0,0 +1,51 @@
+/**
+ * Интерфейс, через который действия, привязанные к кнопкам ДУ, воздействуют на систему: нажимают клавиши,
+ * двигают курсор, крутят колесо мыши.
+ * Основная реализация - <code>RobotInputInjector</code>, работающая через <code>java.awt.Robot</code>.
+ * Реализация <code>HeadlessInputInjector</code> ничего не делает с системой и позволяет работать без дисплея.
+ */
+interface InputInjector {
+
+    /**
+     * Виртуально нажимает клавишу клавиатуры.
+     *
+     * @param keyCode Код клавиши (см. <code>java.awt.event.KeyEvent</code>)
+     */
+    void keyPress(int keyCode);
+
+    /**
+     * Виртуально отпускает клавишу клавиатуры.
+     *
+     * @param keyCode Код клавиши (см. <code>java.awt.event.KeyEvent</code>)
+     */
+    void keyRelease(int keyCode);
+
+    /**
+     * Виртуально нажимает кнопки мыши.
+     *
+     * @param buttonsMask Маска кнопок (см. <code>java.awt.event.InputEvent</code>)
+     */
+    void mousePress(int buttonsMask);
+
+    /**
+     * Виртуально отпускает кнопки мыши.
+     *
+     * @param buttonsMask Маска кнопок (см. <code>java.awt.event.InputEvent</code>)
+     */
+    void mouseRelease(int buttonsMask);
+
+    /**
+     * Виртуально поворачивает колесо мыши.
+     *
+     * @param wheelAmt Количество шагов. Положительные значения - прокрутка вниз.
+     */
+    void mouseWheel(int wheelAmt);
+
+    /**
+     * Сдвигает курсор мыши относительно его текущего положения.
+     *
+     * @param dx Сдвиг по горизонтали в пикселях (вправо)
+     * @param dy Сдвиг по вертикали в пикселях (вниз)
+     */
+    void mouseMoveBy(int dx, int dy);
+}
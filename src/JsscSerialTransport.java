@@ -0,0 +1,81 @@
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
+import jssc.SerialPortException;
+
+import java.io.IOException;
+
+/**
+ * Канал передачи данных через настоящий COM - порт. Использует библиотеку JSSC.
+ * Порт открывается на скорости 115200 бод, 8 бит данных, 1 стоповый бит, без контроля чётности.
+ */
+class JsscSerialTransport implements SerialTransport, SerialPortEventListener {
+    private final SerialPort serialPort;
+    private volatile DataListener listener;
+
+    /**
+     * Конструктор. Порт не открывается до вызова <code>open()</code>.
+     *
+     * @param portName Название COM - порта
+     */
+    JsscSerialTransport(String portName) {
+        serialPort = new SerialPort(portName);
+    }
+
+    @Override
+    public void open(DataListener listener) throws IOException {
+        this.listener = listener;
+        try {
+            serialPort.openPort();
+            serialPort.setParams(SerialPort.BAUDRATE_115200, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+            serialPort.setEventsMask(SerialPort.MASK_RXCHAR);
+            serialPort.addEventListener(this);
+        } catch (SerialPortException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Это метод, который вызывается обработчиком соединения com - порта.
+     * Ошибка чтения означает, что порт перестал работать, и о ней сообщается обработчику данных.
+     */
+    @Override
+    public void serialEvent(SerialPortEvent event) {
+        if (event.isRXCHAR() && event.getEventValue() > 0) {
+            try {
+                long readStart = PipelineMetrics.start();
+                byte[] receivedBytes = serialPort.readBytes(event.getEventValue());
+                PipelineMetrics.record(PipelineMetrics.Stage.SERIAL_READ, readStart);
+                if (receivedBytes != null) {
+                    listener.dataReceived(receivedBytes, 0, receivedBytes.length);
+                }
+            } catch (SerialPortException e) {
+                listener.transportFailed(this, new IOException(e));
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        try {
+            serialPort.writeBytes(data);
+        } catch (SerialPortException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public String getPortName() {
+        return serialPort.getPortName();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (serialPort.isOpened()) {
+                serialPort.closePort();
+            }
+        } catch (SerialPortException ignored) {
+        }
+    }
+}
@@ -1,19 +1,23 @@
 import utils.ConsoleUtils;
+import utils.TokenBucket;
 import utils.iniSettings.INISettingsRecord;
 import utils.iniSettings.INISettingsSection;
 import utils.iniSettings.exceptions.AlreadyExistsException;
 import utils.iniSettings.exceptions.IniSettingsException;
+import utils.iniSettings.exceptions.NotFoundException;
+import utils.iniSettings.exceptions.RecordParsingException;
 
-import java.awt.*;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.util.ArrayList;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Класс, представляющий определённую клавишу. Позволяет привязать действие и исполнить его.
+ * При создании привязки действие компилируется в <code>CompiledAction</code>, которое и исполняется при нажатиях.
  */
-class KeyPressedAction {
+class KeyPressedAction implements InjectionTask {
 
     static final String HELP_ACTION_TYPES = "1 - эмулировать нажатие кнопки на клавиатуре\n" +
             "2 - эмулировать нажатие кнопки мыши\n" +
@@ -21,12 +25,32 @@ class KeyPressedAction {
             "4 - эмулировать вращение колеса прокрутки мыши\n" +
             "5 - эмулировать нажатие комбинации клавиш\n" +
             "6 - сбросить привязку к действию\n" +
+            "7 - выполнить макрос (последовательность нажатий с паузами)\n" +
             "enter - вернуться в меню";
+    static final int MACRO_ACTION_ID = 7;
+    private static final String HELP_MACRO_STEPS = "Шаги макроса, по одному в строке:\n" +
+            "down <клавиша> - нажать клавишу, up <клавиша> - отпустить, tap <клавиша> - нажать и отпустить\n" +
+            "move <dx> <dy> - сдвинуть курсор, click <1|2|3> - нажать левую, правую или обе клавиши мыши\n" +
+            "wheel <шагов> - прокрутить колесо мыши, wait <мс> - пауза\n" +
+            "repeat <раз> - начало повторяемого блока (0 - повторять до остановки макроса), end - конец блока\n" +
+            "Для завершения ввода просто нажмите enter...";
     private final ArrayList<Integer> params = new ArrayList<>();
-    private String keyCode;
-    private int actionId;
+    private final long keyCode;
+    private final Gesture gesture;
+    private final long chordPrefixCode;
+    private final String receiverScope;
+    private final String layer;
+    private final int actionId;
     private long minimalIntervalBetweenNextPress = 0;
-    private long lastPressedTime = System.currentTimeMillis();
+    private int accelerationPercentPerSecond = 0;
+    private int maxAccelerationPercent = 100;
+    private boolean holdMode = false;
+    private int rateIntervalMillis = -1;
+    private int rateBurst = 1;
+    private TokenBucket rateLimiter;
+    private int[] macroProgram;
+    private CompiledAction compiledAction;
+    private final AtomicLong droppedEventsCount = new AtomicLong();
 
     /**
      * Конструктор. Опрашивает пользователя в соответствии с id действия, и заполняет параметры действия на основании полученных данных.
@@ -35,11 +59,30 @@ class KeyPressedAction {
      * @param actionId Код действия, выбранный пользователем.
      * @throws CancellationException В случае намеренной отмены дальнейшего ввода пользователем.
      */
-    KeyPressedAction(String keyCode, String actionId) throws CancellationException {
+    KeyPressedAction(long keyCode, String actionId) throws CancellationException {
+        this(keyCode, Gesture.RAW, 0, null, null, actionId);
+    }
+
+    /**
+     * Конструктор. Опрашивает пользователя в соответствии с id действия, и заполняет параметры действия на основании полученных данных.
+     *
+     * @param keyCode         Код клавиши на ПДУ, которому соответствует действие
+     * @param gesture         Жест, которым выполняется действие
+     * @param chordPrefixCode Код первой клавиши сочетания для жеста <code>CHORD</code>, иначе не используется
+     * @param receiverScope   Название порта приёмника, к которому относится привязка, либо null, если она относится ко всем приёмникам
+     * @param layer           Название слоя привязок (см. <code>BindingLayer</code>), либо null, если привязка относится к основному слою
+     * @param actionId        Код действия, выбранный пользователем.
+     * @throws CancellationException В случае намеренной отмены дальнейшего ввода пользователем.
+     */
+    KeyPressedAction(long keyCode, Gesture gesture, long chordPrefixCode, String receiverScope, String layer, String actionId) throws CancellationException {
         if (actionId.length() == 0) {
             throw new CancellationException();
         }
         this.keyCode = keyCode;
+        this.gesture = gesture;
+        this.chordPrefixCode = gesture == Gesture.CHORD ? chordPrefixCode : 0;
+        this.receiverScope = receiverScope;
+        this.layer = layer;
         try {
             this.actionId = Integer.valueOf(actionId);
         } catch (Exception ignored) {
@@ -64,9 +107,15 @@ class KeyPressedAction {
             case 6:
                 params.add(0);
                 break;
+            case MACRO_ACTION_ID:
+                set_macro();
+                break;
             default:
                 throw new CancellationException();
         }
+        rateLimiter = createRateLimiter();
+        macroProgram = createMacroProgram();
+        compiledAction = CompiledAction.compile(this);
     }
 
     /**
@@ -77,12 +126,139 @@ class KeyPressedAction {
      * @throws IniSettingsException В случае, если секция не содержит определённых записей, необходимых для успешного импорта.
      */
     KeyPressedAction(INISettingsSection settingsSection) throws IniSettingsException {
-        this.keyCode = settingsSection.getSectionName();
+        String bindingName = settingsSection.getSectionName();
+        int layerSeparator = bindingName.indexOf(BindingLayer.BINDING_SEPARATOR);
+        if (layerSeparator > 0) {
+            this.layer = bindingName.substring(0, layerSeparator).trim();
+            bindingName = bindingName.substring(layerSeparator + 1).trim();
+        } else {
+            this.layer = null;
+        }
+        int scopeSeparator = bindingName.lastIndexOf('/');
+        if (scopeSeparator > 0) {
+            this.receiverScope = bindingName.substring(0, scopeSeparator).trim();
+            bindingName = bindingName.substring(scopeSeparator + 1).trim();
+        } else {
+            this.receiverScope = null;
+        }
+        Gesture parsedGesture = Gesture.RAW;
+        int gestureSeparator = bindingName.indexOf(':');
+        if (gestureSeparator >= 0) {
+            parsedGesture = Gesture.fromSectionSuffix(bindingName.substring(gestureSeparator + 1).trim());
+            if (parsedGesture == null) {
+                throw new RecordParsingException();
+            }
+            bindingName = bindingName.substring(0, gestureSeparator).trim();
+        }
+        int chordSeparator = bindingName.indexOf('+');
+        try {
+            if (chordSeparator >= 0) {
+                this.chordPrefixCode = IR_frameDecoder.hexToCode(bindingName.substring(0, chordSeparator).trim());
+                this.keyCode = IR_frameDecoder.hexToCode(bindingName.substring(chordSeparator + 1).trim());
+                parsedGesture = Gesture.CHORD;
+            } else if (parsedGesture == Gesture.CHORD) {
+                throw new RecordParsingException();
+            } else {
+                this.chordPrefixCode = 0;
+                this.keyCode = IR_frameDecoder.hexToCode(bindingName);
+            }
+        } catch (NumberFormatException e) {
+            throw new RecordParsingException();
+        }
+        this.gesture = parsedGesture;
         this.actionId = Integer.valueOf(settingsSection.getFieldByKey("actionId").getValue());
         this.minimalIntervalBetweenNextPress = Integer.valueOf(settingsSection.getFieldByKey("minPressInterval").getValue());
         for (int i = 0; i < Integer.valueOf(settingsSection.getFieldByKey("paramsCount").getValue()); i++) {
             params.add(Integer.valueOf(settingsSection.getFieldByKey("param_" + i).getValue()));
         }
+        try {
+            this.accelerationPercentPerSecond = Integer.valueOf(settingsSection.getFieldByKey("acceleration").getValue());
+            this.maxAccelerationPercent = Integer.valueOf(settingsSection.getFieldByKey("maxAcceleration").getValue());
+        } catch (NotFoundException ignored) {
+            // Ускорение не задано - используются значения по умолчанию
+        }
+        try {
+            this.holdMode = settingsSection.getFieldByKey("mode").getValue().equals("hold");
+        } catch (NotFoundException ignored) {
+            // Режим не задан - клавиша нажимается и отпускается на каждый кадр
+        }
+        try {
+            this.rateIntervalMillis = Integer.valueOf(settingsSection.getFieldByKey("rateInterval").getValue());
+            this.rateBurst = Integer.valueOf(settingsSection.getFieldByKey("rateBurst").getValue());
+        } catch (NotFoundException ignored) {
+            // Ограничение частоты не задано - используется минимальный интервал между нажатиями
+        }
+        rateLimiter = createRateLimiter();
+        macroProgram = createMacroProgram();
+        compiledAction = CompiledAction.compile(this);
+    }
+
+    /**
+     * Конструктор, принимающий параметры действия в уже разобранном виде. Используется при загрузке скомпилированного
+     * профиля привязок <code>BindingProfile</code>, где параметры хранятся как числа, а не как текст.
+     *
+     * @param keyCode                      Код клавиши на ПДУ, которому соответствует действие
+     * @param gesture                      Жест, которым выполняется действие
+     * @param chordPrefixCode              Код первой клавиши сочетания для жеста <code>CHORD</code>, иначе не используется
+     * @param receiverScope                Название порта приёмника, к которому относится привязка, либо null
+     * @param layer                        Название слоя привязок, либо null, если привязка относится к основному слою
+     * @param actionId                     Код действия
+     * @param minPressInterval             Минимальный интервал между повторными нажатиями в миллисекундах
+     * @param accelerationPercentPerSecond Ускорение при удержании кнопки в процентах в секунду
+     * @param maxAccelerationPercent       Максимальная скорость относительно начальной в процентах
+     * @param holdMode                     true, если клавиша удерживается, пока удерживается кнопка ДУ
+     * @param rateIntervalMillis           Время пополнения корзины ограничителя частоты, либо -1, если используется <code>minPressInterval</code>
+     * @param rateBurst                    Ёмкость корзины ограничителя частоты
+     * @param params                       Параметры действия
+     */
+    KeyPressedAction(long keyCode, Gesture gesture, long chordPrefixCode, String receiverScope, String layer, int actionId, long minPressInterval,
+                     int accelerationPercentPerSecond, int maxAccelerationPercent, boolean holdMode,
+                     int rateIntervalMillis, int rateBurst, int... params) {
+        this.keyCode = keyCode;
+        this.gesture = gesture;
+        this.chordPrefixCode = gesture == Gesture.CHORD ? chordPrefixCode : 0;
+        this.receiverScope = receiverScope;
+        this.layer = layer;
+        this.actionId = actionId;
+        this.minimalIntervalBetweenNextPress = minPressInterval;
+        this.accelerationPercentPerSecond = accelerationPercentPerSecond;
+        this.maxAccelerationPercent = maxAccelerationPercent;
+        this.holdMode = holdMode;
+        this.rateIntervalMillis = rateIntervalMillis;
+        this.rateBurst = rateBurst;
+        this.params.ensureCapacity(params.length);
+        for (int param : params) {
+            this.params.add(param);
+        }
+        rateLimiter = createRateLimiter();
+        macroProgram = createMacroProgram();
+        compiledAction = CompiledAction.compile(this);
+    }
+
+    /**
+     * Создаёт ограничитель частоты срабатывания действия. Если интервал пополнения не задан записью <code>rateInterval</code>,
+     * используется минимальный интервал между нажатиями, а ёмкость корзины по умолчанию равна единице - то есть
+     * действие срабатывает не чаще одного раза за <code>minPressInterval</code> миллисекунд.
+     *
+     * @return Ограничитель частоты, либо null, если частота срабатывания не ограничена.
+     */
+    private TokenBucket createRateLimiter() {
+        long interval = rateIntervalMillis >= 0 ? rateIntervalMillis : minimalIntervalBetweenNextPress;
+        return interval > 0 ? new TokenBucket(interval, rateBurst) : null;
+    }
+
+    /**
+     * @return Программа макроса (параметры действия в виде массива), либо null, если действие - не макрос.
+     */
+    private int[] createMacroProgram() {
+        if (actionId != MACRO_ACTION_ID) {
+            return null;
+        }
+        int[] program = new int[params.size()];
+        for (int i = 0; i < program.length; i++) {
+            program[i] = params.get(i);
+        }
+        return program;
     }
 
     /**
@@ -142,6 +318,85 @@ class KeyPressedAction {
             }
         }
         minimalIntervalBetweenNextPress = 300;
+        set_holdMode();
+    }
+
+    /**
+     * Устанавливает параметры действия "Выполнить макрос" в соответствие с введёнными пользователем данными.
+     * Шаги вводятся по одному, см. <code>MacroEngine</code>.
+     *
+     * @throws CancellationException В случае, если пользователь прервал ввод или ввёл некорректный макрос.
+     */
+    private void set_macro() throws CancellationException {
+        int policy = ConsoleUtils.getEnteredIntegerNumber("Что делать, если кнопку нажали во время выполнения макроса:\n" +
+                MacroEngine.POLICY_RESTART + " - начать макрос заново\n" +
+                MacroEngine.POLICY_QUEUE + " - выполнить его ещё раз после текущего\n" +
+                MacroEngine.POLICY_CANCEL + " - остановить макрос\n" +
+                MacroEngine.POLICY_IGNORE + " - ничего не делать\n" +
+                "_> ");
+        params.add(policy);
+        System.out.println(HELP_MACRO_STEPS);
+        String enteredStr;
+        while (!(enteredStr = ConsoleUtils.getEnteredString("шаг " + (params.size() / 3 + 1) + "_> ").trim()).isEmpty()) {
+            String[] words = enteredStr.split("\\s+");
+            int operation;
+            int first = 0;
+            int second = 0;
+            try {
+                switch (words[0].toLowerCase()) {
+                    case "down":
+                    case "up":
+                    case "tap":
+                        operation = words[0].equalsIgnoreCase("down") ? MacroEngine.OP_KEY_DOWN
+                                : words[0].equalsIgnoreCase("up") ? MacroEngine.OP_KEY_UP : MacroEngine.OP_KEY_TAP;
+                        first = translateUserEnteredKeyToKeyCode(enteredStr.substring(words[0].length()).trim());
+                        break;
+                    case "move":
+                        operation = MacroEngine.OP_MOUSE_MOVE;
+                        first = Integer.parseInt(words[1]);
+                        second = Integer.parseInt(words[2]);
+                        break;
+                    case "click":
+                        operation = MacroEngine.OP_MOUSE_CLICK;
+                        first = Integer.parseInt(words[1]);
+                        break;
+                    case "wheel":
+                        operation = MacroEngine.OP_WHEEL;
+                        first = Integer.parseInt(words[1]);
+                        break;
+                    case "wait":
+                        operation = MacroEngine.OP_WAIT;
+                        first = Integer.parseInt(words[1]);
+                        break;
+                    case "repeat":
+                        operation = MacroEngine.OP_REPEAT;
+                        first = Integer.parseInt(words[1]);
+                        break;
+                    case "end":
+                        operation = MacroEngine.OP_END;
+                        break;
+                    default:
+                        System.out.println("Неизвестный шаг");
+                        continue;
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                System.out.println("Некорректные аргументы шага");
+                continue;
+            }
+            if ((operation == MacroEngine.OP_KEY_DOWN || operation == MacroEngine.OP_KEY_UP || operation == MacroEngine.OP_KEY_TAP) && first == 0) {
+                System.out.println("Неизвестная клавиша");
+                continue;
+            }
+            params.add(operation);
+            params.add(first);
+            params.add(second);
+        }
+        macroProgram = createMacroProgram();
+        if (!MacroEngine.isValidProgram(macroProgram)) {
+            System.out.println("Макрос пуст, блоки повтора не закрыты, или бесконечный блок не содержит паузы");
+            throw new CancellationException();
+        }
+        minimalIntervalBetweenNextPress = 300;
     }
 
     /**
@@ -149,6 +404,7 @@ class KeyPressedAction {
      */
     private void set_mouseWheelTurn() {
         params.add(ConsoleUtils.getEnteredIntegerNumber("Введите количество шагов, на которое будет совершена прокрутка (вниз): "));
+        set_acceleration();
     }
 
     /**
@@ -157,6 +413,24 @@ class KeyPressedAction {
     private void set_mouseMove() {
         params.add(ConsoleUtils.getEnteredIntegerNumber("Введите количество пикселей по горизонтали, на которое будет сдвинута мышь (вправо): "));
         params.add(ConsoleUtils.getEnteredIntegerNumber("Введите количество пикселей по вертикали, на которое будет сдвинута мышь (вниз): "));
+        set_acceleration();
+    }
+
+    /**
+     * Устанавливает параметры ускорения перемещения при удержании кнопки в соответствие с введёнными пользователем данными.
+     */
+    private void set_acceleration() {
+        accelerationPercentPerSecond = Math.max(0, ConsoleUtils.getEnteredIntegerNumber("Введите ускорение при удержании кнопки (процентов в секунду, 0 - без ускорения): "));
+        if (accelerationPercentPerSecond > 0) {
+            maxAccelerationPercent = Math.max(100, ConsoleUtils.getEnteredIntegerNumber("Введите максимальную скорость относительно начальной (в процентах, например 400): "));
+        }
+    }
+
+    /**
+     * Спрашивает пользователя, должна ли клавиша удерживаться, пока удерживается кнопка ДУ.
+     */
+    private void set_holdMode() {
+        holdMode = ConsoleUtils.getEnteredString("Удерживать клавишу, пока удерживается кнопка пульта? (y - да, enter - нет): ").trim().equalsIgnoreCase("y");
     }
 
     /**
@@ -175,6 +449,7 @@ class KeyPressedAction {
             throw new CancellationException();
         }
         minimalIntervalBetweenNextPress = 300;
+        set_holdMode();
     }
 
     /**
@@ -196,6 +471,10 @@ class KeyPressedAction {
         if (params.get(0) == 0) {
             throw new CancellationException();
         }
+        set_holdMode();
+        if (holdMode) {
+            return;
+        }
         String minPressInterval = ConsoleUtils.getEnteredString("Введите минимальный интервал для данной клавиши (миллисекунд), в течение которого её нельзя будет нажать повторно.\nДанная опция необходима для тех клавиш, периодическое частое срабатывание которых нежелательно.\n" +
                 "Для отмены просто нажмите enter...\n" +
                 "_> ");
@@ -212,105 +491,148 @@ class KeyPressedAction {
     /**
      * Выполняет действие, привязанное к данной клавише ранее.
      *
+     * @param injector Объект, с помощью которого будет осуществляться действие в системе.
      * @throws CancellationException В случае, если параметры действия некорректны.
      */
-    void runAction() throws CancellationException {
+    void runAction(InputInjector injector) throws CancellationException {
         if (params.size() == 0) {
             throw new CancellationException();
         }
-        lastPressedTime = System.currentTimeMillis();
-        try {
-            Robot robot = new Robot();
-            switch (actionId) {
-                case 1:
-                    runAction_oneKeyPress(robot);
-                    break;
-                case 2:
-                    runAction_mouseKeyPress(robot);
-                    break;
-                case 3:
-                    runAction_mouseMove(robot);
-                    break;
-                case 4:
-                    runAction_mouseWheelTurn(robot);
-                    break;
-                case 5:
-                    runAction_keyComboPress(robot);
-                    break;
-            }
-        } catch (AWTException e) {
-            e.printStackTrace();
-        }
+        compiledAction.execute(injector);
     }
 
     /**
-     * Виртуально нажимает комбинацию клавиш, и тут же её отпускает. Комбинация клавиш должна быть записана в параметрах к действию.
+     * Выполняет действие в потоке исполнителя <code>ActionExecutor</code>.
+     * Некорректные параметры действия приводят лишь к тому, что действие не выполняется.
+     * Обычно исполнителю передаётся сразу скомпилированное действие, см. <code>getCompiledAction()</code>.
      *
-     * @param robot Экземпляр класса Robot, с помощью которого будет осуществляться дуйствие в системе.
-     * @throws CancellationException В случае, если параметры к действию некорректны.
+     * @param injector Объект, с помощью которого будет осуществляться действие в системе.
      */
-    private void runAction_keyComboPress(Robot robot) throws CancellationException {
-        if (params.size() < 1) {
-            throw new CancellationException();
-        }
-        for (int i = 1; i <= params.get(0); i++) {
-            robot.keyPress(params.get(i));
-        }
-        for (int i = 1; i <= params.get(0); i++) {
-            robot.keyRelease(params.get(i));
-        }
+    @Override
+    public void execute(InputInjector injector) {
+        compiledAction.execute(injector);
     }
 
     /**
-     * Виртуально поворачивает колесо мыши вверх или вниз, исходя из параметров к действию.
-     *
-     * @param robot Экземпляр класса Robot, с помощью которого будет осуществляться дуйствие в системе.
-     * @throws CancellationException В случае, если параметры к действию некорректны.
+     * @param mouseKey Клавиша мыши: 1 - левая, 2 - правая, 3 - обе.
+     * @return Маска клавиш мыши, которые нажимает действие "Нажать клавишу мыши" (и шаг макроса "click").
      */
-    private void runAction_mouseWheelTurn(Robot robot) throws CancellationException {
-        if (params.size() < 1) {
-            throw new CancellationException();
+    static int getMouseKeyMask(int mouseKey) {
+        int mouseKeyMask = mouseKey == 1 || mouseKey != 2 ? InputEvent.BUTTON1_DOWN_MASK : InputEvent.BUTTON3_DOWN_MASK;
+        if (mouseKey == 3) {
+            mouseKeyMask = mouseKeyMask | InputEvent.BUTTON3_DOWN_MASK;
         }
-        robot.mouseWheel(params.get(0));
+        return mouseKeyMask;
     }
 
     /**
-     * Перемещает курсор мыши на определённое количество пикселей по вертикали и по горизонтали, исходя из параметров к действию.
+     * Виртуально нажимает клавишу (клавишу мыши, комбинацию клавиш) действия, не отпуская её.
+     * Используется в режиме удержания, см. <code>HoldController</code>.
      *
-     * @param robot Экземпляр класса Robot, с помощью которого будет осуществляться действие в системе.
-     * @throws CancellationException В случае, если параметры к действию некорректны.
+     * @param injector Объект, с помощью которого будет осуществляться действие в системе.
      */
-    private void runAction_mouseMove(Robot robot) throws CancellationException {
-        if (params.size() < 2) {
-            throw new CancellationException();
-        }
-        int newXPos = (int) MouseInfo.getPointerInfo().getLocation().getX() + params.get(0);
-        int newYPos = (int) MouseInfo.getPointerInfo().getLocation().getY() + params.get(1);
-        robot.mouseMove(newXPos, newYPos);
+    void runPress(InputInjector injector) {
+        compiledAction.press(injector);
     }
 
     /**
-     * Виртуально нажимает и тут же отпускает определённую клавишу мыши, исходя из параметров к действию.
+     * Виртуально отпускает клавишу (клавишу мыши, комбинацию клавиш), нажатую методом <code>runPress()</code>.
+     * Клавиши комбинации отпускаются в обратном порядке.
      *
-     * @param robot Экземпляр класса Robot, с помощью которого будет осуществляться дуйствие в системе.
+     * @param injector Объект, с помощью которого будет осуществляться действие в системе.
      */
-    private void runAction_mouseKeyPress(Robot robot) {
-        int mouseKeyMask = params.get(0) == 1 || params.get(0) != 2 ? InputEvent.BUTTON1_DOWN_MASK : InputEvent.BUTTON3_DOWN_MASK;
-        if (params.get(0) == 3) {
-            mouseKeyMask = mouseKeyMask | InputEvent.BUTTON3_DOWN_MASK;
+    void runRelease(InputInjector injector) {
+        compiledAction.release(injector);
+    }
+
+    /**
+     * @return true, если код действия известен, а количество параметров достаточно для его выполнения.
+     */
+    boolean isValid() {
+        if (holdMode && actionId != 1 && actionId != 2 && actionId != 5) {
+            return false;
+        }
+        switch (actionId) {
+            case 1:
+            case 2:
+            case 4:
+                return params.size() >= 1;
+            case 3:
+                return params.size() >= 2;
+            case 5:
+                return params.size() >= 1 && params.get(0) >= 0 && params.size() > params.get(0);
+            case 6:
+                return true;
+            case MACRO_ACTION_ID:
+                return MacroEngine.isValidProgram(macroProgram);
+            default:
+                return false;
         }
-        robot.mousePress(mouseKeyMask);
-        robot.mouseRelease(mouseKeyMask);
     }
 
     /**
-     * Виртуально нажимает и тут же отпускает клавишу, записанную в параметрах к действию
+     * @return true, если действие перемещает курсор или прокручивает колесо мыши, и его можно объединять с повторами.
+     */
+    boolean isMotionAction() {
+        return (actionId == 3 && params.size() >= 2) || (actionId == 4 && params.size() >= 1);
+    }
+
+    /**
+     * @return Скомпилированная форма действия, которую следует передавать исполнителю.
+     */
+    CompiledAction getCompiledAction() {
+        return compiledAction;
+    }
+
+    /**
+     * @return Программа макроса: поведение при повторном нажатии и шаги (см. <code>MacroEngine</code>), либо null,
+     * если действие - не макрос. Массив общий и не должен изменяться.
+     */
+    int[] getMacroProgram() {
+        return macroProgram;
+    }
+
+    /**
+     * @return Поведение макроса при повторном нажатии во время его выполнения, одна из констант <code>MacroEngine.POLICY_*</code>.
+     */
+    int getMacroPolicy() {
+        return macroProgram[0];
+    }
+
+    /**
+     * @return Сдвиг курсора по горизонтали для действия "сдвинуть курсор", либо 0.
+     */
+    int getMotionX() {
+        return actionId == 3 ? params.get(0) : 0;
+    }
+
+    /**
+     * @return Сдвиг курсора по вертикали для действия "сдвинуть курсор", либо 0.
+     */
+    int getMotionY() {
+        return actionId == 3 ? params.get(1) : 0;
+    }
+
+    /**
+     * @return Количество шагов прокрутки для действия "прокрутить колесо мыши", либо 0.
+     */
+    int getWheelSteps() {
+        return actionId == 4 ? params.get(0) : 0;
+    }
+
+    /**
+     * Вычисляет множитель перемещения в зависимости от длительности удержания кнопки.
+     * Множитель линейно растёт на <code>acceleration</code> процентов в секунду, но не превышает <code>maxAcceleration</code> процентов.
      *
-     * @param robot Экземпляр класса Robot, с помощью которого будет осуществляться дуйствие в системе.
+     * @param holdMillis Длительность удержания кнопки в миллисекундах
+     * @return Множитель перемещения, не меньший единицы.
      */
-    private void runAction_oneKeyPress(Robot robot) {
-        robot.keyPress(params.get(0));
-        robot.keyRelease(params.get(0));
+    double getAccelerationMultiplier(long holdMillis) {
+        if (accelerationPercentPerSecond <= 0) {
+            return 1;
+        }
+        double percent = 100 + accelerationPercentPerSecond * holdMillis / 1000.0;
+        return Math.min(percent, maxAccelerationPercent) / 100.0;
     }
 
     /**
@@ -329,10 +651,38 @@ class KeyPressedAction {
     }*/
 
     /**
-     * @return Время последнего нажатия данной клавиши
+     * @return Ограничитель частоты срабатывания действия, либо null, если частота не ограничена.
+     */
+    TokenBucket getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return Время пополнения корзины ограничителя частоты, заданное в секции, либо -1, если используется минимальный интервал между нажатиями.
+     */
+    int getRateIntervalMillis() {
+        return rateIntervalMillis;
+    }
+
+    /**
+     * @return Ёмкость корзины ограничителя частоты.
      */
-    long getLastPressedTime() {
-        return lastPressedTime;
+    int getRateBurst() {
+        return rateBurst;
+    }
+
+    /**
+     * Учитывает нажатие, отброшенное ограничителем частоты.
+     */
+    void recordDropped() {
+        droppedEventsCount.incrementAndGet();
+    }
+
+    /**
+     * @return Количество нажатий, отброшенных ограничителями частоты.
+     */
+    long getDroppedEventsCount() {
+        return droppedEventsCount.get();
     }
 
     /**
@@ -341,7 +691,7 @@ class KeyPressedAction {
      * @return Секция INI - файла в виде экземпляра INISettingsSection.
      */
     INISettingsSection getSettingsSection() {
-        INISettingsSection newSection = new INISettingsSection(keyCode);
+        INISettingsSection newSection = new INISettingsSection(getBindingName());
         try {
             newSection.addField(new INISettingsRecord("actionId", "" + actionId));
             newSection.addField(new INISettingsRecord("minPressInterval", "" + minimalIntervalBetweenNextPress));
@@ -349,15 +699,113 @@ class KeyPressedAction {
             for (int i = 0; i < params.size(); i++) {
                 newSection.addField(new INISettingsRecord("param_" + i, "" + params.get(i)));
             }
+            if (accelerationPercentPerSecond > 0) {
+                newSection.addField(new INISettingsRecord("acceleration", "" + accelerationPercentPerSecond));
+                newSection.addField(new INISettingsRecord("maxAcceleration", "" + maxAccelerationPercent));
+            }
+            if (holdMode) {
+                newSection.addField(new INISettingsRecord("mode", "hold"));
+            }
+            if (rateIntervalMillis >= 0) {
+                newSection.addField(new INISettingsRecord("rateInterval", "" + rateIntervalMillis));
+                newSection.addField(new INISettingsRecord("rateBurst", "" + rateBurst));
+            }
         } catch (AlreadyExistsException ignored) {
         }
         return newSection;
     }
 
+    /**
+     * @return Код действия
+     */
+    int getActionId() {
+        return actionId;
+    }
+
+    /**
+     * @return Количество параметров действия
+     */
+    int getParamsCount() {
+        return params.size();
+    }
+
+    /**
+     * @param index Номер параметра
+     * @return Значение параметра с номером <code>index</code>
+     */
+    int getParam(int index) {
+        return params.get(index);
+    }
+
+    /**
+     * @return Ускорение при удержании кнопки в процентах в секунду, либо 0, если ускорение не задано.
+     */
+    int getAccelerationPercentPerSecond() {
+        return accelerationPercentPerSecond;
+    }
+
+    /**
+     * @return Максимальная скорость перемещения относительно начальной в процентах.
+     */
+    int getMaxAccelerationPercent() {
+        return maxAccelerationPercent;
+    }
+
+    /**
+     * @return Имя привязки в том виде, в котором оно записывается в имени секции INI - файла,
+     * например <code>4FBB24D:double_tap</code>, <code>COM3/4FBB24D</code> или <code>vlc|4FBB24D</code>.
+     */
+    String getBindingName() {
+        String scope = (layer != null ? layer + BindingLayer.BINDING_SEPARATOR : "") + (receiverScope != null ? receiverScope + "/" : "");
+        switch (gesture) {
+            case RAW:
+                return scope + IR_frameDecoder.codeToHex(keyCode);
+            case CHORD:
+                return scope + IR_frameDecoder.codeToHex(chordPrefixCode) + "+" + IR_frameDecoder.codeToHex(keyCode);
+            default:
+                return scope + IR_frameDecoder.codeToHex(keyCode) + ":" + gesture.getSectionSuffix();
+        }
+    }
+
+    /**
+     * @return Название порта приёмника, к которому относится привязка, либо null, если она относится ко всем приёмникам.
+     */
+    String getReceiverScope() {
+        return receiverScope;
+    }
+
+    /**
+     * @return Название слоя привязок, к которому относится привязка, либо null, если она относится к основному слою.
+     */
+    String getLayer() {
+        return layer;
+    }
+
+    /**
+     * @return true, если клавиша действия удерживается, пока удерживается кнопка ДУ.
+     */
+    boolean isHoldMode() {
+        return holdMode;
+    }
+
+    /**
+     * @return Жест, которым выполняется действие
+     */
+    Gesture getGesture() {
+        return gesture;
+    }
+
+    /**
+     * @return Код первой клавиши сочетания для жеста <code>CHORD</code>, либо 0.
+     */
+    long getChordPrefixCode() {
+        return chordPrefixCode;
+    }
+
     /**
      * @return Возвращает код клавиши, к которому привязано это действие
      */
-    String getKeyCode() {
+    long getKeyCode() {
         return keyCode;
     }
 }
@@ -0,0 +1,489 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Исполнение макросов - действий типа <code>KeyPressedAction.MACRO_ACTION_ID</code>, состоящих из последовательности шагов.
+ * Программа макроса хранится в параметрах действия: нулевой параметр - поведение при повторном нажатии
+ * (<code>POLICY_*</code>), далее - шаги, по три числа на шаг: операция (<code>OP_*</code>) и два её аргумента.
+ * <p>
+ * Шаги исполняются в потоке исполнителя <code>ActionExecutor</code>, вместе с остальными действиями и в общем
+ * с ними порядке. Исполнитель выполняет шаги макроса подряд до ближайшей паузы, а продолжение после паузы
+ * планируется в общем для всех макросов планировщике. Поэтому ожидающий макрос не занимает ни поток исполнителя,
+ * ни отдельный поток, и одновременно может выполняться сколько угодно макросов.
+ * <p>
+ * Клавиши, нажатые макросом и не отпущенные к его окончанию или отмене, отпускаются автоматически.
+ */
+class MacroEngine implements Closeable {
+
+    /**
+     * Нажать клавишу (код клавиши).
+     */
+    static final int OP_KEY_DOWN = 1;
+    /**
+     * Отпустить клавишу (код клавиши).
+     */
+    static final int OP_KEY_UP = 2;
+    /**
+     * Нажать и отпустить клавишу (код клавиши).
+     */
+    static final int OP_KEY_TAP = 3;
+    /**
+     * Сдвинуть курсор (сдвиг по горизонтали, сдвиг по вертикали).
+     */
+    static final int OP_MOUSE_MOVE = 4;
+    /**
+     * Нажать и отпустить клавишу мыши (1 - левая, 2 - правая, 3 - обе).
+     */
+    static final int OP_MOUSE_CLICK = 5;
+    /**
+     * Прокрутить колесо мыши (количество шагов).
+     */
+    static final int OP_WHEEL = 6;
+    /**
+     * Пауза (миллисекунд).
+     */
+    static final int OP_WAIT = 7;
+    /**
+     * Начало повторяемого блока (количество повторов, 0 - до отмены макроса).
+     */
+    static final int OP_REPEAT = 8;
+    /**
+     * Конец повторяемого блока.
+     */
+    static final int OP_END = 9;
+
+    /**
+     * Повторное нажатие останавливает выполняющийся макрос и запускает его заново.
+     */
+    static final int POLICY_RESTART = 0;
+    /**
+     * Повторное нажатие запускает макрос ещё раз после окончания выполняющегося.
+     */
+    static final int POLICY_QUEUE = 1;
+    /**
+     * Повторное нажатие останавливает выполняющийся макрос.
+     */
+    static final int POLICY_CANCEL = 2;
+    /**
+     * Повторное нажатие во время выполнения макроса игнорируется.
+     */
+    static final int POLICY_IGNORE = 3;
+
+    static final int MAX_REPEAT_DEPTH = 8;
+    static final int MAX_HELD_KEYS = 16;
+    private static final long STALL_CHECK_MILLIS = 1000;
+
+    private static final int STATE_SUBMITTED = 0;
+    private static final int STATE_WAITING = 1;
+    private static final int STATE_FINISHED = 2;
+
+    /**
+     * Одно выполнение макроса. Состояние программы изменяется только в потоке исполнителя.
+     */
+    private final class Run implements InjectionTask {
+        final KeyPressedAction action;
+        final int[] program;
+        final int[] repeatStarts = new int[MAX_REPEAT_DEPTH];
+        final int[] repeatsLeft = new int[MAX_REPEAT_DEPTH];
+        final int[] heldKeys = new int[MAX_HELD_KEYS];
+        final AtomicInteger state = new AtomicInteger(STATE_SUBMITTED);
+        int position = 1;
+        int repeatDepth = 0;
+        int heldKeysCount = 0;
+        volatile int executedSegmentsCount = 0;
+        volatile boolean cancelled = false;
+
+        Run(KeyPressedAction action) {
+            this.action = action;
+            this.program = action.getMacroProgram();
+        }
+
+        /**
+         * Выполняет шаги макроса до ближайшей паузы или до конца программы.
+         *
+         * @param injector Объект, с помощью которого будет осуществляться действие в системе.
+         */
+        @Override
+        public void execute(InputInjector injector) {
+            if (state.get() != STATE_SUBMITTED) {
+                return; // Повторная постановка после проверки зависания, а задача всё же была исполнена
+            }
+            executedSegmentsCount++;
+            while (position < program.length && !cancelled) {
+                int operation = program[position];
+                int first = program[position + 1];
+                int second = program[position + 2];
+                position += 3;
+                switch (operation) {
+                    case OP_KEY_DOWN:
+                        injector.keyPress(first);
+                        hold(first);
+                        break;
+                    case OP_KEY_UP:
+                        injector.keyRelease(first);
+                        release(first);
+                        break;
+                    case OP_KEY_TAP:
+                        injector.keyPress(first);
+                        injector.keyRelease(first);
+                        break;
+                    case OP_MOUSE_MOVE:
+                        injector.mouseMoveBy(first, second);
+                        break;
+                    case OP_MOUSE_CLICK:
+                        int mouseKeyMask = KeyPressedAction.getMouseKeyMask(first);
+                        injector.mousePress(mouseKeyMask);
+                        injector.mouseRelease(mouseKeyMask);
+                        break;
+                    case OP_WHEEL:
+                        injector.mouseWheel(first);
+                        break;
+                    case OP_WAIT:
+                        if (first > 0) {
+                            state.set(STATE_WAITING);
+                            scheduler.schedule(this::resume, first, TimeUnit.MILLISECONDS);
+                            return;
+                        }
+                        break;
+                    case OP_REPEAT:
+                        repeatStarts[repeatDepth] = position;
+                        repeatsLeft[repeatDepth] = first;
+                        repeatDepth++;
+                        break;
+                    case OP_END:
+                        if (repeatsLeft[repeatDepth - 1] == 0 || --repeatsLeft[repeatDepth - 1] > 0) {
+                            position = repeatStarts[repeatDepth - 1];
+                        } else {
+                            repeatDepth--;
+                        }
+                        break;
+                }
+            }
+            for (int i = heldKeysCount - 1; i >= 0; i--) {
+                injector.keyRelease(heldKeys[i]);
+            }
+            heldKeysCount = 0;
+            state.set(STATE_FINISHED);
+            finished(this);
+        }
+
+        private void hold(int keyCode) {
+            for (int i = 0; i < heldKeysCount; i++) {
+                if (heldKeys[i] == keyCode) {
+                    return;
+                }
+            }
+            if (heldKeysCount < heldKeys.length) {
+                heldKeys[heldKeysCount++] = keyCode;
+            }
+        }
+
+        private void release(int keyCode) {
+            for (int i = 0; i < heldKeysCount; i++) {
+                if (heldKeys[i] == keyCode) {
+                    heldKeys[i] = heldKeys[--heldKeysCount];
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Ставит продолжение макроса в очередь исполнителя, если макрос ожидает окончания паузы.
+         */
+        void resume() {
+            if (state.compareAndSet(STATE_WAITING, STATE_SUBMITTED)) {
+                submit();
+            }
+        }
+
+        /**
+         * Ставит макрос в очередь исполнителя и планирует проверку: если задача была вытеснена из переполненной
+         * очереди и так и не исполнилась, она ставится снова - иначе нажатые макросом клавиши могли бы "залипнуть".
+         */
+        void submit() {
+            int segmentsCount = executedSegmentsCount;
+            executor.submit(this);
+            scheduler.schedule(() -> {
+                if (state.get() == STATE_SUBMITTED && executedSegmentsCount == segmentsCount) {
+                    resubmittedCount.incrementAndGet();
+                    submit();
+                }
+            }, STALL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Останавливает макрос. Нажатые им клавиши будут отпущены в потоке исполнителя.
+         */
+        void cancel() {
+            cancelled = true;
+            resume();
+        }
+    }
+
+    private final ActionExecutor executor;
+    private final ScheduledExecutorService scheduler;
+    private final int maxQueuedRuns;
+    private final HashMap<KeyPressedAction, Run> runs = new HashMap<>();
+    private final HashMap<KeyPressedAction, Integer> queuedRuns = new HashMap<>();
+    private final AtomicInteger resubmittedCount = new AtomicInteger();
+    private long startedCount = 0;
+    private long cancelledCount = 0;
+    private long queuedCount = 0;
+    private long ignoredCount = 0;
+
+    /**
+     * Конструктор. Запускает поток планировщика.
+     *
+     * @param executor      Исполнитель, в потоке которого выполняются шаги макросов
+     * @param maxQueuedRuns Сколько повторных запусков макроса с поведением <code>POLICY_QUEUE</code> может ожидать в очереди
+     */
+    MacroEngine(ActionExecutor executor, int maxQueuedRuns) {
+        this.executor = executor;
+        this.maxQueuedRuns = maxQueuedRuns;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "IR macro scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Создаёт исполнитель макросов с длиной очереди запусков из системного свойства <code>ir.macro.maxQueued</code> (по умолчанию 4).
+     *
+     * @param executor Исполнитель, в потоке которого выполняются шаги макросов
+     * @return Исполнитель макросов
+     */
+    static MacroEngine createDefault(ActionExecutor executor) {
+        return new MacroEngine(executor, Integer.getInteger("ir.macro.maxQueued", 4));
+    }
+
+    /**
+     * Запускает макрос. Если этот макрос уже выполняется, поступает в соответствии с его поведением при повторном нажатии.
+     * Задачи ставятся в очередь исполнителя вне блокировки: при переполненной очереди исполнитель может
+     * заблокировать вызывающий поток, а сам он в это время может ожидать блокировку в <code>finished()</code>.
+     *
+     * @param action Действие - макрос
+     */
+    void start(KeyPressedAction action) {
+        Run cancelled = null;
+        Run launched = null;
+        synchronized (this) {
+            Run running = runs.get(action);
+            if (running == null) {
+                launched = register(action);
+            } else {
+                switch (action.getMacroPolicy()) {
+                    case POLICY_RESTART:
+                        cancelled = running;
+                        launched = register(action);
+                        break;
+                    case POLICY_QUEUE:
+                        int queued = queuedRuns.getOrDefault(action, 0);
+                        if (queued < maxQueuedRuns) {
+                            queuedRuns.put(action, queued + 1);
+                            queuedCount++;
+                        } else {
+                            ignoredCount++;
+                        }
+                        break;
+                    case POLICY_CANCEL:
+                        cancelled = running;
+                        queuedRuns.remove(action);
+                        break;
+                    default:
+                        ignoredCount++;
+                        break;
+                }
+            }
+            if (cancelled != null) {
+                cancelled.cancelled = true;
+                cancelledCount++;
+            }
+        }
+        // Отмена ставится в очередь исполнителя раньше нового запуска, поэтому клавиши будут отпущены до него
+        if (cancelled != null) {
+            cancelled.resume();
+        }
+        if (launched != null) {
+            launched.submit();
+        }
+    }
+
+    /**
+     * @param action Действие - макрос
+     * @return Новый запуск макроса, ещё не поставленный в очередь исполнителя.
+     */
+    private Run register(KeyPressedAction action) {
+        Run run = new Run(action);
+        runs.put(action, run);
+        startedCount++;
+        return run;
+    }
+
+    /**
+     * Вызывается в потоке исполнителя по окончании макроса. Запускает следующий запуск из очереди, если он есть.
+     * Новый запуск ставится в очередь исполнителя потоком планировщика, так как поток исполнителя
+     * не может ждать освобождения места в собственной очереди.
+     *
+     * @param run Закончившийся макрос
+     */
+    private synchronized void finished(Run run) {
+        if (runs.get(run.action) != run) {
+            return; // Макрос был перезапущен, и выполняется уже новый запуск
+        }
+        runs.remove(run.action);
+        Integer queued = queuedRuns.remove(run.action);
+        if (queued != null && !run.cancelled) {
+            if (queued > 1) {
+                queuedRuns.put(run.action, queued - 1);
+            }
+            scheduler.execute(register(run.action)::submit);
+        }
+    }
+
+    /**
+     * Проверяет программу макроса: количество чисел, известные операции и допустимые аргументы, парность блоков
+     * повтора и их вложенность. Бесконечный блок повтора обязан содержать паузу, иначе он занял бы исполнитель навсегда.
+     *
+     * @param program Программа макроса: поведение при повторном нажатии и шаги
+     * @return true, если программа корректна.
+     */
+    static boolean isValidProgram(int[] program) {
+        if (program.length < 4 || (program.length - 1) % 3 != 0 || program[0] < POLICY_RESTART || program[0] > POLICY_IGNORE) {
+            return false;
+        }
+        int[] repeatCounts = new int[MAX_REPEAT_DEPTH];
+        boolean[] repeatHasWait = new boolean[MAX_REPEAT_DEPTH];
+        int depth = 0;
+        ArrayList<Integer> heldKeys = new ArrayList<>();
+        for (int i = 1; i < program.length; i += 3) {
+            int first = program[i + 1];
+            switch (program[i]) {
+                case OP_KEY_DOWN:
+                case OP_KEY_UP:
+                case OP_KEY_TAP:
+                    if (first <= 0) {
+                        return false;
+                    }
+                    if (program[i] == OP_KEY_DOWN && !heldKeys.contains(first)) {
+                        heldKeys.add(first);
+                    }
+                    break;
+                case OP_MOUSE_CLICK:
+                    if (first < 1 || first > 3) {
+                        return false;
+                    }
+                    break;
+                case OP_MOUSE_MOVE:
+                case OP_WHEEL:
+                    break;
+                case OP_WAIT:
+                    if (first < 0) {
+                        return false;
+                    }
+                    if (first > 0 && depth > 0) {
+                        repeatHasWait[depth - 1] = true;
+                    }
+                    break;
+                case OP_REPEAT:
+                    if (first < 0 || depth == MAX_REPEAT_DEPTH) {
+                        return false;
+                    }
+                    repeatCounts[depth] = first;
+                    repeatHasWait[depth] = false;
+                    depth++;
+                    break;
+                case OP_END:
+                    if (depth == 0) {
+                        return false;
+                    }
+                    depth--;
+                    if (repeatCounts[depth] == 0 && !repeatHasWait[depth]) {
+                        return false;
+                    }
+                    if (depth > 0) {
+                        repeatHasWait[depth - 1] |= repeatHasWait[depth];
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return depth == 0 && heldKeys.size() <= MAX_HELD_KEYS;
+    }
+
+    /**
+     * @return Количество выполняющихся макросов.
+     */
+    synchronized int getRunningCount() {
+        return runs.size();
+    }
+
+    /**
+     * @return Количество запусков макросов.
+     */
+    synchronized long getStartedCount() {
+        return startedCount;
+    }
+
+    /**
+     * @return Количество макросов, остановленных повторным нажатием.
+     */
+    synchronized long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     * @return Количество запусков, поставленных в очередь за выполняющимся макросом.
+     */
+    synchronized long getQueuedCount() {
+        return queuedCount;
+    }
+
+    /**
+     * @return Количество нажатий, проигнорированных во время выполнения макроса (в том числе из-за переполнения очереди запусков).
+     */
+    synchronized long getIgnoredCount() {
+        return ignoredCount;
+    }
+
+    /**
+     * @return Количество повторных постановок шагов, вытесненных из очереди исполнителя.
+     */
+    long getResubmittedCount() {
+        return resubmittedCount.get();
+    }
+
+    /**
+     * Останавливает все макросы и ждёт (не более полсекунды), пока исполнитель отпустит нажатые ими клавиши.
+     * Должен вызываться до остановки исполнителя.
+     */
+    @Override
+    public void close() {
+        ArrayList<Run> running;
+        synchronized (this) {
+            queuedRuns.clear();
+            running = new ArrayList<>(runs.values());
+        }
+        for (Run run : running) {
+            run.cancel();
+        }
+        long deadline = System.currentTimeMillis() + 500;
+        for (Run run : running) {
+            while (run.state.get() != STATE_FINISHED && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        scheduler.shutdownNow();
+    }
+}
@@ -1,12 +1,16 @@
 import jssc.SerialPortList;
 import utils.ConsoleUtils;
-import utils.iniSettings.INISettings;
-import utils.iniSettings.INISettingsSection;
+import utils.TimerWheel;
+import utils.TokenBucket;
 import utils.iniSettings.exceptions.IniSettingsException;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Основная часть программы. Работает с пользователем, обрабатывает нажатия клавиш на пульте ДУ,
@@ -15,32 +19,70 @@ public class Main implements ButtonPressedEventListener {
 
 
     final private static String KEY_ACTIONS_SETTINGS_FILE = "actions.ini";
+    final private static String CONNECTION_SETTINGS_FILE = "connection.ini";
     final private static long MAX_CONNECTION_WAIT_TIMEOUT = 3000;
+    final private static boolean MULTI_RECEIVER = Boolean.getBoolean("ir.multiReceiver");
+    final private static boolean SIMULATION = Boolean.getBoolean("ir.simulation");
+    final private static ModuleDiscovery MODULE_DISCOVERY = SIMULATION
+            ? new ModuleDiscovery(() -> new String[]{"SIMULATED"}, portName -> new IR_moduleConnection(new SimulatedIR_module(portName)), null)
+            : new ModuleDiscovery(CONNECTION_SETTINGS_FILE);
     final private static String HELP_STR = "help - показать эту справку\n" +
             "enter - привязать определённую клавишу к действию\n" +
             "reconnect - закрыть текущее подключение, и заново запустить поиск устройств\n" +
             "toggle speaker - включить/выключить звуковой сигнал при нажатии кнопки\n" +
+            "rate stats - показать количество нажатий, отброшенных ограничением частоты\n" +
+            "ports - показать статистику событий и обработчиков по каждому приёмнику\n" +
+            "health - показать состояние связи с приёмниками и статистику переподключений\n" +
+            "stats - показать время обработки событий по стадиям и счётчики\n" +
+            "layers - показать слои привязок, активное окно и активные слои\n" +
+            "layer <название> - включить/выключить слой - режим\n" +
             "exit - выйти из приложения";
-    private final ArrayList<KeyPressedAction> keyPressedActions = new ArrayList<>();
+    private final Object bindingsLock = new Object();
+    private volatile BindingTable bindings = BindingTable.EMPTY;
+    private volatile BindingTable activeBindings = BindingTable.EMPTY;
+    private final ArrayList<String> modeLayers = new ArrayList<>();
+    private String contextLayer = null;
+    private final ActiveWindowPoller windowPoller = ActiveWindowPoller.createDefault(this::activeWindowChanged);
+    private final BindingStore bindingStore = new BindingStore(KEY_ACTIONS_SETTINGS_FILE);
+    private final ActionExecutor actionExecutor = ActionExecutor.createDefault();
+    private final MotionCoalescer motionCoalescer = MotionCoalescer.createDefault(actionExecutor);
+    private final TimerWheel timerWheel = new TimerWheel("IR timer wheel", 5, 512);
+    private final ActionRateLimiter rateLimiter = ActionRateLimiter.createDefault();
+    private final HoldController holdController = HoldController.createDefault(actionExecutor, timerWheel);
+    private final MacroEngine macroEngine = MacroEngine.createDefault(actionExecutor);
+    private final ConcurrentHashMap<String, GestureRecognizer> gestureRecognizers = new ConcurrentHashMap<>();
+    private final ConnectionManager connectionManager = ConnectionManager.createDefault(this);
+    private ConnectionSupervisor connectionSupervisor = null;
+    private ProfileReloader profileReloader = null;
     private boolean enableSignal = false;
-    private String lastKeyPressed = "";
 
     private Main() {
-        INISettings settings = new INISettings();
+        PipelineMetrics.registerMBean();
         try {
-            settings.loadFromFile(KEY_ACTIONS_SETTINGS_FILE);
-            for (INISettingsSection currentSection : settings.getSections()) {
-                keyPressedActions.add(new KeyPressedAction(currentSection));
-            }
+            reloadBindings();
         } catch (IniSettingsException e) {
-            System.err.println("Ошибка интерпретации файла настроек");
+            System.err.println("Ошибка интерпретации файла настроек" + (e.getMessage() != null ? ": " + e.getMessage() : ""));
         } catch (IOException ignored) {
             System.err.println("Ошибка чтения файла настроек");
         }
+        try {
+            profileReloader = new ProfileReloader(Paths.get(KEY_ACTIONS_SETTINGS_FILE), () -> {
+                if (!bindingStore.isSnapshotChanged()) {
+                    return false; // Файл записан самим хранилищем при сворачивании журнала
+                }
+                reloadBindings();
+                System.out.println("Профиль привязок перезагружен, привязок: " + bindings.size());
+                return true;
+            });
+        } catch (IOException e) {
+            System.err.println("Отслеживание изменений файла настроек недоступно: " + e.getMessage());
+        }
         printAvailablePorts();
-        IR_moduleConnection ir_module = findAndConnectToTheModule();
-        ir_module.attachButtonEventListener(this);
-        runMenu(ir_module, settings);
+        connectModules();
+        connectionSupervisor = SIMULATION
+                ? ConnectionSupervisor.createDefault(connectionManager, () -> new String[]{"SIMULATED"}, SimulatedIR_module::new)
+                : ConnectionSupervisor.createDefault(connectionManager);
+        runMenu();
     }
 
     public static void main(String[] args) throws InterruptedException {
@@ -48,61 +90,55 @@ public class Main implements ButtonPressedEventListener {
     }
 
     /**
-     * Добавляет объект <code>KeyPressedAction</code> в список действий <code>actionsList</code>,
-     * причём так, чтобы действие на одну и ту же клавишу не повторялось.
+     * Метод сканирует все com - порты системы на предмет наличия в них модуля инфракрасного приёмника, а найдя
+     * автоматически подключается к нему и возвращает экземпляр класса <code>IR_moduleConnection</code>.
+     * Порты опрашиваются одновременно, см. <code>ModuleDiscovery</code>.
      *
-     * @param action      Действие, которое необходимо добавить в список
-     * @param actionsList Список действий.
+     * @return Экземпляр класса <code>IR_moduleConnection</code>, являющийся обработчиком данных именно с этого модуля.
      */
-    private static void addButtonPressedActionIntoList(KeyPressedAction action, ArrayList<KeyPressedAction> actionsList) {
-        removePressedActionFromList(action, actionsList);
-        actionsList.add(action);
+    private static IR_moduleConnection findAndConnectToTheModule() {
+        IR_moduleConnection ir_moduleConnection = null;
+        System.out.println("Поиск и подключение...");
+        while (ir_moduleConnection == null) {
+            ir_moduleConnection = MODULE_DISCOVERY.discover(MAX_CONNECTION_WAIT_TIMEOUT);
+            if (ir_moduleConnection == null) {
+                delayMs(100);
+            }
+        }
+        System.out.println("Устройство найдено и готово к работе!\nПорт: " + ir_moduleConnection.getPortName());
+        return ir_moduleConnection;
     }
 
     /**
-     * Удаляет действие с таким же кодом клавиши, что и у <code>action</code> из списка <code>actionsList</code>.
+     * Метод сканирует все com - порты системы и подключается ко всем модулям, ответившим на опрос.
+     * Повторяет поиск, пока не будет найден хотя бы один модуль.
      *
-     * @param action      Действие, код клавиши которого будет использован для поиска
-     * @param actionsList Список действий, в котором будет произведён поиск.
+     * @return Подключения к найденным модулям
      */
-    private static void removePressedActionFromList(KeyPressedAction action, ArrayList<KeyPressedAction> actionsList) {
-        for (KeyPressedAction selectedAction : actionsList) {
-            if (action.getKeyCode().equals(selectedAction.getKeyCode())) {
-                actionsList.remove(selectedAction);
-                break;
-            }
+    private static List<IR_moduleConnection> findAndConnectToAllModules() {
+        List<IR_moduleConnection> connections;
+        System.out.println("Поиск и подключение...");
+        while ((connections = MODULE_DISCOVERY.discoverAll(MAX_CONNECTION_WAIT_TIMEOUT)).isEmpty()) {
+            delayMs(100);
+        }
+        for (IR_moduleConnection connection : connections) {
+            System.out.println("Устройство найдено и готово к работе!\nПорт: " + connection.getPortName());
         }
+        return connections;
     }
 
     /**
-     * Метод сканирует все com - порты системы на предмет наличия в них модуля инфракрасного приёмника, а найдя
-     * автоматически подключается к нему и возвращает экземпляр класса <code>IR_moduleConnection</code>.
-     *
-     * @return Экземпляр класса <code>IR_moduleConnection</code>, являющийся обработчиком данных именно с этого модуля.
+     * Подключается к модулю (или, если задано системное свойство <code>ir.multiReceiver</code>, ко всем найденным модулям)
+     * и передаёт подключения менеджеру подключений.
      */
-    private static IR_moduleConnection findAndConnectToTheModule() {
-        IR_moduleConnection ir_moduleConnection = null;
-        System.out.println("Поиск и подключение...");
-        while (ir_moduleConnection == null) {
-            if (SerialPortList.getPortNames().length > 0) {
-                for (String selectedPort : SerialPortList.getPortNames()) {
-                    long connection_startedTime = System.currentTimeMillis();
-                    ir_moduleConnection = new IR_moduleConnection(selectedPort);
-                    while (System.currentTimeMillis() - connection_startedTime < MAX_CONNECTION_WAIT_TIMEOUT
-                            && !ir_moduleConnection.isConnected()) {
-                        delayMs(100); //Ждём до тех пор, пока не будет осуществлено подключение, либо пока не выйдет время.
-                    }
-                    if (ir_moduleConnection.isConnected()) {
-                        System.out.println("Устройство найдено и готово к работе!\nПорт: " + ir_moduleConnection.getSerialPort().getPortName());
-                        break;
-                    } else {
-                        ir_moduleConnection.close();
-                        ir_moduleConnection = null;
-                    }
-                }
+    private void connectModules() {
+        if (MULTI_RECEIVER) {
+            for (IR_moduleConnection connection : findAndConnectToAllModules()) {
+                connectionManager.add(connection);
             }
+        } else {
+            connectionManager.add(findAndConnectToTheModule());
         }
-        return ir_moduleConnection;
     }
 
     /**
@@ -111,19 +147,20 @@ public class Main implements ButtonPressedEventListener {
      * В случае, если пользователь ошибся, данные будут запрошены снова.
      *
      * @param ir_module Модуль инфракрасного приёмника, с которого требуется считать код нажатой клавиши
-     * @return Код нажатой клавиши в шестнадцатиричной форме
+     * @return Код нажатой клавиши
+     * @throws CancellationException В случае, если ожидание нажатия было прервано.
      */
-    private static String askForChoseKey(IR_moduleConnection ir_module) {
+    private static long askForChoseKey(IR_moduleConnection ir_module) throws CancellationException {
         boolean isValid;
-        String buttonGettedCode;
+        long buttonGettedCode;
         do {
             ir_module.playSignal(ir_module.melody_doubleSignal);
             System.out.println("Нажмите клавишу на пульте дистанционного управления...");
             buttonGettedCode = getPressedKey(ir_module);
-            System.out.println("Код клавиши получен: " + buttonGettedCode + "\n" +
+            System.out.println("Код клавиши получен: " + IR_frameDecoder.codeToHex(buttonGettedCode) + "\n" +
                     "Повторите нажатие для подтверждения действия...");
             ir_module.pauseReceivingFor(300);
-            isValid = getPressedKey(ir_module).equals(buttonGettedCode);
+            isValid = getPressedKey(ir_module) == buttonGettedCode;
             if (!isValid) {
                 System.out.println("Ошибка! Полученный код клавиши отличается от первоначального. Повторите попытку.\n\n");
             }
@@ -134,37 +171,37 @@ public class Main implements ButtonPressedEventListener {
         return buttonGettedCode;
     }
 
-
-    /*
-     * Метод переводит обработчик модуля в режим ожидания нажатия, а затем записывает коды <code>inputLength</code> нажатых клавиш.
-     * Возвращает массив с кодами нажатых клавиш, размерность которого равна <code>inputLength</code>
+    /**
+     * Ожидает нажатия на клавишу ДУ, а после нажатия возвращает код нажатой клавиши.
      *
-     * @param ir_module    Модуль инфракрасного приёмника, с которого требуется считать код нажатых клавиш
-     * @param inputLength  Количество нажатий, которое необходимо считать
-     * @param delayBetween Задержка между началом приёма следующего нажатия
-     * @return Массив, содержащий коды нажатых клавиш в шестнадцатиричном виде, размер которого равен <code>inputLength</code>
+     * @param ir_module Модуль инфракрасного приёмника, с которого требуется считать код нажатой клавиши
+     * @return Код нажатой клавиши
+     * @throws CancellationException В случае, если ожидание было прервано.
      */
-   /* private static String[] freeInput(IR_moduleConnection ir_module, int inputLength, int delayBetween) {
-        String[] pressedButtons = new String[inputLength];
-        for (int i = 0; i < inputLength; i++) {
-            pressedButtons[i] = getPressedKey(ir_module);
-            ir_module.pauseReceivingFor(delayBetween);
-        }
-        return pressedButtons;
-    }*/
+    private static long getPressedKey(IR_moduleConnection ir_module) throws CancellationException {
+        try {
+            return ir_module.awaitNextCode(0);
+        } catch (InterruptedException | TimeoutException e) {
+            throw new CancellationException();
+        }
+    }
 
     /**
-     * Переводит обработчик модуля в режим ожидания нажатия на клавишу, а после нажатия возвращает код нажатой клавиши.
+     * Спрашивает пользователя, каким жестом должно выполняться действие.
      *
-     * @param ir_module Модуль инфракрасного приёмника, с которого требуется считать код нажатой клавиши
-     * @return Код нажатой клавиши в шестнадцатиричной форме
+     * @return Выбранный жест
+     * @throws CancellationException В случае, если пользователь ввёл некорректный номер жеста.
      */
-    private static String getPressedKey(IR_moduleConnection ir_module) {
-        ir_module.turnToWaitToClickMode();
-        while (ir_module.isWaitingForClick()) {
-            delayMs(100); //Ждём до тех пор, пока юзер не нажмёт на кнопку на пульте
+    private static Gesture askForGesture() throws CancellationException {
+        String enteredStr = ConsoleUtils.getEnteredString("Выберите, когда будет выполняться действие: \n" + Gesture.getHelp() + "_> ");
+        if (enteredStr.isEmpty()) {
+            return Gesture.RAW;
+        }
+        try {
+            return Gesture.values()[Integer.parseInt(enteredStr.trim())];
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ignored) {
+            throw new CancellationException();
         }
-        return ir_module.getClickResult();
     }
 
     /**
@@ -196,22 +233,249 @@ public class Main implements ButtonPressedEventListener {
     }
 
     /**
-     * Выводит меню пользователя в консоль, и ждёт ввода определённой команды в практически бесконечном цикле.
+     * Выводит в консоль количество нажатий, отброшенных ограничением частоты, по каждой привязке и по типам действий.
+     */
+    private void printRateStats() {
+        boolean anyDropped = false;
+        for (KeyPressedAction action : bindings.values()) {
+            if (action.getDroppedEventsCount() > 0) {
+                anyDropped = true;
+                TokenBucket limiter = action.getRateLimiter();
+                System.out.println(action.getBindingName() + ": отброшено " + action.getDroppedEventsCount() +
+                        (limiter != null ? " (не чаще " + limiter.getBurst() + " за " + limiter.getIntervalMillis() + " мс)" : ""));
+            }
+        }
+        for (int actionId : rateLimiter.getLimitedActionIds()) {
+            if (rateLimiter.getTypeDroppedCount(actionId) > 0) {
+                anyDropped = true;
+                System.out.println("Тип действия " + actionId + ": отброшено " + rateLimiter.getTypeDroppedCount(actionId));
+            }
+        }
+        if (!anyDropped) {
+            System.out.println("Отброшенных нажатий нет");
+        }
+    }
+
+    /**
+     * Выводит в консоль статистику событий по каждому подключённому приёмнику и время работы обработчиков его событий.
+     */
+    private void printPortStats() {
+        for (ConnectionManager.PortStats stats : connectionManager.getPortStats()) {
+            System.out.println(stats);
+        }
+        for (IR_moduleConnection connection : connectionManager.getConnections()) {
+            SerialWriter writer = connection.getWriter();
+            System.out.println(connection.getPortName() + ": команд модулю записано " + writer.getWrittenCount() +
+                    ", отброшено " + writer.getDroppedCount() + ", наибольшее время записи " + writer.getMaxWriteMicros() + " мкс");
+            for (ButtonListenerRegistry.Registration registration : connection.getButtonEventListeners()) {
+                System.out.println(connection.getPortName() + " -> " + registration);
+            }
+        }
+    }
+
+    /**
+     * Выводит в консоль состояние связи с каждым приёмником и статистику его переподключений.
+     */
+    private void printConnectionHealth() {
+        for (ConnectionSupervisor.Health health : connectionSupervisor.getHealth()) {
+            System.out.println(health);
+        }
+    }
+
+    /**
+     * Выводит в консоль время обработки событий по стадиям, счётчики событий, статистику исполнителя действий,
+     * макросов и перезагрузок профиля.
+     */
+    private void printPipelineStats() {
+        System.out.print(PipelineMetrics.report());
+        System.out.println("Исполнитель: в очереди " + actionExecutor.getQueueDepth() + " (максимум " + actionExecutor.getMaxQueueDepth() +
+                "), отброшено " + actionExecutor.getDroppedCount() + ", объединено " + actionExecutor.getCoalescedCount() +
+                ", задержка в среднем " + actionExecutor.getAverageLatencyMicros() + " мкс, наибольшая " + actionExecutor.getMaxLatencyMicros() + " мкс");
+        System.out.println("Макросы: выполняется " + macroEngine.getRunningCount() + ", запущено " + macroEngine.getStartedCount() +
+                ", остановлено " + macroEngine.getCancelledCount() + ", поставлено в очередь " + macroEngine.getQueuedCount() +
+                ", проигнорировано нажатий " + macroEngine.getIgnoredCount());
+        if (profileReloader != null) {
+            System.out.println("Перезагрузок профиля: " + profileReloader.getReloadsCount() + ", неудачных " + profileReloader.getFailedReloadsCount() +
+                    ", пропущенных изменений " + profileReloader.getIgnoredChangesCount() +
+                    ", время последней перезагрузки " + profileReloader.getLastReloadLatencyMillis() + " мс");
+        }
+    }
+
+    /**
+     * Спрашивает пользователя, должна ли новая привязка действовать только для приёмника, с которого был получен код.
+     * Вопрос задаётся, только если подключено несколько приёмников.
      *
-     * @param ir_module Модуль инфракрасного приёмника, который будет использоваться для
-     * @param settings  INI - файл, в который будут добавлены новые действия.
+     * @param ir_module Модуль инфракрасного приёмника, с которого был получен код кнопки
+     * @return Название порта приёмника, либо null, если привязка должна действовать для всех приёмников.
      */
-    private void runMenu(IR_moduleConnection ir_module, INISettings settings) {
+    private String askForReceiverScope(IR_moduleConnection ir_module) {
+        if (connectionManager.size() < 2) {
+            return null;
+        }
+        String enteredStr = ConsoleUtils.getEnteredString("Привязать действие только к приёмнику " + ir_module.getPortName() + "? (y/n)\n_> ");
+        return enteredStr.trim().equalsIgnoreCase("y") ? ir_module.getPortName() : null;
+    }
+
+    /**
+     * Загружает привязки из хранилища и публикует новую таблицу привязок.
+     * Поток приёма данных продолжает пользоваться прежней таблицей до момента публикации и никогда не блокируется.
+     *
+     * @throws IOException          В случае ошибок чтения файлов.
+     * @throws IniSettingsException В случае, если файл настроек содержит некорректные привязки. Прежняя таблица сохраняется.
+     */
+    private void reloadBindings() throws IOException, IniSettingsException {
+        synchronized (bindingsLock) {
+            bindings = bindingStore.load();
+            if (windowPoller != null) {
+                contextLayer = bindings.findContextLayer(windowPoller.getWindowClass(), windowPoller.getWindowTitle());
+                windowPoller.setEnabled(bindings.hasContextLayers());
+            } else if (bindings.hasContextLayers()) {
+                System.err.println("Внимание: в профиле есть слои с условием на активное окно, но способ определения " +
+                        "активного окна для этой системы неизвестен, поэтому такие слои не будут включаться. " +
+                        "Задайте его системным свойством ir.layers.windowCommand или ir.layers.windowHelper");
+            }
+            updateActiveBindings();
+        }
+    }
+
+    /**
+     * Публикует таблицу привязок с наложенными активными слоями: сначала контекстным слоем активного окна,
+     * затем включёнными режимами в порядке включения. Вызывается под блокировкой <code>bindingsLock</code>
+     * при каждом изменении привязок или активных слоёв, поэтому при нажатии выполняется только поиск в готовой таблице.
+     */
+    private void updateActiveBindings() {
+        ArrayList<String> layers = new ArrayList<>(modeLayers.size() + 1);
+        if (contextLayer != null) {
+            layers.add(contextLayer);
+        }
+        layers.addAll(modeLayers);
+        activeBindings = bindings.forLayers(layers);
+    }
+
+    /**
+     * Обработчик смены активного окна. Вызывается в потоке опроса активного окна.
+     *
+     * @param windowClass Класс активного окна
+     * @param windowTitle Заголовок активного окна
+     */
+    private void activeWindowChanged(String windowClass, String windowTitle) {
+        synchronized (bindingsLock) {
+            String newContextLayer = bindings.findContextLayer(windowClass, windowTitle);
+            if (newContextLayer == null ? contextLayer != null : !newContextLayer.equals(contextLayer)) {
+                contextLayer = newContextLayer;
+                updateActiveBindings();
+            }
+        }
+    }
+
+    /**
+     * Включает или выключает слой - режим. Включённый последним режим перекрывает остальные слои.
+     *
+     * @param layer Название слоя
+     */
+    private void toggleModeLayer(String layer) {
+        synchronized (bindingsLock) {
+            if (bindings.isContextLayer(layer)) {
+                System.out.println("Слой " + layer + " включается по активному окну и не может быть включён вручную");
+                return;
+            }
+            if (modeLayers.remove(layer)) {
+                System.out.println("Слой " + layer + " выключен");
+            } else if (bindings.getBoundLayers().contains(layer)) {
+                modeLayers.add(layer);
+                System.out.println("Слой " + layer + " включен");
+            } else {
+                System.out.println("Слой " + layer + " не содержит привязок");
+                return;
+            }
+            updateActiveBindings();
+        }
+    }
+
+    /**
+     * Выводит в консоль описанные слои и слои, содержащие привязки, активное окно и активные слои.
+     */
+    private void printLayers() {
+        BindingTable table = bindings;
+        for (BindingLayer layer : table.getLayers()) {
+            System.out.println(layer.getName() + (layer.isContextLayer()
+                    ? ": класс окна \"" + (layer.getWindowClass() != null ? layer.getWindowClass() : "*") +
+                    "\", заголовок \"" + (layer.getWindowTitle() != null ? layer.getWindowTitle() : "*") + "\", приоритет " + layer.getPriority()
+                    : ": режим"));
+        }
+        for (String layer : table.getBoundLayers()) {
+            if (!isDescribedLayer(table, layer)) {
+                System.out.println(layer + ": режим");
+            }
+        }
+        if (windowPoller != null) {
+            System.out.println("Активное окно: " + windowPoller.getWindowClass() + " \"" + windowPoller.getWindowTitle() + "\"" +
+                    " (опросов " + windowPoller.getPollsCount() + ", неудачных " + windowPoller.getFailedPollsCount() +
+                    ", смен окна " + windowPoller.getChangesCount() + ")");
+        } else {
+            System.out.println("Определение активного окна недоступно, задайте команду свойством ir.layers.windowCommand");
+        }
+        List<String> active = activeBindings.getActiveLayers();
+        System.out.println("Активные слои: " + (active.isEmpty() ? "только основной" : String.join(", ", active)));
+    }
+
+    private static boolean isDescribedLayer(BindingTable table, String name) {
+        for (BindingLayer layer : table.getLayers()) {
+            if (layer.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Спрашивает пользователя, к какому слою относится новая привязка. Вопрос задаётся, только если в профиле есть слои.
+     *
+     * @return Название слоя, либо null, если привязка относится к основному слою.
+     */
+    private String askForLayer() {
+        if (bindings.getLayers().isEmpty() && bindings.getBoundLayers().isEmpty()) {
+            return null;
+        }
+        String enteredStr = ConsoleUtils.getEnteredString("Введите название слоя привязки (enter - основной слой)\n_> ").trim();
+        return enteredStr.isEmpty() || enteredStr.indexOf(BindingLayer.BINDING_SEPARATOR) >= 0 ? null : enteredStr;
+    }
+
+    /**
+     * Выводит меню пользователя в консоль, и ждёт ввода определённой команды в практически бесконечном цикле.
+     * Новые кнопки изучаются с первого подключённого модуля.
+     */
+    private void runMenu() {
         System.out.println("Доступные команды:\n" + HELP_STR);
-        while (ir_module != null) {
-            switch (ConsoleUtils.getEnteredString("\r_> ")) {
+        boolean running = true;
+        while (running) {
+            String command = ConsoleUtils.getEnteredString("\r_> ");
+            switch (command) {
                 case "":
-                    String buttonGettedCode = askForChoseKey(ir_module);
+                    List<IR_moduleConnection> connections = connectionManager.getConnections();
+                    if (connections.isEmpty()) {
+                        System.out.println("Нет подключённых приёмников. Установка действия невозможна");
+                        break;
+                    }
                     try {
-                        addButtonPressedActionIntoList(new KeyPressedAction(buttonGettedCode, ConsoleUtils.getEnteredString("Выберите действие при нажатии на данную кнопку: \n" + KeyPressedAction.HELP_ACTION_TYPES + "\n_>")), keyPressedActions);
+                        IR_moduleConnection ir_module = connections.get(0);
+                        long buttonGettedCode = askForChoseKey(ir_module);
+                        Gesture gesture = askForGesture();
+                        long chordPrefixCode = 0;
+                        if (gesture == Gesture.CHORD) {
+                            System.out.println("Теперь выберите вторую клавишу сочетания");
+                            chordPrefixCode = buttonGettedCode;
+                            buttonGettedCode = askForChoseKey(ir_module);
+                        }
+                        String receiverScope = askForReceiverScope(ir_module);
+                        String layer = askForLayer();
+                        KeyPressedAction newAction = new KeyPressedAction(buttonGettedCode, gesture, chordPrefixCode, receiverScope, layer, ConsoleUtils.getEnteredString("Выберите действие при нажатии на данную кнопку: \n" + KeyPressedAction.HELP_ACTION_TYPES + "\n_>"));
+                        synchronized (bindingsLock) {
+                            bindingStore.save(newAction.getSettingsSection());
+                            bindings = bindings.withAction(newAction);
+                            updateActiveBindings();
+                        }
                         System.out.println("Действие успешно привязано к данной кнопке.");
-                        settings.updateSection(keyPressedActions.get(keyPressedActions.size() - 1).getSettingsSection());
-                        settings.saveToFile(KEY_ACTIONS_SETTINGS_FILE);
                     } catch (CancellationException ignored) {
                         System.out.println("Установка действия была отменена");
                     } catch (IOException e) {
@@ -219,47 +483,138 @@ public class Main implements ButtonPressedEventListener {
                     }
                     break;
                 case "exit":
-                    ir_module.close();
-                    ir_module = null;
+                    connectionSupervisor.close();
+                    connectionManager.close();
+                    running = false;
+                    if (profileReloader != null) {
+                        try {
+                            profileReloader.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                    if (windowPoller != null) {
+                        windowPoller.close();
+                    }
+                    holdController.close();
+                    macroEngine.close();
+                    timerWheel.close();
+                    motionCoalescer.close();
+                    actionExecutor.close();
+                    bindingStore.close();
                     break;
                 case "reconnect":
-                    ir_module.close();
-                    ir_module = findAndConnectToTheModule();
-                    ir_module.attachButtonEventListener(this);
+                    connectionManager.closeConnections();
+                    connectModules();
                     break;
                 case "toggle speaker":
                     enableSignal = !enableSignal;
                     System.out.println(enableSignal ? "Сигнал включен" : "Сигнал выключен");
                     break;
+                case "rate stats":
+                    printRateStats();
+                    break;
+                case "ports":
+                    printPortStats();
+                    break;
+                case "health":
+                    printConnectionHealth();
+                    break;
+                case "stats":
+                    printPipelineStats();
+                    break;
+                case "layers":
+                    printLayers();
+                    break;
                 case "help":
                     System.out.println("Доступные команды:\n" + HELP_STR);
                     break;
                 default:
-                    System.out.println("Неверная команда");
+                    if (command.startsWith("layer ") && !command.substring(6).trim().isEmpty()) {
+                        toggleModeLayer(command.substring(6).trim());
+                    } else {
+                        System.out.println("Неверная команда");
+                    }
                     break;
             }
         }
     }
 
     /**
-     * Обработчик нажатия на кнопку ДУ.
+     * Обработчик нажатия на кнопку ДУ. Вызывается в потоке диспетчера менеджера подключений.
+     * Действие, привязанное к кнопке без жеста, выполняется на каждый принятый кадр, а в режиме удержания -
+     * передаётся контроллеру удержания. Если в таблице есть привязки
+     * к жестам, кадр также передаётся распознавателю жестов приёмника, у каждого приёмника он свой.
+     * Используются общие привязки, дополненные привязками приёмника, с которого пришёл кадр, с наложенными
+     * активными слоями - таблица для них уже построена, поэтому поиск не зависит от количества слоёв.
+     * Решение по каждому кадру попадает в запись сеанса, если она включена (см. <code>EventRecorder</code>).
      *
-     * @param buttonCode Шестнадцатиричный код клавиши, на которую нажал пользователь.
+     * @param buttonCode Код клавиши, на которую нажал пользователь.
      * @param ir_module  Модуль инфракрасного приёмника, на который поступил сигнал.
      */
     @Override
-    public void buttonPressed(String buttonCode, IR_moduleConnection ir_module) {
-        for (KeyPressedAction selectedAction : keyPressedActions) {
-            if (selectedAction.getKeyCode().equals(buttonCode)) {
-                if (!(lastKeyPressed.equals(buttonCode) && (System.currentTimeMillis() - selectedAction.getLastPressedTime()) < selectedAction.getMinimalIntervalBetweenNextPress())) {
-                    if (enableSignal) {
-                        ir_module.playSignal(ir_module.melody_standartSignal);
-                    }
-                    lastKeyPressed = buttonCode;
-                    selectedAction.runAction();
-                }
-                break;
+    public void buttonPressed(long buttonCode, IR_moduleConnection ir_module) {
+        long lookupStart = PipelineMetrics.start();
+        String portName = ir_module.getPortName();
+        BindingTable table = activeBindings.forReceiver(portName);
+        KeyPressedAction selectedAction = table.get(buttonCode);
+        long gestureStart = PipelineMetrics.record(PipelineMetrics.Stage.LOOKUP, lookupStart);
+        byte decision;
+        if (selectedAction == null) {
+            decision = table.isBound(buttonCode) ? EventRecorder.DECISION_GESTURE_ONLY : EventRecorder.DECISION_UNBOUND;
+            if (decision == EventRecorder.DECISION_UNBOUND) {
+                PipelineMetrics.increment(PipelineMetrics.Counter.UNKNOWN_CODES);
+            }
+        } else if (selectedAction.isHoldMode()) {
+            holdController.onFrame(selectedAction);
+            decision = EventRecorder.DECISION_HOLD;
+        } else if (rateLimiter.tryAcquire(selectedAction)) {
+            if (enableSignal) {
+                ir_module.playSignal(ir_module.melody_standartSignal);
             }
+            dispatch(selectedAction);
+            decision = EventRecorder.DECISION_SUBMITTED;
+        } else {
+            decision = EventRecorder.DECISION_RATE_LIMITED;
+        }
+        EventRecorder.dispatch(portName, buttonCode, PipelineMetrics.getEventStart(), decision);
+        if (table.hasGestureBindings()) {
+            gestureRecognizers.computeIfAbsent(portName, name -> GestureRecognizer.createDefault(timerWheel,
+                    () -> activeBindings.forReceiver(name),
+                    (keyCode, gesture, chordPrefixCode) -> gestureRecognized(name, keyCode, gesture, chordPrefixCode)))
+                    .onFrame(buttonCode);
+        }
+        PipelineMetrics.record(PipelineMetrics.Stage.GESTURE, gestureStart);
+    }
+
+    /**
+     * Обработчик распознанного жеста. Выполняет действие, привязанное к жесту, если оно есть.
+     *
+     * @param portName        Название порта приёмника, на котором был распознан жест
+     * @param keyCode         Код кнопки
+     * @param gesture         Распознанный жест
+     * @param chordPrefixCode Код первой кнопки сочетания для жеста <code>CHORD</code>, иначе 0
+     */
+    private void gestureRecognized(String portName, long keyCode, Gesture gesture, long chordPrefixCode) {
+        BindingTable table = activeBindings.forReceiver(portName);
+        KeyPressedAction selectedAction = gesture == Gesture.CHORD ? table.getChord(chordPrefixCode, keyCode) : table.getGesture(keyCode, gesture);
+        if (selectedAction != null && rateLimiter.tryAcquire(selectedAction)) {
+            dispatch(selectedAction);
+        }
+    }
+
+    /**
+     * Передаёт действие на исполнение: перемещения - стадии объединения, макросы - исполнителю макросов,
+     * остальные действия - исполнителю.
+     *
+     * @param action Действие
+     */
+    private void dispatch(KeyPressedAction action) {
+        if (action.getActionId() == KeyPressedAction.MACRO_ACTION_ID) {
+            macroEngine.start(action);
+        } else if (action.isMotionAction()) {
+            motionCoalescer.accumulate(action);
+        } else {
+            actionExecutor.submit(action.getCompiledAction());
         }
     }
 }
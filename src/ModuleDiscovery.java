@@ -0,0 +1,301 @@
+import jssc.SerialPortList;
+import utils.iniSettings.INISettings;
+import utils.iniSettings.INISettingsRecord;
+import utils.iniSettings.INISettingsSection;
+import utils.iniSettings.exceptions.IniSettingsException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Поиск модуля инфракрасного приёмника среди COM - портов системы.
+ * Все порты опрашиваются одновременно: каждый открывается в отдельном потоке, и первый порт, приславший
+ * сообщение о готовности (DEVICE_ACTIVE), становится результатом поиска, а остальные закрываются.
+ * Для работы с несколькими приёмниками одновременно <code>discoverAll()</code> дожидается ответа от всех портов
+ * и возвращает подключения ко всем найденным модулям.
+ * Имя порта, на котором модуль был найден в последний раз, сохраняется в файл. При следующем поиске этот порт
+ * опрашивается первым и в одиночку, с собственным временем ожидания (системное свойство
+ * <code>ir.discovery.cachedPortTimeoutMs</code>, по умолчанию 2500 мс), и только если модуль на нём не ответил,
+ * начинается одновременный опрос всех портов.
+ * Получение списка портов и открытие порта вынесены в интерфейсы, поэтому поиск можно проверить на имитации портов.
+ */
+class ModuleDiscovery {
+
+    private static final String CACHE_SECTION_NAME = "connection";
+    private static final String CACHE_LAST_PORT_KEY = "lastPort";
+
+    /**
+     * Источник списка COM - портов системы.
+     */
+    interface PortLister {
+        /**
+         * @return Названия всех доступных портов.
+         */
+        String[] getPortNames();
+    }
+
+    /**
+     * Способ открытия порта и подключения к модулю.
+     */
+    interface PortConnector {
+        /**
+         * Открывает порт и начинает ожидание ответа от устройства. Метод не должен ждать самого ответа.
+         *
+         * @param portName Название порта
+         * @return Подключение к порту
+         */
+        IR_moduleConnection connect(String portName);
+    }
+
+    private final PortLister portLister;
+    private final PortConnector portConnector;
+    private final String cacheFileName;
+    private final long cachedPortTimeoutMillis;
+    private volatile String lastPortName = null;
+
+    /**
+     * Конструктор.
+     *
+     * @param portLister    Источник списка портов
+     * @param portConnector Способ открытия порта
+     * @param cacheFileName           Файл, в котором хранится имя последнего успешно подключённого порта, либо null, если хранить его не нужно.
+     * @param cachedPortTimeoutMillis Максимальное время ожидания ответа от модуля на последнем успешно подключённом порту
+     */
+    ModuleDiscovery(PortLister portLister, PortConnector portConnector, String cacheFileName, long cachedPortTimeoutMillis) {
+        this.portLister = portLister;
+        this.portConnector = portConnector;
+        this.cacheFileName = cacheFileName;
+        this.cachedPortTimeoutMillis = cachedPortTimeoutMillis;
+        loadLastPortName();
+    }
+
+    /**
+     * Конструктор. Время ожидания ответа на последнем успешно подключённом порту берётся из системного свойства
+     * <code>ir.discovery.cachedPortTimeoutMs</code>.
+     *
+     * @param portLister    Источник списка портов
+     * @param portConnector Способ открытия порта
+     * @param cacheFileName Файл, в котором хранится имя последнего успешно подключённого порта, либо null, если хранить его не нужно.
+     */
+    ModuleDiscovery(PortLister portLister, PortConnector portConnector, String cacheFileName) {
+        this(portLister, portConnector, cacheFileName, Long.getLong("ir.discovery.cachedPortTimeoutMs", 2500));
+    }
+
+    /**
+     * Конструктор. Работает с реальными COM - портами системы.
+     *
+     * @param cacheFileName Файл, в котором хранится имя последнего успешно подключённого порта.
+     */
+    ModuleDiscovery(String cacheFileName) {
+        this(SerialPortList::getPortNames, IR_moduleConnection::new, cacheFileName);
+    }
+
+    /**
+     * Возвращает подключение к модулю. Сначала опрашивается только последний успешно подключённый порт,
+     * а если модуль на нём не ответил - все доступные порты одновременно, и результатом становится первый ответивший.
+     *
+     * @param timeoutMillis Максимальное время ожидания ответа от модуля при одновременном опросе портов
+     * @return Подключение к модулю, либо null, если ни один порт не ответил за отведённое время.
+     */
+    IR_moduleConnection discover(long timeoutMillis) {
+        String[] portNames = portLister.getPortNames();
+        if (portNames.length == 0) {
+            return null;
+        }
+        String cachedPortName = lastPortName;
+        if (cachedPortName != null && Arrays.asList(portNames).contains(cachedPortName)) {
+            IR_moduleConnection connection = probeCachedPort(cachedPortName, Math.min(cachedPortTimeoutMillis, timeoutMillis));
+            if (connection != null) {
+                return connection;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+        }
+        AtomicReference<IR_moduleConnection> winner = new AtomicReference<>();
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicInteger probesLeft = new AtomicInteger(portNames.length);
+        ExecutorService probes = Executors.newFixedThreadPool(portNames.length, runnable -> {
+            Thread thread = new Thread(runnable, "IR port probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String portName : portNames) {
+            probes.execute(() -> {
+                try {
+                    probePort(portName, timeoutMillis, winner);
+                } finally {
+                    if (winner.get() != null || probesLeft.decrementAndGet() == 0) {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            finished.await(timeoutMillis + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        probes.shutdownNow(); // Прерывает ожидание на остальных портах, и они закрываются
+        IR_moduleConnection result = winner.get();
+        if (result != null) {
+            saveLastPortName(result.getPortName());
+        }
+        return result;
+    }
+
+    /**
+     * Опрашивает все доступные порты одновременно и возвращает подключения ко всем ответившим модулям.
+     *
+     * @param timeoutMillis Максимальное время ожидания ответа от модуля
+     * @return Подключения к модулям в порядке опроса портов. Пустой список, если ни один порт не ответил за отведённое время.
+     */
+    List<IR_moduleConnection> discoverAll(long timeoutMillis) {
+        String[] portNames = orderPortNames(portLister.getPortNames());
+        if (portNames.length == 0) {
+            return new ArrayList<>();
+        }
+        AtomicReferenceArray<IR_moduleConnection> found = new AtomicReferenceArray<>(portNames.length);
+        ExecutorService probes = Executors.newFixedThreadPool(portNames.length, runnable -> {
+            Thread thread = new Thread(runnable, "IR port probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < portNames.length; i++) {
+            int portIndex = i;
+            probes.execute(() -> {
+                IR_moduleConnection connection = portConnector.connect(portNames[portIndex]);
+                try {
+                    if (connection.awaitConnected(timeoutMillis)) {
+                        found.set(portIndex, connection);
+                        return;
+                    }
+                } catch (InterruptedException ignored) {
+                    // Поиск прерван
+                }
+                connection.close();
+            });
+        }
+        probes.shutdown();
+        try {
+            if (!probes.awaitTermination(timeoutMillis + 1000, TimeUnit.MILLISECONDS)) {
+                probes.shutdownNow();
+                probes.awaitTermination(1000, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ArrayList<IR_moduleConnection> result = new ArrayList<>();
+        for (int i = 0; i < found.length(); i++) {
+            if (found.get(i) != null) {
+                result.add(found.get(i));
+            }
+        }
+        if (!result.isEmpty()) {
+            saveLastPortName(result.get(0).getPortName());
+        }
+        return result;
+    }
+
+    /**
+     * Опрашивает последний успешно подключённый порт в одиночку.
+     *
+     * @param portName      Название порта
+     * @param timeoutMillis Максимальное время ожидания ответа
+     * @return Подключение к модулю, либо null, если модуль не ответил за отведённое время.
+     */
+    private IR_moduleConnection probeCachedPort(String portName, long timeoutMillis) {
+        IR_moduleConnection connection = portConnector.connect(portName);
+        try {
+            if (connection.awaitConnected(timeoutMillis)) {
+                return connection;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        connection.close();
+        return null;
+    }
+
+    /**
+     * Открывает порт и ждёт ответа модуля. Если модуль ответил первым, подключение становится результатом поиска,
+     * в противном случае порт закрывается.
+     *
+     * @param portName      Название порта
+     * @param timeoutMillis Максимальное время ожидания ответа
+     * @param winner        Результат поиска, общий для всех опрашиваемых портов
+     */
+    private void probePort(String portName, long timeoutMillis, AtomicReference<IR_moduleConnection> winner) {
+        IR_moduleConnection connection = portConnector.connect(portName);
+        boolean won = false;
+        try {
+            won = connection.awaitConnected(timeoutMillis) && winner.compareAndSet(null, connection);
+        } catch (InterruptedException ignored) {
+            // Модуль уже найден на другом порту
+        } finally {
+            if (!won) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Переставляет последний успешно подключённый порт в начало списка, чтобы подключение к нему было первым в результате
+     * <code>discoverAll()</code>.
+     *
+     * @param portNames Названия портов
+     * @return Упорядоченный список названий портов
+     */
+    private String[] orderPortNames(String[] portNames) {
+        ArrayList<String> ordered = new ArrayList<>(Arrays.asList(portNames));
+        if (lastPortName != null && ordered.remove(lastPortName)) {
+            ordered.add(0, lastPortName);
+        }
+        return ordered.toArray(new String[0]);
+    }
+
+    private void loadLastPortName() {
+        if (cacheFileName == null) {
+            return;
+        }
+        INISettings cache = new INISettings();
+        try {
+            cache.loadFromFile(cacheFileName);
+            lastPortName = cache.getSectionByName(CACHE_SECTION_NAME).getFieldByKey(CACHE_LAST_PORT_KEY).getValue();
+        } catch (IOException | IniSettingsException ignored) {
+            // Поиск ещё ни разу не был успешным, или файл повреждён - порты опрашиваются в обычном порядке
+        }
+    }
+
+    private void saveLastPortName(String portName) {
+        lastPortName = portName;
+        if (cacheFileName == null) {
+            return;
+        }
+        INISettings cache = new INISettings();
+        INISettingsSection section = new INISettingsSection(CACHE_SECTION_NAME);
+        try {
+            section.addField(new INISettingsRecord(CACHE_LAST_PORT_KEY, portName));
+            cache.updateSection(section);
+            cache.saveToFile(cacheFileName);
+        } catch (IOException | IniSettingsException e) {
+            System.err.println("Ошибка сохранения файла настроек подключения");
+        }
+    }
+
+    /**
+     * @return Название порта, на котором модуль был найден в последний раз, либо null.
+     */
+    String getLastPortName() {
+        return lastPortName;
+    }
+}
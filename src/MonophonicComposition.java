@@ -1,13 +1,28 @@
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Данный класс представляет собой контейнер для монофонической мелодии.
+ * Команда PLAY для модуля кодируется один раз и хранится в готовом виде, поэтому повторное воспроизведение мелодии
+ * не создаёт строк и массивов. Изменение мелодии (<code>addNote()</code>, <code>setRepeatationCount()</code>)
+ * сбрасывает закодированные команды.
  *
  * @author Малякин Кирилл. 15ИТ20
  */
 class MonophonicComposition {
+    /**
+     * Первый байт двоичной команды PLAY. Текстовые команды никогда не начинаются с этого байта.
+     */
+    static final byte BINARY_PLAY_START = 0x01;
+    private static final int MAX_BINARY_NOTES = (255 - 4) / 4;
+    private static final int MAX_BINARY_VALUE = Short.MAX_VALUE; // int в прошивке - 16 бит со знаком
+
     private final ArrayList<MonophonicNote> compositionSheet = new ArrayList<>();
     private int repeatationCount = 1;
+    private volatile byte[] textCommand = null;
+    private volatile byte[] binaryCommand = null;
 
     MonophonicComposition() {
     }
@@ -17,14 +32,98 @@ class MonophonicComposition {
     }
 
     /**
-     * @return Массив объектов Monofonic Note в виде ArrayList.
+     * @return Ноты мелодии. Список нельзя изменять - для добавления нот используется <code>addNote()</code>.
      */
-    ArrayList<MonophonicNote> getCompositionSheet() {
-        return compositionSheet;
+    List<MonophonicNote> getCompositionSheet() {
+        return Collections.unmodifiableList(compositionSheet);
     }
 
-    void setRepeatationCount(int repeatationCount) {
+    /**
+     * Добавляет ноту в конец мелодии.
+     *
+     * @param frequency Частота ноты в герцах. 0 - пауза.
+     * @param duration  Длительность ноты в миллисекундах
+     */
+    synchronized void addNote(int frequency, int duration) {
+        compositionSheet.add(new MonophonicNote(frequency, duration));
+        invalidate();
+    }
+
+    synchronized void setRepeatationCount(int repeatationCount) {
         this.repeatationCount = repeatationCount;
+        invalidate();
+    }
+
+    private void invalidate() {
+        textCommand = null;
+        binaryCommand = null;
+    }
+
+    /**
+     * @return Текстовая команда PLAY для модуля, завершённая переносом строки. Массив общий для всех вызовов и не должен изменяться.
+     */
+    byte[] getTextCommand() {
+        byte[] command = textCommand;
+        if (command == null) {
+            synchronized (this) {
+                command = ("PLAY:" + toString() + "\n").getBytes(StandardCharsets.US_ASCII);
+                textCommand = command;
+            }
+        }
+        return command;
+    }
+
+    /**
+     * Возвращает двоичную команду PLAY для модуля: <code>BINARY_PLAY_START</code>, длина данных, данные, контрольная сумма
+     * (XOR всех байтов данных). Данные: количество повторов, максимальная длительность (2 байта), количество нот и ноты -
+     * частота и длительность, по 2 байта. Двухбайтовые числа передаются младшим байтом вперёд.
+     *
+     * @return Двоичная команда, либо null, если мелодия в неё не помещается (больше 62 нот или слишком большие значения).
+     * Массив общий для всех вызовов и не должен изменяться.
+     */
+    byte[] getBinaryCommand() {
+        byte[] command = binaryCommand;
+        if (command == null) {
+            synchronized (this) {
+                command = encodeBinary();
+                binaryCommand = command;
+            }
+        }
+        return command.length == 0 ? null : command;
+    }
+
+    /**
+     * @return Двоичная команда, либо пустой массив, если мелодия в неё не помещается.
+     */
+    private byte[] encodeBinary() {
+        if (compositionSheet.size() > MAX_BINARY_NOTES || repeatationCount < 0 || repeatationCount > 255) {
+            return new byte[0];
+        }
+        int length = 4 + compositionSheet.size() * 4;
+        byte[] command = new byte[length + 3];
+        int position = 0;
+        command[position++] = BINARY_PLAY_START;
+        command[position++] = (byte) length;
+        command[position++] = (byte) repeatationCount;
+        command[position++] = 0; // Максимальная длительность композиции не ограничена
+        command[position++] = 0;
+        command[position++] = (byte) compositionSheet.size();
+        for (MonophonicNote currentNote : compositionSheet) {
+            if (currentNote.frequency < 0 || currentNote.frequency > MAX_BINARY_VALUE
+                    || currentNote.duration < 0 || currentNote.duration > MAX_BINARY_VALUE) {
+                return new byte[0];
+            }
+            command[position++] = (byte) currentNote.frequency;
+            command[position++] = (byte) (currentNote.frequency >> 8);
+            command[position++] = (byte) currentNote.duration;
+            command[position++] = (byte) (currentNote.duration >> 8);
+        }
+        byte checksum = 0;
+        for (int i = 2; i < position; i++) {
+            checksum ^= command[i];
+        }
+        command[position] = checksum;
+        return command;
     }
 
 
@@ -40,7 +139,7 @@ class MonophonicComposition {
      * @return Отформатированную согласно требованиям парсера библиотеки PatternPlayer монофоническую мелодию в виде строки.
      */
     @Override
-    public String toString() {
+    public synchronized String toString() {
         StringBuilder result = new StringBuilder("(");
         result.append(repeatationCount);
         result.append(',');
@@ -4,8 +4,8 @@
  * @author Малякин Кирилл. 15ИТ20.
  */
 class MonophonicNote {
-    int frequency = 0;
-    int duration = 0;
+    final int frequency;
+    final int duration;
 
     MonophonicNote(int frequency, int duration) {
         this.frequency = frequency;
@@ -0,0 +1,188 @@
+import utils.LongHashMap;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стадия объединения событий перемещения курсора и прокрутки колеса мыши.
+ * При удержании кнопки ДУ модуль присылает код с каждым кадром повтора, и если каждый кадр превращать в отдельное
+ * перемещение курсора, очередь исполнителя переполняется, а курсор отстаёт от пульта. Вместо этого сдвиги,
+ * пришедшие для одной и той же кнопки в течение одного кванта времени, суммируются и исполняются одним действием.
+ * Также поддерживается ускорение: чем дольше удерживается кнопка, тем больше сдвиг от каждого кадра.
+ */
+class MotionCoalescer implements InjectionTask, Closeable {
+
+    /**
+     * Накопленное, но ещё не исполненное перемещение для одной кнопки.
+     */
+    private static final class MotionState {
+        final long keyCode;
+        double pendingX, pendingY, pendingWheel;
+        long holdStartTime;
+        long lastEventTime = Long.MIN_VALUE;
+        boolean dirty;
+
+        MotionState(long keyCode) {
+            this.keyCode = keyCode;
+        }
+    }
+
+    private final ActionExecutor executor;
+    private final ScheduledExecutorService flushScheduler;
+    private final long sliceNanos;
+    private final long holdGapNanos;
+    private final LongHashMap<MotionState> states = new LongHashMap<>();
+    private final ArrayList<MotionState> dirtyStates = new ArrayList<>();
+    private int[] flushBuffer = new int[12];
+    private long lastFlushTime = 0;
+    private long flushRequestedTime = 0;
+    private boolean flushRequested = false;
+    private long coalescedEventsCount = 0;
+    private long injectedMotionsCount = 0;
+
+    /**
+     * Конструктор.
+     *
+     * @param executor    Исполнитель, в потоке которого будут производиться перемещения
+     * @param sliceMillis Квант времени, в течение которого события одной кнопки объединяются
+     * @param holdGapMillis Если между кадрами одной кнопки прошло больше этого времени, удержание считается начатым заново
+     */
+    MotionCoalescer(ActionExecutor executor, long sliceMillis, long holdGapMillis) {
+        this.executor = executor;
+        this.sliceNanos = TimeUnit.MILLISECONDS.toNanos(sliceMillis);
+        this.holdGapNanos = TimeUnit.MILLISECONDS.toNanos(holdGapMillis);
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "IR motion coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Создаёт стадию объединения с настройками из системных свойств <code>ir.motion.sliceMs</code> (по умолчанию 10)
+     * и <code>ir.motion.holdGapMs</code> (по умолчанию 250).
+     *
+     * @param executor Исполнитель, в потоке которого будут производиться перемещения
+     * @return Стадия объединения событий
+     */
+    static MotionCoalescer createDefault(ActionExecutor executor) {
+        return new MotionCoalescer(executor, Long.getLong("ir.motion.sliceMs", 10), Long.getLong("ir.motion.holdGapMs", 250));
+    }
+
+    /**
+     * Добавляет сдвиг от очередного кадра кнопки к накопленному перемещению, и при необходимости планирует его исполнение.
+     *
+     * @param action Действие типа "сдвинуть курсор" или "прокрутить колесо мыши"
+     */
+    void accumulate(KeyPressedAction action) {
+        long now = System.nanoTime();
+        boolean submitNow = false;
+        long delay = 0;
+        synchronized (this) {
+            MotionState state = states.get(action.getKeyCode());
+            if (state == null) {
+                state = new MotionState(action.getKeyCode());
+                states.put(action.getKeyCode(), state);
+            }
+            if (state.lastEventTime == Long.MIN_VALUE || now - state.lastEventTime > holdGapNanos) {
+                state.holdStartTime = now;
+            }
+            state.lastEventTime = now;
+            double multiplier = action.getAccelerationMultiplier(TimeUnit.NANOSECONDS.toMillis(now - state.holdStartTime));
+            state.pendingX += action.getMotionX() * multiplier;
+            state.pendingY += action.getMotionY() * multiplier;
+            state.pendingWheel += action.getWheelSteps() * multiplier;
+            if (!state.dirty) {
+                state.dirty = true;
+                dirtyStates.add(state);
+            } else {
+                coalescedEventsCount++;
+            }
+            // Повторная постановка страхует от потери задачи, вытесненной из переполненной очереди исполнителя
+            if (!flushRequested || now - flushRequestedTime > 4 * sliceNanos + TimeUnit.MILLISECONDS.toNanos(100)) {
+                flushRequested = true;
+                flushRequestedTime = now;
+                delay = lastFlushTime + sliceNanos - now;
+                submitNow = delay <= 0;
+            } else {
+                return;
+            }
+        }
+        if (submitNow) {
+            executor.submit(this);
+        } else {
+            flushScheduler.schedule(() -> executor.submit(this), delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Исполняет все накопленные перемещения - по одному на каждую кнопку. Дробные остатки сохраняются до следующего раза.
+     * Накопленные значения забираются под блокировкой, а само перемещение производится уже без неё,
+     * чтобы не задерживать поток приёма данных.
+     *
+     * @param injector Объект, с помощью которого будет осуществляться действие в системе.
+     */
+    @Override
+    public void execute(InputInjector injector) {
+        int motionsCount;
+        synchronized (this) {
+            flushRequested = false;
+            lastFlushTime = System.nanoTime();
+            motionsCount = dirtyStates.size();
+            if (flushBuffer.length < motionsCount * 3) {
+                flushBuffer = new int[motionsCount * 3];
+            }
+            for (int i = 0; i < motionsCount; i++) {
+                MotionState state = dirtyStates.get(i);
+                int dx = (int) state.pendingX;
+                int dy = (int) state.pendingY;
+                int wheel = (int) state.pendingWheel;
+                state.pendingX -= dx;
+                state.pendingY -= dy;
+                state.pendingWheel -= wheel;
+                state.dirty = false;
+                flushBuffer[i * 3] = dx;
+                flushBuffer[i * 3 + 1] = dy;
+                flushBuffer[i * 3 + 2] = wheel;
+            }
+            dirtyStates.clear();
+        }
+        long injected = 0;
+        for (int i = 0; i < motionsCount; i++) {
+            int dx = flushBuffer[i * 3], dy = flushBuffer[i * 3 + 1], wheel = flushBuffer[i * 3 + 2];
+            if (dx != 0 || dy != 0) {
+                injector.mouseMoveBy(dx, dy);
+                injected++;
+            }
+            if (wheel != 0) {
+                injector.mouseWheel(wheel);
+                injected++;
+            }
+        }
+        synchronized (this) {
+            injectedMotionsCount += injected;
+        }
+    }
+
+    /**
+     * @return Количество событий, объединённых с уже накопленными.
+     */
+    synchronized long getCoalescedEventsCount() {
+        return coalescedEventsCount;
+    }
+
+    /**
+     * @return Количество исполненных перемещений курсора и прокруток колеса.
+     */
+    synchronized long getInjectedMotionsCount() {
+        return injectedMotionsCount;
+    }
+
+    @Override
+    public void close() {
+        flushScheduler.shutdownNow();
+    }
+}
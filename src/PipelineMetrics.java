@@ -0,0 +1,326 @@
+import utils.LatencyHistogram;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Измерение времени прохождения событий через стадии обработки: от чтения из COM - порта до окончания
+ * исполнения действия. Длительность каждой стадии записывается в гистограмму (см. <code>LatencyHistogram</code>),
+ * кроме того ведутся счётчики отброшенных и неизвестных событий.
+ * <p>
+ * Измерения включаются системным свойством <code>ir.metrics</code>. Флаг читается один раз и хранится
+ * в статической константе, поэтому при выключенных измерениях JIT - компилятор убирает их код целиком,
+ * и <code>System.nanoTime()</code> не вызывается. Статистика доступна через JMX (объект
+ * <code>IRRemote:type=PipelineMetrics</code>) и командой <code>stats</code>.
+ */
+final class PipelineMetrics implements DynamicMBean {
+
+    /**
+     * Включены ли измерения.
+     */
+    static final boolean ENABLED = Boolean.getBoolean("ir.metrics");
+
+    /**
+     * Нужно ли запоминать время приёма обрабатываемого кода: для измерений или для записи сеанса (см. <code>EventRecorder</code>).
+     */
+    private static final boolean TRACK_EVENT_START = ENABLED || EventRecorder.ENABLED;
+
+    /**
+     * Стадии обработки события.
+     */
+    enum Stage {
+        /**
+         * Чтение порции данных из COM - порта.
+         */
+        SERIAL_READ("Чтение из порта"),
+        /**
+         * Выделение кадра из потока данных и разбор кода.
+         */
+        DECODE("Разбор кадра"),
+        /**
+         * Ожидание в очереди менеджера подключений.
+         */
+        DISPATCH_WAIT("Очередь приёмника"),
+        /**
+         * Поиск привязки в таблице.
+         */
+        LOOKUP("Поиск привязки"),
+        /**
+         * Распознавание жестов, режим удержания и ограничение частоты.
+         */
+        GESTURE("Жесты и ограничения"),
+        /**
+         * Ожидание в очереди исполнителя.
+         */
+        EXECUTOR_WAIT("Очередь исполнителя"),
+        /**
+         * Исполнение действия (работа java.awt.Robot).
+         */
+        INJECTION("Исполнение действия"),
+        /**
+         * Всё время от приёма кода до окончания исполнения действия.
+         */
+        END_TO_END("От приёма до исполнения");
+
+        private final String description;
+
+        Stage(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * Счётчики событий.
+     */
+    enum Counter {
+        /**
+         * Принятые коды кнопок.
+         */
+        CODES_RECEIVED("Принято кодов"),
+        /**
+         * Повреждённые кадры.
+         */
+        CORRUPTED_FRAMES("Повреждённых кадров"),
+        /**
+         * Коды, к которым ничего не привязано.
+         */
+        UNKNOWN_CODES("Неизвестных кодов"),
+        /**
+         * Нажатия, отброшенные ограничением частоты.
+         */
+        RATE_LIMITED("Отброшено ограничением частоты"),
+        /**
+         * События, вытесненные из переполненной очереди приёмника.
+         */
+        DISPATCH_DROPPED("Вытеснено из очереди приёмника"),
+        /**
+         * Задачи, вытесненные из переполненной очереди исполнителя.
+         */
+        EXECUTOR_DROPPED("Вытеснено из очереди исполнителя");
+
+        private final String description;
+
+        Counter(String description) {
+            this.description = description;
+        }
+    }
+
+    private static final PipelineMetrics INSTANCE = new PipelineMetrics();
+    private static final ThreadLocal<long[]> EVENT_START = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    private PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @return Время начала стадии для последующего вызова <code>record()</code>, либо 0, если измерения выключены.
+     */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Записывает длительность стадии, начавшейся в момент <code>startNanos</code>.
+     *
+     * @param stage      Стадия
+     * @param startNanos Время начала стадии, полученное от <code>start()</code>
+     * @return Текущее время, которое можно использовать как начало следующей стадии, либо 0, если измерения выключены.
+     */
+    static long record(Stage stage, long startNanos) {
+        if (!ENABLED) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        INSTANCE.histograms[stage.ordinal()].record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * Записывает уже измеренную длительность стадии.
+     *
+     * @param stage         Стадия
+     * @param durationNanos Длительность в наносекундах
+     */
+    static void recordDuration(Stage stage, long durationNanos) {
+        if (ENABLED) {
+            INSTANCE.histograms[stage.ordinal()].record(durationNanos);
+        }
+    }
+
+    /**
+     * Увеличивает счётчик на единицу.
+     *
+     * @param counter Счётчик
+     */
+    static void increment(Counter counter) {
+        if (ENABLED) {
+            INSTANCE.counters.incrementAndGet(counter.ordinal());
+        }
+    }
+
+    /**
+     * Запоминает для текущего потока время приёма обрабатываемого кода. Действия, которые этот поток передаст
+     * исполнителю, получат это время, и по окончании их исполнения будет записана стадия <code>END_TO_END</code>.
+     *
+     * @param receiveNanos Время приёма кода по <code>System.nanoTime()</code>, либо 0, чтобы сбросить его.
+     */
+    static void setEventStart(long receiveNanos) {
+        if (TRACK_EVENT_START) {
+            EVENT_START.get()[0] = receiveNanos;
+        }
+    }
+
+    /**
+     * @return Время приёма кода, обрабатываемого текущим потоком, либо 0.
+     */
+    static long getEventStart() {
+        return TRACK_EVENT_START ? EVENT_START.get()[0] : 0;
+    }
+
+    /**
+     * Регистрирует объект статистики в JMX - сервере платформы. Ничего не делает, если измерения выключены.
+     */
+    static void registerMBean() {
+        if (!ENABLED) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("IRRemote:type=PipelineMetrics"));
+        } catch (JMException e) {
+            System.err.println("Статистика обработки не опубликована через JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Статистика по стадиям и счётчикам в виде текста для вывода в консоль.
+     */
+    static String report() {
+        if (!ENABLED) {
+            return "Измерения выключены. Для включения запустите программу с параметром -Dir.metrics=true";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = INSTANCE.histograms[stage.ordinal()];
+            builder.append(String.format("%-26s n=%-8d p50=%-7d p99=%-7d p99.9=%-7d max=%-7d мкс%n", stage.description,
+                    histogram.getCount(), micros(histogram.getPercentile(50)), micros(histogram.getPercentile(99)),
+                    micros(histogram.getPercentile(99.9)), micros(histogram.getMax())));
+        }
+        for (Counter counter : Counter.values()) {
+            builder.append(counter.description).append(": ").append(INSTANCE.counters.get(counter.ordinal())).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Обнуляет всю статистику.
+     */
+    static void reset() {
+        for (LatencyHistogram histogram : INSTANCE.histograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < INSTANCE.counters.length(); i++) {
+            INSTANCE.counters.set(i, 0);
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /*
+     ********Атрибуты JMX: <стадия>.count, <стадия>.p50Micros, <стадия>.p99Micros, <стадия>.maxMicros и <счётчик>********
+     */
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        int separator = attribute.indexOf('.');
+        try {
+            if (separator < 0) {
+                return counters.get(Counter.valueOf(attribute).ordinal());
+            }
+            LatencyHistogram histogram = histograms[Stage.valueOf(attribute.substring(0, separator)).ordinal()];
+            switch (attribute.substring(separator + 1)) {
+                case "count":
+                    return histogram.getCount();
+                case "p50Micros":
+                    return micros(histogram.getPercentile(50));
+                case "p99Micros":
+                    return micros(histogram.getPercentile(99));
+                case "maxMicros":
+                    return micros(histogram.getMax());
+                default:
+                    throw new AttributeNotFoundException(attribute);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new AttributeNotFoundException(attribute);
+        }
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Атрибуты доступны только для чтения: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException ignored) {
+                // Несуществующие атрибуты пропускаются, как того требует спецификация JMX
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("reset".equals(actionName)) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        ArrayList<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Stage stage : Stage.values()) {
+            for (String suffix : new String[]{"count", "p50Micros", "p99Micros", "maxMicros"}) {
+                attributes.add(new MBeanAttributeInfo(stage.name() + "." + suffix, "long", stage.description,
+                        true, false, false));
+            }
+        }
+        for (Counter counter : Counter.values()) {
+            attributes.add(new MBeanAttributeInfo(counter.name(), "long", counter.description, true, false, false));
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Обнулить статистику", new MBeanParameterInfo[0],
+                "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "Время обработки событий ИК - приёмника",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+    }
+}
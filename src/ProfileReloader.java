@@ -0,0 +1,189 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отслеживает изменения файла профиля привязок и перезагружает его в фоновом потоке.
+ * Редакторы обычно сохраняют файл в несколько приёмов, поэтому после первого уведомления об изменении
+ * поток ждёт, пока уведомления не прекратятся на время <code>ir.reload.debounceMs</code> (по умолчанию 200 мс),
+ * и только затем выполняет перезагрузку. Изменения, не затронувшие содержимое профиля (например, запись файла
+ * самой программой при сворачивании журнала), не приводят к перезагрузке: об этом сообщает <code>Reloader</code>.
+ */
+class ProfileReloader implements Closeable {
+
+    /**
+     * Способ перезагрузки профиля.
+     */
+    interface Reloader {
+        /**
+         * Загружает профиль, проверяет его и публикует новую таблицу привязок.
+         * Если профиль некорректен, должен выбросить исключение и оставить прежнюю таблицу.
+         *
+         * @return true, если профиль перезагружен, false - если содержимое файла не отличается от загруженного ранее,
+         * и перезагрузка не нужна.
+         * @throws Exception В случае ошибки загрузки или проверки профиля.
+         */
+        boolean reload() throws Exception;
+    }
+
+    private final Path watchedFile;
+    private final Reloader reloader;
+    private final long debounceMillis;
+    private final WatchService watchService;
+    private final Thread watcherThread;
+
+    private volatile long reloadsCount = 0;
+    private volatile long failedReloadsCount = 0;
+    private volatile long ignoredChangesCount = 0;
+    private volatile long lastReloadLatencyMillis = 0;
+    private volatile long maxReloadLatencyMillis = 0;
+    private volatile String lastError = null;
+
+    /**
+     * Конструктор. Запускает поток отслеживания изменений.
+     *
+     * @param watchedFile    Файл профиля
+     * @param reloader       Способ перезагрузки профиля
+     * @param debounceMillis Время, в течение которого не должно быть новых изменений файла перед перезагрузкой
+     * @throws IOException В случае, если отслеживание изменений каталога невозможно.
+     */
+    ProfileReloader(Path watchedFile, Reloader reloader, long debounceMillis) throws IOException {
+        this.watchedFile = watchedFile.toAbsolutePath();
+        this.reloader = reloader;
+        this.debounceMillis = debounceMillis;
+        watchService = FileSystems.getDefault().newWatchService();
+        this.watchedFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watcherThread = new Thread(this::watch, "Binding profile watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    /**
+     * Конструктор. Время ожидания берётся из системного свойства <code>ir.reload.debounceMs</code>.
+     *
+     * @param watchedFile Файл профиля
+     * @param reloader    Способ перезагрузки профиля
+     * @throws IOException В случае, если отслеживание изменений каталога невозможно.
+     */
+    ProfileReloader(Path watchedFile, Reloader reloader) throws IOException {
+        this(watchedFile, reloader, Long.getLong("ir.reload.debounceMs", 200));
+    }
+
+    /**
+     * Основной цикл потока отслеживания: ждёт изменения файла, выжидает окончания записи и перезагружает профиль.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                if (!isWatchedFileChanged(watchService.take())) {
+                    continue;
+                }
+                long changeDetectedTime = System.nanoTime();
+                WatchKey key;
+                while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    isWatchedFileChanged(key);
+                }
+                reload(changeDetectedTime);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            // Отслеживание остановлено методом close()
+        }
+    }
+
+    /**
+     * Разбирает уведомления ключа и возвращает ключ в режим ожидания.
+     *
+     * @param key Ключ с уведомлениями об изменениях в каталоге
+     * @return true, если среди уведомлений есть изменение отслеживаемого файла.
+     */
+    private boolean isWatchedFileChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+            } else if (watchedFile.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Перезагружает профиль и учитывает результат в статистике.
+     *
+     * @param changeDetectedTime Время обнаружения изменения файла (по <code>System.nanoTime()</code>)
+     */
+    private void reload(long changeDetectedTime) {
+        try {
+            if (!reloader.reload()) {
+                ignoredChangesCount++;
+                return;
+            }
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - changeDetectedTime);
+            lastReloadLatencyMillis = latency;
+            maxReloadLatencyMillis = Math.max(maxReloadLatencyMillis, latency);
+            reloadsCount++;
+            lastError = null;
+        } catch (Exception e) {
+            failedReloadsCount++;
+            lastError = e.getMessage() != null ? e.getMessage() : e.toString();
+            System.err.println("Ошибка перезагрузки профиля привязок: " + lastError + ". Используются прежние привязки.");
+        }
+    }
+
+    /**
+     * @return Количество успешных перезагрузок профиля.
+     */
+    long getReloadsCount() {
+        return reloadsCount;
+    }
+
+    /**
+     * @return Количество неудачных перезагрузок профиля.
+     */
+    long getFailedReloadsCount() {
+        return failedReloadsCount;
+    }
+
+    /**
+     * @return Количество изменений файла, после которых перезагрузка не понадобилась.
+     */
+    long getIgnoredChangesCount() {
+        return ignoredChangesCount;
+    }
+
+    /**
+     * @return Время от обнаружения изменения файла до публикации новой таблицы при последней перезагрузке, в миллисекундах.
+     */
+    long getLastReloadLatencyMillis() {
+        return lastReloadLatencyMillis;
+    }
+
+    /**
+     * @return Наибольшее время перезагрузки профиля в миллисекундах.
+     */
+    long getMaxReloadLatencyMillis() {
+        return maxReloadLatencyMillis;
+    }
+
+    /**
+     * @return Сообщение об ошибке последней перезагрузки, либо null, если она была успешной.
+     */
+    String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        watcherThread.interrupt();
+    }
+}
@@ -0,0 +1,289 @@
+import utils.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор записи сеанса, сделанной <code>EventRecorder</code>. По записи восстанавливаются распределения времени
+ * стадий обработки, частота повтора кадров для каждого кода кнопки и хронология отброшенных событий.
+ * Запуск: <code>RecordingAnalyzer &lt;начало имён файлов записи&gt; [граница нажатия, мс]</code>. Кадры одного кода,
+ * пришедшие с промежутком меньше границы нажатия (по умолчанию 250 мс), считаются повторами одного нажатия.
+ */
+class RecordingAnalyzer {
+
+    /**
+     * Статистика кадров одного кода кнопки.
+     */
+    private static final class CodeStats {
+        long framesCount = 0;
+        long pressesCount = 0;
+        long lastFrameTime = 0;
+        final LatencyHistogram repeatIntervals = new LatencyHistogram();
+    }
+
+    /**
+     * Один файл записи.
+     */
+    private static final class RecordingFile {
+        final Path path;
+        final ByteBuffer buffer;
+        final long nanoBase;
+        final long wallMillis;
+
+        RecordingFile(Path path, ByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+            this.nanoBase = buffer.getLong(16);
+            this.wallMillis = buffer.getLong(24);
+        }
+    }
+
+    private static final String[] STAGE_NAMES = {"Чтение до разбора кода", "Очередь приёмника", "Очередь исполнителя",
+            "Исполнение действия", "От приёма до исполнения"};
+    private static final String[] DECISION_NAMES = {"без привязки", "передано исполнителю", "удержание",
+            "ограничение частоты", "только жесты"};
+    private static final String[] DROP_NAMES = {"", "очередь приёмника", "очередь исполнителя", "ограничение частоты"};
+
+    private final long pressGapNanos;
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGE_NAMES.length];
+    private final long[] decisions = new long[DECISION_NAMES.length];
+    private final HashMap<Short, String> portNames = new HashMap<>();
+    private final HashMap<Short, Long> lastChunkTimes = new HashMap<>();
+    private final HashMap<Long, CodeStats> codes = new HashMap<>();
+    private final TreeMap<Long, long[]> drops = new TreeMap<>();
+    private long recordsCount = 0;
+    private long corruptedCount = 0;
+    private long bytesCount = 0;
+    private long firstTime = Long.MAX_VALUE;
+    private long lastTime = Long.MIN_VALUE;
+
+    /**
+     * Конструктор.
+     *
+     * @param pressGapMillis Наибольший промежуток между кадрами одного нажатия в миллисекундах
+     */
+    RecordingAnalyzer(long pressGapMillis) {
+        this.pressGapNanos = TimeUnit.MILLISECONDS.toNanos(pressGapMillis);
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Читает файлы записи с заданным началом имени и упорядочивает их по времени создания.
+     *
+     * @param filePrefix Начало имён файлов записи
+     * @return Файлы записи от старого к новому
+     * @throws IOException В случае ошибок чтения или, если файлы не являются записью сеанса.
+     */
+    private static ArrayList<RecordingFile> openFiles(String filePrefix) throws IOException {
+        ArrayList<RecordingFile> files = new ArrayList<>();
+        for (int i = 0; Files.exists(EventRecorder.fileOf(filePrefix, i)); i++) {
+            Path path = EventRecorder.fileOf(filePrefix, i);
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.capacity() < EventRecorder.HEADER_SIZE || buffer.getLong(0) != EventRecorder.MAGIC) {
+                throw new IOException("Файл " + path + " не является записью сеанса");
+            }
+            if (buffer.getInt(8) != EventRecorder.VERSION || buffer.getInt(12) != EventRecorder.RECORD_SIZE) {
+                throw new IOException("Неподдерживаемая версия записи в файле " + path);
+            }
+            files.add(new RecordingFile(path, buffer));
+        }
+        if (files.isEmpty()) {
+            throw new IOException("Файлы записи " + EventRecorder.fileOf(filePrefix, 0) + " и далее не найдены");
+        }
+        files.sort((first, second) -> Long.compare(first.nanoBase, second.nanoBase));
+        return files;
+    }
+
+    /**
+     * Учитывает все записи файла.
+     *
+     * @param file Файл записи
+     */
+    private void analyze(RecordingFile file) {
+        ByteBuffer buffer = file.buffer;
+        for (int position = EventRecorder.HEADER_SIZE; position + EventRecorder.RECORD_SIZE <= buffer.capacity();
+             position += EventRecorder.RECORD_SIZE) {
+            byte type = buffer.get(position + 31);
+            if (type == 0) {
+                // Место выделено, но запись не дописана (например, другой поток выделил место раньше и не успел
+                // записать его до остановки) либо ещё не занято. Файлы при переходе затираются нулями, поэтому
+                // за таким местом могут следовать только настоящие записи.
+                continue;
+            }
+            long time = buffer.getLong(position);
+            long value = buffer.getLong(position + 8);
+            long receiveTime = buffer.getLong(position + 16);
+            int extra = buffer.getInt(position + 24);
+            short portId = buffer.getShort(position + 28);
+            byte detail = buffer.get(position + 30);
+            recordsCount++;
+            if (type != EventRecorder.TYPE_PORT) {
+                firstTime = Math.min(firstTime, time);
+                lastTime = Math.max(lastTime, time);
+            }
+            switch (type) {
+                case EventRecorder.TYPE_PORT:
+                    byte[] name = new byte[16];
+                    ByteBuffer.wrap(name).order(ByteOrder.LITTLE_ENDIAN).putLong(value).putLong(receiveTime);
+                    portNames.put(portId, new String(name, 0, Math.min(extra, name.length), StandardCharsets.UTF_8));
+                    break;
+                case EventRecorder.TYPE_SERIAL_DATA:
+                    if (receiveTime == 0) { // Первая часть порции
+                        lastChunkTimes.put(portId, time);
+                        bytesCount += extra;
+                    }
+                    break;
+                case EventRecorder.TYPE_CODE:
+                    Long chunkTime = lastChunkTimes.get(portId);
+                    if (chunkTime != null) {
+                        stages[0].record(time - chunkTime);
+                    }
+                    countFrame(value, time);
+                    break;
+                case EventRecorder.TYPE_CORRUPTED:
+                    corruptedCount++;
+                    break;
+                case EventRecorder.TYPE_DISPATCH:
+                    if (receiveTime != 0) {
+                        stages[1].record(time - receiveTime);
+                    }
+                    if (detail >= 0 && detail < decisions.length) {
+                        decisions[detail]++;
+                    }
+                    break;
+                case EventRecorder.TYPE_ACTION:
+                    stages[2].record(TimeUnit.MICROSECONDS.toNanos(extra));
+                    stages[3].record(time - value);
+                    if (receiveTime != 0) {
+                        stages[4].record(time - receiveTime);
+                    }
+                    break;
+                case EventRecorder.TYPE_DROP:
+                    if (detail > 0 && detail < DROP_NAMES.length) {
+                        drops.computeIfAbsent(time, key -> new long[DROP_NAMES.length])[detail]++;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Учитывает кадр с кодом кнопки в статистике повторов.
+     *
+     * @param code Код кнопки
+     * @param time Время приёма кадра
+     */
+    private void countFrame(long code, long time) {
+        CodeStats stats = codes.computeIfAbsent(code, key -> new CodeStats());
+        stats.framesCount++;
+        if (stats.lastFrameTime != 0 && time - stats.lastFrameTime < pressGapNanos) {
+            stats.repeatIntervals.record(time - stats.lastFrameTime);
+        } else {
+            stats.pressesCount++;
+        }
+        stats.lastFrameTime = time;
+    }
+
+    /**
+     * Выводит результаты разбора в консоль.
+     *
+     * @param startWallMillis Время создания первого файла
+     * @param startNanos      Время создания первого файла по <code>System.nanoTime()</code>
+     */
+    private void print(long startWallMillis, long startNanos) {
+        SimpleDateFormat format = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss.SSS");
+        System.out.println("Записей: " + recordsCount + ", принято байт: " + bytesCount + ", повреждённых кадров: " + corruptedCount);
+        if (recordsCount == 0 || firstTime > lastTime) {
+            return;
+        }
+        System.out.println("Начало: " + format.format(new Date(startWallMillis + TimeUnit.NANOSECONDS.toMillis(firstTime - startNanos))) +
+                ", длительность: " + TimeUnit.NANOSECONDS.toMillis(lastTime - firstTime) + " мс");
+        for (Map.Entry<Short, String> port : portNames.entrySet()) {
+            System.out.println("Порт " + port.getKey() + ": " + port.getValue());
+        }
+
+        System.out.println("\nВремя стадий обработки, мкс:");
+        for (int i = 0; i < stages.length; i++) {
+            LatencyHistogram histogram = stages[i];
+            System.out.printf("%-26s n=%-8d p50=%-7d p99=%-7d p99.9=%-7d max=%-7d%n", STAGE_NAMES[i], histogram.getCount(),
+                    micros(histogram.getPercentile(50)), micros(histogram.getPercentile(99)),
+                    micros(histogram.getPercentile(99.9)), micros(histogram.getMax()));
+        }
+
+        System.out.println("\nРешения диспетчера:");
+        for (int i = 0; i < decisions.length; i++) {
+            System.out.println(DECISION_NAMES[i] + ": " + decisions[i]);
+        }
+
+        System.out.println("\nПовторы кадров по кодам кнопок:");
+        System.out.printf("%-12s %10s %10s %14s %16s%n", "Код", "кадров", "нажатий", "кадров/нажатие", "период повтора, мс");
+        ArrayList<Map.Entry<Long, CodeStats>> sortedCodes = new ArrayList<>(codes.entrySet());
+        sortedCodes.sort((first, second) -> Long.compare(second.getValue().framesCount, first.getValue().framesCount));
+        for (Map.Entry<Long, CodeStats> code : sortedCodes) {
+            CodeStats stats = code.getValue();
+            System.out.printf("%-12s %10d %10d %14.1f %16.1f%n", Long.toHexString(code.getKey()).toUpperCase(), stats.framesCount,
+                    stats.pressesCount, (double) stats.framesCount / stats.pressesCount,
+                    stats.repeatIntervals.getPercentile(50) / 1e6);
+        }
+
+        System.out.println("\nОтброшенные события по секундам:");
+        if (drops.isEmpty()) {
+            System.out.println("Отброшенных событий нет");
+            return;
+        }
+        TreeMap<Long, long[]> seconds = new TreeMap<>();
+        for (Map.Entry<Long, long[]> drop : drops.entrySet()) {
+            long second = TimeUnit.NANOSECONDS.toSeconds(drop.getKey() - firstTime);
+            long[] counts = seconds.computeIfAbsent(second, key -> new long[DROP_NAMES.length]);
+            for (int i = 1; i < counts.length; i++) {
+                counts[i] += drop.getValue()[i];
+            }
+        }
+        for (Map.Entry<Long, long[]> second : seconds.entrySet()) {
+            StringBuilder line = new StringBuilder(format.format(new Date(startWallMillis +
+                    TimeUnit.NANOSECONDS.toMillis(firstTime - startNanos) + TimeUnit.SECONDS.toMillis(second.getKey()))));
+            for (int i = 1; i < DROP_NAMES.length; i++) {
+                if (second.getValue()[i] > 0) {
+                    line.append(", ").append(DROP_NAMES[i]).append(": ").append(second.getValue()[i]);
+                }
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Использование: RecordingAnalyzer <начало имён файлов записи> [граница нажатия, мс]");
+            return;
+        }
+        ArrayList<RecordingFile> files = openFiles(args[0]);
+        RecordingAnalyzer analyzer = new RecordingAnalyzer(args.length > 1 ? Long.parseLong(args[1]) : 250);
+        for (RecordingFile file : files) {
+            analyzer.analyze(file);
+        }
+        analyzer.print(files.get(0).wallMillis, files.get(0).nanoBase);
+    }
+}
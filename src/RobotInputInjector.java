@@ -0,0 +1,50 @@
+import java.awt.*;
+
+/**
+ * Реализация интерфейса <code>InputInjector</code>, воздействующая на систему через <code>java.awt.Robot</code>.
+ * Создание экземпляра <code>Robot</code> - дорогая операция, поэтому он создаётся один раз и используется повторно.
+ * Экземпляр класса не потокобезопасен: им должен пользоваться только поток, исполняющий действия.
+ */
+class RobotInputInjector implements InputInjector {
+    private final Robot robot;
+
+    /**
+     * Конструктор.
+     *
+     * @throws AWTException В случае, если система не позволяет управлять вводом (например, нет дисплея).
+     */
+    RobotInputInjector() throws AWTException {
+        robot = new Robot();
+    }
+
+    @Override
+    public void keyPress(int keyCode) {
+        robot.keyPress(keyCode);
+    }
+
+    @Override
+    public void keyRelease(int keyCode) {
+        robot.keyRelease(keyCode);
+    }
+
+    @Override
+    public void mousePress(int buttonsMask) {
+        robot.mousePress(buttonsMask);
+    }
+
+    @Override
+    public void mouseRelease(int buttonsMask) {
+        robot.mouseRelease(buttonsMask);
+    }
+
+    @Override
+    public void mouseWheel(int wheelAmt) {
+        robot.mouseWheel(wheelAmt);
+    }
+
+    @Override
+    public void mouseMoveBy(int dx, int dy) {
+        Point location = MouseInfo.getPointerInfo().getLocation();
+        robot.mouseMove(location.x + dx, location.y + dy);
+    }
+}
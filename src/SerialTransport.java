@@ -0,0 +1,61 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Канал передачи данных между программой и модулем инфракрасного приёмника.
+ * Основная реализация - <code>JsscSerialTransport</code>, работающая с настоящим COM - портом через библиотеку JSSC.
+ * Реализация <code>SimulatedIR_module</code> имитирует модуль целиком и позволяет работать без оборудования.
+ */
+interface SerialTransport extends Closeable {
+
+    /**
+     * Обработчик данных, поступающих из канала.
+     */
+    interface DataListener {
+        /**
+         * Вызывается при поступлении очередной порции данных. Все вызовы производятся из одного потока.
+         *
+         * @param data   Массив с принятыми данными
+         * @param offset Смещение от начала массива
+         * @param length Количество принятых байтов
+         */
+        void dataReceived(byte[] data, int offset, int length);
+
+        /**
+         * Вызывается, если канал перестал работать (например, устройство было отключено от USB).
+         * После этого данные из канала больше не поступают.
+         *
+         * @param source Отказавший канал
+         * @param cause  Причина отказа
+         */
+        default void transportFailed(SerialTransport source, IOException cause) {
+        }
+    }
+
+    /**
+     * Открывает канал и начинает передавать поступающие данные обработчику.
+     *
+     * @param listener Обработчик поступающих данных
+     * @throws IOException В случае, если канал не удалось открыть.
+     */
+    void open(DataListener listener) throws IOException;
+
+    /**
+     * Отправляет данные на модуль.
+     *
+     * @param data Данные для отправки
+     * @throws IOException В случае ошибки записи.
+     */
+    void write(byte[] data) throws IOException;
+
+    /**
+     * @return Название канала (например, название COM - порта).
+     */
+    String getPortName();
+
+    /**
+     * Закрывает канал. Повторный вызов ничего не делает.
+     */
+    @Override
+    void close();
+}
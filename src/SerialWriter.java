@@ -0,0 +1,127 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Очередь записи в канал передачи данных с отдельным потоком.
+ * Запись в COM - порт может занимать заметное время (и тем более - зависнуть при отказе порта), поэтому
+ * поток приёма данных и поток диспетчера только ставят готовые команды в ограниченную очередь, а записывает их
+ * поток этого класса. Если очередь переполнена, новая команда отбрасывается: звуковой сигнал,
+ * не успевший прозвучать вовремя, уже не нужен.
+ */
+class SerialWriter implements Closeable {
+
+    /**
+     * Получатель записываемых данных.
+     */
+    interface Sink {
+        /**
+         * @param data Данные для записи
+         * @throws IOException В случае ошибки записи.
+         */
+        void write(byte[] data) throws IOException;
+    }
+
+    /**
+     * Обработчик ошибок записи.
+     */
+    interface FailureHandler {
+        /**
+         * Вызывается в потоке записи, если запись не удалась.
+         *
+         * @param cause Ошибка записи
+         */
+        void writeFailed(IOException cause);
+    }
+
+    private final ArrayBlockingQueue<byte[]> queue;
+    private final Sink sink;
+    private final FailureHandler failureHandler;
+    private final Thread writerThread;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile long writtenCount = 0;
+    private volatile long maxWriteNanos = 0;
+
+    /**
+     * Конструктор. Запускает поток записи.
+     *
+     * @param threadName     Название потока записи
+     * @param capacity       Ёмкость очереди
+     * @param sink           Получатель данных
+     * @param failureHandler Обработчик ошибок записи
+     */
+    SerialWriter(String threadName, int capacity, Sink sink, FailureHandler failureHandler) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.sink = sink;
+        this.failureHandler = failureHandler;
+        writerThread = new Thread(this::runLoop, threadName);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Ставит данные в очередь записи. Никогда не блокирует вызывающий поток.
+     *
+     * @param data Данные. Массив не копируется и не должен изменяться после вызова.
+     * @return true, если данные поставлены в очередь, false - если очередь переполнена.
+     */
+    boolean offer(byte[] data) {
+        if (queue.offer(data)) {
+            return true;
+        }
+        droppedCount.incrementAndGet();
+        return false;
+    }
+
+    private void runLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                byte[] data = queue.take();
+                long startTime = System.nanoTime();
+                try {
+                    sink.write(data);
+                } catch (IOException e) {
+                    failureHandler.writeFailed(e);
+                }
+                long writeNanos = System.nanoTime() - startTime;
+                writtenCount++;
+                if (writeNanos > maxWriteNanos) {
+                    maxWriteNanos = writeNanos;
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // Очередь закрыта
+        }
+    }
+
+    /**
+     * @return Количество записанных команд.
+     */
+    long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * @return Количество команд, отброшенных из-за переполнения очереди.
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return Наибольшее время записи одной команды в микросекундах.
+     */
+    long getMaxWriteMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxWriteNanos);
+    }
+
+    /**
+     * Останавливает поток записи. Данные, оставшиеся в очереди, не записываются.
+     */
+    @Override
+    public void close() {
+        writerThread.interrupt();
+    }
+}
@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Имитация модуля инфракрасного приёмника, работающая внутри программы без какого - либо оборудования.
+ * Говорит на том же протоколе, что и скетч IR-port-receiver: после открытия присылает DEVICE_ACTIVE,
+ * при "нажатии" на кнопку присылает её шестнадцатиричный код, а при "удержании" - повторы с заданной частотой.
+ * Принимает текстовые и двоичные команды PLAY и подсчитывает их, на команду PING отвечает PONG. Все данные передаются обработчику из одного потока,
+ * как это делает и настоящий COM - порт.
+ */
+class SimulatedIR_module implements SerialTransport {
+    /**
+     * Код повтора, который ИК - пульт стандарта NEC передаёт при удержании кнопки.
+     */
+    static final long NEC_REPEAT_CODE = 0xFFFFFFFFL;
+
+    private final String portName;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong emittedFramesCount = new AtomicLong();
+    private final AtomicLong playCommandsCount = new AtomicLong();
+    private final StringBuilder commandBuffer = new StringBuilder();
+    private byte[] binaryFrame = null;
+    private int binaryFrameReceived = -1;
+    private volatile DataListener listener;
+    private volatile boolean opened = false;
+    private volatile String lastCommand = "";
+    private long handshakeDelayMillis = 50;
+    private long repeatIntervalMillis = 108;
+    private boolean sendRawRepeats = false;
+    private boolean legacyProtocol = false;
+    private long lastCode = 0;
+    private ScheduledFuture<?> generator;
+
+    /**
+     * Конструктор.
+     *
+     * @param portName Название, под которым имитируемый модуль будет виден программе
+     */
+    SimulatedIR_module(String portName) {
+        this.portName = portName;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Simulated IR module " + portName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param handshakeDelayMillis Задержка между открытием порта и отправкой DEVICE_ACTIVE
+     */
+    void setHandshakeDelayMillis(long handshakeDelayMillis) {
+        this.handshakeDelayMillis = handshakeDelayMillis;
+    }
+
+    /**
+     * @param repeatIntervalMillis Интервал между кадрами повтора при удержании кнопки. У пультов NEC - 108 мс.
+     */
+    void setRepeatIntervalMillis(long repeatIntervalMillis) {
+        this.repeatIntervalMillis = repeatIntervalMillis;
+    }
+
+    /**
+     * @param sendRawRepeats true - присылать кадры повтора как FFFFFFFF, false - как копию последнего кода (так делает скетч).
+     */
+    void setSendRawRepeats(boolean sendRawRepeats) {
+        this.sendRawRepeats = sendRawRepeats;
+    }
+
+    /**
+     * @param legacyProtocol true - имитировать старую прошивку, не разделяющую кадры переносом строки.
+     */
+    void setLegacyProtocol(boolean legacyProtocol) {
+        this.legacyProtocol = legacyProtocol;
+    }
+
+    @Override
+    public void open(DataListener listener) throws IOException {
+        if (scheduler.isShutdown()) {
+            throw new IOException("Порт " + portName + " закрыт");
+        }
+        this.listener = listener;
+        opened = true;
+        scheduler.schedule(() -> emitFrame("DEVICE_ACTIVE"), handshakeDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Имитирует нажатие на кнопку пульта и её удержание в течение <code>repeatsCount</code> кадров повтора.
+     *
+     * @param code         Код кнопки
+     * @param repeatsCount Количество кадров повтора
+     */
+    void press(long code, int repeatsCount) {
+        scheduler.execute(() -> emitCode(code));
+        for (int i = 1; i <= repeatsCount; i++) {
+            scheduler.schedule(() -> emitCode(NEC_REPEAT_CODE), i * repeatIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Запускает непрерывную генерацию нажатий: кнопки из <code>codes</code> нажимаются по очереди с заданной частотой,
+     * и каждое нажатие сопровождается <code>repeatsPerPress</code> кадрами повтора.
+     *
+     * @param codes           Коды кнопок
+     * @param pressesPerSecond Частота нажатий
+     * @param repeatsPerPress Количество кадров повтора на каждое нажатие
+     */
+    synchronized void startGenerator(long[] codes, double pressesPerSecond, int repeatsPerPress) {
+        stopGenerator();
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / pressesPerSecond);
+        int[] nextIndex = {0};
+        generator = scheduler.scheduleAtFixedRate(() -> {
+            press(codes[nextIndex[0]], repeatsPerPress);
+            nextIndex[0] = (nextIndex[0] + 1) % codes.length;
+        }, 0, Math.max(1, periodNanos), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Останавливает генерацию нажатий, запущенную методом <code>startGenerator()</code>.
+     */
+    synchronized void stopGenerator() {
+        if (generator != null) {
+            generator.cancel(false);
+            generator = null;
+        }
+    }
+
+    /**
+     * Отправляет программе произвольные байты, как если бы их прислал модуль. Используется для воспроизведения записей.
+     *
+     * @param data Данные
+     */
+    void emitRaw(byte[] data) {
+        scheduler.execute(() -> deliver(data));
+    }
+
+    /**
+     * Отправляет код кнопки так же, как это делает скетч: повтор NEC заменяется последним принятым кодом,
+     * если не включена отправка "сырых" повторов.
+     *
+     * @param code Код кнопки или код повтора
+     */
+    private void emitCode(long code) {
+        if (code == NEC_REPEAT_CODE && !sendRawRepeats) {
+            code = lastCode;
+        } else if (code != NEC_REPEAT_CODE) {
+            lastCode = code;
+        }
+        emitFrame(IR_frameDecoder.codeToHex(code));
+    }
+
+    private void emitFrame(String frame) {
+        emittedFramesCount.incrementAndGet(); // До передачи: обработчик может сразу же проверить счётчик
+        deliver((legacyProtocol ? frame : frame + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void deliver(byte[] data) {
+        DataListener currentListener = listener;
+        if (opened && currentListener != null) {
+            currentListener.dataReceived(data, 0, data.length);
+        }
+    }
+
+    /**
+     * Принимает команды так же, как это делает скетч: текстовая команда завершается символом переноса строки,
+     * а двоичная команда PLAY начинается с байта <code>MonophonicComposition.BINARY_PLAY_START</code> и длины данных.
+     */
+    @Override
+    public synchronized void write(byte[] data) throws IOException {
+        if (!opened) {
+            throw new IOException("Порт " + portName + " закрыт");
+        }
+        for (byte currentByte : data) {
+            if (binaryFrameReceived == -2) {
+                binaryFrame = new byte[(currentByte & 0xFF) + 1];
+                binaryFrameReceived = 0;
+            } else if (binaryFrameReceived >= 0) {
+                binaryFrame[binaryFrameReceived++] = currentByte;
+                if (binaryFrameReceived == binaryFrame.length) {
+                    processBinaryPlay(binaryFrame);
+                    binaryFrameReceived = -1;
+                }
+            } else if (currentByte == MonophonicComposition.BINARY_PLAY_START && commandBuffer.length() == 0) {
+                binaryFrameReceived = -2;
+            } else if (currentByte == '\n') {
+                lastCommand = commandBuffer.toString();
+                if (lastCommand.startsWith("PLAY")) {
+                    playCommandsCount.incrementAndGet();
+                } else if (lastCommand.equals("PING") && !legacyProtocol) {
+                    scheduler.execute(() -> emitFrame("PONG"));
+                }
+                commandBuffer.setLength(0);
+            } else {
+                commandBuffer.append((char) currentByte);
+            }
+        }
+    }
+
+    /**
+     * Проверяет двоичную команду PLAY так же, как это делает скетч, и учитывает её, если она не повреждена.
+     *
+     * @param frame Данные команды и контрольная сумма
+     */
+    private void processBinaryPlay(byte[] frame) {
+        int length = frame.length - 1;
+        byte checksum = 0;
+        for (int i = 0; i < length; i++) {
+            checksum ^= frame[i];
+        }
+        if (length < 4 || checksum != frame[length] || 4 + (frame[3] & 0xFF) * 4 != length) {
+            return;
+        }
+        lastCommand = "PLAY#" + (frame[3] & 0xFF) + " нот";
+        playCommandsCount.incrementAndGet();
+    }
+
+    /**
+     * Имитирует отключение модуля от USB: канал перестаёт принимать и передавать данные, а обработчику сообщается об отказе.
+     */
+    void unplug() {
+        opened = false;
+        DataListener currentListener = listener;
+        if (currentListener != null) {
+            currentListener.transportFailed(this, new IOException("Модуль " + portName + " отключён"));
+        }
+    }
+
+    @Override
+    public String getPortName() {
+        return portName;
+    }
+
+    /**
+     * @return Количество отправленных программе кадров (включая DEVICE_ACTIVE).
+     */
+    long getEmittedFramesCount() {
+        return emittedFramesCount.get();
+    }
+
+    /**
+     * @return Количество принятых команд PLAY.
+     */
+    long getPlayCommandsCount() {
+        return playCommandsCount.get();
+    }
+
+    /**
+     * @return Последняя принятая команда.
+     */
+    String getLastCommand() {
+        return lastCommand;
+    }
+
+    @Override
+    public void close() {
+        opened = false;
+        scheduler.shutdownNow();
+    }
+}
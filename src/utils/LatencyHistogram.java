@@ -0,0 +1,127 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма длительностей с логарифмически - линейными интервалами (по образцу HdrHistogram).
+ * Каждая степень двойки делится на 32 равных интервала, поэтому относительная погрешность любого значения
+ * не превышает 3%, а вся гистограмма (от наносекунд до сотен лет) занимает менее двух тысяч счётчиков.
+ * Запись - одна атомарная операция инкремента без блокировок, поэтому писать в гистограмму можно
+ * из любого количества потоков одновременно. Чтение не останавливает запись, и снимок может быть
+ * слегка несогласованным (например, сумма счётчиков интервалов - немного меньше общего количества).
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value Значение
+     * @return Номер интервала, в который попадает значение.
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @param index Номер интервала
+     * @return Нижняя граница интервала.
+     */
+    private static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKET_COUNT;
+        return (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Учитывает очередное значение.
+     *
+     * @param value Значение (например, длительность в наносекундах). Отрицательные значения считаются нулевыми.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // Другой поток успел обновить максимум - проверяем ещё раз
+        }
+    }
+
+    /**
+     * @return Количество учтённых значений.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Наибольшее учтённое значение.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return Среднее значение, либо 0, если значений нет.
+     */
+    public long getMean() {
+        long currentCount = count.sum();
+        return currentCount == 0 ? 0 : sum.sum() / currentCount;
+    }
+
+    /**
+     * Возвращает значение, не превышаемое заданной долей учтённых значений.
+     *
+     * @param percentile Доля в процентах, от 0 до 100
+     * @return Нижняя граница интервала, в который попадает перцентиль (с точностью до 3%), либо 0, если значений нет.
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100));
+        long accumulated = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            accumulated += buckets.get(i);
+            if (accumulated >= target) {
+                return Math.min(bucketLowerBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Обнуляет гистограмму. Значения, записываемые одновременно со сбросом, могут быть учтены частично.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
@@ -0,0 +1,201 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Хэш - таблица с открытой адресацией, ключами которой являются примитивные значения типа long.
+ * Коллизии разрешаются линейным пробированием, а при удалении элементы сдвигаются назад, поэтому
+ * таблица не накапливает "удалённых" ячеек. Поиск по ключу не создаёт новых объектов и не упаковывает ключ.
+ * Класс не потокобезопасен.
+ *
+ * @param <V> Тип хранимых значений
+ */
+public class LongHashMap<V> {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size = 0;
+
+    /**
+     * Конструктор.
+     *
+     * @param expectedSize Ожидаемое количество элементов. Таблица будет расширяться автоматически при необходимости.
+     */
+    public LongHashMap(int expectedSize) {
+        allocate(Math.max(8, Integer.highestOneBit((int) (Math.max(expectedSize, 1) / LOAD_FACTOR) - 1) << 1));
+    }
+
+    /**
+     * Конструктор. Создаёт пустую таблицу небольшого размера.
+     */
+    public LongHashMap() {
+        this(8);
+    }
+
+    /**
+     * Перемешивает биты ключа, чтобы близкие коды равномерно распределялись по таблице.
+     *
+     * @param key Ключ
+     * @return Хэш ключа
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Возвращает значение, связанное с ключом <code>key</code>.
+     *
+     * @param key Ключ
+     * @return Значение, либо null, если ключ отсутствует в таблице.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = hash(key) & mask;
+        Object value;
+        while ((value = values[index]) != null) {
+            if (keys[index] == key) {
+                return (V) value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @param key Ключ
+     * @return true, если в таблице есть значение с таким ключом.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Связывает значение <code>value</code> с ключом <code>key</code>. Прежнее значение замещается.
+     *
+     * @param key   Ключ
+     * @param value Значение. Не может быть null.
+     * @return Прежнее значение, либо null, если ключа в таблице не было.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                V previous = (V) values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > keys.length * LOAD_FACTOR) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Удаляет значение с ключом <code>key</code> из таблицы.
+     *
+     * @param key Ключ
+     * @return Удалённое значение, либо null, если ключа в таблице не было.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                V previous = (V) values[index];
+                shiftBack(index);
+                size--;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Освобождает ячейку <code>freeIndex</code>, сдвигая на её место следующие за ней элементы той же цепочки пробирования.
+     *
+     * @param freeIndex Индекс освобождаемой ячейки
+     */
+    private void shiftBack(int freeIndex) {
+        int index = freeIndex;
+        for (; ; ) {
+            index = (index + 1) & mask;
+            if (values[index] == null) {
+                break;
+            }
+            int home = hash(keys[index]) & mask;
+            // Элемент можно переместить, если его "домашняя" ячейка не лежит циклически между freeIndex и index
+            if (((index - home) & mask) >= ((index - freeIndex) & mask)) {
+                keys[freeIndex] = keys[index];
+                values[freeIndex] = values[index];
+                freeIndex = index;
+            }
+        }
+        keys[freeIndex] = 0;
+        values[freeIndex] = null;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int index = hash(oldKeys[i]) & mask;
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Удаляет все элементы из таблицы.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return Количество элементов в таблице.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Список всех значений таблицы в произвольном порядке.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<V> values() {
+        ArrayList<V> result = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) {
+                result.add((V) value);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,223 @@
+package utils;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Хэшированное колесо таймеров. Все таймеры обслуживаются одним потоком, который раз в такт просматривает
+ * одну ячейку колеса. Постановка и отмена таймера не создают потоков и выполняются за постоянное время,
+ * поэтому тысячи одновременно ожидающих таймеров практически ничего не стоят.
+ * Точность срабатывания ограничена длительностью такта. Задачи таймеров выполняются в потоке колеса
+ * и должны быть короткими - длительную работу следует передавать другому исполнителю.
+ */
+public class TimerWheel implements Closeable {
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    /**
+     * Запланированный таймер.
+     */
+    public static final class Timeout {
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state = STATE_PENDING;
+        private long remainingRounds;
+        private Timeout next, previous;
+        private Bucket bucket;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Отменяет таймер, если он ещё не сработал.
+         *
+         * @return true, если таймер был отменён этим вызовом.
+         */
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, STATE_PENDING, STATE_CANCELLED)) {
+                return false;
+            }
+            wheel.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        /**
+         * @return true, если таймер был отменён.
+         */
+        public boolean isCancelled() {
+            return state == STATE_CANCELLED;
+        }
+
+        /**
+         * @return true, если таймер сработал.
+         */
+        public boolean isExpired() {
+            return state == STATE_EXPIRED;
+        }
+
+        private void expire() {
+            if (STATE_UPDATER.compareAndSet(this, STATE_PENDING, STATE_EXPIRED)) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Ячейка колеса - двусвязный список таймеров.
+     */
+    private static final class Bucket {
+        Timeout head, tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.previous != null) {
+                timeout.previous.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+    }
+
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final long startTime = System.nanoTime();
+    private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final Thread workerThread;
+    private volatile boolean running = true;
+    private long tick = 0;
+
+    /**
+     * Конструктор. Запускает поток колеса.
+     *
+     * @param name           Имя потока колеса
+     * @param tickMillis     Длительность такта в миллисекундах
+     * @param bucketsCount   Количество ячеек колеса. Округляется до ближайшей большей степени двойки.
+     */
+    public TimerWheel(String name, long tickMillis, int bucketsCount) {
+        int size = Integer.highestOneBit(Math.max(bucketsCount, 2) - 1) << 1;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(tickMillis, 1));
+        workerThread = new Thread(this::run, name);
+        workerThread.setDaemon(true);
+        workerThread.start();
+    }
+
+    /**
+     * Планирует выполнение задачи.
+     *
+     * @param task        Задача
+     * @param delayMillis Задержка в миллисекундах
+     * @return Таймер, который можно отменить.
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0)));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Основной цикл потока колеса.
+     */
+    private void run() {
+        while (running) {
+            long tickDeadline = (tick + 1) * tickNanos;
+            long sleepNanos;
+            while ((sleepNanos = tickDeadline - (System.nanoTime() - startTime)) > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                if (!running) {
+                    return;
+                }
+            }
+            removeCancelled();
+            transferNewTimeouts();
+            expireBucket(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long deadlineTick = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+            wheel[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void expireBucket(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            if (timeout.remainingRounds <= 0) {
+                Timeout next = bucket.remove(timeout);
+                timeout.expire();
+                timeout = next;
+            } else if (timeout.isCancelled()) {
+                timeout = bucket.remove(timeout);
+            } else {
+                timeout.remainingRounds--;
+                timeout = timeout.next;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(workerThread);
+    }
+}
@@ -0,0 +1,90 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничитель частоты событий по алгоритму "маркерной корзины" (в форме GCRA).
+ * Корзина вмещает <code>burst</code> маркеров и пополняется одним маркером за <code>interval</code> миллисекунд;
+ * каждое пропущенное событие забирает один маркер. Всё состояние корзины - одно число, теоретическое время
+ * прихода следующего события, которое обновляется операцией compare-and-set. Поэтому корзина потокобезопасна
+ * и не использует блокировок.
+ */
+public class TokenBucket {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final int burst;
+    private final AtomicLong theoreticalArrivalTime;
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * Конструктор. Изначально корзина полна.
+     *
+     * @param intervalMillis Время пополнения корзины на один маркер в миллисекундах
+     * @param burst          Ёмкость корзины - количество событий, которые могут пройти подряд без пауз. Не меньше единицы.
+     */
+    public TokenBucket(long intervalMillis, int burst) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(intervalMillis, 0));
+        this.burst = Math.max(burst, 1);
+        this.toleranceNanos = (this.burst - 1) * intervalNanos;
+        this.theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Пытается забрать из корзины один маркер.
+     *
+     * @return true, если событие может быть пропущено, false - если его следует отбросить.
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * Пытается забрать из корзины один маркер.
+     *
+     * @param nowNanos Текущее время по <code>System.nanoTime()</code>
+     * @return true, если событие может быть пропущено, false - если его следует отбросить.
+     */
+    public boolean tryAcquire(long nowNanos) {
+        for (; ; ) {
+            long current = theoreticalArrivalTime.get();
+            long base = current - nowNanos > 0 ? current : nowNanos;
+            if (base - nowNanos > toleranceNanos) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            if (theoreticalArrivalTime.compareAndSet(current, base + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Возвращает в корзину маркер, забранный последним вызовом <code>tryAcquire()</code>.
+     * Используется, если событие всё же было отброшено другим ограничителем.
+     */
+    public void refund() {
+        theoreticalArrivalTime.addAndGet(-intervalNanos);
+    }
+
+    /**
+     * @return Количество событий, отброшенных этой корзиной.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return Время пополнения корзины на один маркер в миллисекундах.
+     */
+    public long getIntervalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+    }
+
+    /**
+     * @return Ёмкость корзины.
+     */
+    public int getBurst() {
+        return burst;
+    }
+}
@@ -1,11 +1,19 @@
 package utils.iniSettings;
 
+import utils.iniSettings.exceptions.DuplicateSectionException;
 import utils.iniSettings.exceptions.IniSettingsException;
 import utils.iniSettings.exceptions.NotFoundException;
+import utils.iniSettings.exceptions.RecordParsingException;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.stream.Collectors;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 /**
  * Класс, позволяющий представить INI - файл, как объект.
@@ -16,24 +24,22 @@ import java.util.stream.Collectors;
  * <li>Поиск секции по имени</li>
  * <li>Импорт секций из файла, и их сохранение в файл</li>
  * </ul>
+ * Имена секций уникальны: секция с уже имеющимся именем замещает прежнюю (см. <code>updateSection()</code>),
+ * а повторное объявление секции в импортируемом тексте считается ошибкой.
  *
  * @author Малякин Кирилл. 15ИТ20.
  */
 public class INISettings {
-    private ArrayList<INISettingsSection> sections = new ArrayList<>();
+    private LinkedHashMap<String, INISettingsSection> sections = new LinkedHashMap<>();
 
     /**
      * Метод обновляет секцию в списке, если её имя совпадает с именем секции <code>section</code>.
-     * В противном случае, секция просто добавляется в список.
+     * В противном случае, секция просто добавляется в конец списка.
      *
      * @param section Секция, которую необходимо обновить.
      */
     public void updateSection(INISettingsSection section) {
-        try {
-            sections.set(sections.indexOf(getSectionByName(section.getSectionName())), section);
-        } catch (NotFoundException e) {
-            sections.add(section);
-        }
+        sections.put(section.getSectionName(), section);
     }
 
     /**
@@ -43,20 +49,19 @@ public class INISettings {
      * @return Секция с заданным именем.
      * @throws NotFoundException В случае, если секции с подобным именем нет в списке.
      */
-    private INISettingsSection getSectionByName(String sectionName) throws NotFoundException {
-        for (INISettingsSection selectedSection : sections) {
-            if (selectedSection.getSectionName().equals(sectionName)) {
-                return selectedSection;
-            }
+    public INISettingsSection getSectionByName(String sectionName) throws NotFoundException {
+        INISettingsSection section = sections.get(sectionName);
+        if (section == null) {
+            throw new NotFoundException();
         }
-        throw new NotFoundException();
+        return section;
     }
 
     /**
-     * @return Список секций целиком.
+     * @return Список секций целиком, в порядке их добавления. Список доступен только для чтения.
      */
-    public ArrayList<INISettingsSection> getSections() {
-        return sections;
+    public Collection<INISettingsSection> getSections() {
+        return Collections.unmodifiableCollection(sections.values());
     }
 
     /**
@@ -67,8 +72,7 @@ public class INISettings {
      */
     public void saveToFile(String fileName) throws IOException {
         try (BufferedWriter textFile = new BufferedWriter(new FileWriter(fileName))) {
-            String iniFileText = this.toString();
-            textFile.write(iniFileText);
+            writeTo(textFile);
             textFile.flush();
         }
     }
@@ -81,69 +85,91 @@ public class INISettings {
      * @throws IniSettingsException В случае проблем с записями ini - файла
      */
     public void loadFromFile(String fileName) throws IOException, IniSettingsException {
-        try (BufferedReader textFile = new BufferedReader(new FileReader(fileName))) {
-            String readedText = textFile.lines().collect(Collectors.joining("\n"));
-            importFromText(readedText);
+        loadFromFile(Paths.get(fileName));
+    }
+
+    /**
+     * Метод импортирует список секций из файла <code>path</code>. Импортированный список замещает тот, что был до него.
+     * Файл читается построчно, целиком в память он не загружается.
+     *
+     * @param path Файл, из которого требуется импортировать секции
+     * @throws IOException В случае проблем с записью или ошибок ввода - вывода.
+     * @throws IniSettingsException В случае проблем с записями ini - файла
+     */
+    public void loadFromFile(Path path) throws IOException, IniSettingsException {
+        try (BufferedReader textFile = Files.newBufferedReader(path, Charset.defaultCharset())) {
+            importFrom(textFile);
         }
     }
 
     /**
-     * Метод импортирует список секций из текста, оформленного согласно формату INI. Импортированный список замещает тот, что был до него.
+     * Метод импортирует список секций из текста, оформленного согласно формату INI, за один проход.
+     * Секции формируются по мере чтения строк. Импортированный список замещает тот, что был до него,
+     * но только если весь текст прочитан без ошибок.
+     * Строки, не являющиеся ни заголовком секции, ни записью key=value, а также записи до первой секции пропускаются.
      *
-     * @param text Текст, из которого требуется импортировать секции
+     * @param reader Источник текста
+     * @throws IOException В случае ошибок ввода - вывода.
+     * @throws RecordParsingException В случае некорректной строки. Содержит номер этой строки.
+     * @throws DuplicateSectionException В случае, если секция с таким именем уже была объявлена выше.
+     * Содержит номера обеих строк.
+     * @throws IniSettingsException В случае проблем с записями ini - файла
      */
-    private void importFromText(String text) throws IniSettingsException {
-        ArrayList<String> lines = splitTextIntoLines(text);
-        sections = new ArrayList<>();
-        while (lines.size() > 0) {
-            int startIndex = -1, lastIndex = lines.size();
-            for (int i = 0; i < lines.size(); i++) {
-                if (lines.get(i).startsWith("[")) {
-                    if (startIndex > 0) {
-                        lastIndex = i;
-                        break;
-                    } else {
-                        startIndex = i;
-                    }
+    public void importFrom(Reader reader) throws IOException, IniSettingsException {
+        BufferedReader lineReader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        LinkedHashMap<String, INISettingsSection> importedSections = new LinkedHashMap<>();
+        HashMap<String, Integer> sectionLineNumbers = new HashMap<>();
+        INISettingsSection currentSection = null;
+        String line;
+        int lineNumber = 0;
+        while ((line = lineReader.readLine()) != null) {
+            lineNumber++;
+            if (line.startsWith("[")) {
+                String header = line.trim();
+                if (!header.endsWith("]")) {
+                    throw new RecordParsingException(lineNumber, line);
                 }
-            }
-            if (startIndex < 0) {
-                break;
-            }
-            sections.add(new INISettingsSection(lines.get(startIndex).substring(1, lines.get(startIndex).length() - 1).trim()));
-            for (int i = startIndex + 1; i < lastIndex; i++) {
-                if (lines.get(i).contains("=")) {
-                    sections.get(sections.size() - 1).addField(new INISettingsRecord(lines.get(i)));
+                currentSection = new INISettingsSection(header.substring(1, header.length() - 1).trim());
+                Integer firstLineNumber = sectionLineNumbers.putIfAbsent(currentSection.getSectionName(), lineNumber);
+                if (firstLineNumber != null) {
+                    throw new DuplicateSectionException(lineNumber, currentSection.getSectionName(), firstLineNumber);
                 }
-            }
-            for (int i = startIndex; i < lastIndex; i++) {
-                lines.remove(startIndex);
+                importedSections.put(currentSection.getSectionName(), currentSection);
+            } else if (currentSection != null && line.indexOf('=') >= 0) {
+                INISettingsRecord record;
+                try {
+                    record = new INISettingsRecord(line);
+                } catch (RecordParsingException e) {
+                    throw new RecordParsingException(lineNumber, line);
+                }
+                if (record.getKey().isEmpty()) {
+                    throw new RecordParsingException(lineNumber, line);
+                }
+                currentSection.addField(record);
             }
         }
+        sections = importedSections;
     }
 
     /**
-     * Разбивает строку на подстроки по признаку переноса строки, и помещает все подстроки в массив для более удобного доступа.
+     * Записывает все секции в формате INI в <code>out</code>, не собирая промежуточных строк.
      *
-     * @param text Текст, который необходимо разбить на подстроки
-     * @return Массив со строками, представляющими собой отдельные подстроки, разделённые по символу переноса строки.
+     * @param out Получатель текста
+     * @throws IOException В случае ошибок ввода - вывода.
      */
-    private ArrayList<String> splitTextIntoLines(String text) {
-        ArrayList<String> lines = new ArrayList<>();
-        StringBuilder builder = new StringBuilder(text);
-        while (builder.indexOf("\n") != -1) {
-            lines.add(builder.substring(0, builder.indexOf("\n")));
-            builder.delete(0, builder.indexOf("\n") + 1);
+    public void writeTo(Appendable out) throws IOException {
+        for (INISettingsSection currentSection : sections.values()) {
+            currentSection.writeTo(out);
         }
-        lines.add(builder.toString());
-        return lines;
     }
 
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
-        for (INISettingsSection currentSection : sections) {
-            builder.append(currentSection);
+        try {
+            writeTo(builder);
+        } catch (IOException ignored) {
+            // StringBuilder не выбрасывает IOException
         }
         return builder.toString();
     }
@@ -0,0 +1,171 @@
+package utils.iniSettings;
+
+import utils.iniSettings.exceptions.IniSettingsException;
+import utils.iniSettings.exceptions.RecordParsingException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Журнал изменений INI - файла. Вместо того, чтобы при каждом изменении перезаписывать файл целиком,
+ * изменённая секция дописывается в конец журнала. Каждая запись журнала - это секция в формате INI,
+ * за которой следует строка - маркер <code>;commit</code>. Запись без маркера (например, если программа
+ * аварийно завершилась во время её записи) при воспроизведении игнорируется.
+ * Периодически журнал сворачивается: все секции записываются во временный файл, который затем атомарно
+ * замещает основной файл, после чего журнал очищается. Таким образом основной файл никогда не бывает
+ * записан наполовину.
+ *
+ * @author Малякин Кирилл. 15ИТ20.
+ */
+public class INISettingsJournal implements Closeable {
+    private static final String COMMIT_MARKER = ";commit";
+
+    private final Path journalFile;
+    private FileChannel journalChannel;
+    private Writer journalWriter;
+    private int entriesCount = 0;
+
+    /**
+     * Конструктор. Файл журнала открывается при первой записи.
+     *
+     * @param journalFile Файл журнала
+     */
+    public INISettingsJournal(Path journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Дописывает секцию в конец журнала и сбрасывает её на диск. Стоимость записи зависит только от размера секции.
+     *
+     * @param section Изменённая секция
+     * @throws IOException В случае ошибок ввода - вывода.
+     */
+    public synchronized void append(INISettingsSection section) throws IOException {
+        if (journalChannel == null) {
+            journalChannel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            journalChannel.position(journalChannel.size());
+            journalWriter = new BufferedWriter(Channels.newWriter(journalChannel, Charset.defaultCharset().newEncoder(), -1));
+            if (endsWithIncompleteLine()) {
+                journalWriter.append('\n'); // Недописанная запись не должна склеиться с новой
+            }
+        }
+        section.writeTo(journalWriter);
+        journalWriter.append(COMMIT_MARKER).append('\n');
+        journalWriter.flush();
+        journalChannel.force(false);
+        entriesCount++;
+    }
+
+    /**
+     * @return true, если журнал не пуст и его последняя строка не завершена переносом строки.
+     * @throws IOException В случае ошибок ввода - вывода.
+     */
+    private boolean endsWithIncompleteLine() throws IOException {
+        long size = journalChannel.size();
+        if (size == 0) {
+            return false;
+        }
+        ByteBuffer lastByte = ByteBuffer.allocate(1);
+        journalChannel.read(lastByte, size - 1);
+        return lastByte.get(0) != '\n';
+    }
+
+    /**
+     * Воспроизводит все завершённые записи журнала, обновляя ими секции <code>settings</code>.
+     *
+     * @param settings Настройки, загруженные из основного файла
+     * @return Количество воспроизведённых записей
+     * @throws IOException          В случае ошибок ввода - вывода.
+     * @throws IniSettingsException В случае повреждённой записи журнала.
+     */
+    public synchronized int replayInto(INISettings settings) throws IOException, IniSettingsException {
+        int replayedCount = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, Charset.defaultCharset())) {
+            INISettingsSection pendingSection = null;
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.equals(COMMIT_MARKER)) {
+                    if (pendingSection != null) {
+                        settings.updateSection(pendingSection);
+                        replayedCount++;
+                    }
+                    pendingSection = null;
+                } else if (line.startsWith("[")) {
+                    String header = line.trim();
+                    if (!header.endsWith("]")) {
+                        throw new RecordParsingException(lineNumber, line);
+                    }
+                    pendingSection = new INISettingsSection(header.substring(1, header.length() - 1).trim());
+                } else if (pendingSection != null && line.indexOf('=') >= 0) {
+                    pendingSection.addField(new INISettingsRecord(line));
+                }
+            }
+        } catch (NoSuchFileException ignored) {
+            // Изменений после последнего сворачивания не было
+        }
+        entriesCount = replayedCount;
+        return replayedCount;
+    }
+
+    /**
+     * Сворачивает журнал: атомарно замещает основной файл <code>snapshotFile</code> полным содержимым <code>settings</code>
+     * и очищает журнал.
+     *
+     * @param settings     Актуальные настройки, включающие все изменения из журнала
+     * @param snapshotFile Основной INI - файл
+     * @throws IOException В случае ошибок ввода - вывода. Основной файл в этом случае остаётся прежним.
+     */
+    public synchronized void compact(INISettings settings, Path snapshotFile) throws IOException {
+        Path directory = snapshotFile.toAbsolutePath().getParent();
+        Path temporaryFile = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Writer writer = new BufferedWriter(Channels.newWriter(channel, Charset.defaultCharset().newEncoder(), -1));
+                settings.writeTo(writer);
+                writer.flush();
+                channel.force(true);
+            }
+            Files.move(temporaryFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        if (journalChannel != null) {
+            journalWriter.flush();
+            journalChannel.truncate(0);
+            journalChannel.force(false);
+        } else {
+            Files.deleteIfExists(journalFile);
+        }
+        entriesCount = 0;
+    }
+
+    /**
+     * @return Количество записей в журнале с момента последнего сворачивания.
+     */
+    public synchronized int getEntriesCount() {
+        return entriesCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journalChannel != null) {
+            journalWriter.close();
+            journalChannel = null;
+            journalWriter = null;
+        }
+    }
+}
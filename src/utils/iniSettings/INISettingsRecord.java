@@ -2,6 +2,8 @@ package utils.iniSettings;
 
 import utils.iniSettings.exceptions.RecordParsingException;
 
+import java.io.IOException;
+
 /**
  * Класс представляет запись формата key = value, использующуюся в формате INI
  * Суть - контейнер с двумя полями. Позволяет менять значения key и value.
@@ -55,6 +57,16 @@ public class INISettingsRecord {
         return value;
     }
 
+    /**
+     * Записывает запись в формате key=value в <code>out</code>.
+     *
+     * @param out Получатель текста
+     * @throws IOException В случае ошибок ввода - вывода.
+     */
+    void writeTo(Appendable out) throws IOException {
+        out.append(key).append('=').append(value);
+    }
+
     @Override
     public String toString() {
         return key + '=' + value;
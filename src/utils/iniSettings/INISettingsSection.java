@@ -3,17 +3,18 @@ package utils.iniSettings;
 import utils.iniSettings.exceptions.AlreadyExistsException;
 import utils.iniSettings.exceptions.NotFoundException;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.LinkedHashMap;
 
 /**
  * Класс представляет секцию INI - файла. Имеет собственное имя и список записей.
- * Позволяет добавлять записи и находить их по названию ключа.
+ * Позволяет добавлять записи и находить их по названию ключа. Записи хранятся в порядке добавления.
  *
  * @author Малякин Кирилл. 15ИТ20.
  */
 public class INISettingsSection {
     private final String sectionName;
-    private final ArrayList<INISettingsRecord> records = new ArrayList<>();
+    private final LinkedHashMap<String, INISettingsRecord> records = new LinkedHashMap<>();
 
     /**
      * Конструктор. Необходимо лишь указать название данной секции.
@@ -39,12 +40,10 @@ public class INISettingsSection {
      * @throws AlreadyExistsException В случае, если запись с таким же ключевым значением уже имеется.
      */
     public void addField(INISettingsRecord newRecord) throws AlreadyExistsException {
-        for (INISettingsRecord selectedRecord : records) {
-            if (selectedRecord.getKey().equals(newRecord.getKey())) {
-                throw new AlreadyExistsException();
-            }
+        if (records.containsKey(newRecord.getKey())) {
+            throw new AlreadyExistsException();
         }
-        records.add(newRecord);
+        records.put(newRecord.getKey(), newRecord);
     }
 
     /**
@@ -56,20 +55,35 @@ public class INISettingsSection {
      * @throws NotFoundException В случае, если записи с таким ключевым значением нет в списке.
      */
     public INISettingsRecord getFieldByKey(String key) throws NotFoundException {
-        for (INISettingsRecord selectedRecord : records) {
-            if (selectedRecord.getKey().equals(key)) {
-                return selectedRecord;
-            }
+        INISettingsRecord record = records.get(key);
+        if (record == null) {
+            throw new NotFoundException();
+        }
+        return record;
+    }
+
+    /**
+     * Записывает секцию в формате INI в <code>out</code>, не собирая промежуточных строк.
+     *
+     * @param out Получатель текста
+     * @throws IOException В случае ошибок ввода - вывода.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        out.append('[').append(sectionName).append("]\n");
+        for (INISettingsRecord selectedRecord : records.values()) {
+            selectedRecord.writeTo(out);
+            out.append('\n');
         }
-        throw new NotFoundException();
     }
 
     @Override
     public String toString() {
-        String result = '[' + sectionName + "]\n";
-        for (INISettingsRecord selectedRecord : records) {
-            result += selectedRecord.toString() + '\n';
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeTo(builder);
+        } catch (IOException ignored) {
+            // StringBuilder не выбрасывает IOException
         }
-        return result;
+        return builder.toString();
     }
 }
@@ -0,0 +1,34 @@
+package utils.iniSettings.exceptions;
+
+/**
+ * Секция с таким же именем уже объявлена выше в том же файле.
+ */
+public class DuplicateSectionException extends RecordParsingException {
+    private final String sectionName;
+    private final int firstLineNumber;
+
+    /**
+     * @param lineNumber      Номер строки с повторным заголовком секции (начиная с единицы)
+     * @param sectionName     Имя секции
+     * @param firstLineNumber Номер строки, в которой секция объявлена впервые
+     */
+    public DuplicateSectionException(int lineNumber, String sectionName, int firstLineNumber) {
+        super("Ошибка в строке " + lineNumber + ": секция [" + sectionName + "] уже объявлена в строке " + firstLineNumber, lineNumber);
+        this.sectionName = sectionName;
+        this.firstLineNumber = firstLineNumber;
+    }
+
+    /**
+     * @return Имя повторяющейся секции.
+     */
+    public String getSectionName() {
+        return sectionName;
+    }
+
+    /**
+     * @return Номер строки, в которой секция объявлена впервые.
+     */
+    public int getFirstLineNumber() {
+        return firstLineNumber;
+    }
+}
@@ -1,4 +1,11 @@
 package utils.iniSettings.exceptions;
 
 public class IniSettingsException extends Exception {
+
+    public IniSettingsException() {
+    }
+
+    public IniSettingsException(String message) {
+        super(message);
+    }
 }
@@ -1,4 +1,34 @@
 package utils.iniSettings.exceptions;
 
 public class RecordParsingException extends IniSettingsException {
+    private final int lineNumber;
+
+    public RecordParsingException() {
+        lineNumber = -1;
+    }
+
+    /**
+     * @param lineNumber Номер строки, в которой обнаружена ошибка (начиная с единицы)
+     * @param line       Содержимое этой строки
+     */
+    public RecordParsingException(int lineNumber, String line) {
+        super("Ошибка в строке " + lineNumber + ": " + line);
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * @param message    Описание ошибки
+     * @param lineNumber Номер строки, в которой обнаружена ошибка (начиная с единицы)
+     */
+    protected RecordParsingException(String message, int lineNumber) {
+        super(message);
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * @return Номер строки, в которой обнаружена ошибка, либо -1, если он неизвестен.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
 }
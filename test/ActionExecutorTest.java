@@ -0,0 +1,139 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ActionExecutorTest {
+
+    private final HeadlessInputInjector injector = new HeadlessInputInjector();
+    private final List<Integer> executedKeys = new ArrayList<>();
+    private final CountDownLatch executorBusy = new CountDownLatch(1);
+    private final CountDownLatch releaseExecutor = new CountDownLatch(1);
+    private ActionExecutor executor;
+
+    /**
+     * Задача, нажимающая клавишу и запоминающая порядок исполнения.
+     */
+    private InjectionTask key(int keyCode) {
+        return taskInjector -> {
+            synchronized (executedKeys) {
+                executedKeys.add(keyCode);
+            }
+            taskInjector.keyPress(keyCode);
+        };
+    }
+
+    /**
+     * Запускает исполнитель и занимает его поток задачей, которая ждёт <code>releaseExecutor</code>.
+     * Пока поток занят, задачи только накапливаются в очереди.
+     */
+    private void startBusy(int capacity, ActionExecutor.OverflowPolicy policy) throws InterruptedException {
+        executor = new ActionExecutor(capacity, policy, () -> injector);
+        executor.submit(taskInjector -> {
+            executorBusy.countDown();
+            try {
+                releaseExecutor.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(executorBusy.await(2, TimeUnit.SECONDS));
+    }
+
+    private List<Integer> releaseAndAwait(int executedCount) throws InterruptedException {
+        releaseExecutor.countDown();
+        awaitCondition(() -> executor.getExecutedCount() == executedCount);
+        synchronized (executedKeys) {
+            return new ArrayList<>(executedKeys);
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "условие не выполнилось за 2 с");
+            Thread.sleep(2);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseExecutor.countDown();
+        executor.close();
+    }
+
+    @Test
+    void dropOldestDiscardsTheHeadOfAFullQueue() throws Exception {
+        startBusy(3, ActionExecutor.OverflowPolicy.DROP_OLDEST);
+        for (int keyCode = 1; keyCode <= 5; keyCode++) {
+            assertTrue(executor.submit(key(keyCode)));
+        }
+        assertEquals(3, executor.getQueueDepth());
+        assertEquals(3, executor.getMaxQueueDepth());
+        assertEquals(2, executor.getDroppedCount());
+        assertEquals(Arrays.asList(3, 4, 5), releaseAndAwait(4));
+        assertEquals(3, injector.getInjectedEventsCount());
+        assertEquals(5, injector.getLastInjectedValue());
+        assertEquals(0, executor.getQueueDepth());
+    }
+
+    @Test
+    void coalesceRepeatsMergesRepeatsOfTheLastTask() throws Exception {
+        startBusy(3, ActionExecutor.OverflowPolicy.COALESCE_REPEATS);
+        InjectionTask repeated = key(1);
+        assertTrue(executor.submit(repeated));
+        assertFalse(executor.submit(repeated));
+        assertFalse(executor.submit(repeated));
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(2, executor.getCoalescedCount());
+        // Повтор, перед которым в очереди стоит другая задача, не объединяется
+        assertTrue(executor.submit(key(2)));
+        assertTrue(executor.submit(repeated));
+        assertTrue(executor.submit(key(3))); // Очередь переполнена: отбрасывается самая старая задача
+        assertEquals(1, executor.getDroppedCount());
+        assertEquals(7, executor.getSubmittedCount());
+        assertEquals(Arrays.asList(2, 1, 3), releaseAndAwait(4));
+    }
+
+    @Test
+    void blockWaitsForSpaceWithoutDroppingTasks() throws Exception {
+        startBusy(1, ActionExecutor.OverflowPolicy.BLOCK);
+        assertTrue(executor.submit(key(1)));
+        Thread blockedSubmit = new Thread(() -> executor.submit(key(2)));
+        blockedSubmit.start();
+        awaitCondition(() -> blockedSubmit.getState() == Thread.State.WAITING);
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(Arrays.asList(1, 2), releaseAndAwait(3));
+        blockedSubmit.join(2000);
+        assertFalse(blockedSubmit.isAlive());
+        assertEquals(0, executor.getDroppedCount());
+    }
+
+    @Test
+    void latencyIncludesTimeSpentInTheQueue() throws Exception {
+        startBusy(4, ActionExecutor.OverflowPolicy.DROP_OLDEST);
+        executor.submit(key(1));
+        Thread.sleep(50);
+        releaseAndAwait(2);
+        assertTrue(executor.getMaxLatencyMicros() >= TimeUnit.MILLISECONDS.toMicros(50), "" + executor.getMaxLatencyMicros());
+        assertTrue(executor.getAverageLatencyMicros() > 0);
+        assertTrue(executor.getAverageExecutionMicros() > 0);
+    }
+
+    @Test
+    void closedExecutorRejectsTasks() throws Exception {
+        startBusy(2, ActionExecutor.OverflowPolicy.BLOCK);
+        releaseExecutor.countDown();
+        executor.close();
+        assertFalse(executor.submit(key(1)));
+    }
+}
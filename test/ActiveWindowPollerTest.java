@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class ActiveWindowPollerTest {
+
+    private final BlockingQueue<String> changes = new ArrayBlockingQueue<>(16);
+
+    @BeforeEach
+    void requirePosixShell() {
+        assumeFalse(System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows"));
+    }
+
+    /**
+     * Команда printf, выводящая строку в UTF-8. Байты записываются восьмеричными кодами, потому что аргументы
+     * процесса кодируются кодировкой системы, которая может не поддерживать кириллицу.
+     */
+    private static String printfUtf8(String text) {
+        StringBuilder command = new StringBuilder("printf '");
+        for (byte symbol : text.getBytes(StandardCharsets.UTF_8)) {
+            command.append(String.format("\\%03o", symbol & 0xFF));
+        }
+        return command.append("\\n'").toString();
+    }
+
+    private void windowChanged(String windowClass, String windowTitle) {
+        changes.offer(windowClass + "|" + windowTitle);
+    }
+
+    @Test
+    void commandOutputIsReadOnEveryPoll() throws Exception {
+        try (ActiveWindowPoller poller = new ActiveWindowPoller("echo Notepad; " + printfUtf8("Заметки - Блокнот"), 50, this::windowChanged)) {
+            poller.setEnabled(true);
+            assertEquals("Notepad|Заметки - Блокнот", changes.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void helperAnswersEachRequestWithoutRestarting() throws Exception {
+        String[] helper = {"sh", "-c", "while read request; do echo Chrome_WidgetWin_1; " + printfUtf8("Почта - Браузер") + "; done"};
+        try (ActiveWindowPoller poller = new ActiveWindowPoller(helper, 50, this::windowChanged)) {
+            poller.setEnabled(true);
+            assertEquals("Chrome_WidgetWin_1|Почта - Браузер", changes.poll(5, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (poller.getPollsCount() < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(poller.getPollsCount() >= 5);
+            assertEquals(0, poller.getFailedPollsCount());
+            assertEquals(1, poller.getChangesCount());
+        }
+    }
+
+    @Test
+    void exitedHelperIsRestarted() throws Exception {
+        String[] helper = {"sh", "-c", "read request; echo Explorer; echo Desktop"};
+        try (ActiveWindowPoller poller = new ActiveWindowPoller(helper, 50, this::windowChanged)) {
+            poller.setEnabled(true);
+            assertEquals("Explorer|Desktop", changes.poll(5, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (poller.getPollsCount() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(poller.getPollsCount() >= 3);
+        }
+    }
+
+    @Test
+    void disabledPollerDoesNotRunTheCommand() throws Exception {
+        try (ActiveWindowPoller poller = new ActiveWindowPoller("echo Notepad", 20, this::windowChanged)) {
+            Thread.sleep(200);
+            assertEquals(0, poller.getPollsCount() + poller.getFailedPollsCount());
+        }
+    }
+}
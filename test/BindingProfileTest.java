@@ -0,0 +1,131 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import utils.iniSettings.INISettings;
+import utils.iniSettings.INISettingsSection;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BindingProfileTest {
+
+    /**
+     * Смещения полей профиля (см. описание формата в <code>BindingProfile</code>).
+     */
+    private static final int HEADER_SIZE = 44;
+    private static final int KEY_SIZE = 8;
+    private static final int RECORD_SIZE = 56;
+
+    static final String ACTIONS_INI = "[layer:vlc]\nwindowClass=vlc\npriority=1\n" +
+            "[4FBB24D]\nactionId=1\nminPressInterval=0\nparamsCount=1\nparam_0=38\nmode=hold\n" +
+            "[vlc|4FBB24D]\nactionId=1\nminPressInterval=0\nparamsCount=1\nparam_0=32\n" +
+            "[COM3/4FBD22D:double_tap]\nactionId=5\nminPressInterval=0\nparamsCount=3\nparam_0=2\nparam_1=17\nparam_2=67\n" +
+            "rateInterval=100\nrateBurst=2\n" +
+            "[4FB08F7+4FB40BF]\nactionId=3\nminPressInterval=300\nparamsCount=2\nparam_0=10\nparam_1=-5\n";
+
+    @TempDir
+    Path directory;
+
+    static INISettings parse(String text) throws Exception {
+        INISettings settings = new INISettings();
+        settings.importFrom(new StringReader(text));
+        return settings;
+    }
+
+    /**
+     * @return Секции в том виде, в котором их записывают действия и слои, без учёта порядка.
+     */
+    private static Set<String> normalizedSections(INISettings settings) throws Exception {
+        Set<String> sections = new HashSet<>();
+        for (INISettingsSection section : settings.getSections()) {
+            sections.add(BindingLayer.isLayerSection(section)
+                    ? new BindingLayer(section).getSettingsSection().toString()
+                    : new KeyPressedAction(section).getSettingsSection().toString());
+        }
+        return sections;
+    }
+
+    private Path writeProfile() throws Exception {
+        Path file = directory.resolve("actions.ini.bin");
+        BindingProfile.compile(parse(ACTIONS_INI), 0x12345678L, ACTIONS_INI.length()).writeTo(file);
+        return file;
+    }
+
+    private static void overwriteInt(Path file, long position, int value) throws IOException {
+        try (RandomAccessFile data = new RandomAccessFile(file.toFile(), "rw")) {
+            data.seek(position);
+            data.writeInt(value);
+        }
+    }
+
+    private static long recordPosition(int index) {
+        return HEADER_SIZE + 4 * KEY_SIZE + (long) index * RECORD_SIZE;
+    }
+
+    @Test
+    void profileRoundTripsThroughFile() throws Exception {
+        BindingProfile profile = BindingProfile.open(writeProfile());
+        assertEquals(4, profile.size());
+        assertEquals(0x12345678L, profile.getSourceChecksum());
+        assertEquals(ACTIONS_INI.length(), profile.getSourceLength());
+        assertEquals(normalizedSections(parse(ACTIONS_INI)), normalizedSections(profile.toSettings()));
+        assertEquals(1, profile.toLayers().size());
+        assertTrue(profile.indexOf(0x4FBB24DL) >= 0);
+        assertEquals(-1, profile.indexOf(0x4FB0000L));
+    }
+
+    @Test
+    void profileOfAnotherIniIsStale() throws Exception {
+        Path source = directory.resolve("actions.ini");
+        Files.write(source, ACTIONS_INI.getBytes());
+        BindingProfile profile = BindingProfile.compile(parse(ACTIONS_INI), BindingProfile.checksumOf(source), Files.size(source));
+        assertTrue(profile.isCompiledFrom(source));
+        Files.write(source, ACTIONS_INI.replace("param_0=38", "param_0=39").getBytes());
+        assertFalse(profile.isCompiledFrom(source));
+    }
+
+    @Test
+    void truncatedProfileIsRejected() throws Exception {
+        Path file = writeProfile();
+        byte[] data = Files.readAllBytes(file);
+        for (int length : new int[]{0, 10, HEADER_SIZE, data.length - 1}) {
+            byte[] truncated = new byte[length];
+            System.arraycopy(data, 0, truncated, 0, length);
+            Files.write(file, truncated);
+            assertThrows(IOException.class, () -> BindingProfile.open(file), "длина " + length);
+        }
+    }
+
+    /**
+     * Записывает профиль заново, заменяет в нём одно число и проверяет, что такой профиль не открывается.
+     */
+    private void assertRejectedWith(long position, int value) throws Exception {
+        Path file = writeProfile();
+        overwriteInt(file, position, value);
+        assertThrows(IOException.class, () -> BindingProfile.open(file), "смещение " + position + ", значение " + value);
+    }
+
+    @Test
+    void paramsOutsideTheProfileAreRejected() throws Exception {
+        assertRejectedWith(recordPosition(0) + 16, 1000);
+        assertRejectedWith(recordPosition(1) + 16, -1);
+        assertRejectedWith(recordPosition(2) + 20, -3);
+        assertRejectedWith(recordPosition(3) + 20, Integer.MAX_VALUE);
+    }
+
+    @Test
+    void unknownStringsAndUnsortedKeysAreRejected() throws Exception {
+        assertRejectedWith(recordPosition(0) + 48, 7);
+        assertRejectedWith(recordPosition(0) + 52, -2);
+        assertRejectedWith(HEADER_SIZE, 0x7FFFFFFF);
+    }
+}
@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import utils.iniSettings.INISettingsRecord;
+import utils.iniSettings.INISettingsSection;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BindingStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private Path writeActions(String text) throws Exception {
+        Path file = directory.resolve("actions.ini");
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static BindingTable load(Path snapshotFile) throws Exception {
+        try (BindingStore store = new BindingStore(snapshotFile.toString(), 60000, 1)) {
+            return store.load();
+        }
+    }
+
+    @Test
+    void loadingCompilesProfileThatMatchesTheIni() throws Exception {
+        Path snapshot = writeActions(BindingProfileTest.ACTIONS_INI);
+        BindingTable fromIni = load(snapshot);
+        Path profileFile = directory.resolve("actions.ini.bin");
+        assertTrue(BindingProfile.open(profileFile).isCompiledFrom(snapshot));
+        BindingTable fromProfile = load(snapshot);
+        assertEquals(fromIni.size(), fromProfile.size());
+        assertEquals(38, fromProfile.get(0x4FBB24DL).getParam(0));
+    }
+
+    @Test
+    void editedIniIsLoadedInsteadOfStaleProfile() throws Exception {
+        Path snapshot = writeActions(BindingProfileTest.ACTIONS_INI);
+        load(snapshot);
+        writeActions(BindingProfileTest.ACTIONS_INI.replace("param_0=38", "param_0=40"));
+        assertEquals(40, load(snapshot).get(0x4FBB24DL).getParam(0));
+    }
+
+    @Test
+    void corruptedProfileFallsBackToIniAndIsRebuilt() throws Exception {
+        Path snapshot = writeActions(BindingProfileTest.ACTIONS_INI);
+        load(snapshot);
+        Path profileFile = directory.resolve("actions.ini.bin");
+        try (RandomAccessFile data = new RandomAccessFile(profileFile.toFile(), "rw")) {
+            data.seek(44 + 4 * 8 + 16); // Номер первого параметра первой привязки
+            data.writeInt(1000000);
+        }
+        BindingTable table = load(snapshot);
+        assertEquals(38, table.get(0x4FBB24DL).getParam(0));
+        assertTrue(BindingProfile.open(profileFile).isCompiledFrom(snapshot));
+    }
+
+    @Test
+    void profileWithInvalidActionFallsBackToIni() throws Exception {
+        Path snapshot = writeActions(BindingProfileTest.ACTIONS_INI);
+        load(snapshot);
+        Path profileFile = directory.resolve("actions.ini.bin");
+        try (RandomAccessFile data = new RandomAccessFile(profileFile.toFile(), "rw")) {
+            data.seek(44 + 4 * 8 + 20); // Количество параметров первой привязки: действию нужен хотя бы один
+            data.writeInt(0);
+        }
+        assertEquals(38, load(snapshot).get(0x4FBB24DL).getParam(0));
+        assertTrue(BindingProfile.open(profileFile).isCompiledFrom(snapshot));
+    }
+
+    private static INISettingsSection binding(String name, int key) throws Exception {
+        INISettingsSection section = new INISettingsSection(name);
+        section.addField(new INISettingsRecord("actionId", "1"));
+        section.addField(new INISettingsRecord("minPressInterval", "0"));
+        section.addField(new INISettingsRecord("paramsCount", "1"));
+        section.addField(new INISettingsRecord("param_0", "" + key));
+        return section;
+    }
+
+    @Test
+    void compactionIsNotReportedAsExternalChange() throws Exception {
+        Path snapshot = writeActions(BindingProfileTest.ACTIONS_INI);
+        try (BindingStore store = new BindingStore(snapshot.toString(), 60000, 1)) {
+            store.load();
+            assertFalse(store.isSnapshotChanged());
+            store.save(binding("4FB00FF", 65));
+            store.compact();
+            assertFalse(store.isSnapshotChanged());
+            writeActions(new String(Files.readAllBytes(snapshot), StandardCharsets.UTF_8) +
+                    "[4FB11EE]\nactionId=1\nminPressInterval=0\nparamsCount=1\nparam_0=66\n");
+            assertTrue(store.isSnapshotChanged());
+            assertEquals(66, store.load().get(0x4FB11EEL).getParam(0));
+            assertFalse(store.isSnapshotChanged());
+        }
+        assertEquals(65, load(snapshot).get(0x4FB00FFL).getParam(0));
+    }
+
+    @Test
+    void compactionDoesNotOverwriteExternalEdit() throws Exception {
+        Path snapshot = writeActions(BindingProfileTest.ACTIONS_INI);
+        String editedText = BindingProfileTest.ACTIONS_INI.replace("param_0=38", "param_0=40");
+        try (BindingStore store = new BindingStore(snapshot.toString(), 60000, 1)) {
+            store.load();
+            store.save(binding("4FB00FF", 65));
+            writeActions(editedText);
+            store.compact();
+            assertEquals(editedText, new String(Files.readAllBytes(snapshot), StandardCharsets.UTF_8));
+            // Перезагрузка после изменения воспроизводит журнал поверх нового снимка, и следующее сворачивание проходит
+            BindingTable table = store.load();
+            assertEquals(40, table.get(0x4FBB24DL).getParam(0));
+            assertEquals(65, table.get(0x4FB00FFL).getParam(0));
+            store.compact();
+        }
+        BindingTable table = load(snapshot);
+        assertEquals(40, table.get(0x4FBB24DL).getParam(0));
+        assertEquals(65, table.get(0x4FB00FFL).getParam(0));
+        assertEquals(0, Files.size(directory.resolve("actions.ini.journal")));
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BindingTableTest {
+
+    private static final long PLAY = 0x4FBB24DL;
+    private static final long NEXT = 0x4FBD22DL;
+    private static final long STOP = 0x4FB08F7L;
+
+    private static KeyPressedAction keyTap(long keyCode, Gesture gesture, String layer, int key) {
+        return new KeyPressedAction(keyCode, gesture, 0, null, layer, 1, 0, 0, 0, false, -1, 1, key);
+    }
+
+    /**
+     * Основной слой и контекстный слой vlc, который включается окном проигрывателя.
+     */
+    private static BindingTable createTable(KeyPressedAction... actions) throws Exception {
+        return BindingTable.of(Arrays.asList(actions),
+                Collections.singletonList(new BindingLayer("vlc", "vlc", null, 1)));
+    }
+
+    @Test
+    void contextLayerBindingOverridesBaseBinding() throws Exception {
+        KeyPressedAction base = keyTap(PLAY, Gesture.RAW, null, 32);
+        KeyPressedAction vlc = keyTap(PLAY, Gesture.RAW, "vlc", 80);
+        BindingTable table = createTable(base, vlc);
+
+        String layer = table.findContextLayer("Qt5QWindowIcon vlc", "Фильм - VLC");
+        assertEquals("vlc", layer);
+        BindingTable layered = table.forLayers(Collections.singletonList(layer));
+        assertSame(vlc, layered.get(PLAY));
+        assertSame(base, table.get(PLAY), "основная таблица не должна меняться");
+    }
+
+    @Test
+    void keyUnboundInLayerFallsThroughToBaseLayer() throws Exception {
+        KeyPressedAction basePlay = keyTap(PLAY, Gesture.RAW, null, 32);
+        KeyPressedAction baseNext = keyTap(NEXT, Gesture.RAW, null, 39);
+        KeyPressedAction baseStopTap = keyTap(STOP, Gesture.TAP, null, 27);
+        KeyPressedAction vlcPlay = keyTap(PLAY, Gesture.RAW, "vlc", 80);
+        BindingTable layered = createTable(basePlay, baseNext, baseStopTap, vlcPlay)
+                .forLayers(Collections.singletonList("vlc"));
+
+        assertSame(vlcPlay, layered.get(PLAY));
+        assertSame(baseNext, layered.get(NEXT));
+        assertSame(baseStopTap, layered.getGesture(STOP, Gesture.TAP));
+        assertNull(layered.get(STOP));
+    }
+
+    @Test
+    void laterLayerOverridesEarlierOne() throws Exception {
+        KeyPressedAction base = keyTap(PLAY, Gesture.RAW, null, 32);
+        KeyPressedAction vlc = keyTap(PLAY, Gesture.RAW, "vlc", 80);
+        KeyPressedAction mode = keyTap(PLAY, Gesture.RAW, "mode", 77);
+        BindingTable table = createTable(base, vlc, mode);
+
+        assertSame(mode, table.forLayers(Arrays.asList("vlc", "mode")).get(PLAY));
+        assertSame(vlc, table.forLayers(Arrays.asList("mode", "vlc")).get(PLAY));
+    }
+
+    @Test
+    void layersWithoutBindingsReuseTables() throws Exception {
+        BindingTable table = createTable(keyTap(PLAY, Gesture.RAW, null, 32), keyTap(PLAY, Gesture.RAW, "vlc", 80));
+
+        assertSame(table, table.forLayers(Collections.singletonList("unknown")));
+        BindingTable layered = table.forLayers(Arrays.asList("vlc", "unknown"));
+        assertSame(layered, table.forLayers(Collections.singletonList("vlc")));
+        assertEquals(Collections.singletonList("vlc"), layered.getActiveLayers());
+    }
+}
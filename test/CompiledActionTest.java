@@ -0,0 +1,64 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class CompiledActionTest {
+
+    private static KeyPressedAction action(long keyCode, int actionId, int... params) {
+        return new KeyPressedAction(keyCode, Gesture.RAW, 0, null, null, actionId, 0, 0, 0, false, -1, 1, params);
+    }
+
+    /**
+     * Привязки всех типов действий, в том числе без параметров, которые компилируются в <code>NoAction</code>.
+     */
+    private static List<KeyPressedAction> createActions() {
+        return Arrays.asList(
+                action(0x4FB08F7L, 1, 38),
+                action(0x4FB40BFL, 2, 1),
+                action(0x4FB40C0L, 2, 2),
+                action(0x4FB40C1L, 2, 3),
+                action(0x4FBB24DL, 3, 0, 20),
+                action(0x4FBB24EL, 3, -15, 7),
+                action(0x4FBD22DL, 4, -3),
+                action(0x4FB32CDL, 5, 2, 524, 9),
+                action(0x4FB32CEL, 5, 3, 17, 18, 46, 99),
+                action(0x4FB32CFL, 5, 0),
+                action(0x4FB926DL, 6),
+                action(0x4FBCA35L, KeyPressedAction.MACRO_ACTION_ID, MacroEngine.POLICY_RESTART, MacroEngine.OP_KEY_TAP, 65, 0));
+    }
+
+    @Test
+    void compiledActionInjectsSameEventsAsInterpretedAction() throws Exception {
+        List<KeyPressedAction> actions = createActions();
+        BindingTable table = BindingTable.of(actions);
+        for (KeyPressedAction binding : actions) {
+            KeyPressedAction action = table.get(binding.getKeyCode());
+            assertNotNull(action);
+            RecordingInputInjector interpreted = new RecordingInputInjector();
+            RecordingInputInjector compiled = new RecordingInputInjector();
+            PipelineFixtures.interpret(action, interpreted);
+            action.getCompiledAction().execute(compiled);
+            assertEquals(interpreted.getEvents(), compiled.getEvents(), "действие " + action.getBindingName());
+        }
+    }
+
+    @Test
+    void sequenceOfActionsInjectsSameEvents() throws Exception {
+        List<KeyPressedAction> actions = createActions();
+        BindingTable table = BindingTable.of(actions);
+        RecordingInputInjector interpreted = new RecordingInputInjector();
+        RecordingInputInjector compiled = new RecordingInputInjector();
+        for (int i = 0; i < 100; i++) {
+            KeyPressedAction action = table.get(actions.get(i * 7 % actions.size()).getKeyCode());
+            PipelineFixtures.interpret(action, interpreted);
+            action.execute(compiled);
+        }
+        assertFalse(interpreted.getEvents().isEmpty());
+        assertEquals(interpreted.getEvents(), compiled.getEvents());
+    }
+}
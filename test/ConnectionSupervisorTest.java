@@ -0,0 +1,233 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionSupervisorTest {
+
+    private static final long INITIAL_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 200;
+
+    private final BlockingQueue<Long> receivedCodes = new LinkedBlockingQueue<>();
+    private final ConnectionManager connectionManager = new ConnectionManager((buttonCode, ir_module) -> receivedCodes.add(buttonCode), 16);
+    private ConnectionSupervisor supervisor;
+
+    /**
+     * Канал к порту, на котором нет модуля: не открывается.
+     */
+    private static final class MissingPortTransport implements SerialTransport {
+        private final String portName;
+
+        MissingPortTransport(String portName) {
+            this.portName = portName;
+        }
+
+        @Override
+        public void open(DataListener listener) throws IOException {
+            throw new IOException("Порт " + portName + " не найден");
+        }
+
+        @Override
+        public void write(byte[] data) throws IOException {
+            throw new IOException("Порт " + portName + " закрыт");
+        }
+
+        @Override
+        public String getPortName() {
+            return portName;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Канал к порту, который открывается, но ничего не присылает - например, к другому устройству.
+     */
+    private static final class SilentPortTransport implements SerialTransport {
+        private final String portName;
+
+        SilentPortTransport(String portName) {
+            this.portName = portName;
+        }
+
+        @Override
+        public void open(DataListener listener) {
+        }
+
+        @Override
+        public void write(byte[] data) {
+        }
+
+        @Override
+        public String getPortName() {
+            return portName;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Имитация портов для супервизора: на портах из <code>modulePorts</code> создаётся имитация модуля,
+     * порты из <code>silentPorts</code> открываются, но молчат, остальные порты не открываются.
+     * Запоминает время каждой попытки открытия порта.
+     */
+    private static final class FakeTransportFactory implements ConnectionSupervisor.TransportFactory {
+        final List<String> attemptedPorts = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> attemptTimes = Collections.synchronizedList(new ArrayList<>());
+        final Map<String, SimulatedIR_module> modules = new ConcurrentHashMap<>();
+        volatile List<String> modulePorts = Collections.emptyList();
+        volatile List<String> silentPorts = Collections.emptyList();
+
+        @Override
+        public SerialTransport create(String portName) {
+            attemptTimes.add(System.currentTimeMillis());
+            attemptedPorts.add(portName);
+            if (silentPorts.contains(portName)) {
+                return new SilentPortTransport(portName);
+            }
+            if (!modulePorts.contains(portName)) {
+                return new MissingPortTransport(portName);
+            }
+            SimulatedIR_module module = new SimulatedIR_module(portName);
+            module.setHandshakeDelayMillis(5);
+            modules.put(portName, module);
+            return module;
+        }
+    }
+
+    private ConnectionSupervisor startSupervisor(FakeTransportFactory factory, String... portNames) {
+        return startSupervisor(factory, 20, portNames);
+    }
+
+    private ConnectionSupervisor startSupervisor(FakeTransportFactory factory, long connectTimeoutMillis, String... portNames) {
+        supervisor = new ConnectionSupervisor(connectionManager, () -> portNames, factory,
+                5, TimeUnit.HOURS.toMillis(1), INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, connectTimeoutMillis);
+        return supervisor;
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "условие не выполнилось за 10 с");
+            Thread.sleep(5);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (supervisor != null) {
+            supervisor.close();
+        }
+        connectionManager.close();
+    }
+
+    @Test
+    void backoffDoublesUntilTheLimit() throws Exception {
+        FakeTransportFactory factory = new FakeTransportFactory();
+        connectionManager.add(new IR_moduleConnection(new MissingPortTransport("COM1")));
+        startSupervisor(factory, "COM1");
+        awaitCondition(() -> factory.attemptTimes.size() >= 6);
+        supervisor.close();
+
+        List<Long> times = new ArrayList<>(factory.attemptTimes);
+        long expectedBackoff = INITIAL_BACKOFF_MILLIS;
+        for (int i = 1; i < 6; i++) {
+            long pause = times.get(i) - times.get(i - 1);
+            assertTrue(pause >= expectedBackoff, "пауза " + i + ": " + pause + " мс, ожидалось не меньше " + expectedBackoff);
+            assertTrue(pause < 2 * MAX_BACKOFF_MILLIS, "пауза " + i + ": " + pause + " мс превышает предел");
+            expectedBackoff = Math.min(expectedBackoff * 2, MAX_BACKOFF_MILLIS);
+        }
+        ConnectionSupervisor.Health health = supervisor.getHealth().get(0);
+        assertTrue(health.isOutage());
+        assertEquals(1, health.getOutagesCount());
+        assertEquals(0, health.getReconnectsCount());
+        assertTrue(health.getFailedAttemptsCount() >= 5);
+    }
+
+    @Test
+    void unpluggedModuleIsReconnectedOnAnotherPort() throws Exception {
+        SimulatedIR_module module = new SimulatedIR_module("COM1");
+        module.setHandshakeDelayMillis(5);
+        IR_moduleConnection connection = new IR_moduleConnection(module);
+        assertTrue(connection.awaitConnected(2000));
+        connectionManager.add(connection);
+        FakeTransportFactory factory = new FakeTransportFactory();
+        factory.modulePorts = Collections.singletonList("COM2");
+        startSupervisor(factory, "COM1", "COM2");
+
+        module.press(0x4FBB24DL, 0);
+        assertEquals(0x4FBB24DL, (long) receivedCodes.poll(2, TimeUnit.SECONDS));
+
+        module.unplug();
+        awaitCondition(() -> !supervisor.getHealth().isEmpty() && supervisor.getHealth().get(0).getReconnectsCount() == 1);
+        ConnectionSupervisor.Health health = supervisor.getHealth().get(0);
+        assertFalse(health.isOutage());
+        assertEquals(1, health.getOutagesCount());
+        assertEquals("COM2", connection.getPortName());
+        assertEquals(Arrays.asList("COM1", "COM2"), factory.attemptedPorts.subList(0, 2));
+
+        // Обработчики и очередь событий остались прежними
+        SimulatedIR_module replacement = factory.modules.get("COM2");
+        assertNotNull(replacement);
+        replacement.press(0x4FBD22DL, 0);
+        assertEquals(0x4FBD22DL, (long) receivedCodes.poll(2, TimeUnit.SECONDS));
+        connectionManager.closeConnections();
+    }
+
+    @Test
+    void silentPortDoesNotDelayOtherConnections() throws Exception {
+        IR_moduleConnection lost = new IR_moduleConnection(new MissingPortTransport("COM1"));
+        connectionManager.add(lost);
+        SimulatedIR_module module = new SimulatedIR_module("COM2");
+        module.setHandshakeDelayMillis(5);
+        IR_moduleConnection connection = new IR_moduleConnection(module);
+        assertTrue(connection.awaitConnected(2000));
+        connectionManager.add(connection);
+        FakeTransportFactory factory = new FakeTransportFactory();
+        factory.silentPorts = Collections.singletonList("COM1");
+        factory.modulePorts = Collections.singletonList("COM2");
+        startSupervisor(factory, TimeUnit.MINUTES.toMillis(1), "COM1", "COM2");
+
+        // Потерянное подключение ждёт ответа на молчащем порту дольше, чем длится тест
+        awaitCondition(() -> factory.attemptedPorts.contains("COM1"));
+        module.unplug();
+        awaitCondition(() -> supervisor.getHealth().stream().anyMatch(health -> health.getReconnectsCount() == 1));
+        assertEquals("COM2", connection.getPortName());
+        assertEquals(1, supervisor.getHealth().stream().filter(ConnectionSupervisor.Health::isOutage).count());
+        assertEquals(Arrays.asList("COM1", "COM2"), factory.attemptedPorts);
+        connectionManager.closeConnections();
+    }
+
+    @Test
+    void connectionsClosedManuallyAreNotReconnected() throws Exception {
+        FakeTransportFactory factory = new FakeTransportFactory();
+        connectionManager.add(new IR_moduleConnection(new MissingPortTransport("COM1")));
+        startSupervisor(factory, "COM1");
+        awaitCondition(() -> !factory.attemptTimes.isEmpty());
+        connectionManager.closeConnections();
+        Thread.sleep(MAX_BACKOFF_MILLIS);
+        int attemptsCount = factory.attemptTimes.size();
+        Thread.sleep(2 * MAX_BACKOFF_MILLIS);
+        assertEquals(attemptsCount, factory.attemptTimes.size());
+        assertTrue(supervisor.getHealth().isEmpty());
+    }
+}
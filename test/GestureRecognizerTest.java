@@ -0,0 +1,197 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import utils.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GestureRecognizerTest {
+
+    private static final long RELEASE_MILLIS = 20;
+
+    private final TimerWheel timerWheel = new TimerWheel("gesture-test", 1, 64);
+
+    @AfterEach
+    void closeTimerWheel() {
+        timerWheel.close();
+    }
+
+    private GestureRecognizer createRecognizer(GestureRecognizer.GestureListener listener) {
+        return new GestureRecognizer(timerWheel, () -> BindingTable.EMPTY, listener, RELEASE_MILLIS, 500, 800, 300);
+    }
+
+    @Test
+    void tapIsDeliveredOutsideTheRecognizerLock() throws Exception {
+        AtomicReference<GestureRecognizer> recognizer = new AtomicReference<>();
+        AtomicBoolean lockHeld = new AtomicBoolean(true);
+        CountDownLatch delivered = new CountDownLatch(1);
+        recognizer.set(createRecognizer((keyCode, gesture, chordPrefixCode) -> {
+            lockHeld.set(Thread.holdsLock(recognizer.get()));
+            delivered.countDown();
+        }));
+        recognizer.get().onFrame(0x4FBB24DL);
+        assertTrue(delivered.await(2, TimeUnit.SECONDS));
+        assertFalse(lockHeld.get());
+    }
+
+    @Test
+    void blockedListenerDoesNotStallFrameProcessing() throws Exception {
+        CountDownLatch firstEntered = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        CountDownLatch allDelivered = new CountDownLatch(2);
+        List<Long> deliveredCodes = new ArrayList<>();
+        GestureRecognizer recognizer = createRecognizer((keyCode, gesture, chordPrefixCode) -> {
+            assertEquals(Gesture.TAP, gesture);
+            synchronized (deliveredCodes) {
+                deliveredCodes.add(keyCode);
+            }
+            firstEntered.countDown();
+            try {
+                releaseFirst.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            allDelivered.countDown();
+        });
+        recognizer.onFrame(1);
+        assertTrue(firstEntered.await(2, TimeUnit.SECONDS));
+        // Получатель занят в потоке колеса таймеров, но приём кадров не ждёт его, а новый жест доставляется следом
+        CompletableFuture.runAsync(() -> recognizer.onFrame(2)).get(1, TimeUnit.SECONDS);
+        Thread.sleep(RELEASE_MILLIS * 5);
+        releaseFirst.countDown();
+        assertTrue(allDelivered.await(2, TimeUnit.SECONDS));
+        synchronized (deliveredCodes) {
+            assertEquals(2, deliveredCodes.size());
+            assertEquals(1L, (long) deliveredCodes.get(0));
+            assertEquals(2L, (long) deliveredCodes.get(1));
+        }
+    }
+
+    /**
+     * Время без кадров, после которого кнопка считается отпущенной, в тестах распознавания жестов.
+     * Кадры посылаются в пять раз чаще, чтобы задержки планировщика не прерывали нажатие.
+     */
+    private static final long GESTURE_RELEASE_MILLIS = 50;
+    private static final long FRAME_INTERVAL_MILLIS = 10;
+    private static final long TAP_WINDOW_MILLIS = 150;
+
+    private final List<String> gestures = Collections.synchronizedList(new ArrayList<>());
+
+    private GestureRecognizer createRecognizer(long holdMillis, long longPressMillis, KeyPressedAction... bindings) throws Exception {
+        BindingTable table = BindingTable.of(Arrays.asList(bindings));
+        return new GestureRecognizer(timerWheel, () -> table, (keyCode, gesture, chordPrefixCode) ->
+                gestures.add(gesture + " " + keyCode + (chordPrefixCode != 0 ? " после " + chordPrefixCode : "")),
+                GESTURE_RELEASE_MILLIS, holdMillis, longPressMillis, TAP_WINDOW_MILLIS);
+    }
+
+    private static KeyPressedAction binding(long keyCode, Gesture gesture, long chordPrefixCode) {
+        return new KeyPressedAction(keyCode, gesture, chordPrefixCode, null, null, 1, 0, 0, 0, false, -1, 1, 38);
+    }
+
+    /**
+     * Имитирует нажатие кнопки длительностью <code>durationMillis</code>: первый кадр и повторы.
+     */
+    private static void press(GestureRecognizer recognizer, long keyCode, long durationMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + durationMillis;
+        recognizer.onFrame(keyCode);
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(FRAME_INTERVAL_MILLIS);
+            recognizer.onFrame(keyCode);
+        }
+    }
+
+    /**
+     * Ждёт, пока не будет распознано <code>count</code> жестов, и ещё немного - чтобы заметить лишние жесты.
+     */
+    private List<String> awaitGestures(int count) throws InterruptedException {
+        awaitCondition(() -> gestures.size() >= count);
+        Thread.sleep(TAP_WINDOW_MILLIS + GESTURE_RELEASE_MILLIS);
+        synchronized (gestures) {
+            return new ArrayList<>(gestures);
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "условие не выполнилось за 5 с");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void shortPressIsTap() throws Exception {
+        GestureRecognizer recognizer = createRecognizer(500, 800);
+        press(recognizer, 1, 30);
+        assertEquals(Collections.singletonList("TAP 1"), awaitGestures(1));
+    }
+
+    @Test
+    void secondPressInsideTheWindowIsDoubleTap() throws Exception {
+        GestureRecognizer recognizer = createRecognizer(500, 800, binding(1, Gesture.DOUBLE_TAP, 0));
+        press(recognizer, 1, 20);
+        Thread.sleep(GESTURE_RELEASE_MILLIS + 20);
+        press(recognizer, 1, 20);
+        assertEquals(Collections.singletonList("DOUBLE_TAP 1"), awaitGestures(1));
+    }
+
+    @Test
+    void tapOfDoubleTapKeyIsReportedAfterTheWindow() throws Exception {
+        GestureRecognizer recognizer = createRecognizer(500, 800, binding(1, Gesture.DOUBLE_TAP, 0));
+        long start = System.currentTimeMillis();
+        press(recognizer, 1, 20);
+        awaitCondition(() -> !gestures.isEmpty());
+        assertTrue(System.currentTimeMillis() - start >= TAP_WINDOW_MILLIS);
+        assertEquals(Collections.singletonList("TAP 1"), awaitGestures(1));
+    }
+
+    @Test
+    void longPressIsReportedOnRelease() throws Exception {
+        GestureRecognizer recognizer = createRecognizer(10000, 150);
+        press(recognizer, 1, 250);
+        assertEquals(Collections.singletonList("LONG_PRESS 1"), awaitGestures(1));
+    }
+
+    @Test
+    void holdStartsRepeatsAndEnds() throws Exception {
+        GestureRecognizer recognizer = createRecognizer(100, 10000);
+        press(recognizer, 1, 250);
+        List<String> recognized = awaitGestures(3);
+        assertEquals("HOLD_START 1", recognized.get(0));
+        assertEquals("HOLD_END 1", recognized.get(recognized.size() - 1));
+        assertTrue(recognized.size() >= 3, recognized.toString());
+        for (String gesture : recognized.subList(1, recognized.size() - 1)) {
+            assertEquals("HOLD_REPEAT 1", gesture);
+        }
+    }
+
+    @Test
+    void tapFollowedByBoundSecondKeyIsChord() throws Exception {
+        GestureRecognizer recognizer = createRecognizer(500, 800, binding(2, Gesture.CHORD, 1));
+        press(recognizer, 1, 20);
+        Thread.sleep(GESTURE_RELEASE_MILLIS + 20);
+        press(recognizer, 2, 20);
+        assertEquals(Collections.singletonList("CHORD 2 после 1"), awaitGestures(1));
+    }
+
+    @Test
+    void unboundSecondKeyEndsThePendingTap() throws Exception {
+        GestureRecognizer recognizer = createRecognizer(500, 800, binding(2, Gesture.CHORD, 1));
+        press(recognizer, 1, 20);
+        Thread.sleep(GESTURE_RELEASE_MILLIS + 20);
+        press(recognizer, 3, 20);
+        assertEquals(Arrays.asList("TAP 1", "TAP 3"), awaitGestures(2));
+    }
+}
@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import utils.TimerWheel;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HoldControllerTest {
+
+    private static final long RELEASE_MILLIS = 100;
+
+    private final TimerWheel timerWheel = new TimerWheel("hold-test", 1, 64);
+    private final RecordingInputInjector injector = new RecordingInputInjector();
+    private ActionExecutor executor;
+    private HoldController controller;
+
+    private static KeyPressedAction holdAction(long keyCode, int key) {
+        return new KeyPressedAction(keyCode, Gesture.RAW, 0, null, null, 1, 0, 0, 0, true, -1, 1, key);
+    }
+
+    private void start(int capacity) {
+        executor = new ActionExecutor(capacity, ActionExecutor.OverflowPolicy.BLOCK, () -> injector);
+        controller = new HoldController(executor, timerWheel, RELEASE_MILLIS);
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "условие не выполнилось за 2 с");
+            Thread.sleep(5);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        controller.close();
+        executor.close();
+        timerWheel.close();
+    }
+
+    @Test
+    void repeatsExtendOneHoldAndSilenceReleasesIt() throws Exception {
+        start(16);
+        KeyPressedAction action = holdAction(0x4FBB24DL, 38);
+        for (int i = 0; i < 5; i++) {
+            controller.onFrame(action);
+            Thread.sleep(RELEASE_MILLIS / 10);
+        }
+        awaitCondition(() -> injector.getEvents().size() == 2);
+        assertEquals(Arrays.asList("keyPress 38", "keyRelease 38"), injector.getEvents());
+        assertEquals(1, controller.getHoldsCount());
+        assertEquals(4, controller.getRefreshedFramesCount());
+    }
+
+    @Test
+    void fullBlockingQueueDoesNotHoldTheControllerLock() throws Exception {
+        start(1);
+        CountDownLatch executorBusy = new CountDownLatch(1);
+        CountDownLatch releaseExecutor = new CountDownLatch(1);
+        executor.submit(taskInjector -> {
+            executorBusy.countDown();
+            try {
+                releaseExecutor.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(executorBusy.await(2, TimeUnit.SECONDS));
+        executor.submit(taskInjector -> {
+        }); // Очередь заполнена
+        Thread blockedFrame = new Thread(() -> controller.onFrame(holdAction(1, 38)));
+        blockedFrame.start();
+        awaitCondition(() -> blockedFrame.getState() == Thread.State.WAITING);
+        // Постановка в очередь ждёт, но контроллер доступен другим кнопкам и проверкам по таймеру
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> assertEquals(1, controller.getHoldsCount()));
+        releaseExecutor.countDown();
+        blockedFrame.join(2000);
+        awaitCondition(() -> injector.getEvents().size() == 2);
+        assertEquals(Arrays.asList("keyPress 38", "keyRelease 38"), injector.getEvents());
+    }
+}
@@ -0,0 +1,156 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IR_frameDecoderTest {
+
+    private static final String GREETING = "DEVICE_ACTIVE\r\n";
+    private static final String STREAM = "4FBB24D\r\n4FBD22D\n\r\nPONG\r\n4FB926D\r\nFFFFFFFF\r\n";
+    private static final List<String> STREAM_FRAMES = Arrays.asList("4FBB24D", "4FBD22D", "PONG", "4FB926D", "FFFFFFFF");
+
+    /**
+     * Передаёт декодеру одну порцию данных так же, как это делает <code>IR_moduleConnection</code>,
+     * и возвращает все извлечённые кадры в текстовом виде.
+     */
+    private static List<String> feed(IR_frameDecoder decoder, String chunk) {
+        byte[] data = chunk.getBytes(StandardCharsets.US_ASCII);
+        decoder.write(data, 0, data.length);
+        decoder.endOfChunk();
+        List<String> frames = new ArrayList<>();
+        int frameType;
+        while ((frameType = decoder.nextFrame()) != IR_frameDecoder.FRAME_NONE) {
+            switch (frameType) {
+                case IR_frameDecoder.FRAME_CODE:
+                    frames.add(IR_frameDecoder.codeToHex(decoder.getCode()));
+                    break;
+                case IR_frameDecoder.FRAME_DEVICE_ACTIVE:
+                    frames.add("DEVICE_ACTIVE");
+                    break;
+                case IR_frameDecoder.FRAME_PONG:
+                    frames.add("PONG");
+                    break;
+                default:
+                    frames.add("CORRUPTED");
+                    break;
+            }
+        }
+        return frames;
+    }
+
+    private static IR_frameDecoder greetedDecoder() {
+        IR_frameDecoder decoder = new IR_frameDecoder();
+        assertEquals(Arrays.asList("DEVICE_ACTIVE"), feed(decoder, GREETING));
+        assertTrue(decoder.isDelimitedProtocol());
+        return decoder;
+    }
+
+    @Test
+    void mergedFramesAreDecodedFromOneChunk() {
+        IR_frameDecoder decoder = new IR_frameDecoder();
+        List<String> expected = new ArrayList<>();
+        expected.add("DEVICE_ACTIVE");
+        expected.addAll(STREAM_FRAMES);
+        assertEquals(expected, feed(decoder, GREETING + STREAM));
+        assertEquals(0, decoder.getCorruptedFramesCount());
+    }
+
+    @Test
+    void framesSplitAtEveryOffsetAreReassembled() {
+        for (int offset = 0; offset <= STREAM.length(); offset++) {
+            IR_frameDecoder decoder = greetedDecoder();
+            List<String> frames = feed(decoder, STREAM.substring(0, offset));
+            frames.addAll(feed(decoder, STREAM.substring(offset)));
+            assertEquals(STREAM_FRAMES, frames, "разрыв на смещении " + offset);
+            assertEquals(0, decoder.getCorruptedFramesCount());
+        }
+    }
+
+    @Test
+    void framesFedByteByByteAreReassembled() {
+        IR_frameDecoder decoder = greetedDecoder();
+        List<String> frames = new ArrayList<>();
+        for (int i = 0; i < STREAM.length(); i++) {
+            frames.addAll(feed(decoder, STREAM.substring(i, i + 1)));
+        }
+        assertEquals(STREAM_FRAMES, frames);
+    }
+
+    @Test
+    void corruptedHexFrameIsDroppedAndDecodingContinues() {
+        IR_frameDecoder decoder = greetedDecoder();
+        assertEquals(Arrays.asList("CORRUPTED", "4FBB24D", "CORRUPTED"), feed(decoder, "4FBZ24D\r\n4FBB24D\r\nPONGX\r\n"));
+        assertEquals(2, decoder.getCorruptedFramesCount());
+    }
+
+    @Test
+    void codeLongerThanSixteenDigitsIsCorrupted() {
+        IR_frameDecoder decoder = greetedDecoder();
+        assertEquals(Arrays.asList("FFFFFFFFFFFFFFFF", "CORRUPTED"), feed(decoder, "FFFFFFFFFFFFFFFF\r\n1FFFFFFFFFFFFFFFF\r\n"));
+        assertEquals(-1L, IR_frameDecoder.hexToCode("FFFFFFFFFFFFFFFF"));
+        assertEquals(1, decoder.getCorruptedFramesCount());
+    }
+
+    @Test
+    void overlongGarbageFrameIsCorrupted() {
+        IR_frameDecoder decoder = greetedDecoder();
+        char[] garbage = new char[100];
+        Arrays.fill(garbage, 'Z');
+        assertEquals(Arrays.asList("CORRUPTED", "4FBB24D"), feed(decoder, new String(garbage) + "\r\n4FBB24D\r\n"));
+    }
+
+    @Test
+    void legacyFirmwareWithoutDelimitersEndsFramesAtChunkEnd() {
+        IR_frameDecoder decoder = new IR_frameDecoder();
+        assertEquals(Arrays.asList("DEVICE_ACTIVE"), feed(decoder, "DEVICE_ACTIVE"));
+        assertEquals(Arrays.asList("4FBB24D"), feed(decoder, "4FBB24D"));
+        assertEquals(Arrays.asList("4FBD22D"), feed(decoder, "4FBD22D"));
+        assertEquals(Arrays.asList("CORRUPTED"), feed(decoder, "4FBZ"));
+        assertFalse(decoder.isDelimitedProtocol());
+    }
+
+    @Test
+    void legacyGreetingIsRecognizedEvenWhenFollowedByCode() {
+        IR_frameDecoder decoder = new IR_frameDecoder();
+        assertEquals(Arrays.asList("DEVICE_ACTIVE", "4FBB24D"), feed(decoder, "DEVICE_ACTIVE4FBB24D"));
+    }
+
+    @Test
+    void overflowDropsOldestBytesAndTheBrokenFrame() {
+        IR_frameDecoder decoder = new IR_frameDecoder(16);
+        byte[] data = "4FBB24D\r\n4FBD22D\r\n4FB926D\r\n".getBytes(StandardCharsets.US_ASCII);
+        decoder.write(data, 0, data.length);
+        assertEquals(data.length - 16, decoder.getOverflowedBytesCount());
+        List<String> frames = new ArrayList<>();
+        int frameType;
+        while ((frameType = decoder.nextFrame()) != IR_frameDecoder.FRAME_NONE) {
+            frames.add(frameType == IR_frameDecoder.FRAME_CODE ? IR_frameDecoder.codeToHex(decoder.getCode()) : "CORRUPTED");
+        }
+        assertEquals(Arrays.asList("CORRUPTED", "4FB926D"), frames);
+    }
+
+    @Test
+    void resetDiscardsPartialFrame() {
+        IR_frameDecoder decoder = greetedDecoder();
+        assertTrue(feed(decoder, "4FB").isEmpty());
+        decoder.reset();
+        assertFalse(decoder.isDelimitedProtocol());
+        assertEquals(Arrays.asList("4FBB24D"), feed(decoder, "4FBB24D\r\n"));
+    }
+
+    @Test
+    void hexConversionRoundTrips() {
+        assertEquals(0x4FBB24DL, IR_frameDecoder.hexToCode("4fbb24d"));
+        assertEquals("4FBB24D", IR_frameDecoder.codeToHex(0x4FBB24DL));
+        assertThrows(NumberFormatException.class, () -> IR_frameDecoder.hexToCode(""));
+        assertThrows(NumberFormatException.class, () -> IR_frameDecoder.hexToCode("4FBZ"));
+        assertThrows(NumberFormatException.class, () -> IR_frameDecoder.hexToCode("1FFFFFFFFFFFFFFFF"));
+    }
+}
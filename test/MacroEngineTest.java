@@ -0,0 +1,131 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MacroEngineTest {
+
+    private static final int DOWN = MacroEngine.OP_KEY_DOWN;
+    private static final int UP = MacroEngine.OP_KEY_UP;
+    private static final int TAP = MacroEngine.OP_KEY_TAP;
+    private static final int MOVE = MacroEngine.OP_MOUSE_MOVE;
+    private static final int CLICK = MacroEngine.OP_MOUSE_CLICK;
+    private static final int WHEEL = MacroEngine.OP_WHEEL;
+    private static final int WAIT = MacroEngine.OP_WAIT;
+    private static final int REPEAT = MacroEngine.OP_REPEAT;
+    private static final int END = MacroEngine.OP_END;
+
+    private final RecordingInputInjector injector = new RecordingInputInjector();
+    private final ActionExecutor executor = new ActionExecutor(16, ActionExecutor.OverflowPolicy.BLOCK, () -> injector);
+    private final MacroEngine engine = new MacroEngine(executor, 4);
+
+    private static KeyPressedAction macro(int... program) {
+        return new KeyPressedAction(0x4FBB24DL, Gesture.TAP, 0, null, null, KeyPressedAction.MACRO_ACTION_ID, 0, 0, 0, false, -1, 1, program);
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "условие не выполнилось за 2 с");
+            Thread.sleep(5);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.close();
+        executor.close();
+    }
+
+    @Test
+    void malformedProgramsAreRejected() {
+        int restart = MacroEngine.POLICY_RESTART;
+        assertFalse(MacroEngine.isValidProgram(new int[]{restart}), "нет ни одного шага");
+        assertFalse(MacroEngine.isValidProgram(new int[]{restart, TAP, 65}), "неполный шаг");
+        assertFalse(MacroEngine.isValidProgram(new int[]{-1, TAP, 65, 0}), "неизвестное поведение");
+        assertFalse(MacroEngine.isValidProgram(new int[]{MacroEngine.POLICY_IGNORE + 1, TAP, 65, 0}), "неизвестное поведение");
+        assertFalse(MacroEngine.isValidProgram(new int[]{restart, 42, 65, 0}), "неизвестная операция");
+        assertFalse(MacroEngine.isValidProgram(new int[]{restart, DOWN, 0, 0}), "нулевой код клавиши");
+        assertFalse(MacroEngine.isValidProgram(new int[]{restart, CLICK, 4, 0}), "неизвестная клавиша мыши");
+        assertFalse(MacroEngine.isValidProgram(new int[]{restart, WAIT, -1, 0}), "отрицательная пауза");
+        assertFalse(MacroEngine.isValidProgram(new int[]{restart, REPEAT, -1, 0, TAP, 65, 0, END, 0, 0}), "отрицательное число повторов");
+        assertFalse(MacroEngine.isValidProgram(new int[]{restart, TAP, 65, 0, END, 0, 0}), "конец блока без начала");
+        assertFalse(MacroEngine.isValidProgram(new int[]{restart, REPEAT, 2, 0, TAP, 65, 0}), "незакрытый блок");
+        assertFalse(MacroEngine.isValidProgram(new int[]{restart, REPEAT, 0, 0, TAP, 65, 0, END, 0, 0}), "бесконечный блок без паузы");
+        assertFalse(MacroEngine.isValidProgram(new int[]{restart, REPEAT, 0, 0, REPEAT, 2, 0, WAIT, 0, 0, END, 0, 0, END, 0, 0}),
+                "нулевая пауза не прерывает бесконечный блок");
+
+        int[] tooDeep = new int[1 + 3 * 2 * (MacroEngine.MAX_REPEAT_DEPTH + 1)];
+        for (int i = 0; i <= MacroEngine.MAX_REPEAT_DEPTH; i++) {
+            tooDeep[1 + 3 * i] = REPEAT;
+            tooDeep[2 + 3 * i] = 2;
+            tooDeep[tooDeep.length - 3 - 3 * i] = END;
+        }
+        assertFalse(MacroEngine.isValidProgram(tooDeep), "слишком глубокая вложенность блоков");
+
+        int[] tooManyHeldKeys = new int[1 + 3 * (MacroEngine.MAX_HELD_KEYS + 1)];
+        for (int i = 0; i <= MacroEngine.MAX_HELD_KEYS; i++) {
+            tooManyHeldKeys[1 + 3 * i] = DOWN;
+            tooManyHeldKeys[2 + 3 * i] = 65 + i;
+        }
+        assertFalse(MacroEngine.isValidProgram(tooManyHeldKeys), "слишком много удерживаемых клавиш");
+    }
+
+    @Test
+    void wellFormedProgramsAreAccepted() {
+        assertTrue(MacroEngine.isValidProgram(new int[]{MacroEngine.POLICY_QUEUE, TAP, 65, 0}));
+        assertTrue(MacroEngine.isValidProgram(new int[]{MacroEngine.POLICY_CANCEL,
+                REPEAT, 0, 0, REPEAT, 2, 0, WAIT, 50, 0, END, 0, 0, END, 0, 0}));
+        assertTrue(MacroEngine.isValidProgram(new int[]{MacroEngine.POLICY_IGNORE,
+                DOWN, 17, 0, MOVE, -5, 5, WHEEL, -3, 0, CLICK, 3, 0, UP, 17, 0}));
+        assertTrue(macro(MacroEngine.POLICY_RESTART, TAP, 65, 0).isValid());
+        assertFalse(macro(MacroEngine.POLICY_RESTART, TAP, 0, 0).isValid());
+    }
+
+    @Test
+    void validMacroRunsStepsInOrder() throws Exception {
+        KeyPressedAction action = macro(MacroEngine.POLICY_RESTART,
+                DOWN, 17, 0,
+                TAP, 65, 0,
+                WAIT, 20, 0,
+                MOVE, 5, -3,
+                WHEEL, 2, 0,
+                CLICK, 1, 0,
+                REPEAT, 2, 0, TAP, 66, 0, END, 0, 0);
+        assertTrue(action.isValid());
+        engine.start(action);
+        awaitCondition(() -> engine.getRunningCount() == 0);
+
+        int mouseKeyMask = KeyPressedAction.getMouseKeyMask(1);
+        assertEquals(Arrays.asList(
+                "keyPress 17",
+                "keyPress 65", "keyRelease 65",
+                "mouseMoveBy 5 -3",
+                "mouseWheel 2",
+                "mousePress " + mouseKeyMask, "mouseRelease " + mouseKeyMask,
+                "keyPress 66", "keyRelease 66",
+                "keyPress 66", "keyRelease 66",
+                "keyRelease 17"), injector.getEvents(), "шаги по порядку, удерживаемая клавиша отпущена в конце");
+        assertEquals(1, engine.getStartedCount());
+    }
+
+    @Test
+    void cancelledMacroReleasesHeldKeys() throws Exception {
+        KeyPressedAction action = macro(MacroEngine.POLICY_CANCEL,
+                DOWN, 17, 0,
+                WAIT, 10000, 0,
+                TAP, 65, 0);
+        engine.start(action);
+        awaitCondition(() -> injector.getEvents().size() == 1);
+        engine.start(action);
+        awaitCondition(() -> engine.getRunningCount() == 0);
+
+        assertEquals(Arrays.asList("keyPress 17", "keyRelease 17"), injector.getEvents());
+        assertEquals(1, engine.getCancelledCount());
+    }
+}
@@ -0,0 +1,153 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModuleDiscoveryTest {
+
+    private static final long CACHED_PORT_TIMEOUT_MILLIS = 300;
+
+    @TempDir
+    Path temporaryDirectory;
+
+    /**
+     * Имитация портов: модуль отвечает только на портах из <code>activePorts</code>, остальные порты молчат.
+     * Запоминает порядок открытия портов и закрытые порты.
+     */
+    private static final class SimulatedPorts implements ModuleDiscovery.PortConnector {
+        final List<String> activePorts;
+        final List<String> openedPorts = Collections.synchronizedList(new ArrayList<>());
+        final List<String> closedPorts = Collections.synchronizedList(new ArrayList<>());
+
+        SimulatedPorts(String... activePorts) {
+            this.activePorts = Arrays.asList(activePorts);
+        }
+
+        @Override
+        public IR_moduleConnection connect(String portName) {
+            openedPorts.add(portName);
+            SimulatedIR_module module = new SimulatedIR_module(portName) {
+                @Override
+                public void close() {
+                    closedPorts.add(portName);
+                    super.close();
+                }
+            };
+            module.setHandshakeDelayMillis(activePorts.contains(portName) ? 20 : TimeUnit.HOURS.toMillis(1));
+            return new IR_moduleConnection(module);
+        }
+    }
+
+    private ModuleDiscovery createDiscovery(SimulatedPorts ports, String... portNames) {
+        return new ModuleDiscovery(() -> portNames, ports, temporaryDirectory.resolve("connection.ini").toString(),
+                CACHED_PORT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Выполняет успешный поиск, после которого порт сохраняется как последний успешно подключённый.
+     */
+    private void rememberPort(String portName, String... portNames) {
+        IR_moduleConnection connection = createDiscovery(new SimulatedPorts(portName), portNames).discover(2000);
+        assertNotNull(connection);
+        assertEquals(portName, connection.getPortName());
+        connection.close();
+    }
+
+    @Test
+    void firstDiscoveryProbesAllPortsAndRemembersTheWinner() {
+        SimulatedPorts ports = new SimulatedPorts("COM2");
+        ModuleDiscovery discovery = createDiscovery(ports, "COM1", "COM2", "COM3");
+        IR_moduleConnection connection = discovery.discover(2000);
+        assertNotNull(connection);
+        assertEquals("COM2", connection.getPortName());
+        assertEquals(new HashSet<>(Arrays.asList("COM1", "COM2", "COM3")), new HashSet<>(ports.openedPorts));
+        assertEquals("COM2", createDiscovery(ports, "COM1").getLastPortName());
+        connection.close();
+    }
+
+    @Test
+    void cachedPortHitOpensOnlyThatPort() {
+        rememberPort("COM2", "COM1", "COM2", "COM3");
+        SimulatedPorts ports = new SimulatedPorts("COM2");
+        IR_moduleConnection connection = createDiscovery(ports, "COM1", "COM2", "COM3").discover(2000);
+        assertNotNull(connection);
+        assertEquals("COM2", connection.getPortName());
+        assertEquals(Collections.singletonList("COM2"), ports.openedPorts);
+        assertTrue(ports.closedPorts.isEmpty());
+        connection.close();
+    }
+
+    @Test
+    void cachedPortMissFallsBackToParallelScan() {
+        rememberPort("COM1", "COM1", "COM2", "COM3");
+        SimulatedPorts ports = new SimulatedPorts("COM3");
+        ModuleDiscovery discovery = createDiscovery(ports, "COM1", "COM2", "COM3");
+        long start = System.nanoTime();
+        IR_moduleConnection connection = discovery.discover(2000);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertNotNull(connection);
+        assertEquals("COM3", connection.getPortName());
+        assertEquals("COM1", ports.openedPorts.get(0));
+        assertTrue(elapsedMillis >= CACHED_PORT_TIMEOUT_MILLIS, "кэшированный порт опрашивался " + elapsedMillis + " мс");
+        assertTrue(ports.openedPorts.containsAll(Arrays.asList("COM2", "COM3")));
+        assertEquals("COM3", discovery.getLastPortName());
+        connection.close();
+    }
+
+    @Test
+    void cachedPortMissingFromPortListIsSkipped() {
+        rememberPort("COM1", "COM1", "COM2");
+        SimulatedPorts ports = new SimulatedPorts("COM2");
+        IR_moduleConnection connection = createDiscovery(ports, "COM2").discover(2000);
+        assertNotNull(connection);
+        assertEquals(Collections.singletonList("COM2"), ports.openedPorts);
+        connection.close();
+    }
+
+    @Test
+    void allPortsTimingOutReturnsNullAndClosesEveryPort() throws Exception {
+        rememberPort("COM1", "COM1", "COM2", "COM3");
+        SimulatedPorts ports = new SimulatedPorts();
+        IR_moduleConnection connection = createDiscovery(ports, "COM1", "COM2", "COM3").discover(200);
+        assertNull(connection);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (ports.closedPorts.size() < ports.openedPorts.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, ports.openedPorts.size());
+        assertEquals(new HashSet<>(ports.openedPorts), new HashSet<>(ports.closedPorts));
+        assertEquals(ports.openedPorts.size(), ports.closedPorts.size());
+    }
+
+    @Test
+    void noPortsReturnsNull() {
+        SimulatedPorts ports = new SimulatedPorts();
+        assertNull(createDiscovery(ports).discover(200));
+        assertTrue(createDiscovery(ports).discoverAll(200).isEmpty());
+        assertTrue(ports.openedPorts.isEmpty());
+    }
+
+    @Test
+    void discoverAllReturnsEveryAnsweringModuleWithTheCachedPortFirst() {
+        rememberPort("COM3", "COM1", "COM2", "COM3");
+        SimulatedPorts ports = new SimulatedPorts("COM1", "COM3");
+        List<IR_moduleConnection> connections = createDiscovery(ports, "COM1", "COM2", "COM3").discoverAll(500);
+        assertEquals(2, connections.size());
+        assertEquals("COM3", connections.get(0).getPortName());
+        assertEquals("COM1", connections.get(1).getPortName());
+        for (IR_moduleConnection connection : connections) {
+            connection.close();
+        }
+    }
+}
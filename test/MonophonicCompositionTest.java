@@ -0,0 +1,68 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class MonophonicCompositionTest {
+
+    private static MonophonicComposition createMelody() {
+        MonophonicComposition composition = new MonophonicComposition();
+        composition.addNote(659, 82);
+        composition.addNote(0, 100);
+        composition.addNote(1047, 300);
+        composition.setRepeatationCount(2);
+        return composition;
+    }
+
+    @Test
+    void binaryCommandHasExactLayout() {
+        byte[] expected = {
+                MonophonicComposition.BINARY_PLAY_START,
+                16,                                 // Длина данных: 4 байта заголовка и 3 ноты по 4 байта
+                2,                                  // Количество повторов
+                0, 0,                               // Максимальная длительность не ограничена
+                3,                                  // Количество нот
+                (byte) 0x93, 0x02, 0x52, 0x00,      // 659 Гц, 82 мс
+                0x00, 0x00, 0x64, 0x00,             // Пауза 100 мс
+                0x17, 0x04, 0x2C, 0x01,             // 1047 Гц, 300 мс
+                (byte) 0x98};                       // XOR байтов данных
+        assertArrayEquals(expected, createMelody().getBinaryCommand());
+    }
+
+    @Test
+    void encodedCommandsAreCachedUntilMelodyChanges() {
+        MonophonicComposition composition = createMelody();
+        byte[] binary = composition.getBinaryCommand();
+        byte[] text = composition.getTextCommand();
+        assertSame(binary, composition.getBinaryCommand());
+        assertSame(text, composition.getTextCommand());
+        assertEquals("PLAY:" + composition + "\n", new String(text, StandardCharsets.US_ASCII));
+
+        composition.addNote(440, 50);
+        byte[] changed = composition.getBinaryCommand();
+        assertNotSame(binary, changed);
+        assertEquals(20, changed[1]);
+        assertEquals(4, changed[5]);
+        assertNotSame(text, composition.getTextCommand());
+    }
+
+    @Test
+    void melodyThatDoesNotFitHasNoBinaryCommand() {
+        MonophonicComposition tooLong = new MonophonicComposition();
+        for (int i = 0; i < 63; i++) {
+            tooLong.addNote(440, 50);
+        }
+        assertNull(tooLong.getBinaryCommand());
+        assertNull(new MonophonicComposition(Short.MAX_VALUE + 1, 50).getBinaryCommand());
+        assertNull(new MonophonicComposition(440, -1).getBinaryCommand());
+
+        MonophonicComposition tooManyRepeats = new MonophonicComposition(440, 50);
+        tooManyRepeats.setRepeatationCount(256);
+        assertNull(tooManyRepeats.getBinaryCommand());
+    }
+}
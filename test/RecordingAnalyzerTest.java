@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordingAnalyzerTest {
+
+    @TempDir
+    Path directory;
+
+    private static void putRecord(ByteBuffer buffer, int slot, long time, long code, byte type) {
+        int position = EventRecorder.HEADER_SIZE + slot * EventRecorder.RECORD_SIZE;
+        buffer.putLong(position, time);
+        buffer.putLong(position + 8, code);
+        buffer.put(position + 31, type);
+    }
+
+    private static String analyze(String filePrefix) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+        try {
+            RecordingAnalyzer.main(new String[]{filePrefix});
+        } finally {
+            System.setOut(originalOut);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void reservedButUnwrittenSlotDoesNotHideLaterRecords() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(EventRecorder.HEADER_SIZE + 8 * EventRecorder.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(0, EventRecorder.MAGIC);
+        buffer.putInt(8, EventRecorder.VERSION);
+        buffer.putInt(12, EventRecorder.RECORD_SIZE);
+        buffer.putLong(16, 0);
+        buffer.putLong(24, System.currentTimeMillis());
+        putRecord(buffer, 0, 1000000, 0x4FBB24DL, EventRecorder.TYPE_CODE);
+        // Место 1 выделено потоком, который не успел его записать
+        putRecord(buffer, 2, 2000000, 0x4FBB24DL, EventRecorder.TYPE_CODE);
+        putRecord(buffer, 3, 3000000, 0x4FBD22DL, EventRecorder.TYPE_CODE);
+        String filePrefix = directory.resolve("session").toString();
+        Files.write(EventRecorder.fileOf(filePrefix, 0), buffer.array());
+
+        String report = analyze(filePrefix);
+        assertTrue(report.contains("Записей: 3,"), report);
+        assertTrue(report.contains("4FBD22D"), report);
+    }
+}
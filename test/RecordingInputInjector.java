@@ -0,0 +1,51 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Реализация <code>InputInjector</code> для тестов: запоминает все события ввода в виде строк
+ * вида <code>keyPress 38</code> в порядке их поступления.
+ */
+class RecordingInputInjector implements InputInjector {
+    private final List<String> events = new ArrayList<>();
+
+    private synchronized void record(String event) {
+        events.add(event);
+    }
+
+    @Override
+    public void keyPress(int keyCode) {
+        record("keyPress " + keyCode);
+    }
+
+    @Override
+    public void keyRelease(int keyCode) {
+        record("keyRelease " + keyCode);
+    }
+
+    @Override
+    public void mousePress(int buttonsMask) {
+        record("mousePress " + buttonsMask);
+    }
+
+    @Override
+    public void mouseRelease(int buttonsMask) {
+        record("mouseRelease " + buttonsMask);
+    }
+
+    @Override
+    public void mouseWheel(int wheelAmt) {
+        record("mouseWheel " + wheelAmt);
+    }
+
+    @Override
+    public void mouseMoveBy(int dx, int dy) {
+        record("mouseMoveBy " + dx + " " + dy);
+    }
+
+    /**
+     * @return Копия списка событий, записанных к этому моменту.
+     */
+    synchronized List<String> getEvents() {
+        return new ArrayList<>(events);
+    }
+}
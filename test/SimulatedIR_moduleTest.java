@@ -0,0 +1,128 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimulatedIR_moduleTest {
+
+    private final BlockingQueue<Long> receivedCodes = new LinkedBlockingQueue<>();
+    private SimulatedIR_module module;
+    private IR_moduleConnection connection;
+
+    private IR_moduleConnection connect(SimulatedIR_module module) throws InterruptedException {
+        this.module = module;
+        module.setHandshakeDelayMillis(5);
+        connection = new IR_moduleConnection(module);
+        connection.attachButtonEventListener((buttonCode, ir_module) -> receivedCodes.add(buttonCode));
+        assertTrue(connection.awaitConnected(2000));
+        return connection;
+    }
+
+    private long nextCode() throws InterruptedException {
+        Long code = receivedCodes.poll(2, TimeUnit.SECONDS);
+        assertNotNull(code, "код не получен");
+        return code;
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "условие не выполнилось за 2 с");
+            Thread.sleep(5);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Test
+    void handshakePlaysConnectedMelody() throws Exception {
+        IR_moduleConnection connection = connect(new SimulatedIR_module("SIM1"));
+        assertTrue(connection.isConnected());
+        assertEquals("SIM1", connection.getPortName());
+        awaitCondition(() -> module.getPlayCommandsCount() == 1);
+        assertEquals(1, module.getEmittedFramesCount());
+    }
+
+    @Test
+    void pressAndHoldDeliverCodeAndRepeats() throws Exception {
+        SimulatedIR_module module = new SimulatedIR_module("SIM1");
+        module.setRepeatIntervalMillis(5);
+        connect(module);
+        module.press(0x4FBB24DL, 2);
+        assertEquals(0x4FBB24DL, nextCode());
+        assertEquals(0x4FBB24DL, nextCode());
+        assertEquals(0x4FBB24DL, nextCode());
+        assertNull(receivedCodes.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void rawRepeatsAreSentAsNecRepeatCode() throws Exception {
+        SimulatedIR_module module = new SimulatedIR_module("SIM1");
+        module.setRepeatIntervalMillis(5);
+        module.setSendRawRepeats(true);
+        connect(module);
+        module.press(0x4FBB24DL, 1);
+        assertEquals(0x4FBB24DL, nextCode());
+        assertEquals(SimulatedIR_module.NEC_REPEAT_CODE, nextCode());
+    }
+
+    @Test
+    void legacyFirmwareFramesWithoutDelimiterAreDecoded() throws Exception {
+        SimulatedIR_module module = new SimulatedIR_module("SIM1");
+        module.setLegacyProtocol(true);
+        connect(module);
+        module.press(0x4FBD22DL, 0);
+        assertEquals(0x4FBD22DL, nextCode());
+    }
+
+    @Test
+    void recordedBytesAreReplayedAsIs() throws Exception {
+        connect(new SimulatedIR_module("SIM1"));
+        module.emitRaw("4FBB24D\r\n4FB".getBytes(StandardCharsets.US_ASCII));
+        module.emitRaw("D22D\r\n".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(0x4FBB24DL, nextCode());
+        assertEquals(0x4FBD22DL, nextCode());
+    }
+
+    @Test
+    void pingIsAnsweredOnlyByCurrentFirmware() throws Exception {
+        IR_moduleConnection connection = connect(new SimulatedIR_module("SIM1"));
+        assertFalse(connection.isHeartbeatSupported());
+        assertTrue(connection.sendHeartbeat());
+        awaitCondition(connection::isHeartbeatSupported);
+        connection.close();
+
+        SimulatedIR_module legacy = new SimulatedIR_module("SIM2");
+        legacy.setLegacyProtocol(true);
+        connection = connect(legacy);
+        assertTrue(connection.sendHeartbeat());
+        awaitCondition(() -> "PING".equals(legacy.getLastCommand()));
+        Thread.sleep(50);
+        assertFalse(connection.isHeartbeatSupported());
+    }
+
+    @Test
+    void unplugReportsFailure() throws Exception {
+        IR_moduleConnection connection = connect(new SimulatedIR_module("SIM1"));
+        assertNull(connection.getFailure());
+        module.unplug();
+        assertNotNull(connection.getFailure());
+        module.press(0x4FBB24DL, 0);
+        assertNull(receivedCodes.poll(50, TimeUnit.MILLISECONDS));
+    }
+}
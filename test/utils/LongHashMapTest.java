@@ -0,0 +1,115 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongHashMapTest {
+
+    @Test
+    void putGetAndReplace() {
+        LongHashMap<String> map = new LongHashMap<>();
+        assertNull(map.put(0x4FBB24DL, "up"));
+        assertNull(map.put(0L, "zero"));
+        assertNull(map.put(-1L, "repeat"));
+        assertEquals("up", map.put(0x4FBB24DL, "down"));
+        assertEquals("down", map.get(0x4FBB24DL));
+        assertEquals("zero", map.get(0L));
+        assertEquals("repeat", map.get(-1L));
+        assertNull(map.get(1L));
+        assertTrue(map.containsKey(0L));
+        assertFalse(map.containsKey(1L));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    void nullValuesAreRejected() {
+        assertThrows(NullPointerException.class, () -> new LongHashMap<String>().put(1L, null));
+    }
+
+    @Test
+    void growsPastInitialCapacity() {
+        LongHashMap<Long> map = new LongHashMap<>(1);
+        for (long key = 0; key < 10000; key++) {
+            map.put(key * 31, key);
+        }
+        assertEquals(10000, map.size());
+        for (long key = 0; key < 10000; key++) {
+            assertEquals(key, (long) map.get(key * 31));
+        }
+    }
+
+    @Test
+    void removeShiftsBackCollidingKeys() {
+        // Маленькая таблица и плотный диапазон ключей: цепочки пробирования длинные и переходят через конец массива
+        LongHashMap<Long> map = new LongHashMap<>(4);
+        Map<Long, Long> reference = new HashMap<>();
+        Random random = new Random(42);
+        for (int step = 0; step < 200000; step++) {
+            long key = random.nextInt(64);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(reference.put(key, (long) step), map.put(key, (long) step));
+                    break;
+                case 1:
+                    assertEquals(reference.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(reference.get(key), map.get(key));
+                    break;
+            }
+            assertEquals(reference.size(), map.size());
+        }
+        for (long key = 0; key < 64; key++) {
+            assertEquals(reference.get(key), map.get(key), "ключ " + key);
+        }
+    }
+
+    @Test
+    void removingEveryKeyLeavesEmptyTable() {
+        LongHashMap<Long> map = new LongHashMap<>();
+        List<Long> keys = new ArrayList<>();
+        for (long key = 0; key < 1000; key++) {
+            keys.add(key << 20);
+            map.put(key << 20, key);
+        }
+        Collections.shuffle(keys, new Random(7));
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(keys.get(i) >> 20, (long) map.remove(keys.get(i)));
+            assertNull(map.remove(keys.get(i)));
+            for (int j = i + 1; j < keys.size(); j += 97) {
+                assertEquals(keys.get(j) >> 20, (long) map.get(keys.get(j)));
+            }
+        }
+        assertEquals(0, map.size());
+        assertTrue(map.values().isEmpty());
+    }
+
+    @Test
+    void clearAndValues() {
+        LongHashMap<String> map = new LongHashMap<>();
+        map.put(1L, "a");
+        map.put(2L, "b");
+        List<String> values = map.values();
+        Collections.sort(values);
+        assertEquals(2, values.size());
+        assertEquals("a", values.get(0));
+        assertEquals("b", values.get(1));
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(1L));
+        map.put(1L, "c");
+        assertEquals("c", map.get(1L));
+    }
+}
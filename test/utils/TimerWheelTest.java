@@ -0,0 +1,98 @@
+package utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest {
+
+    private final TimerWheel timerWheel = new TimerWheel("timer-wheel-test", 1, 8);
+
+    @AfterEach
+    void closeTimerWheel() {
+        timerWheel.close();
+    }
+
+    @Test
+    void timeoutExpiresNotBeforeItsDelay() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        long[] elapsedMillis = new long[1];
+        TimerWheel.Timeout timeout = timerWheel.schedule(() -> {
+            elapsedMillis[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            expired.countDown();
+        }, 30);
+        assertTrue(expired.await(2, TimeUnit.SECONDS));
+        assertTrue(elapsedMillis[0] >= 30, elapsedMillis[0] + " мс");
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+        assertFalse(timeout.isCancelled());
+    }
+
+    @Test
+    void delaysLongerThanOneRoundOfTheWheelExpireInOrder() throws Exception {
+        // Колесо из 8 ячеек по 1 мс: таймеры на 5, 20 и 45 мс попадают в разные обороты
+        List<Integer> order = new ArrayList<>();
+        CountDownLatch expired = new CountDownLatch(3);
+        for (int delay : new int[]{45, 5, 20}) {
+            timerWheel.schedule(() -> {
+                synchronized (order) {
+                    order.add(delay);
+                }
+                expired.countDown();
+            }, delay);
+        }
+        assertTrue(expired.await(2, TimeUnit.SECONDS));
+        synchronized (order) {
+            assertEquals(5, (int) order.get(0));
+            assertEquals(20, (int) order.get(1));
+            assertEquals(45, (int) order.get(2));
+        }
+    }
+
+    @Test
+    void cancelledTimeoutNeverRuns() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch laterExpired = new CountDownLatch(1);
+        TimerWheel.Timeout timeout = timerWheel.schedule(runs::incrementAndGet, 20);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        timerWheel.schedule(laterExpired::countDown, 40);
+        assertTrue(laterExpired.await(2, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+        assertFalse(timeout.isExpired());
+    }
+
+    @Test
+    void manyTimeoutsCanBeCancelledSelectively() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        List<TimerWheel.Timeout> timeouts = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            timeouts.add(timerWheel.schedule(runs::incrementAndGet, 30 + i % 20));
+        }
+        int cancelledCount = 0;
+        for (int i = 0; i < timeouts.size(); i += 2) {
+            if (timeouts.get(i).cancel()) {
+                cancelledCount++; // Таймер мог успеть сработать до отмены
+            }
+        }
+        CountDownLatch laterExpired = new CountDownLatch(1);
+        timerWheel.schedule(laterExpired::countDown, 120);
+        assertTrue(laterExpired.await(2, TimeUnit.SECONDS));
+        assertTrue(cancelledCount > 0);
+        assertEquals(timeouts.size() - cancelledCount, runs.get());
+        for (int i = 0; i < timeouts.size(); i++) {
+            assertTrue(timeouts.get(i).isExpired() != timeouts.get(i).isCancelled());
+        }
+    }
+}
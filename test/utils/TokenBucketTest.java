@@ -0,0 +1,93 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void fullBucketPassesBurstThenRefillsOneTokenPerInterval() {
+        TokenBucket bucket = new TokenBucket(100, 3);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now + 50 * MILLIS));
+        assertTrue(bucket.tryAcquire(now + 100 * MILLIS));
+        assertFalse(bucket.tryAcquire(now + 100 * MILLIS));
+        assertEquals(3, bucket.getDroppedCount());
+    }
+
+    @Test
+    void idleBucketDoesNotSaveMoreThanBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+        long later = System.nanoTime() + 10000 * MILLIS;
+        assertTrue(bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later));
+        assertFalse(bucket.tryAcquire(later));
+    }
+
+    @Test
+    void refundReturnsTheLastToken() {
+        TokenBucket bucket = new TokenBucket(1000, 1);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+        bucket.refund();
+        assertTrue(bucket.tryAcquire(now));
+    }
+
+    @Test
+    void zeroIntervalNeverDrops() {
+        TokenBucket bucket = new TokenBucket(0, 1);
+        long now = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(bucket.tryAcquire(now));
+        }
+        assertEquals(0, bucket.getDroppedCount());
+    }
+
+    @Test
+    void concurrentAcquiresNeverExceedBurst() throws Exception {
+        int threadsCount = 8, attempts = 10000, burst = 100;
+        TokenBucket bucket = new TokenBucket(TimeUnit.HOURS.toMillis(1), burst);
+        long now = System.nanoTime();
+        AtomicInteger passed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadsCount; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < attempts; i++) {
+                    if (bucket.tryAcquire(now)) {
+                        passed.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(burst, passed.get());
+        assertEquals((long) threadsCount * attempts - burst, bucket.getDroppedCount());
+    }
+}
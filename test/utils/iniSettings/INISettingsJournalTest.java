@@ -0,0 +1,115 @@
+package utils.iniSettings;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class INISettingsJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private static INISettingsSection section(String name, String key, String value) throws Exception {
+        INISettingsSection section = new INISettingsSection(name);
+        section.addField(new INISettingsRecord(key, value));
+        return section;
+    }
+
+    private static INISettings parse(String text) throws Exception {
+        INISettings settings = new INISettings();
+        settings.importFrom(new StringReader(text));
+        return settings;
+    }
+
+    private static String valueOf(INISettings settings, String sectionName, String key) throws Exception {
+        return settings.getSectionByName(sectionName).getFieldByKey(key).getValue();
+    }
+
+    private void appendRaw(Path file, String text) throws Exception {
+        Files.write(file, text.getBytes(Charset.defaultCharset()), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Test
+    void missingJournalReplaysNothing() throws Exception {
+        INISettings settings = parse("[A]\nx=1\n");
+        INISettingsJournal journal = new INISettingsJournal(directory.resolve("actions.ini.journal"));
+        assertEquals(0, journal.replayInto(settings));
+        assertEquals("[A]\nx=1\n", settings.toString());
+    }
+
+    @Test
+    void appendedSectionsReplayInOrder() throws Exception {
+        Path file = directory.resolve("actions.ini.journal");
+        try (INISettingsJournal journal = new INISettingsJournal(file)) {
+            journal.append(section("A", "x", "2"));
+            journal.append(section("B", "y", "1"));
+            journal.append(section("A", "x", "3"));
+            assertEquals(3, journal.getEntriesCount());
+        }
+        INISettings settings = parse("[A]\nx=1\n");
+        INISettingsJournal journal = new INISettingsJournal(file);
+        assertEquals(3, journal.replayInto(settings));
+        assertEquals("3", valueOf(settings, "A", "x"));
+        assertEquals("1", valueOf(settings, "B", "y"));
+        assertEquals(3, journal.getEntriesCount());
+    }
+
+    @Test
+    void tornLastEntryIsIgnored() throws Exception {
+        Path file = directory.resolve("actions.ini.journal");
+        try (INISettingsJournal journal = new INISettingsJournal(file)) {
+            journal.append(section("A", "x", "2"));
+        }
+        appendRaw(file, "[A]\nx=9\n;comm");
+        INISettings settings = parse("[A]\nx=1\n");
+        assertEquals(1, new INISettingsJournal(file).replayInto(settings));
+        assertEquals("2", valueOf(settings, "A", "x"));
+    }
+
+    @Test
+    void appendAfterTornEntryDoesNotMergeWithIt() throws Exception {
+        Path file = directory.resolve("actions.ini.journal");
+        appendRaw(file, "[B]\ny=torn");
+        try (INISettingsJournal journal = new INISettingsJournal(file)) {
+            journal.append(section("A", "x", "2"));
+        }
+        INISettings settings = parse("[A]\nx=1\n");
+        assertEquals(1, new INISettingsJournal(file).replayInto(settings));
+        assertEquals("2", valueOf(settings, "A", "x"));
+        assertEquals(1, settings.getSections().size());
+    }
+
+    @Test
+    void compactReplacesSnapshotAndEmptiesJournal() throws Exception {
+        Path snapshot = directory.resolve("actions.ini");
+        Path file = directory.resolve("actions.ini.journal");
+        Files.write(snapshot, "[A]\nx=1\n".getBytes(Charset.defaultCharset()));
+        INISettings settings = new INISettings();
+        settings.loadFromFile(snapshot);
+        try (INISettingsJournal journal = new INISettingsJournal(file)) {
+            INISettingsSection changed = section("A", "x", "2");
+            journal.append(changed);
+            settings.updateSection(changed);
+            journal.compact(settings, snapshot);
+            assertEquals(0, journal.getEntriesCount());
+            journal.append(section("B", "y", "1"));
+        }
+        INISettings restored = new INISettings();
+        restored.loadFromFile(snapshot);
+        assertEquals("[A]\nx=2\n", restored.toString());
+        assertEquals(1, new INISettingsJournal(file).replayInto(restored));
+        assertEquals("1", valueOf(restored, "B", "y"));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertFalse(files.anyMatch(path -> path.toString().endsWith(".tmp")));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package utils.iniSettings;
+
+import org.junit.jupiter.api.Test;
+import utils.iniSettings.exceptions.DuplicateSectionException;
+import utils.iniSettings.exceptions.NotFoundException;
+import utils.iniSettings.exceptions.RecordParsingException;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class INISettingsTest {
+
+    private static INISettings parse(String text) throws Exception {
+        INISettings settings = new INISettings();
+        settings.importFrom(new StringReader(text));
+        return settings;
+    }
+
+    private static List<String> sectionNames(INISettings settings) {
+        List<String> names = new ArrayList<>();
+        for (INISettingsSection section : settings.getSections()) {
+            names.add(section.getSectionName());
+        }
+        return names;
+    }
+
+    @Test
+    void sectionsKeepFileOrderAndAreFoundByName() throws Exception {
+        INISettings settings = parse("; комментарий\norphan=1\n[4FBB24D]\nactionId = 1\n param_0=38 \n\n[ 4FBD22D ]\nactionId=3\nempty=\n");
+        assertEquals(Arrays.asList("4FBB24D", "4FBD22D"), sectionNames(settings));
+        assertEquals("38", settings.getSectionByName("4FBB24D").getFieldByKey("param_0").getValue());
+        assertEquals("3", settings.getSectionByName("4FBD22D").getFieldByKey("actionId").getValue());
+        assertEquals("", settings.getSectionByName("4FBD22D").getFieldByKey("empty").getValue());
+        assertThrows(NotFoundException.class, () -> settings.getSectionByName("orphan"));
+        assertThrows(NotFoundException.class, () -> settings.getSectionByName("4FBB24D").getFieldByKey("missing"));
+    }
+
+    @Test
+    void updateSectionReplacesInPlaceOrAppends() throws Exception {
+        INISettings settings = parse("[A]\nx=1\n[B]\nx=2\n");
+        INISettingsSection replacement = new INISettingsSection("A");
+        replacement.addField(new INISettingsRecord("x", "3"));
+        settings.updateSection(replacement);
+        settings.updateSection(new INISettingsSection("C"));
+        assertEquals(Arrays.asList("A", "B", "C"), sectionNames(settings));
+        assertEquals("3", settings.getSectionByName("A").getFieldByKey("x").getValue());
+    }
+
+    @Test
+    void writtenTextParsesBackToTheSameSettings() throws Exception {
+        String text = "[A]\nx=1\ny=two words\n[B]\nz=\n";
+        assertEquals(text, parse(text).toString());
+        assertEquals(text, parse(parse(text).toString()).toString());
+    }
+
+    @Test
+    void malformedHeaderReportsItsLineNumber() {
+        RecordParsingException e = assertThrows(RecordParsingException.class, () -> parse("[A]\nx=1\n[B\n"));
+        assertEquals(3, e.getLineNumber());
+    }
+
+    @Test
+    void emptyKeyReportsItsLineNumber() {
+        RecordParsingException e = assertThrows(RecordParsingException.class, () -> parse("[A]\n=1\n"));
+        assertEquals(2, e.getLineNumber());
+    }
+
+    @Test
+    void duplicateSectionReportsBothLineNumbers() {
+        DuplicateSectionException e = assertThrows(DuplicateSectionException.class,
+                () -> parse("[4FBB24D]\nactionId=1\n[4FBD22D]\nactionId=2\n[4FBB24D]\nactionId=3\n"));
+        assertEquals(5, e.getLineNumber());
+        assertEquals(1, e.getFirstLineNumber());
+        assertEquals("4FBB24D", e.getSectionName());
+    }
+
+    @Test
+    void failedImportKeepsPreviousSections() throws Exception {
+        INISettings settings = parse("[A]\nx=1\n");
+        assertThrows(DuplicateSectionException.class, () -> settings.importFrom(new StringReader("[B]\n[B]\n")));
+        assertEquals(Arrays.asList("A"), sectionNames(settings));
+    }
+}